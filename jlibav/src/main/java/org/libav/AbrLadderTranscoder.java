@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PictureType;
+import org.libav.avutil.PixelFormat;
+import org.libav.data.IFrameConsumer;
+import org.libav.util.concurrent.Execution;
+import org.libav.video.FrameScaler;
+
+/**
+ * Adaptive bit rate ladder transcoder. Each source frame is decoded only 
+ * once and it is fanned out to all renditions. A rendition is scaled from 
+ * the nearest larger rendition (or from the source frame if there is no 
+ * such rendition) and all renditions are scaled and encoded in parallel 
+ * worker threads. Key frames are forced at the same timestamps in all 
+ * renditions so that they can be segmented at the same positions.
+ * 
+ * Only the first video stream and the first audio stream of the source are
+ * transcoded. Audio is decoded once and encoded for each rendition.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AbrLadderTranscoder {
+    
+    private final String srcUrl;
+    private final List<Rendition> renditions;
+    
+    private CodecID videoCodecId;
+    private int gopSize;
+    private long keyFrameInterval;
+    
+    private CodecID audioCodecId;
+    private int audioBitRate;
+    
+    private long nextKeyFrame;
+    private ExecutorService executor;
+    
+    /**
+     * Create a new ladder transcoder.
+     * 
+     * @param srcUrl a source media URL
+     */
+    public AbrLadderTranscoder(String srcUrl) {
+        this.srcUrl = srcUrl;
+        this.renditions = new ArrayList<Rendition>();
+        
+        videoCodecId = CodecID.MPEG4;
+        gopSize = 250;
+        keyFrameInterval = 2000;
+        
+        audioCodecId = CodecID.MP2;
+        audioBitRate = 0;
+    }
+    
+    /**
+     * Add a new rendition.
+     * 
+     * @param dstUrl a destination media URL
+     * @param dstFormat a destination format name (it may be null)
+     * @param width video width
+     * @param height video height
+     * @param bitRate video bit rate (0 means the encoder default)
+     * @return index of the rendition
+     */
+    public int addRendition(String dstUrl, String dstFormat, int width, int height, int bitRate) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("illegal rendition size");
+        
+        renditions.add(new Rendition(dstUrl, dstFormat, width, height, bitRate));
+        return renditions.size() - 1;
+    }
+    
+    /**
+     * Get number of renditions.
+     * 
+     * @return number of renditions
+     */
+    public int getRenditionCount() {
+        return renditions.size();
+    }
+
+    /**
+     * Get output video codec.
+     * 
+     * @return video codec ID
+     */
+    public CodecID getVideoCodecId() {
+        return videoCodecId;
+    }
+
+    /**
+     * Set output video codec.
+     * 
+     * @param videoCodecId a video codec ID
+     */
+    public void setVideoCodecId(CodecID videoCodecId) {
+        if (videoCodecId == null)
+            throw new IllegalArgumentException("video codec is required");
+        
+        this.videoCodecId = videoCodecId;
+    }
+
+    /**
+     * Get maximum GOP size of the video encoders.
+     * 
+     * @return GOP size in frames
+     */
+    public int getGopSize() {
+        return gopSize;
+    }
+
+    /**
+     * Set maximum GOP size of the video encoders. It should be greater than
+     * the number of frames within the key frame interval, otherwise
+     * the encoders insert additional (unaligned) key frames.
+     * 
+     * @param gopSize GOP size in frames
+     */
+    public void setGopSize(int gopSize) {
+        this.gopSize = gopSize;
+    }
+
+    /**
+     * Get interval of the aligned key frames.
+     * 
+     * @return interval in milliseconds
+     */
+    public long getKeyFrameInterval() {
+        return keyFrameInterval;
+    }
+
+    /**
+     * Set interval of the aligned key frames. The first frame with PTS 
+     * greater than or equal to each multiple of the interval is encoded as 
+     * a key frame in all renditions.
+     * 
+     * @param keyFrameInterval interval in milliseconds
+     */
+    public void setKeyFrameInterval(long keyFrameInterval) {
+        if (keyFrameInterval <= 0)
+            throw new IllegalArgumentException("key frame interval must be positive");
+        
+        this.keyFrameInterval = keyFrameInterval;
+    }
+
+    /**
+     * Get output audio codec.
+     * 
+     * @return audio codec ID
+     */
+    public CodecID getAudioCodecId() {
+        return audioCodecId;
+    }
+
+    /**
+     * Set output audio codec. Set null to drop the audio stream.
+     * 
+     * @param audioCodecId an audio codec ID
+     */
+    public void setAudioCodecId(CodecID audioCodecId) {
+        this.audioCodecId = audioCodecId;
+    }
+
+    /**
+     * Get output audio bit rate.
+     * 
+     * @return audio bit rate (0 means the encoder default)
+     */
+    public int getAudioBitRate() {
+        return audioBitRate;
+    }
+
+    /**
+     * Set output audio bit rate.
+     * 
+     * @param audioBitRate a bit rate (0 means the encoder default)
+     */
+    public void setAudioBitRate(int audioBitRate) {
+        this.audioBitRate = audioBitRate;
+    }
+    
+    /**
+     * Transcode the source into all renditions.
+     * 
+     * @throws LibavException if an error occurs
+     */
+    public void transcode() throws LibavException {
+        if (renditions.isEmpty())
+            throw new LibavException("no renditions");
+        
+        IMediaDecoder md = null;
+        List<Rendition> ladder = new ArrayList<Rendition>(renditions);
+        
+        try {
+            md = new DefaultMediaDecoder(srcUrl);
+            IMediaReader mr = md.getMediaReader();
+            if (mr.getVideoStreamCount() == 0)
+                throw new LibavException("no video stream");
+            
+            md.setVideoStreamDecodingEnabled(0, true);
+            IDecoder vDec = md.getVideoStreamDecoder(0);
+            ICodecContextWrapper cc = vDec.getCodecContext();
+            
+            IDecoder aDec = null;
+            if (audioCodecId != null && mr.getAudioStreamCount() > 0) {
+                md.setAudioStreamDecodingEnabled(0, true);
+                aDec = md.getAudioStreamDecoder(0);
+            }
+            
+            int[] widths = new int[renditions.size()];
+            int[] heights = new int[renditions.size()];
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = renditions.get(i).width;
+                heights[i] = renditions.get(i).height;
+            }
+            
+            // parents precede their children in the ladder
+            int[][] plan = planLadder(widths, heights);
+            for (int i = 0; i < plan.length; i++) {
+                ladder.set(i, renditions.get(plan[i][0]));
+                ladder.get(i).open(plan[i][1] < 0 ? null : renditions.get(plan[i][1]), mr, cc.getWidth(), cc.getHeight(), cc.getPixelFormat(), aDec != null);
+            }
+            
+            executor = Executors.newFixedThreadPool(ladder.size(), Execution.getThreadFactory(Execution.TRANSCODER, "AbrLadderWorker-%d", true));
+            nextKeyFrame = 0;
+            vDec.addFrameConsumer(new VideoFanOut(ladder));
+            if (aDec != null)
+                aDec.addFrameConsumer(new AudioFanOut(ladder));
+            
+            while (mr.readNextPacket());
+            
+            md.flush();
+            for (Rendition r : ladder)
+                r.finish();
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+            executor = null;
+            
+            for (Rendition r : ladder)
+                r.close();
+            if (md != null)
+                md.close();
+        }
+    }
+    
+    /**
+     * Sort renditions of the given sizes from the largest one and find 
+     * the parent of each rendition, i.e. the smallest larger rendition 
+     * which is not smaller in any dimension. Parents precede their children
+     * in the returned order.
+     * 
+     * @param widths rendition widths
+     * @param heights rendition heights
+     * @return {rendition index, parent index or -1 if the rendition is 
+     * scaled from the source} pairs in the ladder order
+     */
+    static int[][] planLadder(final int[] widths, final int[] heights) {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < widths.length; i++)
+            order.add(i);
+        
+        // larger renditions first (the sort is stable)
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer r1, Integer r2) {
+                long a1 = (long)widths[r1] * heights[r1];
+                long a2 = (long)widths[r2] * heights[r2];
+                return a1 < a2 ? 1 : (a1 > a2 ? -1 : 0);
+            }
+        });
+        
+        int[][] result = new int[order.size()][];
+        for (int i = 0; i < result.length; i++) {
+            int r = order.get(i);
+            int parent = -1;
+            for (int j = 0; j < i; j++) {
+                int p = order.get(j);
+                if (widths[p] >= widths[r] && heights[p] >= heights[r])
+                    parent = p;
+            }
+            result[i] = new int[] { r, parent };
+        }
+        
+        return result;
+    }
+    
+    private boolean isKeyFrame(long pts) {
+        if (pts < nextKeyFrame)
+            return false;
+        
+        while (nextKeyFrame <= pts)
+            nextKeyFrame += keyFrameInterval;
+        
+        return true;
+    }
+    
+    /**
+     * Scales and encodes decoded video frames for all renditions.
+     */
+    private class VideoFanOut implements IFrameConsumer {
+        private final List<Rendition> ladder;
+        private final List<Callable<Void>> tasks;
+
+        public VideoFanOut(List<Rendition> ladder) {
+            this.ladder = ladder;
+            this.tasks = new ArrayList<Callable<Void>>();
+            for (Rendition r : ladder)
+                tasks.add(r);
+        }
+        
+        @Override
+        public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+            boolean keyFrame = isKeyFrame(frame.getPts());
+            for (Rendition r : ladder)
+                r.prepare(frame, keyFrame);
+            
+            List<Future<Void>> results;
+            try {
+                // the pool has a thread for each rendition, so the children
+                // cannot block their parents
+                results = executor.invokeAll(tasks);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new LibavException("interrupted while encoding renditions");
+            }
+            
+            for (Future<Void> f : results) {
+                try {
+                    f.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new LibavException("interrupted while encoding renditions");
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof LibavException)
+                        throw (LibavException)ex.getCause();
+                    throw new LibavException("unable to encode rendition: " + ex.getCause());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Encodes decoded audio frames for all renditions.
+     */
+    private static class AudioFanOut implements IFrameConsumer {
+        private final List<Rendition> ladder;
+
+        public AudioFanOut(List<Rendition> ladder) {
+            this.ladder = ladder;
+        }
+        
+        @Override
+        public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+            for (Rendition r : ladder)
+                r.audioEncoder.processFrame(this, frame);
+        }
+    }
+    
+    /**
+     * A single rendition of the ladder.
+     */
+    private class Rendition implements Callable<Void>, IFrameConsumer {
+        private final String url;
+        private final String format;
+        private final int width;
+        private final int height;
+        private final int bitRate;
+        
+        private Rendition parent;
+        private IMediaEncoder encoder;
+        private IEncoder videoEncoder;
+        private IEncoder audioEncoder;
+        private FrameScaler scaler;
+        
+        private IFrameWrapper source;
+        private IFrameWrapper picture;
+        private long pts;
+        private boolean keyFrame;
+        private CountDownLatch scaled;
+
+        public Rendition(String url, String format, int width, int height, int bitRate) {
+            this.url = url;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.bitRate = bitRate;
+        }
+        
+        public void open(Rendition parent, IMediaReader mr, int srcWidth, int srcHeight, PixelFormat pixelFormat, boolean audio) throws LibavException {
+            this.parent = parent;
+            
+            encoder = new DefaultMediaEncoder(url, format);
+            IMediaWriter mw = encoder.getMediaWriter();
+            
+            int si = mw.addVideoStream(videoCodecId, width, height);
+            ICodecContextWrapper cc = mw.getVideoStream(si).getCodecContext();
+            cc.setPixelFormat(pixelFormat);
+            cc.setGopSize(gopSize);
+            if (bitRate > 0)
+                cc.setBitRate(bitRate);
+            videoEncoder = encoder.getVideoStreamEncoder(si);
+            
+            if (audio) {
+                ICodecContextWrapper acc = mr.getAudioStream(0).getCodecContext();
+                si = mw.addAudioStream(audioCodecId, acc.getSampleRate(), acc.getSampleFormat(), acc.getChannels());
+                if (audioBitRate > 0)
+                    mw.getAudioStream(si).getCodecContext().setBitRate(audioBitRate);
+                audioEncoder = encoder.getAudioStreamEncoder(si);
+            }
+            
+            if (parent == null)
+                scaler = new FrameScaler(srcWidth, srcHeight, pixelFormat, width, height, pixelFormat);
+            else
+                scaler = new FrameScaler(parent.width, parent.height, pixelFormat, width, height, pixelFormat);
+            scaler.addFrameConsumer(this);
+            
+            mw.writeHeader();
+        }
+        
+        public void prepare(IFrameWrapper frame, boolean keyFrame) {
+            this.source = frame;
+            this.pts = frame.getPts();
+            this.keyFrame = keyFrame;
+            this.scaled = new CountDownLatch(1);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                IFrameWrapper src = source;
+                if (parent != null) {
+                    parent.scaled.await();
+                    src = parent.picture;
+                    if (src == null)
+                        throw new LibavException("parent rendition failed");
+                }
+                
+                picture = null;
+                scaler.processFrame(this, src);
+            } finally {
+                scaled.countDown();
+            }
+            
+            return null;
+        }
+
+        @Override
+        public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+            // the parent encoder may change PTS of its picture while it is
+            // being scaled
+            frame.setPts(pts);
+            frame.setPictureType(keyFrame ? PictureType.I : null);
+            picture = frame;
+            scaled.countDown();
+            
+            videoEncoder.processFrame(this, frame);
+        }
+        
+        public void finish() throws LibavException {
+            encoder.flush();
+            encoder.getMediaWriter().writeTrailer();
+        }
+        
+        public void close() {
+            try {
+                if (encoder != null)
+                    encoder.close();
+            } catch (LibavException ex) {
+                Logger.getLogger(AbrLadderTranscoder.class.getName()).log(Level.WARNING, "unable to close rendition encoder", ex);
+            }
+            if (scaler != null)
+                scaler.dispose();
+            
+            encoder = null;
+            scaler = null;
+        }
+    }
+    
+}
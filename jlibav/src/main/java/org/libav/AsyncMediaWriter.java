@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IIOContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.SampleFormat;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.data.PacketPool;
+import org.libav.util.Buffer;
+import org.libav.util.Rational;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Write-behind media writer. Packets passed to the processPacket() method 
+ * are cloned into pooled packets and put into a bounded queue. A dedicated
+ * muxing thread interleaves them by DTS and writes them to the underlaying
+ * media writer (with the Libav interleaving disabled), so the calling 
+ * (encoder) thread does not wait for the muxer and the output IO unless 
+ * the queue is full.
+ * 
+ * The interleaving buffer is bounded. If it holds more data than the given
+ * limit, the packets are written regardless of the other streams. The output 
+ * IO context is flushed periodically. The writeTrailer() method waits until 
+ * all queued packets are written.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AsyncMediaWriter implements IMediaWriter {
+    
+    /**
+     * Default capacity of the muxing queue (in packets).
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 512;
+    
+    /**
+     * Default size limit of the interleaving buffer (in bytes).
+     */
+    public static final int DEFAULT_MAX_INTERLEAVE_SIZE = 4 * 1024 * 1024;
+    
+    /**
+     * Default IO flush interval (in milliseconds).
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    
+    private final IMediaWriter mw;
+    private final PacketPool packetPool;
+    private final Buffer<Object> queue;
+    
+    private boolean interleave;
+    private volatile int maxInterleaveSize;
+    private volatile long flushInterval;
+    
+    private volatile Exception error;
+    
+    private final Thread muxer;
+    private final MuxingThread muxingThread;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter forcedWrites;
+    private final ICounter flushes;
+    
+    /**
+     * Create a new write-behind writer for the given media writer using 
+     * the default queue capacity.
+     * 
+     * @param mw a media writer
+     */
+    public AsyncMediaWriter(IMediaWriter mw) {
+        this(mw, DEFAULT_QUEUE_CAPACITY);
+    }
+    
+    /**
+     * Create a new write-behind writer for the given media writer.
+     * 
+     * @param mw a media writer
+     * @param queueCapacity capacity of the muxing queue (in packets)
+     */
+    public AsyncMediaWriter(IMediaWriter mw, int queueCapacity) {
+        this.mw = mw;
+        
+        interleave = mw.getInterleave();
+        mw.setInterleave(false);
+        
+        packetPool = new PacketPool();
+        queue = new Buffer<Object>(queueCapacity);
+        maxInterleaveSize = DEFAULT_MAX_INTERLEAVE_SIZE;
+        flushInterval = DEFAULT_FLUSH_INTERVAL;
+        error = null;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("async-writer");
+        forcedWrites = metrics.counter(metricPrefix + "forcedWrites");
+        flushes = metrics.counter(metricPrefix + "flushes");
+        metrics.gauge(metricPrefix + "queued", new IGauge() {
+            @Override
+            public long getValue() {
+                return queue.getItemCount();
+            }
+        });
+        
+        muxingThread = new MuxingThread();
+        metrics.gauge(metricPrefix + "interleaveSize", new IGauge() {
+            @Override
+            public long getValue() {
+                return muxingThread.interleaveSize;
+            }
+        });
+        
+        muxer = Execution.newThread(Execution.ASYNC_WRITER, muxingThread, metricPrefix.substring(0, metricPrefix.length() - 1), true);
+        muxer.start();
+    }
+    
+    /**
+     * Get the underlaying media writer.
+     * 
+     * @return media writer
+     */
+    public IMediaWriter getMediaWriter() {
+        return mw;
+    }
+    
+    /**
+     * Get size limit of the interleaving buffer.
+     * 
+     * @return size limit in bytes
+     */
+    public int getMaxInterleaveSize() {
+        return maxInterleaveSize;
+    }
+    
+    /**
+     * Set size limit of the interleaving buffer. If the buffered packets 
+     * exceed the limit, the packet with the lowest DTS is written even if 
+     * some streams have no packets buffered.
+     * 
+     * @param maxInterleaveSize size limit in bytes
+     */
+    public void setMaxInterleaveSize(int maxInterleaveSize) {
+        this.maxInterleaveSize = maxInterleaveSize;
+    }
+    
+    /**
+     * Get IO flush interval.
+     * 
+     * @return flush interval in milliseconds
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+    
+    /**
+     * Set IO flush interval. The output IO context is flushed when the given
+     * time elapses since the last flush. If the interval is 0, the IO is 
+     * flushed after every packet. If it is negative, the IO is flushed only
+     * by the flush() and writeTrailer() methods.
+     * 
+     * @param flushInterval flush interval in milliseconds
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+    
+    /**
+     * Get number of packets waiting in the muxing queue.
+     * 
+     * @return number of queued packets
+     */
+    public int getQueuedPacketCount() {
+        return queue.getItemCount();
+    }
+    
+    @Override
+    public IFormatContextWrapper getFormatContext() {
+        return mw.getFormatContext();
+    }
+    
+    @Override
+    public synchronized boolean getInterleave() {
+        return interleave;
+    }
+    
+    @Override
+    public synchronized void setInterleave(boolean interleave) {
+        this.interleave = interleave;
+    }
+    
+    @Override
+    public int getStreamCount() {
+        return mw.getStreamCount();
+    }
+    
+    @Override
+    public IStreamWrapper getStream(int streamIndex) {
+        return mw.getStream(streamIndex);
+    }
+    
+    @Override
+    public int getVideoStreamCount() {
+        return mw.getVideoStreamCount();
+    }
+    
+    @Override
+    public int addVideoStream(CodecID codecId, int width, int height) throws LibavException {
+        return mw.addVideoStream(codecId, width, height);
+    }
+    
+    @Override
+    public IStreamWrapper getVideoStream(int videoStreamIndex) {
+        return mw.getVideoStream(videoStreamIndex);
+    }
+    
+    @Override
+    public int getAudioStreamCount() {
+        return mw.getAudioStreamCount();
+    }
+    
+    @Override
+    public int addAudioStream(CodecID codecId, int sampleRate, SampleFormat sampleFormat, int channelCount) throws LibavException {
+        return mw.addAudioStream(codecId, sampleRate, sampleFormat, channelCount);
+    }
+    
+    @Override
+    public IStreamWrapper getAudioStream(int audioStreamIndex) {
+        return mw.getAudioStream(audioStreamIndex);
+    }
+    
+    @Override
+    public void writeHeader() throws LibavException {
+        mw.writeHeader();
+    }
+    
+    @Override
+    public void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+        checkError();
+        
+        IPacketWrapper pw = packetPool.clonePacket(packet);
+        try {
+            queue.waitPut(pw);
+        } catch (InterruptedException ex) {
+            pw.free();
+            Thread.currentThread().interrupt();
+            throw new LibavException("interrupted while waiting for the muxing queue", ex);
+        }
+    }
+    
+    /**
+     * Wait until all queued packets (including the packets in 
+     * the interleaving buffer) are written and flush the output IO context.
+     * 
+     * @throws LibavException if an error occurred while writing packets
+     */
+    public void flush() throws LibavException {
+        CountDownLatch barrier = new CountDownLatch(1);
+        
+        try {
+            queue.waitPut(barrier);
+            barrier.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LibavException("interrupted while waiting for the muxing thread", ex);
+        }
+        
+        checkError();
+    }
+    
+    private void checkError() throws LibavException {
+        Exception ex = error;
+        if (ex instanceof RuntimeException)
+            throw (RuntimeException)ex;
+        else if (ex != null)
+            throw new LibavException("writing of a queued packet failed", ex);
+    }
+    
+    @Override
+    public void writeTrailer() throws LibavException {
+        if (isClosed())
+            return;
+        
+        flush();
+        mw.writeTrailer();
+        flushIO();
+    }
+    
+    private void flushIO() {
+        IFormatContextWrapper fc = mw.getFormatContext();
+        IIOContextWrapper io = fc == null ? null : fc.getIOContext();
+        if (io != null) {
+            io.flush();
+            flushes.increment();
+        }
+    }
+    
+    @Override
+    public String getSdp() throws LibavException {
+        return mw.getSdp();
+    }
+    
+    @Override
+    public void createSdpFile(String fileName) throws LibavException, FileNotFoundException {
+        mw.createSdpFile(fileName);
+    }
+    
+    /**
+     * Stop the muxing thread and close the underlaying media writer. Packets
+     * which have not been written yet are dropped. Call the writeTrailer() 
+     * method before to write them.
+     * 
+     * @throws LibavException if the media writer cannot be closed
+     */
+    @Override
+    public void close() throws LibavException {
+        muxingThread.stop();
+        muxer.interrupt();
+        try {
+            muxer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        
+        Object o;
+        while ((o = queue.get()) != null) {
+            if (o instanceof IPacketWrapper)
+                ((IPacketWrapper)o).free();
+            else
+                ((CountDownLatch)o).countDown();
+        }
+        
+        muxingThread.dropBuffered();
+        packetPool.dispose();
+        mw.close();
+        
+        metrics.removeAll(metricPrefix);
+    }
+    
+    @Override
+    public boolean isClosed() {
+        return mw.isClosed();
+    }
+    
+    private class MuxingThread implements Runnable {
+        private volatile boolean stop;
+        private final List<LinkedList<IPacketWrapper>> streams;
+        private Rational[] timeBases;
+        private volatile long interleaveSize;
+        private long lastFlush;
+        
+        public MuxingThread() {
+            stop = false;
+            streams = new ArrayList<LinkedList<IPacketWrapper>>();
+            timeBases = new Rational[0];
+            interleaveSize = 0;
+            lastFlush = System.currentTimeMillis();
+        }
+        
+        public void stop() {
+            stop = true;
+        }
+        
+        @Override
+        public void run() {
+            Object o;
+            
+            while (!stop) {
+                try {
+                    o = queue.waitGet();
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                
+                try {
+                    if (o instanceof CountDownLatch) {
+                        writeAll();
+                        flushIO();
+                        lastFlush = System.currentTimeMillis();
+                    } else if (error != null)
+                        ((IPacketWrapper)o).free();
+                    else {
+                        if (getInterleave())
+                            interleave((IPacketWrapper)o);
+                        else
+                            write((IPacketWrapper)o);
+                        
+                        if (flushInterval >= 0 && System.currentTimeMillis() - lastFlush >= flushInterval) {
+                            flushIO();
+                            lastFlush = System.currentTimeMillis();
+                        }
+                    }
+                } catch (RuntimeException ex) {
+                    // keep the thread alive, the error is reported to 
+                    // the next caller of processPacket() or flush()
+                    if (error == null)
+                        error = ex;
+                } finally {
+                    if (o instanceof CountDownLatch)
+                        ((CountDownLatch)o).countDown();
+                }
+            }
+        }
+        
+        private void write(IPacketWrapper packet) {
+            try {
+                if (error == null)
+                    mw.processPacket(AsyncMediaWriter.this, packet);
+            } catch (LibavException ex) {
+                error = ex;
+            } catch (RuntimeException ex) {
+                error = ex;
+            } finally {
+                packet.free();
+            }
+        }
+        
+        private void interleave(IPacketWrapper packet) {
+            int si = packet.getStreamIndex();
+            if (timeBases.length <= si) {
+                // stream time bases may be changed by the muxer while 
+                // writing the header, so they are read lazily
+                timeBases = new Rational[mw.getStreamCount()];
+                for (int i = 0; i < timeBases.length; i++)
+                    timeBases[i] = mw.getStream(i).getTimeBase();
+                while (streams.size() < timeBases.length)
+                    streams.add(new LinkedList<IPacketWrapper>());
+            }
+            if (si >= streams.size()) {
+                write(packet);
+                return;
+            }
+            
+            streams.get(si).add(packet);
+            interleaveSize += packet.getSize();
+            
+            while (isReady()) {
+                if (interleaveSize > maxInterleaveSize && !isComplete())
+                    forcedWrites.increment();
+                writeNext();
+            }
+        }
+        
+        private boolean isComplete() {
+            for (LinkedList<IPacketWrapper> s : streams) {
+                if (s.isEmpty())
+                    return false;
+            }
+            
+            return true;
+        }
+        
+        private boolean isReady() {
+            if (interleaveSize > maxInterleaveSize)
+                return true;
+            
+            return isComplete();
+        }
+        
+        private double getTime(int streamIndex, IPacketWrapper packet) {
+            long ts = packet.getDts();
+            if (ts == AVUtilLibrary.AV_NOPTS_VALUE)
+                ts = packet.getPts();
+            if (ts == AVUtilLibrary.AV_NOPTS_VALUE)
+                return Double.NEGATIVE_INFINITY;
+            
+            return timeBases[streamIndex].mul(ts).doubleValue();
+        }
+        
+        private void writeNext() {
+            int next = -1;
+            double nextTime = Double.POSITIVE_INFINITY;
+            double t;
+            
+            for (int i = 0; i < streams.size(); i++) {
+                if (streams.get(i).isEmpty())
+                    continue;
+                t = getTime(i, streams.get(i).getFirst());
+                if (next == -1 || t < nextTime) {
+                    next = i;
+                    nextTime = t;
+                }
+            }
+            
+            if (next == -1)
+                return;
+            
+            IPacketWrapper packet = streams.get(next).removeFirst();
+            interleaveSize -= packet.getSize();
+            write(packet);
+        }
+        
+        private void writeAll() {
+            while (!isEmpty())
+                writeNext();
+        }
+        
+        private boolean isEmpty() {
+            for (LinkedList<IPacketWrapper> s : streams) {
+                if (!s.isEmpty())
+                    return false;
+            }
+            
+            return true;
+        }
+        
+        public void dropBuffered() {
+            for (LinkedList<IPacketWrapper> s : streams) {
+                for (IPacketWrapper packet : s)
+                    packet.free();
+                s.clear();
+            }
+            interleaveSize = 0;
+        }
+    }
+    
+}
@@ -20,7 +20,7 @@ package org.libav;
 /**
  * Copy timestamp generator. New timestamp is the input timestamp - offset. 
  * The first input timestamp is set as offset after the new object creation
- * or reset call.
+ * or reset call unless the offset is set explicitly.
  * 
  * @author Ondrej Perutka
  */
@@ -58,6 +58,7 @@ public class CopyTimestampGenerator implements ITimestampGenerator {
 
     @Override
     public void setInputOffset(long offset) {
+        inputAsOffset = false;
         this.offset = offset;
         lastTimestamp = -1;
     }
@@ -49,7 +49,9 @@ public class DefaultMediaEncoder implements IMediaEncoder {
     /**
      * Create a new media encoder using the default media writer.
      * 
-     * @param url a media URL
+     * @param url a media URL (if it is null, the output has to be opened 
+     * using the openOutput() method of the format context before writing 
+     * the header)
      * @param outputFormatName 
      * @throws LibavException if an error occurs
      */
@@ -57,7 +59,13 @@ public class DefaultMediaEncoder implements IMediaEncoder {
         this(new DefaultMediaWriter(url, outputFormatName));
     }
     
-    protected DefaultMediaEncoder(IMediaWriter mw) {
+    /**
+     * Create a new media encoder using the given media writer (e.g. 
+     * an AsyncMediaWriter).
+     * 
+     * @param mw a media writer
+     */
+    public DefaultMediaEncoder(IMediaWriter mw) {
         this.mw = new MediaWriterAdapter(mw);
         
         aef = new DefaultAudioEncoderFactory();
@@ -114,6 +122,22 @@ public class DefaultMediaEncoder implements IMediaEncoder {
         return vEncoders.get(videoStreamIndex);
     }
 
+    @Override
+    public synchronized void openCodecs() throws LibavException {
+        CodecWrapperFactory cwf = CodecWrapperFactory.getInstance();
+        IStreamWrapper stream;
+        ICodecContextWrapper cc;
+        ICodecWrapper codec;
+        
+        for (int i = 0; i < mw.getStreamCount(); i++) {
+            stream = mw.getStream(i);
+            cc = stream.getCodecContext();
+            cc.clearWrapperCache();
+            codec = cwf.findEncoder(cc.getCodecId());
+            cc.open(codec);
+        }
+    }
+    
     @Override
     public synchronized void close() throws LibavException {
         for (IEncoder enc : aEncoders.values())
@@ -220,19 +244,7 @@ public class DefaultMediaEncoder implements IMediaEncoder {
 
         @Override
         public void writeHeader() throws LibavException {
-            CodecWrapperFactory cwf = CodecWrapperFactory.getInstance();
-            IStreamWrapper stream;
-            ICodecContextWrapper cc;
-            ICodecWrapper codec;
-            
-            for (int i = 0; i < mw.getStreamCount(); i++) {
-                stream = mw.getStream(i);
-                cc = stream.getCodecContext();
-                cc.clearWrapperCache();
-                codec = cwf.findEncoder(cc.getCodecId());
-                cc.open(codec);
-            }
-            
+            openCodecs();
             mw.writeHeader();
         }
 
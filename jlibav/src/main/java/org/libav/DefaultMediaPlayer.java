@@ -17,6 +17,7 @@
  */
 package org.libav;
 
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.libav.audio.AudioFrameDecoder;
@@ -25,6 +26,8 @@ import org.libav.avformat.IFormatContextWrapper;
 import org.libav.avformat.IInputFormatWrapper;
 import org.libav.avformat.IStreamWrapper;
 import org.libav.data.IPacketConsumer;
+import org.libav.util.AdaptiveDelay;
+import org.libav.util.concurrent.Execution;
 import org.libav.video.VideoFrameDecoder;
 
 /**
@@ -33,6 +36,17 @@ import org.libav.video.VideoFrameDecoder;
  * @author Ondrej Perutka
  */
 public class DefaultMediaPlayer implements IMediaPlayer {
+    
+    /**
+     * Default playback delay of live streams in milliseconds.
+     */
+    public static final long DEFAULT_PLAYBACK_DELAY = 500;
+    
+    /**
+     * Audio frames of non-live streams are sent this number of milliseconds
+     * ahead of their presentation time.
+     */
+    private static final long AUDIO_ADVANCE = 500;
 
     private IMediaReader mr;
     private boolean liveStream;
@@ -42,8 +56,10 @@ public class DefaultMediaPlayer implements IMediaPlayer {
     
     private ThreadedStreamPlayer[] streamPlayers;
     private Thread[] playerThreads;
+    private ThreadFactory threadFactory;
     private long stopPosition;
     private long startTime;
+    private final AdaptiveDelay playbackDelay;
 
     /**
      * Create a new media player and open the given media URL using the default
@@ -127,6 +143,22 @@ public class DefaultMediaPlayer implements IMediaPlayer {
         this(new DefaultMediaReader(url, inputFormat), liveStream);
     }
     
+    /**
+     * Create a new live media player and open the given media URL using 
+     * the given low-latency settings. The playback delay adapts to network 
+     * jitter within the bounds given by the profile.
+     * 
+     * @param url a media URL
+     * @param liveProfile low-latency settings
+     * @throws LibavException if an error occurs while opening or player 
+     * initialization
+     */
+    public DefaultMediaPlayer(String url, LiveProfile liveProfile) throws LibavException {
+        this(new DefaultMediaReader(url, liveProfile), true);
+        
+        playbackDelay.reset(liveProfile.getPlaybackDelay(), liveProfile.getMinPlaybackDelay(), liveProfile.getMaxPlaybackDelay());
+    }
+    
     protected DefaultMediaPlayer(IMediaReader mr, boolean liveStream) {
         this.mr = new MediaReaderAdapter(mr);
         this.liveStream = liveStream;
@@ -135,9 +167,54 @@ public class DefaultMediaPlayer implements IMediaPlayer {
         vDecoders = new IDecoder[mr.getVideoStreamCount()];
         
         playerThreads = null;
+        threadFactory = null;
         streamPlayers = null;
         stopPosition = 0;
         startTime = 0;
+        playbackDelay = new AdaptiveDelay(DEFAULT_PLAYBACK_DELAY);
+    }
+    
+    /**
+     * Get current playback delay of live streams. It is the time given to 
+     * the network to deliver data.
+     * 
+     * @return delay in milliseconds
+     */
+    public long getPlaybackDelay() {
+        return playbackDelay.getDelay();
+    }
+    
+    /**
+     * Set fixed playback delay of live streams. It is the time given to 
+     * the network to deliver data.
+     * 
+     * @param delay delay in milliseconds
+     */
+    public void setPlaybackDelay(long delay) {
+        playbackDelay.reset(delay, delay, delay);
+    }
+    
+    /**
+     * Set adaptive playback delay of live streams. The delay grows if frames
+     * are late and it shrinks if they are consistently early.
+     * 
+     * @param delay initial delay in milliseconds
+     * @param minDelay minimum delay in milliseconds
+     * @param maxDelay maximum delay in milliseconds
+     */
+    public void setPlaybackDelay(long delay, long minDelay, long maxDelay) {
+        playbackDelay.reset(delay, minDelay, maxDelay);
+    }
+    
+    /**
+     * Set thread factory used to create stream player threads. If it is 
+     * null, the factory configured for the Execution.STREAM_PLAYER 
+     * component is used. The factory is used for threads created afterwards.
+     * 
+     * @param threadFactory a thread factory
+     */
+    public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
     }
     
     @Override
@@ -166,7 +243,7 @@ public class DefaultMediaPlayer implements IMediaPlayer {
     @Override
     public IDecoder getVideoStreamDecoder(int videoStreamIndex) throws LibavException {
         if (vDecoders[videoStreamIndex] == null)
-            vDecoders[videoStreamIndex] = new SynchronizedVideoFrameDecoder(mr.getVideoStream(videoStreamIndex));
+            vDecoders[videoStreamIndex] = new SynchronizedVideoFrameDecoder(mr.getVideoStream(videoStreamIndex), liveStream ? playbackDelay : null);
         
         return vDecoders[videoStreamIndex];
     }
@@ -192,7 +269,7 @@ public class DefaultMediaPlayer implements IMediaPlayer {
     @Override
     public IDecoder getAudioStreamDecoder(int audioStreamIndex) throws LibavException {
         if (aDecoders[audioStreamIndex] == null)
-            aDecoders[audioStreamIndex] = new SynchronizedAudioFrameDecoder(mr.getAudioStream(audioStreamIndex));
+            aDecoders[audioStreamIndex] = new SynchronizedAudioFrameDecoder(mr.getAudioStream(audioStreamIndex), liveStream ? 0 : AUDIO_ADVANCE);
         
         return aDecoders[audioStreamIndex];
     }
@@ -205,11 +282,10 @@ public class DefaultMediaPlayer implements IMediaPlayer {
             return;
         
         if (liveStream)
-            stopPosition = System.currentTimeMillis() - startTime - 500;
+            stopPosition = System.currentTimeMillis() - startTime;
         
         streamPlayers[si] = new ThreadedVideoStreamPlayer(mr, videoStreamIndex, stopPosition);
-        playerThreads[si] = new Thread(streamPlayers[si], "StreamPlayer");
-        playerThreads[si].setDaemon(true);
+        playerThreads[si] = newPlayerThread(streamPlayers[si]);
         playerThreads[si].start();
     }
     
@@ -221,14 +297,20 @@ public class DefaultMediaPlayer implements IMediaPlayer {
             return;
         
         if (liveStream)
-            stopPosition = System.currentTimeMillis() - startTime - 500;
+            stopPosition = System.currentTimeMillis() - startTime;
         
         streamPlayers[si] = new ThreadedAudioStreamPlayer(mr, audioStreamIndex, stopPosition);
-        playerThreads[si] = new Thread(streamPlayers[si], "StreamPlayer");
-        playerThreads[si].setDaemon(true);
+        playerThreads[si] = newPlayerThread(streamPlayers[si]);
         playerThreads[si].start();
     }
     
+    private Thread newPlayerThread(ThreadedStreamPlayer player) {
+        if (threadFactory == null)
+            return Execution.newThread(Execution.STREAM_PLAYER, player, "StreamPlayer", true);
+        
+        return Execution.newThread(threadFactory, player, "StreamPlayer", true);
+    }
+    
     private synchronized void stopStreamPlayback(int streamIndex) {
         streamPlayers[streamIndex].stop();
         try {
@@ -251,7 +333,7 @@ public class DefaultMediaPlayer implements IMediaPlayer {
         if (startTime == 0 || !liveStream)
             startTime = System.currentTimeMillis();
         if (liveStream) {
-            stopPosition = System.currentTimeMillis() - startTime - 500; // give it a time to work with network delay
+            stopPosition = System.currentTimeMillis() - startTime; // decoders add the network delay
             mr.dropAllBuffers();
         }
         
@@ -262,8 +344,7 @@ public class DefaultMediaPlayer implements IMediaPlayer {
             mr.setVideoStreamBufferingEnabled(i, true);
             sw = mr.getVideoStream(i);
             streamPlayers[sw.getIndex()] = new ThreadedVideoStreamPlayer(mr, i, stopPosition);
-            playerThreads[sw.getIndex()] = new Thread(streamPlayers[sw.getIndex()], "StreamPlayer");
-            playerThreads[sw.getIndex()].setDaemon(true);
+            playerThreads[sw.getIndex()] = newPlayerThread(streamPlayers[sw.getIndex()]);
         }
         
         for (int i = 0; i < mr.getAudioStreamCount(); i++) {
@@ -272,8 +353,7 @@ public class DefaultMediaPlayer implements IMediaPlayer {
             mr.setAudioStreamBufferingEnabled(i, true);
             sw = mr.getAudioStream(i);
             streamPlayers[sw.getIndex()] = new ThreadedAudioStreamPlayer(mr, i, stopPosition);
-            playerThreads[sw.getIndex()] = new Thread(streamPlayers[sw.getIndex()], "StreamPlayer");
-            playerThreads[sw.getIndex()].setDaemon(true);
+            playerThreads[sw.getIndex()] = newPlayerThread(streamPlayers[sw.getIndex()]);
         }
         
         for (Thread playerThread : playerThreads) {
@@ -441,10 +521,12 @@ public class DefaultMediaPlayer implements IMediaPlayer {
     
     private static class SynchronizedVideoFrameDecoder extends VideoFrameDecoder {
         private long startPoint;
+        private final AdaptiveDelay delay;
         
-        public SynchronizedVideoFrameDecoder(IStreamWrapper stream) throws LibavException {
+        public SynchronizedVideoFrameDecoder(IStreamWrapper stream, AdaptiveDelay delay) throws LibavException {
             super(stream);
             
+            this.delay = delay;
             startPoint = 0;
         }
         
@@ -455,6 +537,12 @@ public class DefaultMediaPlayer implements IMediaPlayer {
         @Override
         protected void sendFrame(IFrameWrapper frame) throws LibavException {
             long tmp = frame.getPts() + startPoint - System.currentTimeMillis();
+            if (delay != null) {
+                long d = delay.getDelay();
+                tmp += d;
+                if (!delay.isFixed()) // a late frame increases the delay
+                    tmp += delay.update(tmp) - d;
+            }
             //System.out.printf("VF: pts = %d, tmp = %d (expected_pts = %d, start_point = %d)\n", frame.getPts(), tmp, System.currentTimeMillis() - startPoint, startPoint);
             if (tmp > 0) {
                 try {
@@ -462,8 +550,10 @@ public class DefaultMediaPlayer implements IMediaPlayer {
                 } catch (InterruptedException ex) {
                     Logger.getLogger(DefaultMediaPlayer.class.getName()).log(Level.WARNING, "interrupted while waiting for a sync point");
                 }
-            } else if (tmp < -10) // drop frame if it is too late
+            } else if (tmp < -10) { // drop frame if it is too late
+                frameDropped(frame);
                 return;
+            }
             
             super.sendFrame(frame);
         }
@@ -471,10 +561,12 @@ public class DefaultMediaPlayer implements IMediaPlayer {
     
     private static class SynchronizedAudioFrameDecoder extends AudioFrameDecoder {
         private long startPoint;
+        private final long advance;
         
-        public SynchronizedAudioFrameDecoder(IStreamWrapper stream) throws LibavException {
+        public SynchronizedAudioFrameDecoder(IStreamWrapper stream, long advance) throws LibavException {
             super(stream);
             
+            this.advance = advance;
             startPoint = 0;
         }
         
@@ -484,7 +576,7 @@ public class DefaultMediaPlayer implements IMediaPlayer {
 
         @Override
         protected void sendFrame(IFrameWrapper frame) throws LibavException {
-            long tmp = frame.getPts() + startPoint - System.currentTimeMillis() - 500;
+            long tmp = frame.getPts() + startPoint - System.currentTimeMillis() - advance;
             //System.out.printf("AF: pts = %d, tmp = %d (expected_pts = %d, start_point = %d)\n", frame.getPts(), tmp, System.currentTimeMillis() - startPoint, startPoint);
             if (tmp > 0) {
                 try {
@@ -492,8 +584,10 @@ public class DefaultMediaPlayer implements IMediaPlayer {
                 } catch (InterruptedException ex) {
                     Logger.getLogger(DefaultMediaPlayer.class.getName()).log(Level.WARNING, "interrupted while waiting for a sync point");
                 }
-            } else if (tmp < -100) // drop frame if it is too late
+            } else if (tmp < -100) { // drop frame if it is too late
+                frameDropped(frame);
                 return;
+            }
             
             super.sendFrame(frame);
         }
@@ -17,14 +17,30 @@
  */
 package org.libav;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.libav.avcodec.ICodecContextWrapper;
 import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.bridge.AVCodecLibrary;
 import org.libav.avformat.*;
+import org.libav.avutil.DictionaryWrapperFactory;
+import org.libav.avutil.IDictionaryWrapper;
 import org.libav.data.BufferedPacketReader;
+import org.libav.data.IBufferedPacketReader;
 import org.libav.data.IPacketConsumer;
+import org.libav.data.ReaderScheduler;
+import org.libav.data.TimeShiftBuffer;
 import org.libav.util.Buffer;
 import org.libav.util.Rational;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
 
 /**
  * Default implementation of the media reader interface.
@@ -35,9 +51,12 @@ public class DefaultMediaReader implements IMediaReader {
     
     private IFormatContextWrapper formatContext;
     
-    private BufferedPacketReader packetReader;
+    private IBufferedPacketReader packetReader;
+    private TimeShiftBuffer timeShiftBuffer;
+    private TimeShiftBuffer.Reader timeShiftReader;
     private List<Buffer<IPacketWrapper>> streamBuffers;
     private boolean[] bufferingEnabled;
+    private boolean[] keyPacketsOnly;
     
     private IStreamWrapper[] streams;
     private int[] vStreams;
@@ -48,6 +67,15 @@ public class DefaultMediaReader implements IMediaReader {
     private Rational[] timeBases;
     private long position;
     
+    private final LiveProfile liveProfile;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private ICounter[] packetCounters;
+    private ICounter[] byteCounters;
+    private ICounter skippedPackets;
+    private ICounter filteredPackets;
+    
     /**
      * Open the given media URL.
      * 
@@ -55,7 +83,7 @@ public class DefaultMediaReader implements IMediaReader {
      * @throws LibavException if an error occurs while opening the media
      */
     public DefaultMediaReader(String url) throws LibavException {
-        this(FormatContextWrapperFactory.getInstance().openMedia(url));
+        this(FormatContextWrapperFactory.getInstance().openMedia(url), null, null);
     }
     
     /**
@@ -66,7 +94,7 @@ public class DefaultMediaReader implements IMediaReader {
      * @throws LibavException if an error occurs while opening the media
      */
     public DefaultMediaReader(String url, String inputFormat) throws LibavException {
-        this(FormatContextWrapperFactory.getInstance().openMedia(url, inputFormat));
+        this(FormatContextWrapperFactory.getInstance().openMedia(url, inputFormat), null, null);
     }
     
     /**
@@ -77,19 +105,110 @@ public class DefaultMediaReader implements IMediaReader {
      * @throws LibavException if an error occurs while opening the media
      */
     public DefaultMediaReader(String url, IInputFormatWrapper inputFormat) throws LibavException {
-        this(FormatContextWrapperFactory.getInstance().openMedia(url, inputFormat));
+        this(FormatContextWrapperFactory.getInstance().openMedia(url, inputFormat), null, null);
+    }
+    
+    /**
+     * Open the given live media URL using the given low-latency settings.
+     * 
+     * @param url a media URL
+     * @param liveProfile low-latency settings
+     * @throws LibavException if an error occurs while opening the media
+     */
+    public DefaultMediaReader(String url, LiveProfile liveProfile) throws LibavException {
+        this(url, null, liveProfile);
+    }
+    
+    /**
+     * Open the given live media URL forcing the given input format and using
+     * the given low-latency settings.
+     * 
+     * @param url a media URL
+     * @param inputFormat input format (may be null)
+     * @param liveProfile low-latency settings
+     * @throws LibavException if an error occurs while opening the media
+     */
+    public DefaultMediaReader(String url, IInputFormatWrapper inputFormat, LiveProfile liveProfile) throws LibavException {
+        this(openLiveMedia(url, inputFormat, liveProfile), liveProfile, null);
+    }
+    
+    /**
+     * Open the given media URL and read it using worker threads of the given
+     * reader scheduler instead of a dedicated reader thread.
+     * 
+     * @param url a media URL
+     * @param scheduler a reader scheduler
+     * @throws LibavException if an error occurs while opening the media
+     */
+    public DefaultMediaReader(String url, ReaderScheduler scheduler) throws LibavException {
+        this(url, null, null, scheduler);
+    }
+    
+    /**
+     * Open the given media URL forcing the given input format and read it 
+     * using worker threads of the given reader scheduler instead of 
+     * a dedicated reader thread.
+     * 
+     * @param url a media URL
+     * @param inputFormat input format (may be null)
+     * @param liveProfile low-latency settings (may be null)
+     * @param scheduler a reader scheduler
+     * @throws LibavException if an error occurs while opening the media
+     */
+    public DefaultMediaReader(String url, IInputFormatWrapper inputFormat, LiveProfile liveProfile, ReaderScheduler scheduler) throws LibavException {
+        this(liveProfile == null ? FormatContextWrapperFactory.getInstance().openMedia(url, inputFormat, null) : openLiveMedia(url, inputFormat, liveProfile), liveProfile, scheduler);
     }
     
-    private DefaultMediaReader(IFormatContextWrapper formatContext) throws LibavException {
+    /**
+     * Open the given live media URL and record it into a disk-backed 
+     * time-shift buffer. The recording starts immediately and the reader 
+     * can be paused, seeked within the recorded window and moved back to 
+     * live using the goLive() method. The maximum latency of the live 
+     * profile is not enforced for time-shifted readers.
+     * 
+     * @param url a media URL
+     * @param inputFormat input format (may be null)
+     * @param liveProfile low-latency settings
+     * @param timeShiftFile a ring file (if it is null, a temporary file is 
+     * created)
+     * @param timeShiftCapacity capacity of the ring file in bytes
+     * @throws LibavException if an error occurs while opening the media or 
+     * creating the time-shift buffer
+     */
+    public DefaultMediaReader(String url, IInputFormatWrapper inputFormat, LiveProfile liveProfile, File timeShiftFile, int timeShiftCapacity) throws LibavException {
+        this(openLiveMedia(url, inputFormat, liveProfile), liveProfile, null);
+        
+        try {
+            timeShiftBuffer = new TimeShiftBuffer(packetReader, streams, timeShiftFile, timeShiftCapacity);
+        } catch (IOException ex) {
+            close();
+            throw new LibavException("unable to create the time-shift buffer", ex);
+        }
+        timeShiftReader = timeShiftBuffer.createReader();
+        packetReader = timeShiftReader;
+        timeShiftBuffer.start();
+    }
+    
+    private DefaultMediaReader(IFormatContextWrapper formatContext, LiveProfile liveProfile, ReaderScheduler scheduler) throws LibavException {
         this.formatContext = formatContext;
+        this.liveProfile = liveProfile;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("reader");
         
-        packetReader = new BufferedPacketReader(formatContext, 50);
+        if (scheduler != null)
+            packetReader = scheduler.createReader(formatContext, liveProfile == null ? 50 : liveProfile.getPacketBufferSize());
+        else if (liveProfile == null)
+            packetReader = new BufferedPacketReader(formatContext, 50);
+        else // do not wait for a full batch of packets in the live mode
+            packetReader = new BufferedPacketReader(formatContext, liveProfile.getPacketBufferSize(), 1, false);
         
         formatContext.findStreamInfo();
         streams = formatContext.getStreams();
         ICodecContextWrapper[] ccs = new ICodecContextWrapper[streams.length];
         streamBuffers = new ArrayList<Buffer<IPacketWrapper>>();
         bufferingEnabled = new boolean[streams.length];
+        keyPacketsOnly = new boolean[streams.length];
         packetConsumers = new ArrayList<Set<IPacketConsumer>>();
         timeBases = new Rational[streams.length];
         int v = 0, a = 0;
@@ -98,7 +217,8 @@ public class DefaultMediaReader implements IMediaReader {
             ccs[i] = streams[i].getCodecContext();
             streamBuffers.add(new Buffer<IPacketWrapper>(20));
             bufferingEnabled[i] = false;
-            packetConsumers.add(Collections.synchronizedSet(new HashSet<IPacketConsumer>()));
+            keyPacketsOnly[i] = false;
+            packetConsumers.add(new CopyOnWriteArraySet<IPacketConsumer>());
             switch (ccs[i].getCodecType()) {
                 case VIDEO: v++; break;
                 case AUDIO: a++; break;
@@ -120,8 +240,99 @@ public class DefaultMediaReader implements IMediaReader {
         }
         
         position = 0;
+        
+        initMetrics();
+    }
+    
+    private void initMetrics() {
+        packetCounters = new ICounter[streams.length];
+        byteCounters = new ICounter[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            packetCounters[i] = metrics.counter(metricPrefix + "stream-" + i + ".packets");
+            byteCounters[i] = metrics.counter(metricPrefix + "stream-" + i + ".bytes");
+        }
+        
+        skippedPackets = metrics.counter(metricPrefix + "skippedPackets");
+        filteredPackets = metrics.counter(metricPrefix + "filteredPackets");
+        
+        metrics.gauge(metricPrefix + "bufferedPackets", new IGauge() {
+            @Override
+            public long getValue() {
+                return packetReader.getBufferedPacketCount();
+            }
+        });
+        metrics.gauge(metricPrefix + "usedPackets", new IGauge() {
+            @Override
+            public long getValue() {
+                return packetReader.getUsedPacketCount();
+            }
+        });
     }
 
+    private static IFormatContextWrapper openLiveMedia(String url, IInputFormatWrapper inputFormat, LiveProfile liveProfile) throws LibavException {
+        IDictionaryWrapper options = DictionaryWrapperFactory.getInstance().allocate();
+        
+        try {
+            options.set("probesize", Integer.toString(liveProfile.getProbeSize()), 0);
+            options.set("analyzeduration", Long.toString(liveProfile.getAnalyzeDuration()), 0);
+            if (liveProfile.isNoBuffer())
+                options.set("fflags", "nobuffer", 0);
+            
+            IFormatContextWrapper result = FormatContextWrapperFactory.getInstance().openMedia(url, inputFormat, options);
+            for (IDictionaryWrapper.Pair option : options)
+                Logger.getLogger(DefaultMediaReader.class.getName()).log(Level.WARNING, "unsupported demuxer option: {0}", option.getKey());
+            
+            return result;
+        } finally {
+            options.free();
+        }
+    }
+    
+    /**
+     * Get low-latency settings of this reader.
+     * 
+     * @return low-latency settings or null if this is not a live reader
+     */
+    public LiveProfile getLiveProfile() {
+        return liveProfile;
+    }
+    
+    private void catchUp() {
+        if (liveProfile == null || liveProfile.getMaxLatency() <= 0 || vStreams.length == 0 || timeShiftReader != null)
+            return;
+        
+        int si = vStreams[0];
+        long buffered = timeBases[si].mul(packetReader.getBufferedDuration(si)).longValue();
+        if (buffered <= liveProfile.getMaxLatency())
+            return;
+        
+        int dropped = packetReader.dropToLatestKeyFrame(si);
+        if (dropped == 0)
+            return;
+        
+        for (Buffer<IPacketWrapper> sb : streamBuffers) {
+            dropped += sb.getItemCount();
+            while (sb.getItemCount() > 0)
+                sb.get().free();
+        }
+        
+        skippedPackets.add(dropped);
+        Logger.getLogger(DefaultMediaReader.class.getName()).log(Level.FINE, "{0} ms behind, {1} packets skipped", new Object[] { buffered, dropped });
+    }
+    
+    /**
+     * Set thread factory used to create the packet reader thread. If it is 
+     * null, the factory configured for the Execution.PACKET_READER component
+     * is used. It has no effect if the media is read using a reader 
+     * scheduler.
+     * 
+     * @param threadFactory a thread factory
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        if (packetReader instanceof BufferedPacketReader)
+            ((BufferedPacketReader)packetReader).setThreadFactory(threadFactory);
+    }
+    
     @Override
     public IFormatContextWrapper getFormatContext() {
         return formatContext;
@@ -230,10 +441,34 @@ public class DefaultMediaReader implements IMediaReader {
         return position;
     }
 
+    /**
+     * Get the time-shift buffer of this reader.
+     * 
+     * @return time-shift buffer or null if the media is not recorded
+     */
+    public TimeShiftBuffer getTimeShiftBuffer() {
+        return timeShiftBuffer;
+    }
+    
+    /**
+     * Move a time-shifted reader to the most recent key packet recorded.
+     * It has no effect if the media is not recorded.
+     */
+    public synchronized void goLive() {
+        if (isClosed() || timeShiftReader == null)
+            return;
+        
+        dropStreamBuffers();
+        skippedPackets.add(timeShiftReader.goLive());
+        position = timeShiftReader.getTime();
+    }
+    
     @Override
     public boolean isSeekable() {
         if (isClosed())
             return false;
+        if (timeShiftReader != null)
+            return true;
         
         IIOContextWrapper ioc = formatContext.getIOContext();
         return ioc == null ? false : ioc.isSeekable();
@@ -245,8 +480,12 @@ public class DefaultMediaReader implements IMediaReader {
             return;
         
         dropAllBuffers();
-        packetReader.resetEof();
-        formatContext.seekFile(time - 10000, time, time + 500);
+        if (timeShiftReader != null)
+            timeShiftReader.seek(time);
+        else {
+            packetReader.resetEof();
+            formatContext.seekFile(time - 10000, time, time + 500);
+        }
         
         position = time;
     }
@@ -254,6 +493,10 @@ public class DefaultMediaReader implements IMediaReader {
     @Override
     public synchronized void dropAllBuffers() {
         packetReader.dropBuffer();
+        dropStreamBuffers();
+    }
+    
+    private void dropStreamBuffers() {
         for (Buffer<IPacketWrapper> sb : streamBuffers) {
             while (sb.getItemCount() > 0)
                 sb.get().free();
@@ -267,6 +510,7 @@ public class DefaultMediaReader implements IMediaReader {
         synchronized (this) {
             if (isClosed())
                 return false;
+            catchUp();
             pw = packetReader.nextPacket();
         }
         
@@ -288,6 +532,7 @@ public class DefaultMediaReader implements IMediaReader {
             if (streamBuffers.get(streamIndex).getItemCount() > 0)
                 pw = streamBuffers.get(streamIndex).get();
             else {
+                catchUp();
                 pw = packetReader.nextPacket();
                 if (pw == null)
                     return false;
@@ -353,6 +598,52 @@ public class DefaultMediaReader implements IMediaReader {
         setStreamBufferingEnabled(vStreams[videoStreamIndex], enabled);
     }
     
+    /**
+     * Check whether only key packets of the given stream are passed to its 
+     * consumers.
+     * 
+     * @param streamIndex a stream index
+     * @return true if non-key packets are dropped, false otherwise
+     */
+    public boolean isStreamKeyPacketsOnly(int streamIndex) {
+        return keyPacketsOnly[streamIndex];
+    }
+    
+    /**
+     * Enable or disable dropping of non-key packets of the given stream. 
+     * It is intended to be paired with a key-frames-only decoder (see 
+     * the DecodeMode) so that the non-key packets are never sent to the
+     * decoder. Note that it affects all consumers of the stream.
+     * 
+     * @param streamIndex a stream index
+     * @param keyPacketsOnly true to drop non-key packets
+     */
+    public void setStreamKeyPacketsOnly(int streamIndex, boolean keyPacketsOnly) {
+        this.keyPacketsOnly[streamIndex] = keyPacketsOnly;
+    }
+    
+    /**
+     * Check whether only key packets of the given video stream are passed 
+     * to its consumers.
+     * 
+     * @param videoStreamIndex a video stream index
+     * @return true if non-key packets are dropped, false otherwise
+     */
+    public boolean isVideoStreamKeyPacketsOnly(int videoStreamIndex) {
+        return isStreamKeyPacketsOnly(vStreams[videoStreamIndex]);
+    }
+    
+    /**
+     * Enable or disable dropping of non-key packets of the given video 
+     * stream.
+     * 
+     * @param videoStreamIndex a video stream index
+     * @param keyPacketsOnly true to drop non-key packets
+     */
+    public void setVideoStreamKeyPacketsOnly(int videoStreamIndex, boolean keyPacketsOnly) {
+        setStreamKeyPacketsOnly(vStreams[videoStreamIndex], keyPacketsOnly);
+    }
+    
     @Override
     public void close() throws LibavException {
         synchronized (this) {
@@ -362,11 +653,15 @@ public class DefaultMediaReader implements IMediaReader {
             }
             
             packetReader.close();
+            if (timeShiftBuffer != null)
+                timeShiftBuffer.close();
             if (formatContext != null)
                 formatContext.close();
             
             formatContext = null;
         }
+        
+        metrics.removeAll(metricPrefix);
     }
 
     @Override
@@ -377,13 +672,20 @@ public class DefaultMediaReader implements IMediaReader {
     private void sendPacket(IPacketWrapper packet) throws LibavException {
         Set<IPacketConsumer> pc = packetConsumers.get(packet.getStreamIndex());
         
+        packetCounters[packet.getStreamIndex()].increment();
+        byteCounters[packet.getStreamIndex()].add(packet.getSize());
+        
         if (packet.getDts() > 0)
             position = timeBases[packet.getStreamIndex()].mul(packet.getDts()).longValue();
         
-        synchronized (pc) {
-            for (IPacketConsumer c : pc)
-                c.processPacket(this, packet);
+        if (keyPacketsOnly[packet.getStreamIndex()] && (packet.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) == 0) {
+            filteredPackets.increment();
+            packet.free();
+            return;
         }
+        
+        for (IPacketConsumer c : pc)
+            c.processPacket(this, packet);
         packet.free();
     }
     
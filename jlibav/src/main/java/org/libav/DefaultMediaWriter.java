@@ -36,6 +36,10 @@ import org.libav.avutil.SampleFormat;
 import org.libav.avutil.bridge.AVChannelLayout;
 import org.libav.bridge.LibraryManager;
 import org.libav.util.Rational;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
 
 /**
  * Default implementation of the media writer interface.
@@ -52,10 +56,18 @@ public class DefaultMediaWriter implements IMediaWriter {
     
     private boolean interleave;
     
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private ICounter[] packetCounters;
+    private ICounter[] byteCounters;
+    private final IHistogram writeTime;
+    
     /**
      * Create a new media writer.
      * 
-     * @param url a destination URL
+     * @param url a destination URL (if it is null, the output has to be
+     * opened using the openOutput() method of the format context before
+     * writing the header)
      * @param outputFormatName a name of the output format (if it is null, the 
      * format is guessed from the given URL)
      * @throws LibavException if an error occurs while opening the output
@@ -68,6 +80,12 @@ public class DefaultMediaWriter implements IMediaWriter {
         vStreams = new int[0];
         
         interleave = true;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("writer");
+        packetCounters = new ICounter[0];
+        byteCounters = new ICounter[0];
+        writeTime = metrics.histogram(metricPrefix + "writeTime");
     }
 
     @Override
@@ -117,6 +135,13 @@ public class DefaultMediaWriter implements IMediaWriter {
                 default: break;
             }
         }
+        
+        packetCounters = new ICounter[streams.length];
+        byteCounters = new ICounter[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            packetCounters[i] = metrics.counter(metricPrefix + "stream-" + i + ".packets");
+            byteCounters[i] = metrics.counter(metricPrefix + "stream-" + i + ".bytes");
+        }
     }
     
     @Override
@@ -198,6 +223,45 @@ public class DefaultMediaWriter implements IMediaWriter {
     public IStreamWrapper getAudioStream(int audioStreamIndex) {
         return getStream(aStreams[audioStreamIndex]);
     }
+    
+    /**
+     * Create a new stream with the same codec parameters (including the 
+     * extradata) as the given stream. Packets of the given stream can be 
+     * written into the new stream without decoding (stream copy). Note that
+     * the muxer may change the stream time base while writing the header.
+     * The codec tag of the source stream is kept only if the output format 
+     * maps it to the same codec (or if the format does not know the codec at
+     * all), otherwise the muxer chooses its own tag.
+     * 
+     * @param source a source stream
+     * @return index of the new stream
+     * @throws LibavException if the codec parameters cannot be copied
+     */
+    public synchronized int addStreamCopy(IStreamWrapper source) throws LibavException {
+        if (isClosed())
+            throw new IllegalStateException("the media stream has been closed");
+        
+        IStreamWrapper stream = formatContext.newStream();
+        ICodecContextWrapper cc = stream.getCodecContext();
+        
+        cc.copyParameters(source.getCodecContext());
+        if (cc.getTimeBase().getNumerator() == 0)
+            cc.setTimeBase(source.getTimeBase());
+        stream.setTimeBase(source.getTimeBase());
+        stream.setSampleAspectRatio(source.getSampleAspectRatio());
+        
+        IOutputFormatWrapper ofw = formatContext.getOutputFormat();
+        CodecID codecId = cc.getCodecId();
+        int codecTag = cc.getCodecTag();
+        if (codecTag != 0 && ofw.getCodecId(codecTag) != codecId && ofw.getCodecTag(codecId) != 0)
+            cc.setCodecTag(0);
+        
+        if ((ofw.getFlags() & AVFormatLibrary.AVFMT_GLOBALHEADER) != 0)
+            cc.setFlags(cc.getFlags() | AVCodecLibrary.CODEC_FLAG_GLOBAL_HEADER);
+        
+        reloadStreams();
+        return streams.length - 1;
+    }
 
     @Override
     public synchronized void writeHeader() throws LibavException {
@@ -217,10 +281,19 @@ public class DefaultMediaWriter implements IMediaWriter {
 
     @Override
     public synchronized void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+        int si = packet.getStreamIndex();
+        if (si < packetCounters.length) {
+            packetCounters[si].increment();
+            byteCounters[si].add(packet.getSize());
+        }
+        
+        long t = metrics.isEnabled() ? System.nanoTime() : 0;
         if (interleave)
             formatContext.interleavedWritePacket(packet);
         else
             formatContext.writePacket(packet);
+        if (metrics.isEnabled())
+            writeTime.record((System.nanoTime() - t) / 1000);
     }
 
     @Override
@@ -254,6 +327,10 @@ public class DefaultMediaWriter implements IMediaWriter {
         streams = new IStreamWrapper[0];
         aStreams = new int[0];
         vStreams = new int[0];
+        packetCounters = new ICounter[0];
+        byteCounters = new ICounter[0];
+        
+        metrics.removeAll(metricPrefix);
     }
 
     @Override
@@ -60,6 +60,24 @@ public interface IEncoder extends IFrameConsumer, IPacketProducer {
      */
     IStreamWrapper getStream();
     
+    /**
+     * Get bit rate of the encoder (including a change requested by the 
+     * setBitRate() method which has not been applied yet).
+     * 
+     * @return bit rate
+     */
+    int getBitRate();
+    
+    /**
+     * Change bit rate of the encoder. The Libav encoders read the bit rate 
+     * only when they are opened, so an open encoder is drained and re-opened
+     * with the new bit rate before the next frame is encoded (the next frame
+     * is encoded as a key frame). The method may be called from any thread.
+     * 
+     * @param bitRate a new bit rate
+     */
+    void setBitRate(int bitRate);
+    
     /**
      * Close the encoder.
      */
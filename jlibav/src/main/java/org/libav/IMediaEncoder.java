@@ -77,6 +77,16 @@ public interface IMediaEncoder {
      */
     IEncoder getVideoStreamEncoder(int videoStreamIndex) throws LibavException;
     
+    /**
+     * Open codecs of all streams of the underlaying media writer. Codecs 
+     * which are already open are left untouched. It is done automatically 
+     * when the header is written, however, calling this method in advance
+     * moves the (possibly expensive) codec initialization out of the way.
+     * 
+     * @throws LibavException if a codec cannot be opened
+     */
+    void openCodecs() throws LibavException;
+    
     /**
      * Close the media encoder, all associated stream encoders and the
      * underlaying media writer.
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+/**
+ * Low-latency settings for live inputs (e.g. RTSP or RTP streams). The 
+ * default values aim at glass-to-glass latency of a few hundred 
+ * milliseconds.
+ * 
+ * @author Ondrej Perutka
+ */
+public class LiveProfile {
+    
+    private int probeSize;
+    private long analyzeDuration;
+    private boolean noBuffer;
+    
+    private int packetBufferSize;
+    private long maxLatency;
+    
+    private long playbackDelay;
+    private long minPlaybackDelay;
+    private long maxPlaybackDelay;
+    
+    /**
+     * Create a new live profile with default settings.
+     */
+    public LiveProfile() {
+        probeSize = 32768;
+        analyzeDuration = 100000;
+        noBuffer = true;
+        
+        packetBufferSize = 16;
+        maxLatency = 300;
+        
+        playbackDelay = 100;
+        minPlaybackDelay = 20;
+        maxPlaybackDelay = 250;
+    }
+
+    /**
+     * Get maximum number of bytes read while probing the input.
+     * 
+     * @return probe size in bytes
+     */
+    public int getProbeSize() {
+        return probeSize;
+    }
+
+    /**
+     * Set maximum number of bytes read while probing the input (the 
+     * "probesize" option).
+     * 
+     * @param probeSize probe size in bytes
+     */
+    public void setProbeSize(int probeSize) {
+        this.probeSize = probeSize;
+    }
+
+    /**
+     * Get maximum duration of the input analyzed while looking for stream 
+     * info.
+     * 
+     * @return duration in microseconds
+     */
+    public long getAnalyzeDuration() {
+        return analyzeDuration;
+    }
+
+    /**
+     * Set maximum duration of the input analyzed while looking for stream 
+     * info (the "analyzeduration" option).
+     * 
+     * @param analyzeDuration duration in microseconds
+     */
+    public void setAnalyzeDuration(long analyzeDuration) {
+        this.analyzeDuration = analyzeDuration;
+    }
+
+    /**
+     * Check whether the demuxer buffering is disabled.
+     * 
+     * @return true if the "nobuffer" format flag is set, false otherwise
+     */
+    public boolean isNoBuffer() {
+        return noBuffer;
+    }
+
+    /**
+     * Enable or disable the demuxer buffering (the "nobuffer" format flag).
+     * 
+     * @param noBuffer true to disable buffering, false otherwise
+     */
+    public void setNoBuffer(boolean noBuffer) {
+        this.noBuffer = noBuffer;
+    }
+
+    /**
+     * Get size of the packet buffer of the media reader.
+     * 
+     * @return number of packets
+     */
+    public int getPacketBufferSize() {
+        return packetBufferSize;
+    }
+
+    /**
+     * Set size of the packet buffer of the media reader.
+     * 
+     * @param packetBufferSize number of packets
+     */
+    public void setPacketBufferSize(int packetBufferSize) {
+        this.packetBufferSize = packetBufferSize;
+    }
+
+    /**
+     * Get maximum duration of buffered video. The media reader drops all 
+     * packets preceding the latest buffered key frame if the buffered 
+     * duration exceeds this value.
+     * 
+     * @return maximum latency in milliseconds (0 means unlimited)
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * Set maximum duration of buffered video. The media reader drops all 
+     * packets preceding the latest buffered key frame if the buffered 
+     * duration exceeds this value.
+     * 
+     * @param maxLatency maximum latency in milliseconds (0 means unlimited)
+     */
+    public void setMaxLatency(long maxLatency) {
+        this.maxLatency = maxLatency;
+    }
+
+    /**
+     * Get initial playback delay.
+     * 
+     * @return delay in milliseconds
+     */
+    public long getPlaybackDelay() {
+        return playbackDelay;
+    }
+
+    /**
+     * Set initial playback delay.
+     * 
+     * @param playbackDelay delay in milliseconds
+     */
+    public void setPlaybackDelay(long playbackDelay) {
+        this.playbackDelay = playbackDelay;
+    }
+
+    /**
+     * Get minimum playback delay.
+     * 
+     * @return delay in milliseconds
+     */
+    public long getMinPlaybackDelay() {
+        return minPlaybackDelay;
+    }
+
+    /**
+     * Set minimum playback delay.
+     * 
+     * @param minPlaybackDelay delay in milliseconds
+     */
+    public void setMinPlaybackDelay(long minPlaybackDelay) {
+        this.minPlaybackDelay = minPlaybackDelay;
+    }
+
+    /**
+     * Get maximum playback delay.
+     * 
+     * @return delay in milliseconds
+     */
+    public long getMaxPlaybackDelay() {
+        return maxPlaybackDelay;
+    }
+
+    /**
+     * Set maximum playback delay.
+     * 
+     * @param maxPlaybackDelay delay in milliseconds
+     */
+    public void setMaxPlaybackDelay(long maxPlaybackDelay) {
+        this.maxPlaybackDelay = maxPlaybackDelay;
+    }
+    
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.util.Arrays;
+import org.libav.avcodec.BitstreamFilterWrapper;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.bridge.LibraryManager;
+import org.libav.data.IPacketConsumer;
+import org.libav.util.Rational;
+
+/**
+ * Stream-copy remuxer. It writes packets of the given input streams into 
+ * a new container without decoding them. Codec parameters are copied from 
+ * the input streams, timestamps are rescaled in place and optional bitstream
+ * filters can be applied to the packet data.
+ * 
+ * The remuxer does not take ownership of the input packets. Their
+ * timestamps and stream index are restored after they have been written.
+ * 
+ * @author Ondrej Perutka
+ */
+public class Remuxer implements IPacketConsumer {
+    
+    /**
+     * Bitstream filter converting H.264 from the AVCC (MP4, MKV, FLV) to 
+     * the Annex B format (MPEG-TS, raw H.264).
+     */
+    public static final String H264_MP4_TO_ANNEXB = "h264_mp4toannexb";
+    
+    /**
+     * Bitstream filter converting ADTS AAC (MPEG-TS, raw AAC) into raw AAC
+     * with AudioSpecificConfig extradata (MP4, MKV, FLV).
+     */
+    public static final String AAC_ADTS_TO_ASC = "aac_adtstoasc";
+    
+    private static final AVUtilLibrary utilLib = LibraryManager.getInstance().getAVUtilLibrary();
+    
+    private final DefaultMediaWriter writer;
+    private final IStreamWrapper[] inputStreams;
+    private final int[] streamMap;
+    private final BitstreamFilterWrapper[][] filters;
+    
+    private final long[] tsMul;
+    private final long[] tsDiv;
+    
+    private IPacketWrapper filtered;
+    private boolean headerWritten;
+    
+    private long packetCount;
+    private long byteCount;
+    
+    /**
+     * Create a new remuxer copying all streams of the given media reader. 
+     * The remuxer is registered as a packet consumer of all streams.
+     * 
+     * @param mr a media reader
+     * @param url a destination URL
+     * @param outputFormatName a name of the output format (if it is null, 
+     * the format is guessed from the given URL)
+     * @throws LibavException if the output cannot be created
+     */
+    public Remuxer(IMediaReader mr, String url, String outputFormatName) throws LibavException {
+        this(getStreams(mr), url, outputFormatName);
+        
+        for (int i = 0; i < mr.getStreamCount(); i++)
+            mr.addPacketConsumer(i, this);
+    }
+    
+    /**
+     * Create a new remuxer copying the given streams. Packets of other 
+     * streams are ignored.
+     * 
+     * @param inputStreams input streams
+     * @param url a destination URL
+     * @param outputFormatName a name of the output format (if it is null, 
+     * the format is guessed from the given URL)
+     * @throws LibavException if the output cannot be created
+     */
+    public Remuxer(IStreamWrapper[] inputStreams, String url, String outputFormatName) throws LibavException {
+        int maxIndex = -1;
+        for (IStreamWrapper s : inputStreams)
+            maxIndex = Math.max(maxIndex, s.getIndex());
+        
+        this.inputStreams = new IStreamWrapper[maxIndex + 1];
+        streamMap = new int[maxIndex + 1];
+        filters = new BitstreamFilterWrapper[maxIndex + 1][];
+        tsMul = new long[maxIndex + 1];
+        tsDiv = new long[maxIndex + 1];
+        Arrays.fill(streamMap, -1);
+        
+        writer = new DefaultMediaWriter(url, outputFormatName);
+        try {
+            for (IStreamWrapper s : inputStreams) {
+                this.inputStreams[s.getIndex()] = s;
+                streamMap[s.getIndex()] = writer.addStreamCopy(s);
+            }
+        } catch (LibavException ex) {
+            writer.close();
+            throw ex;
+        }
+        
+        filtered = null;
+        headerWritten = false;
+        
+        packetCount = 0;
+        byteCount = 0;
+    }
+    
+    private static IStreamWrapper[] getStreams(IMediaReader mr) {
+        IStreamWrapper[] result = new IStreamWrapper[mr.getStreamCount()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = mr.getStream(i);
+        
+        return result;
+    }
+    
+    /**
+     * Get the underlaying media writer.
+     * 
+     * @return media writer
+     */
+    public DefaultMediaWriter getMediaWriter() {
+        return writer;
+    }
+    
+    /**
+     * Get index of the output stream the given input stream is copied into.
+     * 
+     * @param inputStreamIndex an input stream index
+     * @return output stream index or -1 if the input stream is not copied
+     */
+    public int getOutputStreamIndex(int inputStreamIndex) {
+        if (inputStreamIndex < 0 || inputStreamIndex >= streamMap.length)
+            return -1;
+        
+        return streamMap[inputStreamIndex];
+    }
+    
+    /**
+     * Append a bitstream filter to the filter chain of the given input 
+     * stream.
+     * 
+     * @param inputStreamIndex an input stream index
+     * @param filterName name of the filter (e.g. H264_MP4_TO_ANNEXB)
+     * @throws LibavException if there is no such filter
+     */
+    public synchronized void addBitstreamFilter(int inputStreamIndex, String filterName) throws LibavException {
+        if (getOutputStreamIndex(inputStreamIndex) < 0)
+            throw new IllegalArgumentException("the stream is not copied: " + inputStreamIndex);
+        
+        BitstreamFilterWrapper bsf = BitstreamFilterWrapper.init(filterName);
+        BitstreamFilterWrapper[] chain = filters[inputStreamIndex];
+        if (chain == null)
+            chain = new BitstreamFilterWrapper[] { bsf };
+        else {
+            chain = Arrays.copyOf(chain, chain.length + 1);
+            chain[chain.length - 1] = bsf;
+        }
+        filters[inputStreamIndex] = chain;
+        
+        if (filtered == null)
+            filtered = PacketWrapperFactory.getInstance().alloc();
+    }
+    
+    /**
+     * Write the output header. It is written automatically before the first
+     * packet if this method is not called.
+     * 
+     * @throws LibavException if the header cannot be written
+     */
+    public synchronized void writeHeader() throws LibavException {
+        if (headerWritten)
+            return;
+        
+        writer.writeHeader();
+        headerWritten = true;
+        
+        // the muxer may change the time bases while writing the header
+        Rational itb, otb;
+        IStreamWrapper os;
+        for (int i = 0; i < streamMap.length; i++) {
+            if (streamMap[i] < 0)
+                continue;
+            
+            os = writer.getStream(streamMap[i]);
+            os.clearWrapperCache();
+            itb = inputStreams[i].getTimeBase();
+            otb = os.getTimeBase();
+            tsMul[i] = itb.getNumerator() * otb.getDenominator();
+            tsDiv[i] = itb.getDenominator() * otb.getNumerator();
+        }
+    }
+    
+    /**
+     * Write the output trailer. The trailer is written only if the header 
+     * has been written.
+     * 
+     * @throws LibavException if the trailer cannot be written
+     */
+    public synchronized void writeTrailer() throws LibavException {
+        if (headerWritten)
+            writer.writeTrailer();
+    }
+    
+    /**
+     * Get number of written packets.
+     * 
+     * @return number of written packets
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+    
+    /**
+     * Get number of written bytes of packet data.
+     * 
+     * @return number of written bytes
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+    
+    private long rescale(long ts, int streamIndex) {
+        long mul = tsMul[streamIndex];
+        long div = tsDiv[streamIndex];
+        if (ts == AVUtilLibrary.AV_NOPTS_VALUE || mul == div)
+            return ts;
+        
+        return utilLib.av_rescale(ts, mul, div);
+    }
+    
+    @Override
+    public synchronized void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+        int si = packet.getStreamIndex();
+        if (si < 0 || si >= streamMap.length || streamMap[si] < 0)
+            return;
+        if (!headerWritten)
+            writeHeader();
+        
+        int osi = streamMap[si];
+        long pts = packet.getPts();
+        long dts = packet.getDts();
+        int duration = packet.getDuration();
+        int size = packet.getSize();
+        
+        BitstreamFilterWrapper[] chain = filters[si];
+        if (chain == null) {
+            packet.setStreamIndex(osi);
+            packet.setPts(rescale(pts, si));
+            packet.setDts(rescale(dts, si));
+            packet.setDuration((int)rescale(duration, si));
+            try {
+                writer.processPacket(this, packet);
+            } finally {
+                packet.setStreamIndex(si);
+                packet.setPts(pts);
+                packet.setDts(dts);
+                packet.setDuration(duration);
+            }
+        } else {
+            // the filtered packet only references the data, the muxer makes 
+            // its own copy if it needs to keep it
+            filtered.setStreamIndex(osi);
+            filtered.setData(packet.getData());
+            filtered.setSize(size);
+            filtered.setFlags(packet.getFlags());
+            filtered.setPts(rescale(pts, si));
+            filtered.setDts(rescale(dts, si));
+            filtered.setDuration((int)rescale(duration, si));
+            filtered.setPosition(-1);
+            try {
+                ICodecContextWrapper cc = writer.getStream(osi).getCodecContext();
+                for (BitstreamFilterWrapper bsf : chain)
+                    bsf.filter(cc, filtered);
+                writer.processPacket(this, filtered);
+            } finally {
+                for (BitstreamFilterWrapper bsf : chain)
+                    bsf.releaseOutput();
+                filtered.setData(null);
+                filtered.setSize(0);
+            }
+        }
+        
+        packetCount++;
+        byteCount += size;
+    }
+    
+    /**
+     * Write the trailer (if the header has been written), close the output 
+     * and release all bitstream filters.
+     * 
+     * @throws LibavException if an error occurs while closing the output
+     */
+    public synchronized void close() throws LibavException {
+        try {
+            if (!writer.isClosed())
+                writeTrailer();
+        } finally {
+            writer.close();
+            
+            for (BitstreamFilterWrapper[] chain : filters) {
+                if (chain == null)
+                    continue;
+                for (BitstreamFilterWrapper bsf : chain)
+                    bsf.close();
+            }
+            Arrays.fill(filters, null);
+            
+            if (filtered != null)
+                filtered.free();
+            filtered = null;
+        }
+    }
+    
+}
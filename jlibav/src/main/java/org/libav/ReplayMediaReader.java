@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.data.IPacketConsumer;
+import org.libav.data.PacketCaptureReader;
+import org.libav.util.Buffer;
+
+/**
+ * Media reader replaying packets stored by the PacketCaptureWriter. No 
+ * demuxer is involved, the streams are created in an empty format context
+ * using the captured stream parameters (including the codec extradata), 
+ * so they can be used to initialize decoders, stream copies, etc.
+ * 
+ * Packets are replayed as fast as they are read by default. In the 
+ * real-time mode the reader waits until the wall clock time elapsed since
+ * the first replayed packet (or since the last seek) reaches the timestamp
+ * difference of the packets.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ReplayMediaReader implements IMediaReader {
+    
+    private PacketCaptureReader capture;
+    private IFormatContextWrapper container;
+    
+    private final IStreamWrapper[] streams;
+    private final int[] vStreams;
+    private final int[] aStreams;
+    
+    private final List<Set<IPacketConsumer>> packetConsumers;
+    private final List<Buffer<IPacketWrapper>> streamBuffers;
+    private final boolean[] bufferingEnabled;
+    
+    private long position;
+    
+    private volatile boolean realTime;
+    private long paceOrigin;
+    private long paceStart;
+    
+    /**
+     * Open the given capture file.
+     * 
+     * @param file a capture file
+     * @throws LibavException if the file cannot be opened or the streams
+     * cannot be created
+     */
+    public ReplayMediaReader(File file) throws LibavException {
+        try {
+            capture = new PacketCaptureReader(file);
+        } catch (IOException ex) {
+            throw new LibavException("unable to open the capture file", ex);
+        }
+        
+        int streamCount = capture.getStreamCount();
+        int v = 0, a = 0;
+        try {
+            container = FormatContextWrapperFactory.getInstance().allocateStreamContainer();
+            for (int i = 0; i < streamCount; i++) {
+                capture.getStream(i).applyTo(container.newStream());
+                if (capture.getStream(i).getCodecType() == MediaType.VIDEO)
+                    v++;
+                else if (capture.getStream(i).getCodecType() == MediaType.AUDIO)
+                    a++;
+            }
+        } catch (LibavException ex) {
+            close();
+            throw ex;
+        }
+        
+        container.clearWrapperCache();
+        streams = container.getStreams();
+        vStreams = new int[v];
+        aStreams = new int[a];
+        packetConsumers = new ArrayList<Set<IPacketConsumer>>();
+        streamBuffers = new ArrayList<Buffer<IPacketWrapper>>();
+        bufferingEnabled = new boolean[streamCount];
+        
+        v = a = 0;
+        for (int i = 0; i < streamCount; i++) {
+            packetConsumers.add(new CopyOnWriteArraySet<IPacketConsumer>());
+            streamBuffers.add(new Buffer<IPacketWrapper>(20));
+            bufferingEnabled[i] = false;
+            if (capture.getStream(i).getCodecType() == MediaType.VIDEO)
+                vStreams[v++] = i;
+            else if (capture.getStream(i).getCodecType() == MediaType.AUDIO)
+                aStreams[a++] = i;
+        }
+        
+        position = 0;
+        
+        realTime = false;
+        paceOrigin = AVUtilLibrary.AV_NOPTS_VALUE;
+        paceStart = 0;
+    }
+    
+    /**
+     * Check whether the packets are replayed in real time.
+     * 
+     * @return true if the real-time mode is enabled, false otherwise
+     */
+    public boolean isRealTime() {
+        return realTime;
+    }
+    
+    /**
+     * Enable or disable the real-time replay. It is disabled by default 
+     * (i.e. packets are replayed as fast as they are read).
+     * 
+     * @param realTime true to replay packets in real time, false otherwise
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+        paceOrigin = AVUtilLibrary.AV_NOPTS_VALUE;
+    }
+    
+    /**
+     * Get the underlaying capture reader.
+     * 
+     * @return capture reader
+     */
+    public PacketCaptureReader getCaptureReader() {
+        return capture;
+    }
+    
+    @Override
+    public IFormatContextWrapper getFormatContext() {
+        return container;
+    }
+    
+    @Override
+    public int getStreamCount() {
+        return streams.length;
+    }
+    
+    @Override
+    public void addPacketConsumer(int streamIndex, IPacketConsumer consumer) {
+        packetConsumers.get(streamIndex).add(consumer);
+    }
+    
+    @Override
+    public void removePacketConsumer(int streamIndex, IPacketConsumer consumer) {
+        packetConsumers.get(streamIndex).remove(consumer);
+    }
+    
+    @Override
+    public boolean containsPacketConsumer(int streamIndex, IPacketConsumer consumer) {
+        return packetConsumers.get(streamIndex).contains(consumer);
+    }
+    
+    @Override
+    public IStreamWrapper getStream(int streamIndex) {
+        return streams[streamIndex];
+    }
+    
+    @Override
+    public int getVideoStreamCount() {
+        return vStreams.length;
+    }
+    
+    @Override
+    public IStreamWrapper getVideoStream(int videoStreamIndex) {
+        return streams[vStreams[videoStreamIndex]];
+    }
+    
+    @Override
+    public void addVideoPacketConsumer(int videoStreamIndex, IPacketConsumer consumer) {
+        addPacketConsumer(vStreams[videoStreamIndex], consumer);
+    }
+    
+    @Override
+    public void removeVideoPacketConsumer(int videoStreamIndex, IPacketConsumer consumer) {
+        removePacketConsumer(vStreams[videoStreamIndex], consumer);
+    }
+    
+    @Override
+    public boolean containsVideoPacketConsumer(int videoStreamIndex, IPacketConsumer consumer) {
+        return containsPacketConsumer(vStreams[videoStreamIndex], consumer);
+    }
+    
+    @Override
+    public int getAudioStreamCount() {
+        return aStreams.length;
+    }
+    
+    @Override
+    public IStreamWrapper getAudioStream(int audioStremIndex) {
+        return streams[aStreams[audioStremIndex]];
+    }
+    
+    @Override
+    public void addAudioPacketConsumer(int audioStreamIndex, IPacketConsumer consumer) {
+        addPacketConsumer(aStreams[audioStreamIndex], consumer);
+    }
+    
+    @Override
+    public void removeAudioPacketConsumer(int audioStreamIndex, IPacketConsumer consumer) {
+        removePacketConsumer(aStreams[audioStreamIndex], consumer);
+    }
+    
+    @Override
+    public boolean containsAudioPacketConsumer(int audioStreamIndex, IPacketConsumer consumer) {
+        return containsPacketConsumer(aStreams[audioStreamIndex], consumer);
+    }
+    
+    @Override
+    public long getDuration() {
+        return capture.getDuration();
+    }
+    
+    @Override
+    public long getStreamDuration(int streamIndex) {
+        return capture.getDuration(streamIndex);
+    }
+    
+    @Override
+    public long getVideoStreamDuration(int videoStreamIndex) {
+        return getStreamDuration(vStreams[videoStreamIndex]);
+    }
+    
+    @Override
+    public long getAudioStreamDuration(int audioStreamIndex) {
+        return getStreamDuration(aStreams[audioStreamIndex]);
+    }
+    
+    @Override
+    public long getPosition() {
+        return position;
+    }
+    
+    @Override
+    public boolean isSeekable() {
+        return !isClosed();
+    }
+    
+    @Override
+    public synchronized void seek(long time) throws LibavException {
+        if (isClosed())
+            return;
+        
+        dropAllBuffers();
+        capture.seek(time);
+        paceOrigin = AVUtilLibrary.AV_NOPTS_VALUE;
+        
+        position = time;
+    }
+    
+    @Override
+    public synchronized void dropAllBuffers() {
+        for (Buffer<IPacketWrapper> sb : streamBuffers) {
+            while (sb.getItemCount() > 0)
+                sb.get().free();
+        }
+    }
+    
+    private long getPaceDelay(IPacketWrapper packet) {
+        long time = capture.getTime(packet);
+        if (!realTime || time == AVUtilLibrary.AV_NOPTS_VALUE)
+            return 0;
+        
+        if (paceOrigin == AVUtilLibrary.AV_NOPTS_VALUE) {
+            paceOrigin = time;
+            paceStart = System.nanoTime();
+            return 0;
+        }
+        
+        return (time - paceOrigin) * 1000000 - (System.nanoTime() - paceStart);
+    }
+    
+    private void pace(long delay) {
+        if (delay <= 0)
+            return;
+        
+        try {
+            Thread.sleep(delay / 1000000, (int)(delay % 1000000));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    @Override
+    public boolean readNextPacket() throws LibavException {
+        IPacketWrapper pw;
+        long delay;
+        
+        synchronized (this) {
+            if (isClosed())
+                return false;
+            pw = capture.nextPacket();
+            if (pw == null)
+                return false;
+            delay = getPaceDelay(pw);
+        }
+        
+        pace(delay);
+        sendPacket(pw);
+        
+        return true;
+    }
+    
+    @Override
+    public boolean readNextPacket(int streamIndex) throws LibavException {
+        IPacketWrapper pw;
+        long delay = 0;
+        
+        synchronized (this) {
+            if (isClosed())
+                return false;
+            
+            setStreamBufferingEnabled(streamIndex, true);
+            if (streamBuffers.get(streamIndex).getItemCount() > 0)
+                pw = streamBuffers.get(streamIndex).get();
+            else {
+                pw = capture.nextPacket();
+                if (pw == null)
+                    return false;
+                delay = getPaceDelay(pw);
+                if (pw.getStreamIndex() != streamIndex) {
+                    if (isStreamBufferingEnabled(pw.getStreamIndex()))
+                        streamBuffers.get(pw.getStreamIndex()).put(pw);
+                    else
+                        pw.free();
+                }
+            }
+        }
+        
+        pace(delay);
+        if (pw.getStreamIndex() == streamIndex)
+            sendPacket(pw);
+        
+        return true;
+    }
+    
+    @Override
+    public boolean readNextVideoPacket(int videoStreamIndex) throws LibavException {
+        return readNextPacket(vStreams[videoStreamIndex]);
+    }
+    
+    @Override
+    public boolean readNextAudioPacket(int audioStreamIndex) throws LibavException {
+        return readNextPacket(aStreams[audioStreamIndex]);
+    }
+    
+    @Override
+    public boolean isStreamBufferingEnabled(int streamIndex) {
+        return bufferingEnabled[streamIndex];
+    }
+    
+    @Override
+    public void setStreamBufferingEnabled(int streamIndex, boolean enabled) {
+        synchronized (this) {
+            bufferingEnabled[streamIndex] = enabled;
+            if (!enabled) {
+                Buffer<IPacketWrapper> buf = streamBuffers.get(streamIndex);
+                while (buf.getItemCount() > 0)
+                    buf.get().free();
+            }
+        }
+    }
+    
+    @Override
+    public boolean isVideoStreamBufferingEnabled(int videoStreamIndex) {
+        return isStreamBufferingEnabled(vStreams[videoStreamIndex]);
+    }
+    
+    @Override
+    public void setVideoStreamBufferingEnabled(int videoStreamIndex, boolean enabled) {
+        setStreamBufferingEnabled(vStreams[videoStreamIndex], enabled);
+    }
+    
+    @Override
+    public boolean isAudioStreamBufferingEnabled(int audioStreamIndex) {
+        return isStreamBufferingEnabled(aStreams[audioStreamIndex]);
+    }
+    
+    @Override
+    public void setAudioStreamBufferingEnabled(int audioStreamIndex, boolean enabled) {
+        setStreamBufferingEnabled(aStreams[audioStreamIndex], enabled);
+    }
+    
+    @Override
+    public synchronized void close() throws LibavException {
+        if (streamBuffers != null)
+            dropAllBuffers();
+        
+        if (capture != null) {
+            try {
+                capture.close();
+            } catch (IOException ex) {
+                Logger.getLogger(ReplayMediaReader.class.getName()).log(Level.WARNING, "unable to close the capture file", ex);
+            }
+        }
+        if (container != null)
+            container.close();
+        
+        capture = null;
+        container = null;
+    }
+    
+    @Override
+    public boolean isClosed() {
+        return capture == null;
+    }
+    
+    private void sendPacket(IPacketWrapper packet) throws LibavException {
+        long time = capture == null ? AVUtilLibrary.AV_NOPTS_VALUE : capture.getTime(packet);
+        if (time != AVUtilLibrary.AV_NOPTS_VALUE)
+            position = time;
+        
+        for (IPacketConsumer c : packetConsumers.get(packet.getStreamIndex()))
+            c.processPacket(this, packet);
+        packet.free();
+    }
+    
+}
@@ -0,0 +1,621 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.data.IFrameConsumer;
+import org.libav.data.IPacketConsumer;
+import org.libav.util.Rational;
+import org.libav.util.concurrent.Execution;
+import org.libav.video.FrameScaler;
+
+/**
+ * Segment-based parallel transcoder. The input file is split at keyframes 
+ * into several segments. Each segment is transcoded by an independent 
+ * decoder/encoder pair on its own thread into a temporary file and 
+ * the temporary files are concatenated into the output file afterwards.
+ * 
+ * Only the first video stream and the first audio stream of the input file
+ * are transcoded.
+ * 
+ * @author Ondrej Perutka
+ */
+public class SegmentedTranscoder {
+    
+    private static final String SEGMENT_FORMAT = "matroska";
+    
+    private final String srcUrl;
+    private final String dstUrl;
+    private final String dstFormat;
+    
+    private CodecID videoCodecId;
+    private int videoWidth;
+    private int videoHeight;
+    private int videoBitRate;
+    
+    private CodecID audioCodecId;
+    private int audioBitRate;
+    
+    private int segmentCount;
+    private File tempDir;
+    
+    /**
+     * Create a new segmented transcoder.
+     * 
+     * @param srcUrl a source media URL
+     * @param dstUrl a destination media URL
+     * @param dstFormat a destination format name (it may be null)
+     */
+    public SegmentedTranscoder(String srcUrl, String dstUrl, String dstFormat) {
+        this.srcUrl = srcUrl;
+        this.dstUrl = dstUrl;
+        this.dstFormat = dstFormat;
+        
+        videoCodecId = CodecID.MPEG4;
+        videoWidth = 0;
+        videoHeight = 0;
+        videoBitRate = 0;
+        
+        audioCodecId = CodecID.MP2;
+        audioBitRate = 0;
+        
+        segmentCount = Runtime.getRuntime().availableProcessors();
+        tempDir = new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Get output video codec.
+     * 
+     * @return video codec ID
+     */
+    public CodecID getVideoCodecId() {
+        return videoCodecId;
+    }
+
+    /**
+     * Set output video codec. Set null to drop the video stream.
+     * 
+     * @param videoCodecId a video codec ID
+     */
+    public void setVideoCodecId(CodecID videoCodecId) {
+        this.videoCodecId = videoCodecId;
+    }
+    
+    /**
+     * Set output video size. Set zeros to keep the source size.
+     * 
+     * @param width a width
+     * @param height a height
+     */
+    public void setVideoSize(int width, int height) {
+        this.videoWidth = width;
+        this.videoHeight = height;
+    }
+
+    /**
+     * Get output video bit rate.
+     * 
+     * @return video bit rate (0 means the encoder default)
+     */
+    public int getVideoBitRate() {
+        return videoBitRate;
+    }
+
+    /**
+     * Set output video bit rate.
+     * 
+     * @param videoBitRate a bit rate (0 means the encoder default)
+     */
+    public void setVideoBitRate(int videoBitRate) {
+        this.videoBitRate = videoBitRate;
+    }
+
+    /**
+     * Get output audio codec.
+     * 
+     * @return audio codec ID
+     */
+    public CodecID getAudioCodecId() {
+        return audioCodecId;
+    }
+
+    /**
+     * Set output audio codec. Set null to drop the audio stream.
+     * 
+     * @param audioCodecId an audio codec ID
+     */
+    public void setAudioCodecId(CodecID audioCodecId) {
+        this.audioCodecId = audioCodecId;
+    }
+
+    /**
+     * Get output audio bit rate.
+     * 
+     * @return audio bit rate (0 means the encoder default)
+     */
+    public int getAudioBitRate() {
+        return audioBitRate;
+    }
+
+    /**
+     * Set output audio bit rate.
+     * 
+     * @param audioBitRate a bit rate (0 means the encoder default)
+     */
+    public void setAudioBitRate(int audioBitRate) {
+        this.audioBitRate = audioBitRate;
+    }
+
+    /**
+     * Get requested number of segments. The real number of segments may be
+     * lower if there is not enough keyframes.
+     * 
+     * @return number of segments
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Set requested number of segments (and transcoding threads).
+     * 
+     * @param segmentCount number of segments
+     */
+    public void setSegmentCount(int segmentCount) {
+        if (segmentCount < 1)
+            throw new IllegalArgumentException("at least one segment is required");
+        
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * Get directory for temporary segment files.
+     * 
+     * @return directory for temporary files
+     */
+    public File getTemporaryDirectory() {
+        return tempDir;
+    }
+
+    /**
+     * Set directory for temporary segment files.
+     * 
+     * @param tempDir a directory
+     */
+    public void setTemporaryDirectory(File tempDir) {
+        this.tempDir = tempDir;
+    }
+    
+    /**
+     * Transcode the source file.
+     * 
+     * @throws LibavException if an error occurs
+     */
+    public void transcode() throws LibavException {
+        long[] bounds = findSegmentBoundaries(srcUrl, segmentCount);
+        int segments = bounds.length - 1;
+        
+        Segment[] s = new Segment[segments];
+        Thread[] t = new Thread[segments];
+        
+        IMediaEncoder output = null;
+        try {
+            // the output file is opened first so that segment encoders can
+            // copy its codec flags (e.g. the global header flag)
+            output = new DefaultMediaEncoder(dstUrl, dstFormat);
+            initOutput(output);
+            
+            for (int i = 0; i < segments; i++) {
+                s[i] = new Segment(i, bounds[i], bounds[i + 1], createTempFile(i), output.getMediaWriter());
+                t[i] = Execution.newThread(Execution.TRANSCODER, s[i], "TranscodeSegment-" + i, false);
+                t[i].start();
+            }
+            
+            LibavException error = null;
+            for (int i = 0; i < segments; i++) {
+                join(t[i]);
+                if (error == null)
+                    error = s[i].getError();
+            }
+            if (error != null)
+                throw error;
+            
+            IMediaWriter mw = output.getMediaWriter();
+            mw.writeHeader();
+            Stitcher stitcher = new Stitcher(mw);
+            for (int i = 0; i < segments; i++)
+                stitcher.append(s[i].getFile(), s[i].getStart(), i > 0);
+            mw.writeTrailer();
+        } finally {
+            for (int i = 0; i < segments; i++) {
+                if (s[i] != null && !s[i].getFile().delete())
+                    s[i].getFile().deleteOnExit();
+            }
+            if (output != null)
+                output.close();
+        }
+    }
+    
+    private void initOutput(IMediaEncoder me) throws LibavException {
+        IMediaReader mr = new DefaultMediaReader(srcUrl);
+        try {
+            initOutputStreams(mr, me.getMediaWriter());
+        } finally {
+            mr.close();
+        }
+    }
+    
+    private void initOutputStreams(IMediaReader mr, IMediaWriter mw) throws LibavException {
+        ICodecContextWrapper cc1, cc2;
+        int si;
+        
+        if (videoCodecId != null && mr.getVideoStreamCount() > 0) {
+            cc1 = mr.getVideoStream(0).getCodecContext();
+            int w = videoWidth > 0 ? videoWidth : cc1.getWidth();
+            int h = videoHeight > 0 ? videoHeight : cc1.getHeight();
+            si = mw.addVideoStream(videoCodecId, w, h);
+            cc2 = mw.getVideoStream(si).getCodecContext();
+            cc2.setPixelFormat(cc1.getPixelFormat());
+            if (videoBitRate > 0)
+                cc2.setBitRate(videoBitRate);
+        }
+        
+        if (audioCodecId != null && mr.getAudioStreamCount() > 0) {
+            cc1 = mr.getAudioStream(0).getCodecContext();
+            si = mw.addAudioStream(audioCodecId, cc1.getSampleRate(), cc1.getSampleFormat(), cc1.getChannels());
+            cc2 = mw.getAudioStream(si).getCodecContext();
+            if (audioBitRate > 0)
+                cc2.setBitRate(audioBitRate);
+        }
+        
+        if (mw.getStreamCount() == 0)
+            throw new LibavException("nothing to transcode");
+    }
+    
+    private File createTempFile(int index) throws LibavException {
+        try {
+            return File.createTempFile("segment-" + index + "-", ".mkv", tempDir);
+        } catch (IOException ex) {
+            throw new LibavException("unable to create a temporary file: " + ex.getMessage());
+        }
+    }
+    
+    private static void join(Thread t) throws LibavException {
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new LibavException("interrupted while waiting for segment transcoders");
+            }
+        }
+    }
+    
+    /**
+     * Find keyframe positions splitting the given media file into 
+     * (approximately) the given number of segments of equal length.
+     * 
+     * @param url a media URL
+     * @param segments requested number of segments
+     * @return segment boundaries in miliseconds; the first item is 0 and
+     * the last one is Long.MAX_VALUE
+     * @throws LibavException if an error occurs
+     */
+    public static long[] findSegmentBoundaries(String url, int segments) throws LibavException {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        IPacketWrapper packet = PacketWrapperFactory.getInstance().alloc();
+        List<Long> bounds = new ArrayList<Long>();
+        
+        try {
+            fc.findStreamInfo();
+            IStreamWrapper vs = null;
+            for (IStreamWrapper sw : fc.getStreams()) {
+                if (sw.getCodecContext().getCodecType() == MediaType.VIDEO) {
+                    vs = sw;
+                    break;
+                }
+            }
+            
+            bounds.add(0L);
+            long duration = fc.getDuration();
+            if (vs != null && duration > 0) {
+                Rational tb = vs.getTimeBase().mul(1000);
+                for (int i = 1; i < segments; i++) {
+                    long kf = findKeyFrame(fc, vs.getIndex(), tb, duration * i / segments, packet);
+                    if (kf > bounds.get(bounds.size() - 1))
+                        bounds.add(kf);
+                }
+            }
+            bounds.add(Long.MAX_VALUE);
+        } finally {
+            fc.close();
+        }
+        
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+        
+        return result;
+    }
+    
+    private static long findKeyFrame(IFormatContextWrapper fc, int streamIndex, Rational timeBase, long time, IPacketWrapper packet) throws LibavException {
+        fc.seekFile(0, time, time);
+        
+        long ts;
+        while (true) {
+            packet.init();
+            if (!fc.readNextPacket(packet))
+                return -1;
+            
+            try {
+                if (packet.getStreamIndex() == streamIndex && (packet.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0) {
+                    ts = packet.getPts();
+                    if (ts == AVUtilLibrary.AV_NOPTS_VALUE)
+                        ts = packet.getDts();
+                    return ts == AVUtilLibrary.AV_NOPTS_VALUE ? -1 : timeBase.mul(ts).longValue();
+                }
+            } finally {
+                packet.free();
+            }
+        }
+    }
+    
+    /**
+     * Transcoder of a single segment.
+     */
+    private class Segment implements Runnable, IFrameConsumer {
+        private final int index;
+        private final long start;
+        private final long end;
+        private final File file;
+        private final IMediaWriter output;
+        
+        private IEncoder videoEncoder;
+        private IEncoder audioEncoder;
+        private FrameScaler scaler;
+        private boolean videoDone;
+        private boolean audioDone;
+        
+        private LibavException error;
+
+        public Segment(int index, long start, long end, File file, IMediaWriter output) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.file = file;
+            this.output = output;
+            
+            error = null;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public LibavException getError() {
+            return error;
+        }
+
+        @Override
+        public void run() {
+            IMediaDecoder md = null;
+            IMediaEncoder me = null;
+            
+            try {
+                md = new DefaultMediaDecoder(srcUrl);
+                me = new DefaultMediaEncoder(file.getAbsolutePath(), SEGMENT_FORMAT);
+                transcode(md, me);
+            } catch (LibavException ex) {
+                error = ex;
+            } finally {
+                try {
+                    if (md != null)
+                        md.close();
+                    if (me != null)
+                        me.close();
+                } catch (LibavException ex) {
+                    Logger.getLogger(SegmentedTranscoder.class.getName()).log(Level.WARNING, "unable to close segment transcoder", ex);
+                }
+                if (scaler != null)
+                    scaler.dispose();
+            }
+        }
+        
+        private void transcode(IMediaDecoder md, IMediaEncoder me) throws LibavException {
+            IMediaReader mr = md.getMediaReader();
+            IMediaWriter mw = me.getMediaWriter();
+            initOutputStreams(mr, mw);
+            
+            for (int i = 0; i < mw.getStreamCount(); i++) {
+                // the segment encoders must produce the same bitstream as
+                // the output encoders would do
+                ICodecContextWrapper occ = output.getStream(i).getCodecContext();
+                ICodecContextWrapper scc = mw.getStream(i).getCodecContext();
+                scc.setFlags((scc.getFlags() & ~AVCodecLibrary.CODEC_FLAG_GLOBAL_HEADER) | (occ.getFlags() & AVCodecLibrary.CODEC_FLAG_GLOBAL_HEADER));
+            }
+            
+            ICodecContextWrapper cc1, cc2;
+            IDecoder dec;
+            videoDone = true;
+            audioDone = true;
+            videoEncoder = null;
+            audioEncoder = null;
+            
+            if (mw.getVideoStreamCount() > 0) {
+                md.setVideoStreamDecodingEnabled(0, true);
+                dec = md.getVideoStreamDecoder(0);
+                videoEncoder = me.getVideoStreamEncoder(0);
+                videoEncoder.setTimestampGenerator(createTimestampGenerator());
+                cc1 = dec.getCodecContext();
+                cc2 = videoEncoder.getCodecContext();
+                scaler = new FrameScaler(cc1.getWidth(), cc1.getHeight(), cc1.getPixelFormat(), cc2.getWidth(), cc2.getHeight(), cc2.getPixelFormat());
+                scaler.addFrameConsumer(videoEncoder);
+                dec.addFrameConsumer(this);
+                videoDone = false;
+            }
+            
+            if (mw.getAudioStreamCount() > 0) {
+                md.setAudioStreamDecodingEnabled(0, true);
+                dec = md.getAudioStreamDecoder(0);
+                audioEncoder = me.getAudioStreamEncoder(0);
+                audioEncoder.setTimestampGenerator(createTimestampGenerator());
+                dec.addFrameConsumer(this);
+                audioDone = false;
+            }
+            
+            mw.writeHeader();
+            if (start > 0)
+                mr.seek(start);
+            
+            while (!(videoDone && audioDone)) {
+                if (!mr.readNextPacket())
+                    break;
+            }
+            
+            md.flush();
+            me.flush();
+            mw.writeTrailer();
+            
+            Logger.getLogger(SegmentedTranscoder.class.getName()).log(Level.FINE, "segment {0} [{1}, {2}) done", new Object[] { index, start, end });
+        }
+        
+        private ITimestampGenerator createTimestampGenerator() {
+            // both streams share the same offset to keep them in sync
+            ITimestampGenerator result = new CopyTimestampGenerator();
+            result.setInputOffset(start);
+            return result;
+        }
+
+        @Override
+        public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+            boolean video = ((IDecoder)producer).getCodecContext().getCodecType() == MediaType.VIDEO;
+            long pts = frame.getPts();
+            
+            if (pts >= end) {
+                if (video)
+                    videoDone = true;
+                else
+                    audioDone = true;
+            } else if (pts >= start) {
+                if (video)
+                    scaler.processFrame(this, frame);
+                else
+                    audioEncoder.processFrame(this, frame);
+            }
+        }
+    }
+    
+    /**
+     * Concatenates segment files into the output file.
+     */
+    private static class Stitcher implements IPacketConsumer {
+        private final IMediaWriter mw;
+        private final Rational[] outTimeBases;
+        private final long[] lastDts;
+        
+        private Rational[] scale;
+        private long[] offset;
+        private boolean dropPriming;
+
+        public Stitcher(IMediaWriter mw) {
+            this.mw = mw;
+            
+            outTimeBases = new Rational[mw.getStreamCount()];
+            lastDts = new long[outTimeBases.length];
+            for (int i = 0; i < outTimeBases.length; i++) {
+                IStreamWrapper s = mw.getStream(i);
+                s.clearWrapperCache();
+                outTimeBases[i] = s.getTimeBase();
+                lastDts[i] = Long.MIN_VALUE;
+            }
+        }
+        
+        public void append(File file, long start, boolean dropPriming) throws LibavException {
+            IMediaReader mr = new DefaultMediaReader(file.getAbsolutePath());
+            try {
+                int n = Math.min(mr.getStreamCount(), outTimeBases.length);
+                scale = new Rational[n];
+                offset = new long[n];
+                for (int i = 0; i < n; i++) {
+                    scale[i] = mr.getStream(i).getTimeBase().div(outTimeBases[i]);
+                    offset[i] = new Rational(1, 1000).div(outTimeBases[i]).mul(start).longValue();
+                    mr.addPacketConsumer(i, this);
+                }
+                this.dropPriming = dropPriming;
+                
+                while (mr.readNextPacket());
+            } finally {
+                mr.close();
+            }
+        }
+
+        @Override
+        public void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+            int si = packet.getStreamIndex();
+            if (si >= scale.length)
+                return;
+            
+            long pts = packet.getPts();
+            long dts = packet.getDts();
+            boolean audio = mw.getStream(si).getCodecContext().getCodecType() == MediaType.AUDIO;
+            
+            // encoder delay (priming samples) would overlap with the end of
+            // the previous segment
+            if (dropPriming && audio && pts != AVUtilLibrary.AV_NOPTS_VALUE && pts < 0)
+                return;
+            
+            if (pts != AVUtilLibrary.AV_NOPTS_VALUE)
+                pts = scale[si].mul(pts).longValue() + offset[si];
+            if (dts != AVUtilLibrary.AV_NOPTS_VALUE) {
+                dts = scale[si].mul(dts).longValue() + offset[si];
+                // keep DTS monotonic across segment joints
+                if (dts <= lastDts[si])
+                    dts = lastDts[si] + 1;
+                if (pts != AVUtilLibrary.AV_NOPTS_VALUE && pts < dts)
+                    pts = dts;
+                lastDts[si] = dts;
+            }
+            
+            packet.setPts(pts);
+            packet.setDts(dts);
+            packet.setDuration(scale[si].mul(packet.getDuration()).intValue());
+            mw.processPacket(this, packet);
+        }
+    }
+    
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.SampleFormat;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.bridge.LibraryManager;
+import org.libav.util.Rational;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Media writer producing a sequence of fixed-duration segments and a rolling 
+ * HLS playlist (m3u8) from a single encode. A new segment is started at 
+ * the first key frame of the reference stream (the first video stream or 
+ * the first stream if there is no video stream) after the segment duration 
+ * elapses. Streams and codec contexts are created only once and they are 
+ * shared by all segments, so the encoders are not re-opened on segment 
+ * boundaries.
+ * 
+ * Segments are written into temporary files and renamed to their final 
+ * names once they are complete. The same applies to the playlist, so 
+ * a client never sees a partially written file.
+ * 
+ * @author Ondrej Perutka
+ */
+public class SegmentingMediaWriter implements IMediaWriter {
+    
+    /**
+     * Default segment duration (in milliseconds).
+     */
+    public static final long DEFAULT_SEGMENT_DURATION = 6000;
+    
+    /**
+     * Default number of segments listed in the playlist.
+     */
+    public static final int DEFAULT_PLAYLIST_SIZE = 5;
+    
+    private static final String TMP_SUFFIX = ".tmp";
+    
+    private static final AVUtilLibrary utilLib;
+    
+    static {
+        utilLib = LibraryManager.getInstance().getAVUtilLibrary();
+    }
+    
+    private final DefaultMediaWriter template;
+    private final SegmentFormat format;
+    private final File playlist;
+    private final File directory;
+    private final String baseName;
+    
+    private long segmentDuration;
+    private int playlistSize;
+    private boolean deleteSegments;
+    private boolean interleave;
+    
+    private IFormatContextWrapper segment;
+    private Rational[] segmentTimeBases;
+    private File segmentFile;
+    private long segmentStart;
+    private long segmentEnd;
+    private long sequence;
+    private int refStream;
+    
+    private final LinkedList<Segment> segments;
+    private final LinkedList<Segment> expired;
+    private long mediaSequence;
+    private long targetDuration;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter segmentCounter;
+    private final IHistogram segmentDurations;
+    
+    /**
+     * Create a new segmenting writer using the default segment duration and 
+     * playlist size. Segments are stored in the directory of the playlist 
+     * and their names are derived from the playlist name.
+     * 
+     * @param playlistFile a playlist file name (e.g. "/var/www/live.m3u8")
+     * @param format a segment format
+     * @throws LibavException if the output format is not available
+     */
+    public SegmentingMediaWriter(String playlistFile, SegmentFormat format) throws LibavException {
+        this(playlistFile, format, DEFAULT_SEGMENT_DURATION, DEFAULT_PLAYLIST_SIZE);
+    }
+    
+    /**
+     * Create a new segmenting writer. Segments are stored in the directory 
+     * of the playlist and their names are derived from the playlist name.
+     * 
+     * @param playlistFile a playlist file name (e.g. "/var/www/live.m3u8")
+     * @param format a segment format
+     * @param segmentDuration minimal segment duration (in milliseconds)
+     * @param playlistSize number of segments listed in the playlist (0 means
+     * all segments are listed and none of them is deleted)
+     * @throws LibavException if the output format is not available
+     */
+    public SegmentingMediaWriter(String playlistFile, SegmentFormat format, long segmentDuration, int playlistSize) throws LibavException {
+        if (segmentDuration <= 0)
+            throw new IllegalArgumentException("segment duration must be positive");
+        if (playlistSize < 0)
+            throw new IllegalArgumentException("playlist size must not be negative");
+        
+        template = new DefaultMediaWriter(null, format.getFormatName());
+        this.format = format;
+        this.segmentDuration = segmentDuration;
+        this.playlistSize = playlistSize;
+        
+        playlist = new File(playlistFile).getAbsoluteFile();
+        directory = playlist.getParentFile();
+        String name = playlist.getName();
+        int dot = name.lastIndexOf('.');
+        baseName = dot > 0 ? name.substring(0, dot) : name;
+        
+        deleteSegments = true;
+        interleave = true;
+        
+        segment = null;
+        segmentTimeBases = null;
+        segmentFile = null;
+        sequence = 0;
+        refStream = 0;
+        
+        segments = new LinkedList<Segment>();
+        expired = new LinkedList<Segment>();
+        mediaSequence = 0;
+        targetDuration = 0;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("segmenter");
+        segmentCounter = metrics.counter(metricPrefix + "segments");
+        segmentDurations = metrics.histogram(metricPrefix + "segmentDuration");
+    }
+    
+    /**
+     * Get minimal segment duration.
+     * 
+     * @return segment duration in milliseconds
+     */
+    public long getSegmentDuration() {
+        return segmentDuration;
+    }
+    
+    /**
+     * Set minimal segment duration. The actual duration of a segment depends
+     * on the key frame interval of the reference stream.
+     * 
+     * @param segmentDuration segment duration in milliseconds
+     */
+    public synchronized void setSegmentDuration(long segmentDuration) {
+        if (segmentDuration <= 0)
+            throw new IllegalArgumentException("segment duration must be positive");
+        
+        this.segmentDuration = segmentDuration;
+    }
+    
+    /**
+     * Get number of segments listed in the playlist.
+     * 
+     * @return playlist size (0 means unlimited)
+     */
+    public int getPlaylistSize() {
+        return playlistSize;
+    }
+    
+    /**
+     * Check whether the segments removed from the playlist are deleted.
+     * 
+     * @return true if the old segments are deleted, false otherwise
+     */
+    public boolean getDeleteSegments() {
+        return deleteSegments;
+    }
+    
+    /**
+     * Enable or disable deleting of the segments removed from the playlist.
+     * A segment is deleted once it has been out of the playlist for another 
+     * playlist length, so the clients which have just loaded the playlist 
+     * can still download it.
+     * 
+     * @param deleteSegments true to delete old segments
+     */
+    public synchronized void setDeleteSegments(boolean deleteSegments) {
+        this.deleteSegments = deleteSegments;
+    }
+    
+    /**
+     * Get number of completed segments.
+     * 
+     * @return number of completed segments
+     */
+    public synchronized long getSegmentCount() {
+        return segment == null ? sequence : sequence - 1;
+    }
+    
+    /**
+     * Get the segment format.
+     * 
+     * @return segment format
+     */
+    public SegmentFormat getSegmentFormat() {
+        return format;
+    }
+    
+    @Override
+    public IFormatContextWrapper getFormatContext() {
+        return template.getFormatContext();
+    }
+    
+    @Override
+    public boolean getInterleave() {
+        return interleave;
+    }
+    
+    @Override
+    public void setInterleave(boolean interleave) {
+        this.interleave = interleave;
+    }
+    
+    @Override
+    public int getStreamCount() {
+        return template.getStreamCount();
+    }
+    
+    @Override
+    public IStreamWrapper getStream(int streamIndex) {
+        return template.getStream(streamIndex);
+    }
+    
+    @Override
+    public int getVideoStreamCount() {
+        return template.getVideoStreamCount();
+    }
+    
+    @Override
+    public synchronized int addVideoStream(CodecID codecId, int width, int height) throws LibavException {
+        return template.addVideoStream(codecId, width, height);
+    }
+    
+    @Override
+    public IStreamWrapper getVideoStream(int videoStreamIndex) {
+        return template.getVideoStream(videoStreamIndex);
+    }
+    
+    @Override
+    public int getAudioStreamCount() {
+        return template.getAudioStreamCount();
+    }
+    
+    @Override
+    public synchronized int addAudioStream(CodecID codecId, int sampleRate, SampleFormat sampleFormat, int channelCount) throws LibavException {
+        return template.addAudioStream(codecId, sampleRate, sampleFormat, channelCount);
+    }
+    
+    @Override
+    public IStreamWrapper getAudioStream(int audioStreamIndex) {
+        return template.getAudioStream(audioStreamIndex);
+    }
+    
+    /**
+     * Start the first segment.
+     * 
+     * @throws LibavException if the segment cannot be created
+     */
+    @Override
+    public synchronized void writeHeader() throws LibavException {
+        if (isClosed() || segment != null)
+            return;
+        
+        if (template.getVideoStreamCount() > 0)
+            refStream = template.getVideoStream(0).getIndex();
+        else
+            refStream = 0;
+        
+        segmentStart = AVUtilLibrary.AV_NOPTS_VALUE;
+        segmentEnd = AVUtilLibrary.AV_NOPTS_VALUE;
+        startSegment();
+    }
+    
+    /**
+     * Finish the current segment and mark the playlist as complete.
+     * 
+     * @throws LibavException if the segment cannot be finished
+     */
+    @Override
+    public synchronized void writeTrailer() throws LibavException {
+        if (isClosed() || segment == null)
+            return;
+        
+        finishSegment(segmentEnd);
+        writePlaylist(true);
+    }
+    
+    @Override
+    public synchronized void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+        if (segment == null)
+            return;
+        
+        int si = packet.getStreamIndex();
+        long time = getTime(si, packet.getPts() == AVUtilLibrary.AV_NOPTS_VALUE ? packet.getDts() : packet.getPts());
+        
+        if (si == refStream && time != AVUtilLibrary.AV_NOPTS_VALUE) {
+            if (segmentStart == AVUtilLibrary.AV_NOPTS_VALUE)
+                segmentStart = time;
+            else if ((packet.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0 && time - segmentStart >= segmentDuration) {
+                finishSegment(time);
+                startSegment();
+                segmentStart = time;
+            }
+            
+            segmentEnd = Math.max(segmentEnd, time + getTime(si, packet.getDuration()));
+        }
+        
+        long pts = packet.getPts();
+        long dts = packet.getDts();
+        int duration = packet.getDuration();
+        
+        packet.setPts(rescale(si, pts));
+        packet.setDts(rescale(si, dts));
+        packet.setDuration((int)rescale(si, duration));
+        
+        try {
+            if (interleave)
+                segment.interleavedWritePacket(packet);
+            else
+                segment.writePacket(packet);
+        } finally {
+            packet.setPts(pts);
+            packet.setDts(dts);
+            packet.setDuration(duration);
+        }
+    }
+    
+    private long getTime(int streamIndex, long ts) {
+        if (ts == AVUtilLibrary.AV_NOPTS_VALUE)
+            return ts;
+        
+        Rational tb = template.getStream(streamIndex).getTimeBase();
+        return utilLib.av_rescale(ts, tb.getNumerator() * 1000, tb.getDenominator());
+    }
+    
+    private long rescale(int streamIndex, long ts) {
+        if (ts == AVUtilLibrary.AV_NOPTS_VALUE)
+            return ts;
+        
+        Rational src = template.getStream(streamIndex).getTimeBase();
+        Rational dst = segmentTimeBases[streamIndex];
+        if (src.equals(dst))
+            return ts;
+        
+        return utilLib.av_rescale(ts, src.getNumerator() * dst.getDenominator(), src.getDenominator() * dst.getNumerator());
+    }
+    
+    private void startSegment() throws LibavException {
+        segmentFile = new File(directory, baseName + "-" + sequence++ + format.getExtension());
+        
+        File tmp = new File(segmentFile.getPath() + TMP_SUFFIX);
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().createMedia(tmp.getPath(), format.getFormatName());
+        
+        try {
+            for (int i = 0; i < template.getStreamCount(); i++) {
+                IStreamWrapper ts = template.getStream(i);
+                IStreamWrapper s = fc.newStream();
+                s.getCodecContext().free();
+                s.setCodecContext(ts.getCodecContext());
+                s.setTimeBase(ts.getTimeBase());
+            }
+            
+            fc.writeHeader();
+        } catch (LibavException ex) {
+            releaseSegment(fc);
+            tmp.delete();
+            throw ex;
+        }
+        
+        // the muxer may change the stream time bases
+        fc.clearWrapperCache();
+        IStreamWrapper[] streams = fc.getStreams();
+        segmentTimeBases = new Rational[streams.length];
+        for (int i = 0; i < streams.length; i++)
+            segmentTimeBases[i] = streams[i].getTimeBase();
+        
+        segment = fc;
+    }
+    
+    private void finishSegment(long end) throws LibavException {
+        IFormatContextWrapper fc = segment;
+        segment = null;
+        
+        try {
+            fc.writeTrailer();
+        } finally {
+            releaseSegment(fc);
+        }
+        
+        File tmp = new File(segmentFile.getPath() + TMP_SUFFIX);
+        if (!rename(tmp, segmentFile))
+            throw new LibavException("unable to rename segment file: " + tmp);
+        
+        long duration = 0;
+        if (segmentStart != AVUtilLibrary.AV_NOPTS_VALUE && end != AVUtilLibrary.AV_NOPTS_VALUE)
+            duration = Math.max(end - segmentStart, 0);
+        
+        segmentCounter.increment();
+        segmentDurations.record(duration);
+        addSegment(new Segment(segmentFile, duration));
+    }
+    
+    private void releaseSegment(IFormatContextWrapper fc) {
+        fc.clearWrapperCache();
+        IStreamWrapper[] streams = fc.getStreams();
+        for (int i = 0; streams != null && i < streams.length; i++) {
+            // codec contexts are owned by the template streams
+            streams[i].setCodecContext(null);
+            streams[i].free();
+            fc.setStream(i, null);
+        }
+        fc.close();
+    }
+    
+    private void addSegment(Segment s) throws LibavException {
+        segments.add(s);
+        targetDuration = Math.max(targetDuration, (s.duration + 999) / 1000);
+        
+        while (playlistSize > 0 && segments.size() > playlistSize) {
+            expired.add(segments.removeFirst());
+            mediaSequence++;
+        }
+        while (expired.size() > playlistSize) {
+            Segment e = expired.removeFirst();
+            if (deleteSegments && !e.file.delete())
+                Logger.getLogger(getClass().getName()).log(Level.WARNING, "unable to delete segment file: {0}", e.file);
+        }
+        
+        writePlaylist(false);
+    }
+    
+    private void writePlaylist(boolean complete) throws LibavException {
+        File tmp = new File(playlist.getPath() + TMP_SUFFIX);
+        PrintWriter pw;
+        try {
+            pw = new PrintWriter(tmp, "UTF-8");
+        } catch (IOException ex) {
+            throw new LibavException("unable to write playlist: " + tmp, ex);
+        }
+        
+        long target = Math.max(targetDuration, (segmentDuration + 999) / 1000);
+        pw.print("#EXTM3U\n");
+        pw.print("#EXT-X-VERSION:3\n");
+        pw.printf("#EXT-X-TARGETDURATION:%d\n", target);
+        pw.printf("#EXT-X-MEDIA-SEQUENCE:%d\n", mediaSequence);
+        for (Segment s : segments) {
+            pw.printf(Locale.US, "#EXTINF:%.3f,\n", s.duration / 1000.0);
+            pw.printf("%s\n", s.file.getName());
+        }
+        if (complete)
+            pw.print("#EXT-X-ENDLIST\n");
+        pw.close();
+        
+        if (pw.checkError() || !rename(tmp, playlist))
+            throw new LibavException("unable to write playlist: " + playlist);
+    }
+    
+    private static boolean rename(File src, File dst) {
+        if (src.renameTo(dst))
+            return true;
+        
+        // rename does not replace existing files on some platforms
+        return dst.delete() && src.renameTo(dst);
+    }
+    
+    @Override
+    public String getSdp() throws LibavException {
+        throw new LibavException("SDP is not available for segmented output");
+    }
+    
+    @Override
+    public void createSdpFile(String fileName) throws LibavException, FileNotFoundException {
+        throw new LibavException("SDP is not available for segmented output");
+    }
+    
+    /**
+     * Close the writer. The current segment is discarded if the trailer 
+     * has not been written.
+     * 
+     * @throws LibavException if an error occurs while closing the writer
+     */
+    @Override
+    public synchronized void close() throws LibavException {
+        if (isClosed())
+            return;
+        
+        if (segment != null) {
+            releaseSegment(segment);
+            new File(segmentFile.getPath() + TMP_SUFFIX).delete();
+            segment = null;
+        }
+        
+        template.close();
+        metrics.removeAll(metricPrefix);
+    }
+    
+    @Override
+    public boolean isClosed() {
+        return template.isClosed();
+    }
+    
+    private static class Segment {
+        private final File file;
+        private final long duration;
+        
+        public Segment(File file, long duration) {
+            this.file = file;
+            this.duration = duration;
+        }
+    }
+    
+    /**
+     * Supported segment formats. Fragmented MP4 is not offered because HLS 
+     * requires fMP4 media segments sharing a separate initialization 
+     * segment (EXT-X-MAP), which the Libav mov muxer cannot produce when 
+     * every segment is written by its own muxer instance.
+     */
+    public static enum SegmentFormat {
+        /**
+         * MPEG transport stream segments.
+         */
+        MPEGTS("mpegts", ".ts");
+        
+        private final String formatName;
+        private final String extension;
+        
+        private SegmentFormat(String formatName, String extension) {
+            this.formatName = formatName;
+            this.extension = extension;
+        }
+        
+        /**
+         * Get the Libav output format name.
+         * 
+         * @return output format name
+         */
+        public String getFormatName() {
+            return formatName;
+        }
+        
+        /**
+         * Get the segment file extension.
+         * 
+         * @return file extension (including the dot)
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+    
+}
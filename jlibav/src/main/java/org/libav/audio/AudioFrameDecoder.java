@@ -17,9 +17,8 @@
  */
 package org.libav.audio;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import org.bridj.Pointer;
 import org.libav.IDecoder;
 import org.libav.LibavException;
@@ -31,6 +30,10 @@ import org.libav.avutil.bridge.AVUtilLibrary;
 import org.libav.bridge.LibraryManager;
 import org.libav.data.IFrameConsumer;
 import org.libav.util.Rational;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
 
 /**
  * Audio frame decoder.
@@ -52,6 +55,14 @@ public class AudioFrameDecoder implements IDecoder {
     private int sampleBufferSize;
     
     private final Set<IFrameConsumer> consumers;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter packetCounter;
+    private final ICounter byteCounter;
+    private final ICounter frameCounter;
+    private final ICounter droppedFrameCounter;
+    private final IHistogram decodeTime;
 
     /**
      * Create a new audio frame decoder for the given audio stream.
@@ -81,7 +92,15 @@ public class AudioFrameDecoder implements IDecoder {
         audioFrame.getData().set(0, sampleBuffer);
         audioFrame.getLineSize().set(0, sampleBufferSize);
 
-        consumers = Collections.synchronizedSet(new HashSet<IFrameConsumer>());
+        consumers = new CopyOnWriteArraySet<IFrameConsumer>();
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("audio-decoder");
+        packetCounter = metrics.counter(metricPrefix + "packets");
+        byteCounter = metrics.counter(metricPrefix + "bytes");
+        frameCounter = metrics.counter(metricPrefix + "frames");
+        droppedFrameCounter = metrics.counter(metricPrefix + "droppedFrames");
+        decodeTime = metrics.histogram(metricPrefix + "decodeTime");
     }
 
     @Override
@@ -104,6 +123,8 @@ public class AudioFrameDecoder implements IDecoder {
         
         audioFrame = null;
         sampleBuffer = null;
+        
+        metrics.removeAll(metricPrefix);
     }
     
     @Override
@@ -117,10 +138,13 @@ public class AudioFrameDecoder implements IDecoder {
             return;
         
         //System.out.printf("AP: dts = %d\n", sTimeBase.mul(packet.getDts()).longValue());
+        packetCounter.increment();
+        byteCounter.add(packet.getSize());
+        
         Pointer<Byte> tmp = packet.getData();
         while (packet.getSize() > 0) {
             audioFrame.getLineSize().set(0, sampleBufferSize);
-            if (cc.decodeAudioFrame(packet, audioFrame))
+            if (decode(packet))
                 sendFrame(transformPts(audioFrame));
         }
         packet.setData(tmp);
@@ -143,18 +167,40 @@ public class AudioFrameDecoder implements IDecoder {
         packet.setSize(0);
         packet.setData(null);
         audioFrame.getLineSize().set(0, sampleBufferSize);
-        if (cc.decodeAudioFrame(packet, audioFrame))
+        if (decode(packet))
             result = audioFrame;
         packet.free();
         
         return result;
     }
     
+    private boolean decode(IPacketWrapper packet) throws LibavException {
+        if (!metrics.isEnabled())
+            return cc.decodeAudioFrame(packet, audioFrame);
+        
+        long t = System.nanoTime();
+        boolean result = cc.decodeAudioFrame(packet, audioFrame);
+        decodeTime.record((System.nanoTime() - t) / 1000);
+        if (result)
+            frameCounter.increment();
+        
+        return result;
+    }
+    
+    /**
+     * Subclasses should call this method for every decoded frame they 
+     * decide not to send (e.g. because it is too late). It is used for 
+     * statistics only.
+     * 
+     * @param frame a dropped frame
+     */
+    protected void frameDropped(IFrameWrapper frame) {
+        droppedFrameCounter.increment();
+    }
+    
     protected void sendFrame(IFrameWrapper frame) throws LibavException {
-        synchronized (consumers) {
-            for (IFrameConsumer c : consumers)
-                c.processFrame(this, frame);
-        }
+        for (IFrameConsumer c : consumers)
+            c.processFrame(this, frame);
     }
     
     private IFrameWrapper transformPts(IFrameWrapper frame) {
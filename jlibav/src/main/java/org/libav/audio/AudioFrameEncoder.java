@@ -17,9 +17,9 @@
  */
 package org.libav.audio;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.bridj.Pointer;
 import org.libav.CopyTimestampGenerator;
 import org.libav.IEncoder;
@@ -34,6 +34,10 @@ import org.libav.avutil.bridge.AVUtilLibrary;
 import org.libav.bridge.LibraryManager;
 import org.libav.data.IPacketConsumer;
 import org.libav.util.Rational;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
 
 /**
  * Audio frame encoder.
@@ -66,8 +70,17 @@ public class AudioFrameEncoder implements IEncoder {
     private int offset;
     private Rational ptsTransformBase;
     private ITimestampGenerator timestampGenerator;
+    private final AtomicInteger pendingBitRate;
     
     private final Set<IPacketConsumer> consumers;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter frameCounter;
+    private final ICounter packetCounter;
+    private final ICounter byteCounter;
+    private final IHistogram encodeTime;
+    private final ICounter reopenCounter;
 
     /**
      * Create a new audio frame wncoder for the given audio stream.
@@ -103,8 +116,17 @@ public class AudioFrameEncoder implements IEncoder {
         flushFramePts = 0;
         ptsTransformBase = null;
         timestampGenerator = new CopyTimestampGenerator();
+        pendingBitRate = new AtomicInteger();
+        
+        consumers = new CopyOnWriteArraySet<IPacketConsumer>();
         
-        consumers = Collections.synchronizedSet(new HashSet<IPacketConsumer>());
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("audio-encoder");
+        frameCounter = metrics.counter(metricPrefix + "frames");
+        packetCounter = metrics.counter(metricPrefix + "packets");
+        byteCounter = metrics.counter(metricPrefix + "bytes");
+        encodeTime = metrics.histogram(metricPrefix + "encodeTime");
+        reopenCounter = metrics.counter(metricPrefix + "reopens");
     }
     
     @Override
@@ -117,6 +139,20 @@ public class AudioFrameEncoder implements IEncoder {
         return stream;
     }
 
+    @Override
+    public int getBitRate() {
+        int bitRate = pendingBitRate.get();
+        return bitRate > 0 ? bitRate : cc.getBitRate();
+    }
+    
+    @Override
+    public void setBitRate(int bitRate) {
+        if (bitRate <= 0)
+            throw new IllegalArgumentException("bit rate must be positive");
+        
+        pendingBitRate.set(bitRate);
+    }
+    
     @Override
     public ITimestampGenerator getTimestampGenerator() {
         return timestampGenerator;
@@ -141,6 +177,8 @@ public class AudioFrameEncoder implements IEncoder {
         buffer = null;
         tmpFrame = null;
         planes = null;
+        
+        metrics.removeAll(metricPrefix);
     }
     
     @Override
@@ -162,8 +200,11 @@ public class AudioFrameEncoder implements IEncoder {
             return;
         
         initEncoder();
+        if (pendingBitRate.get() > 0)
+            reopen();
         
         long pts;
+        frameCounter.increment();
         while ((pts = timestampGenerator.nextFrame(frame.getPts())) >= 0)
             encodeFrame(frame, pts);
     }
@@ -226,6 +267,40 @@ public class AudioFrameEncoder implements IEncoder {
         initialized = true;
     }
     
+    private void reopen() throws LibavException {
+        int bitRate = pendingBitRate.getAndSet(0);
+        
+        cc.clearWrapperCache();
+        if (bitRate == cc.getBitRate())
+            return;
+        if (cc.isClosed()) {
+            cc.setBitRate(bitRate);
+            return;
+        }
+        
+        // a drained encoder cannot continue, it has to be re-opened (samples
+        // buffered in this encoder are kept)
+        boolean gotPacket = true;
+        while (gotPacket) {
+            packet.init();
+            packet.setData(null);
+            packet.setSize(0);
+            if (gotPacket = encode(null)) {
+                packet.clearWrapperCache();
+                packet.setStreamIndex(stream.getIndex());
+                packet.setPts(ptsTransformBase.mul(flushFramePts).longValue());
+                packet.setDts(packet.getPts());
+                sendPacket(packet);
+                flushFramePts += frameDuration;
+            }
+        }
+        
+        cc.close();
+        cc.setBitRate(bitRate);
+        cc.open(CodecWrapperFactory.getInstance().findEncoder(cc.getCodecId()));
+        reopenCounter.increment();
+    }
+    
     private boolean flushFrame() throws LibavException {
         packet.init();
         packet.setData(null);
@@ -244,7 +319,7 @@ public class AudioFrameEncoder implements IEncoder {
         offset = 0;
 
         boolean result;
-        if (result = cc.encodeAudioFrame(sampleCount == 0 ? null : tmpFrame, packet)) {
+        if (result = encode(sampleCount == 0 ? null : tmpFrame)) {
             packet.clearWrapperCache();
             packet.setStreamIndex(stream.getIndex());
             packet.setPts(ptsTransformBase.mul(flushFramePts).longValue());
@@ -272,7 +347,7 @@ public class AudioFrameEncoder implements IEncoder {
                 packet.setData(null);
                 packet.setSize(0);
                 
-                if (cc.encodeAudioFrame(tmpFrame, packet)) {
+                if (encode(tmpFrame)) {
                     packet.clearWrapperCache();
                     //System.out.printf("encoding audio frame: pts = %d (pts_offset = %d, source_pts = %d)\n", pts, timestampGenerator.getOffset(), frame.getPts());
                     packet.setStreamIndex(stream.getIndex());
@@ -314,11 +389,23 @@ public class AudioFrameEncoder implements IEncoder {
         return tmp;
     }
     
+    private boolean encode(IFrameWrapper frame) throws LibavException {
+        if (!metrics.isEnabled())
+            return cc.encodeAudioFrame(frame, packet);
+        
+        long t = System.nanoTime();
+        boolean result = cc.encodeAudioFrame(frame, packet);
+        encodeTime.record((System.nanoTime() - t) / 1000);
+        
+        return result;
+    }
+    
     private void sendPacket(IPacketWrapper packet) throws LibavException {
-        synchronized (consumers) {
-            for (IPacketConsumer c : consumers)
-                c.processPacket(this, packet);
-        }
+        packetCounter.increment();
+        byteCounter.add(packet.getSize());
+        
+        for (IPacketConsumer c : consumers)
+            c.processPacket(this, packet);
     }
 
     @Override
@@ -17,9 +17,8 @@
  */
 package org.libav.audio;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import org.bridj.Pointer;
 import org.libav.LibavException;
 import org.libav.avcodec.FrameWrapperFactory;
@@ -89,7 +88,7 @@ public class AudioFrameResampler implements IFrameConsumer, IFrameProducer {
         
         init();
         
-        consumers = Collections.synchronizedSet(new HashSet<IFrameConsumer>());
+        consumers = new CopyOnWriteArraySet<IFrameConsumer>();
     }
     
     private void init() throws LibavException {
@@ -273,10 +272,8 @@ public class AudioFrameResampler implements IFrameConsumer, IFrameProducer {
     }
     
     private void sendFrame(IFrameWrapper frame) throws LibavException {
-        synchronized (consumers) {
-            for (IFrameConsumer c : consumers)
-                c.processFrame(this, frame);
-        }
+        for (IFrameConsumer c : consumers)
+            c.processFrame(this, frame);
     }
 
     @Override
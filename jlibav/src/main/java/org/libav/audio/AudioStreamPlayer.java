@@ -18,9 +18,11 @@
 package org.libav.audio;
 
 import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.sampled.*;
+import org.libav.util.concurrent.Execution;
 
 /**
  * Audio stream player. It provides audio playback via Java Sound API. It does
@@ -38,6 +40,7 @@ public class AudioStreamPlayer {
     
     private PlayerThread player;
     private Thread thread;
+    private ThreadFactory threadFactory;
     
     private float volume;
 
@@ -64,6 +67,7 @@ public class AudioStreamPlayer {
         
         this.player = new PlayerThread();
         this.thread = null;
+        this.threadFactory = null;
         
         this.volume = 1f;
     }
@@ -85,6 +89,17 @@ public class AudioStreamPlayer {
         this(inputStream, openDataLine(outputFormat));
     }
     
+    /**
+     * Set thread factory used to create the player thread. If it is null, 
+     * the factory configured for the Execution.AUDIO_PLAYER component is 
+     * used.
+     * 
+     * @param threadFactory a thread factory
+     */
+    public synchronized void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+    
     /**
      * Start audio playback.
      */
@@ -94,8 +109,10 @@ public class AudioStreamPlayer {
         
         stop = false;
         running = true;
-        thread = new Thread(player, "AudioPlayer thread");
-        thread.setDaemon(true);
+        if (threadFactory == null)
+            thread = Execution.newThread(Execution.AUDIO_PLAYER, player, "AudioPlayer thread", true);
+        else
+            thread = Execution.newThread(threadFactory, player, "AudioPlayer thread", true);
         thread.start();
     }
     
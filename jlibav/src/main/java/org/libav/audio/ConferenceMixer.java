@@ -0,0 +1,641 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import org.libav.LibavException;
+import org.libav.avutil.SampleFormat;
+
+/**
+ * Server-side conference mixer. Every participant pushes its decoded audio 
+ * frames into the mixer and receives a mix of all other participants 
+ * ("mix-minus"). The sum of all contributions is computed only once per
+ * mixing period and the own contribution of each participant is subtracted
+ * from it, so the mixing cost grows linearly with the number of 
+ * participants.
+ * 
+ * Only the loudest participants (active speakers) contribute to the mix.
+ * All other participants receive the very same output frame, so the cost
+ * of a silent participant is just the cost of pulling its input. Input 
+ * samples are kept as floats in a per-participant jitter buffer; the 
+ * participant is not mixed until its jitter buffer is filled up to the 
+ * configured delay (again after every underrun).
+ * 
+ * The mixer has no clock. The mix() method has to be called once per 
+ * mixing period (i.e. every frameSampleCount / sampleRate seconds). All 
+ * input frames must have the sample rate and the channel count of the 
+ * mixer; use the AudioFrameResampler or the Frame2AudioFrameAdapter to 
+ * convert them. Only packed sample formats are supported.
+ * 
+ * Output frames are reused. Consumers must not modify them or keep 
+ * references to them after the processFrame() call.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ConferenceMixer {
+    
+    /**
+     * Default maximum number of active speakers.
+     */
+    public static final int DEFAULT_MAX_ACTIVE_SPEAKERS = 3;
+    
+    /**
+     * Default jitter buffer delay in frames.
+     */
+    public static final int DEFAULT_JITTER_DELAY = 2;
+    
+    /**
+     * Default jitter buffer capacity in frames.
+     */
+    public static final int DEFAULT_JITTER_CAPACITY = 8;
+    
+    /**
+     * Default minimum level (mean square of the samples) of an active 
+     * speaker. It is approximately -50 dBFS.
+     */
+    public static final float DEFAULT_SPEECH_THRESHOLD = 1e-5f;
+    
+    private static final float LEVEL_DECAY = 0.7f;
+    
+    private final int sampleRate;
+    private final int channelCount;
+    private final int frameSampleCount;
+    private final int frameLength;
+    private final SampleFormat outputFormat;
+    private final int outputBytesPerSample;
+    
+    private final List<Participant> participants;
+    private volatile int maxActiveSpeakers;
+    private volatile float speechThreshold;
+    private volatile int jitterDelay;
+    private final int jitterCapacity;
+    
+    private final float[] mix;
+    private final float[] scratch;
+    private Participant[] speakers;
+    private final Output commonOutput;
+    private long mixCount;
+    
+    /**
+     * Create a new conference mixer.
+     * 
+     * @param sampleRate sample rate of the input and output frames
+     * @param channelCount number of channels of the input and output frames
+     * @param frameSampleCount number of samples per channel mixed in one 
+     * mixing period (e.g. 960 for 20 ms at 48 kHz)
+     * @param outputFormat sample format of the output frames (it must be
+     * a packed sample format)
+     */
+    public ConferenceMixer(int sampleRate, int channelCount, int frameSampleCount, SampleFormat outputFormat) {
+        this(sampleRate, channelCount, frameSampleCount, outputFormat, DEFAULT_JITTER_CAPACITY);
+    }
+    
+    /**
+     * Create a new conference mixer.
+     * 
+     * @param sampleRate sample rate of the input and output frames
+     * @param channelCount number of channels of the input and output frames
+     * @param frameSampleCount number of samples per channel mixed in one 
+     * mixing period (e.g. 960 for 20 ms at 48 kHz)
+     * @param outputFormat sample format of the output frames (it must be
+     * a packed sample format)
+     * @param jitterCapacity capacity of the participant jitter buffers in
+     * frames (the oldest samples are dropped if a participant sends more
+     * data than the jitter buffer can hold)
+     */
+    public ConferenceMixer(int sampleRate, int channelCount, int frameSampleCount, SampleFormat outputFormat, int jitterCapacity) {
+        if (outputFormat.isPlanar())
+            throw new IllegalArgumentException("planar sample formats are not supported");
+        if (channelCount < 1 || frameSampleCount < 1)
+            throw new IllegalArgumentException("channel count and frame size must be positive");
+        if (jitterCapacity < 2)
+            throw new IllegalArgumentException("jitter buffer capacity must be at least two frames");
+        
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.frameSampleCount = frameSampleCount;
+        this.frameLength = frameSampleCount * channelCount;
+        this.outputFormat = outputFormat;
+        this.outputBytesPerSample = outputFormat.getBytesPerSample();
+        this.jitterCapacity = jitterCapacity;
+        
+        participants = new CopyOnWriteArrayList<Participant>();
+        maxActiveSpeakers = DEFAULT_MAX_ACTIVE_SPEAKERS;
+        speechThreshold = DEFAULT_SPEECH_THRESHOLD;
+        jitterDelay = Math.min(DEFAULT_JITTER_DELAY, jitterCapacity - 1);
+        
+        mix = new float[frameLength];
+        scratch = new float[frameLength];
+        speakers = new Participant[maxActiveSpeakers];
+        commonOutput = new Output();
+        mixCount = 0;
+    }
+    
+    /**
+     * Get sample rate of the mixer.
+     * 
+     * @return sample rate
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    
+    /**
+     * Get number of channels.
+     * 
+     * @return number of channels
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+    
+    /**
+     * Get number of samples per channel mixed in one mixing period.
+     * 
+     * @return number of samples per channel
+     */
+    public int getFrameSampleCount() {
+        return frameSampleCount;
+    }
+    
+    /**
+     * Get sample format of the output frames.
+     * 
+     * @return sample format
+     */
+    public SampleFormat getOutputFormat() {
+        return outputFormat;
+    }
+    
+    /**
+     * Get maximum number of participants mixed at once.
+     * 
+     * @return maximum number of active speakers
+     */
+    public int getMaxActiveSpeakers() {
+        return maxActiveSpeakers;
+    }
+    
+    /**
+     * Set maximum number of participants mixed at once. Only the loudest 
+     * participants are mixed.
+     * 
+     * @param maxActiveSpeakers maximum number of active speakers
+     */
+    public void setMaxActiveSpeakers(int maxActiveSpeakers) {
+        if (maxActiveSpeakers < 1)
+            throw new IllegalArgumentException("there must be at least one active speaker");
+        
+        this.maxActiveSpeakers = maxActiveSpeakers;
+    }
+    
+    /**
+     * Get minimum level of an active speaker.
+     * 
+     * @return minimum level (mean square of the samples)
+     */
+    public float getSpeechThreshold() {
+        return speechThreshold;
+    }
+    
+    /**
+     * Set minimum level of an active speaker. Participants with lower 
+     * (smoothed) level are never mixed.
+     * 
+     * @param speechThreshold minimum level (mean square of the samples in 
+     * the [-1, 1] range)
+     */
+    public void setSpeechThreshold(float speechThreshold) {
+        this.speechThreshold = speechThreshold;
+    }
+    
+    /**
+     * Get jitter buffer delay.
+     * 
+     * @return jitter buffer delay in frames
+     */
+    public int getJitterDelay() {
+        return jitterDelay;
+    }
+    
+    /**
+     * Set number of frames which must be buffered before a participant 
+     * (re)joins the mix.
+     * 
+     * @param jitterDelay jitter buffer delay in frames
+     */
+    public void setJitterDelay(int jitterDelay) {
+        if (jitterDelay < 1 || jitterDelay >= jitterCapacity)
+            throw new IllegalArgumentException("jitter delay must be between 1 and the jitter buffer capacity");
+        
+        this.jitterDelay = jitterDelay;
+    }
+    
+    /**
+     * Get number of mixing periods processed so far.
+     * 
+     * @return number of mixing periods
+     */
+    public synchronized long getMixCount() {
+        return mixCount;
+    }
+    
+    /**
+     * Add a new participant. Its input frames are passed to its 
+     * processFrame() method and its mix-minus output frames are delivered
+     * to its audio frame consumers.
+     * 
+     * @return participant
+     */
+    public Participant addParticipant() {
+        Participant result = new Participant();
+        participants.add(result);
+        return result;
+    }
+    
+    /**
+     * Remove the given participant from the conference.
+     * 
+     * @param participant a participant
+     */
+    public void removeParticipant(Participant participant) {
+        participants.remove(participant);
+    }
+    
+    /**
+     * Get number of participants.
+     * 
+     * @return number of participants
+     */
+    public int getParticipantCount() {
+        return participants.size();
+    }
+    
+    /**
+     * Mix one frame and send the mix-minus output frames to all participants.
+     * 
+     * @throws LibavException if a consumer throws it
+     */
+    public synchronized void mix() throws LibavException {
+        int maxSpeakers = maxActiveSpeakers;
+        float threshold = speechThreshold;
+        int delay = jitterDelay;
+        int speakerCount = 0;
+        int i, j;
+        
+        if (speakers.length != maxSpeakers)
+            speakers = new Participant[maxSpeakers];
+        
+        // pull the inputs and select the loudest participants
+        for (Participant p : participants) {
+            p.speaking = false;
+            if (!p.pull(delay) || p.level < threshold)
+                continue;
+            
+            for (i = speakerCount; i > 0 && speakers[i - 1].level < p.level; i--) {
+                if (i < maxSpeakers)
+                    speakers[i] = speakers[i - 1];
+            }
+            if (i < maxSpeakers) {
+                speakers[i] = p;
+                if (speakerCount < maxSpeakers)
+                    speakerCount++;
+            }
+        }
+        
+        Arrays.fill(mix, 0);
+        for (i = 0; i < speakerCount; i++) {
+            float[] current = speakers[i].current;
+            speakers[i].speaking = true;
+            for (j = 0; j < frameLength; j++)
+                mix[j] += current[j];
+            speakers[i] = null;
+        }
+        
+        commonOutput.encode(mix);
+        
+        for (Participant p : participants) {
+            if (p.speaking) {
+                float[] current = p.current;
+                for (j = 0; j < frameLength; j++)
+                    scratch[j] = mix[j] - current[j];
+                p.output.encode(scratch);
+                p.send(p.output.frame);
+            } else
+                p.send(commonOutput.frame);
+        }
+        
+        mixCount++;
+    }
+    
+    private static int toFloat(SampleFormat format, ByteBuffer src, int srcIndex, float[] dst, int dstOffset, int count) {
+        int end = dstOffset + count;
+        switch (format) {
+            case U8:
+                for (int i = dstOffset; i < end; i++)
+                    dst[i] = ((src.get(srcIndex++) & 0xff) - 128) / 128f;
+                break;
+            case S16:
+                for (int i = dstOffset; i < end; i++)
+                    dst[i] = src.getShort(2 * srcIndex++) / 32768f;
+                break;
+            case S32:
+                for (int i = dstOffset; i < end; i++)
+                    dst[i] = (float)(src.getInt(4 * srcIndex++) / 2147483648.0);
+                break;
+            case FLT:
+                for (int i = dstOffset; i < end; i++)
+                    dst[i] = src.getFloat(4 * srcIndex++);
+                break;
+            case DBL:
+                for (int i = dstOffset; i < end; i++)
+                    dst[i] = (float)src.getDouble(8 * srcIndex++);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported sample format: " + format);
+        }
+        
+        return srcIndex;
+    }
+    
+    private static void fromFloat(SampleFormat format, float[] src, ByteBuffer dst, int count) {
+        float s;
+        switch (format) {
+            case U8:
+                for (int i = 0; i < count; i++) {
+                    s = Math.max(-1f, Math.min(src[i], 1f));
+                    dst.put(i, (byte)Math.min(255, (int)(s * 128f) + 128));
+                }
+                break;
+            case S16:
+                for (int i = 0; i < count; i++) {
+                    s = Math.max(-1f, Math.min(src[i], 1f));
+                    dst.putShort(2 * i, (short)(s * 32767f));
+                }
+                break;
+            case S32:
+                for (int i = 0; i < count; i++) {
+                    s = Math.max(-1f, Math.min(src[i], 1f));
+                    dst.putInt(4 * i, (int)(s * 2147483647.0));
+                }
+                break;
+            case FLT:
+                for (int i = 0; i < count; i++)
+                    dst.putFloat(4 * i, Math.max(-1f, Math.min(src[i], 1f)));
+                break;
+            case DBL:
+                for (int i = 0; i < count; i++)
+                    dst.putDouble(8 * i, Math.max(-1f, Math.min(src[i], 1f)));
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported sample format: " + format);
+        }
+    }
+    
+    private class Output {
+        private final ByteBuffer buffer;
+        private final AudioFrame frame;
+        
+        public Output() {
+            byte[] data = new byte[frameLength * outputBytesPerSample];
+            buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+            frame = new AudioFrame(data, channelCount, outputFormat, sampleRate);
+        }
+        
+        public void encode(float[] samples) {
+            fromFloat(outputFormat, samples, buffer, frameLength);
+        }
+    }
+    
+    /**
+     * Conference participant. It consumes the participant's audio and it 
+     * produces the mix of all other active speakers.
+     */
+    public class Participant implements IAudioFrameConsumer, IAudioFrameProducer {
+        private final Set<IAudioFrameConsumer> consumers;
+        
+        private final float[] ring;
+        private int readIndex;
+        private int available;
+        private boolean buffering;
+        
+        private volatile float volume;
+        private final float[] current;
+        private volatile float level;
+        private volatile boolean speaking;
+        private final Output output;
+        
+        private long underrunCount;
+        private long droppedSampleCount;
+        
+        private Participant() {
+            consumers = new CopyOnWriteArraySet<IAudioFrameConsumer>();
+            
+            ring = new float[jitterCapacity * frameLength];
+            readIndex = 0;
+            available = 0;
+            buffering = true;
+            
+            volume = 1f;
+            current = new float[frameLength];
+            level = 0;
+            speaking = false;
+            output = new Output();
+            
+            underrunCount = 0;
+            droppedSampleCount = 0;
+        }
+        
+        /**
+         * Get volume of this participant.
+         * 
+         * @return volume
+         */
+        public float getVolume() {
+            return volume;
+        }
+        
+        /**
+         * Set volume of this participant (its gain in the mix).
+         * 
+         * @param volume a volume
+         */
+        public void setVolume(float volume) {
+            this.volume = volume;
+        }
+        
+        /**
+         * Get smoothed level of this participant.
+         * 
+         * @return mean square of the recent samples
+         */
+        public float getLevel() {
+            return level;
+        }
+        
+        /**
+         * Check whether this participant was mixed in the last mixing 
+         * period.
+         * 
+         * @return true if the participant is an active speaker, false 
+         * otherwise
+         */
+        public boolean isSpeaking() {
+            return speaking;
+        }
+        
+        /**
+         * Get number of samples (of all channels) in the jitter buffer.
+         * 
+         * @return number of buffered samples
+         */
+        public synchronized int getBufferedSampleCount() {
+            return available;
+        }
+        
+        /**
+         * Get number of jitter buffer underruns.
+         * 
+         * @return number of underruns
+         */
+        public synchronized long getUnderrunCount() {
+            return underrunCount;
+        }
+        
+        /**
+         * Get number of samples (of all channels) dropped because of 
+         * a jitter buffer overflow.
+         * 
+         * @return number of dropped samples
+         */
+        public synchronized long getDroppedSampleCount() {
+            return droppedSampleCount;
+        }
+        
+        /**
+         * Append interleaved samples to the jitter buffer of this participant.
+         * 
+         * @param samples samples in the [-1, 1] range
+         * @param offset offset of the first sample
+         * @param count number of samples (of all channels)
+         */
+        public void write(float[] samples, int offset, int count) {
+            write(SampleFormat.FLT, null, samples, offset, count);
+        }
+        
+        @Override
+        public void processFrame(Object producer, AudioFrame frame) throws LibavException {
+            if (frame.getSampleRate() != sampleRate || frame.getChannelCount() != channelCount)
+                throw new IllegalArgumentException("the audio frame does not match the mixer sample rate or channel count");
+            if (frame.getSampleFormat().isPlanar())
+                throw new IllegalArgumentException("planar sample formats are not supported");
+            
+            SampleFormat format = frame.getSampleFormat();
+            ByteBuffer bb = ByteBuffer.wrap(frame.getSamples(), 0, frame.getFrameSize()).order(ByteOrder.nativeOrder());
+            int count = frame.getFrameSize() / format.getBytesPerSample();
+            write(format, bb, null, 0, count - count % channelCount);
+        }
+        
+        private synchronized void write(SampleFormat format, ByteBuffer bb, float[] samples, int offset, int count) {
+            if (count > ring.length) {
+                offset += count - ring.length;
+                droppedSampleCount += count - ring.length;
+                count = ring.length;
+            }
+            
+            int overflow = available + count - ring.length;
+            if (overflow > 0) {
+                readIndex = (readIndex + overflow) % ring.length;
+                available -= overflow;
+                droppedSampleCount += overflow;
+            }
+            
+            int writeIndex = (readIndex + available) % ring.length;
+            int n = Math.min(count, ring.length - writeIndex);
+            if (bb == null) {
+                System.arraycopy(samples, offset, ring, writeIndex, n);
+                System.arraycopy(samples, offset + n, ring, 0, count - n);
+            } else {
+                offset = toFloat(format, bb, offset, ring, writeIndex, n);
+                toFloat(format, bb, offset, ring, 0, count - n);
+            }
+            
+            available += count;
+        }
+        
+        private synchronized boolean pull(int delay) {
+            if (buffering) {
+                if (available < delay * frameLength) {
+                    level *= LEVEL_DECAY;
+                    return false;
+                }
+                buffering = false;
+            }
+            
+            if (available < frameLength) {
+                buffering = true;
+                underrunCount++;
+                level *= LEVEL_DECAY;
+                return false;
+            }
+            
+            float vol = volume;
+            float sum = 0;
+            float s;
+            int n = Math.min(frameLength, ring.length - readIndex);
+            for (int i = 0; i < n; i++) {
+                s = ring[readIndex + i] * vol;
+                current[i] = s;
+                sum += s * s;
+            }
+            for (int i = n; i < frameLength; i++) {
+                s = ring[i - n] * vol;
+                current[i] = s;
+                sum += s * s;
+            }
+            
+            readIndex = (readIndex + frameLength) % ring.length;
+            available -= frameLength;
+            level = level * LEVEL_DECAY + (sum / frameLength) * (1 - LEVEL_DECAY);
+            
+            return true;
+        }
+        
+        private void send(AudioFrame frame) throws LibavException {
+            for (IAudioFrameConsumer c : consumers)
+                c.processFrame(this, frame);
+        }
+        
+        @Override
+        public void addAudioFrameConsumer(IAudioFrameConsumer consumer) {
+            consumers.add(consumer);
+        }
+        
+        @Override
+        public void removeAudioFrameConsumer(IAudioFrameConsumer consumer) {
+            consumers.remove(consumer);
+        }
+    }
+    
+}
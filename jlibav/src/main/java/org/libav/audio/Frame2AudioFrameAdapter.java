@@ -17,9 +17,8 @@
  */
 package org.libav.audio;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import org.bridj.Pointer;
 import org.libav.LibavException;
 import org.libav.avcodec.IFrameWrapper;
@@ -49,7 +48,7 @@ public class Frame2AudioFrameAdapter implements IFrameConsumer, IAudioFrameProdu
      */
     public Frame2AudioFrameAdapter(long inputChannelLayout, long outputChannelLayout, int inputSampleRate, int outputSampleRate, SampleFormat inputSampleFormat, SampleFormat outputSampleFormat) throws LibavException {
         resampler = new AudioFrameResampler(inputChannelLayout, outputChannelLayout, inputSampleRate, outputSampleRate, inputSampleFormat, outputSampleFormat);
-        consumers = Collections.synchronizedSet(new HashSet<IAudioFrameConsumer>());
+        consumers = new CopyOnWriteArraySet<IAudioFrameConsumer>();
         
         resampler.addFrameConsumer(new ResampledFrameConsumer());
     }
@@ -169,10 +168,8 @@ public class Frame2AudioFrameAdapter implements IFrameConsumer, IAudioFrameProdu
                     resampler.getOutputSampleFormat(), 
                     resampler.getOutputSampleRate());
         
-            synchronized (consumers) {
-                for (IAudioFrameConsumer c : consumers)
-                    c.processFrame(this, af);
-            }
+            for (IAudioFrameConsumer c : consumers)
+                c.processFrame(this, af);
         }
     }
     
@@ -32,6 +32,7 @@ public abstract class AbstractCodecContextWrapper implements ICodecContextWrappe
     protected IFrameWrapper codedFrame;
     protected MediaType codecType;
     protected CodecID codecId;
+    protected Integer codecTag;
     protected Integer flags;
     protected Integer width;
     protected Integer height;
@@ -48,11 +49,16 @@ public abstract class AbstractCodecContextWrapper implements ICodecContextWrappe
     protected Integer sampleRate;
     protected SampleFormat sampleFormat;
     protected Integer frameSize;
+    protected Integer skipFrame;
+    protected Integer skipLoopFilter;
+    protected Integer skipIdct;
+    protected Integer lowres;
     
     public AbstractCodecContextWrapper() {
         codedFrame = null;
         codecType = null;
         codecId = null;
+        codecTag = null;
         flags = null;
         width = null;
         height = null;
@@ -69,12 +75,17 @@ public abstract class AbstractCodecContextWrapper implements ICodecContextWrappe
         sampleRate = null;
         sampleFormat = null;
         frameSize = null;
+        skipFrame = null;
+        skipLoopFilter = null;
+        skipIdct = null;
+        lowres = null;
     }
     
     @Override
     public void clearWrapperCache() {
         codecType = null;
         codecId = null;
+        codecTag = null;
         flags = null;
         width = null;
         height = null;
@@ -91,6 +102,10 @@ public abstract class AbstractCodecContextWrapper implements ICodecContextWrappe
         sampleRate = null;
         sampleFormat = null;
         frameSize = null;
+        skipFrame = null;
+        skipLoopFilter = null;
+        skipIdct = null;
+        lowres = null;
     }
     
 }
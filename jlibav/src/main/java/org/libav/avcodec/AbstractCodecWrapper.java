@@ -38,6 +38,7 @@ public abstract class AbstractCodecWrapper implements ICodecWrapper {
     protected int[] supportedSampleRates;
     protected SampleFormat[] supportedSampleFormats;
     protected long[] supportedChannelLayouts;
+    protected Integer maxLowres;
 
     public AbstractCodecWrapper() {
         id = null;
@@ -49,6 +50,7 @@ public abstract class AbstractCodecWrapper implements ICodecWrapper {
         supportedSampleRates = null;
         supportedSampleFormats = null;
         supportedChannelLayouts = null;
+        maxLowres = null;
     }
 
     @Override
@@ -62,6 +64,7 @@ public abstract class AbstractCodecWrapper implements ICodecWrapper {
         supportedSampleRates = null;
         supportedSampleFormats = null;
         supportedChannelLayouts = null;
+        maxLowres = null;
     }
     
 }
@@ -17,7 +17,12 @@
  */
 package org.libav.avcodec;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import org.bridj.Pointer;
+import org.libav.avutil.PictureType;
+import org.libav.avutil.PixelFormat;
+import org.libav.avutil.PlaneLayout;
 
 /**
  * Abstract wrapper for the AVFrame.
@@ -30,6 +35,7 @@ public abstract class AbstractFrameWrapper implements IFrameWrapper {
     protected Pointer<Pointer<Byte>> extendedData;
     protected Pointer<Integer> lineSize;
     protected Boolean keyFrame;
+    protected PictureType pictureType;
     protected Long pts;
     protected Integer repeatPicture;
     protected Long packetDts;
@@ -41,6 +47,7 @@ public abstract class AbstractFrameWrapper implements IFrameWrapper {
         extendedData = null;
         lineSize = null;
         keyFrame = null;
+        pictureType = null;
         pts = null;
         repeatPicture = null;
         packetPts = null;
@@ -54,6 +61,7 @@ public abstract class AbstractFrameWrapper implements IFrameWrapper {
         extendedData = null;
         lineSize = null;
         keyFrame = null;
+        pictureType = null;
         pts = null;
         repeatPicture = null;
         packetPts = null;
@@ -61,4 +69,35 @@ public abstract class AbstractFrameWrapper implements IFrameWrapper {
         nbSamples = null;
     }
     
+    @Override
+    public ByteBuffer getPlaneBuffer(int plane, int lines) {
+        Pointer<Pointer<Byte>> d = getData();
+        Pointer<Integer> ls = getLineSize();
+        if (d == null || ls == null || plane < 0 || plane >= getDataLength())
+            return null;
+        
+        Pointer<Byte> p = d.get(plane);
+        if (p == null)
+            return null;
+        
+        int stride = ls.get(plane);
+        if (stride < 0)
+            throw new IllegalStateException("bottom-up planes are not supported");
+        
+        return p.getByteBuffer((long)stride * lines).asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+    
+    @Override
+    public ByteBuffer[] getPlaneBuffers(PixelFormat pixelFormat, int height) {
+        int count = PlaneLayout.getPlaneCount(pixelFormat);
+        if (count < 0)
+            throw new IllegalArgumentException("unknown plane layout: " + pixelFormat);
+        
+        ByteBuffer[] result = new ByteBuffer[count];
+        for (int i = 0; i < count; i++)
+            result[i] = getPlaneBuffer(i, PlaneLayout.getPlaneHeight(pixelFormat, i, height));
+        
+        return result;
+    }
+    
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.avcodec;
+
+import org.bridj.Pointer;
+import org.libav.LibavException;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.bridge.IWrapper;
+import org.libav.bridge.LibraryManager;
+
+/**
+ * Wrapper class for the AVBitStreamFilterContext. Bitstream filters alter 
+ * the coded data without decoding it (e.g. "h264_mp4toannexb" converts H.264 
+ * from the AVCC to the Annex B format and "aac_adtstoasc" removes ADTS 
+ * headers and creates AudioSpecificConfig extradata).
+ * 
+ * @author Ondrej Perutka
+ */
+public class BitstreamFilterWrapper implements IWrapper {
+    
+    private static final AVCodecLibrary codecLib;
+    private static final AVUtilLibrary utilLib;
+    
+    static {
+        LibraryManager lm = LibraryManager.getInstance();
+        codecLib = lm.getAVCodecLibrary();
+        utilLib = lm.getAVUtilLibrary();
+    }
+    
+    private Pointer<?> context;
+    private final String name;
+    
+    private final Pointer<Pointer<Byte>> outputBufferRef;
+    private final Pointer<Integer> outputSizeRef;
+    private Pointer<Byte> outputBuffer;
+    
+    /**
+     * Create a new wrapper for the given AVBitStreamFilterContext.
+     * 
+     * @param context pointer to an AVBitStreamFilterContext
+     * @param name filter name
+     */
+    public BitstreamFilterWrapper(Pointer<?> context, String name) {
+        this.context = context;
+        this.name = name;
+        
+        outputBufferRef = Pointer.allocatePointer(Byte.class);
+        outputSizeRef = Pointer.allocateInt();
+        outputBuffer = null;
+    }
+    
+    @Override
+    public void clearWrapperCache() {
+    }
+    
+    @Override
+    public Pointer<?> getPointer() {
+        return context;
+    }
+    
+    @Override
+    public void rebind(Pointer<?> pointer) {
+        context = pointer;
+    }
+    
+    /**
+     * Get name of this filter.
+     * 
+     * @return filter name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Filter data of the given packet. The data and size of the packet are 
+     * replaced with the filtered data. If the filter allocates a new buffer, 
+     * the buffer is owned by this filter and it is valid until the next call
+     * of the filter(), releaseOutput() or close() method. Other properties 
+     * of the packet are left untouched.
+     * 
+     * NOTE: The packet must not own the data it points to if the filter 
+     * allocates a new buffer (the original buffer would leak), use a packet
+     * referencing the original data instead.
+     * 
+     * @param codecContext codec context of the output stream (the filter
+     * may update its extradata)
+     * @param packet a packet
+     * @return true if the packet data has been replaced with a buffer 
+     * allocated by this filter, false otherwise
+     * @throws LibavException if the data cannot be filtered
+     */
+    public boolean filter(ICodecContextWrapper codecContext, IPacketWrapper packet) throws LibavException {
+        if (context == null)
+            throw new IllegalStateException("the bitstream filter has been closed");
+        
+        releaseOutput();
+        
+        Pointer<Byte> data = packet.getData();
+        int keyFrame = packet.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY;
+        outputBufferRef.set(null);
+        outputSizeRef.set(0);
+        int result = codecLib.av_bitstream_filter_filter(context, codecContext == null ? null : codecContext.getPointer(), null, outputBufferRef, outputSizeRef, data, packet.getSize(), keyFrame);
+        if (result < 0)
+            throw new LibavException(result);
+        
+        Pointer<Byte> out = outputBufferRef.get();
+        if (out != null) {
+            packet.setData(out);
+            packet.setSize(outputSizeRef.get());
+        }
+        if (result > 0)
+            outputBuffer = out;
+        
+        return result > 0;
+    }
+    
+    /**
+     * Release the buffer allocated by the last call of the filter() method.
+     */
+    public void releaseOutput() {
+        if (outputBuffer != null)
+            utilLib.av_free(outputBuffer);
+        
+        outputBuffer = null;
+    }
+    
+    /**
+     * Release all resources held by this filter.
+     */
+    public void close() {
+        releaseOutput();
+        
+        if (context != null)
+            codecLib.av_bitstream_filter_close(context);
+        
+        context = null;
+    }
+    
+    /**
+     * Check whether this filter has been closed.
+     * 
+     * @return true if it has been closed, false otherwise
+     */
+    public boolean isClosed() {
+        return context == null;
+    }
+    
+    /**
+     * Create a new bitstream filter.
+     * 
+     * @param name filter name (e.g. "h264_mp4toannexb")
+     * @return bitstream filter
+     * @throws LibavException if there is no such filter
+     */
+    public static BitstreamFilterWrapper init(String name) throws LibavException {
+        if (!codecLib.functionExists("av_bitstream_filter_init"))
+            throw new LibavException("bitstream filters are not supported by the avcodec library");
+        
+        Pointer<Byte> nm = Pointer.pointerToCString(name);
+        Pointer<?> ctx = codecLib.av_bitstream_filter_init(nm);
+        nm.release();
+        if (ctx == null)
+            throw new LibavException("unknown bitstream filter: " + name);
+        
+        return new BitstreamFilterWrapper(ctx, name);
+    }
+    
+}
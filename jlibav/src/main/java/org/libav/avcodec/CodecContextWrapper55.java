@@ -36,9 +36,12 @@ import org.libav.util.Rational;
 public class CodecContextWrapper55 extends AbstractCodecContextWrapper {
     
     private static final AVCodecLibrary codecLib;
+    private static final AVUtilLibrary utilLib;
     
     static {
-        codecLib = LibraryManager.getInstance().getAVCodecLibrary();
+        LibraryManager lm = LibraryManager.getInstance();
+        codecLib = lm.getAVCodecLibrary();
+        utilLib = lm.getAVUtilLibrary();
     }
     
     private AVCodecContext55 context;
@@ -98,6 +101,15 @@ public class CodecContextWrapper55 extends AbstractCodecContextWrapper {
         clearWrapperCache();
     }
     
+    @Override
+    public void copyParameters(ICodecContextWrapper source) throws LibavException {
+        int result = codecLib.avcodec_copy_context(getPointer(), source.getPointer());
+        if (result != 0)
+            throw new LibavException(result);
+        
+        clearWrapperCache();
+    }
+    
     @Override
     public void open(ICodecWrapper codec) throws LibavException {
         if (!isClosed())
@@ -107,6 +119,8 @@ public class CodecContextWrapper55 extends AbstractCodecContextWrapper {
         if(result < 0)
             throw new LibavException(result);
         
+        // the coded frame is allocated by the codec
+        codedFrame = null;
         closed = false;
     }
     
@@ -116,6 +130,7 @@ public class CodecContextWrapper55 extends AbstractCodecContextWrapper {
             return;
         
         codecLib.avcodec_close(getPointer());
+        codedFrame = null;
         closed = true;
     }
     
@@ -136,6 +151,14 @@ public class CodecContextWrapper55 extends AbstractCodecContextWrapper {
         return closed;
     }
     
+    @Override
+    public void flushBuffers() {
+        if (isClosed())
+            return;
+        
+        codecLib.avcodec_flush_buffers(getPointer());
+    }
+    
     @Override
     public IFrameWrapper getCodedFrame() {
         if (context == null)
@@ -189,6 +212,26 @@ public class CodecContextWrapper55 extends AbstractCodecContextWrapper {
         this.codecId = codecId;
     }
     
+    @Override
+    public int getCodecTag() {
+        if (context == null)
+            return 0;
+        
+        if (codecTag == null)
+            codecTag = context.codec_tag();
+        
+        return codecTag;
+    }
+    
+    @Override
+    public void setCodecTag(int codecTag) {
+        if (context == null)
+            return;
+        
+        context.codec_tag(codecTag);
+        this.codecTag = codecTag;
+    }
+    
     @Override
     public int getFlags() {
         if (context == null)
@@ -507,6 +550,121 @@ public class CodecContextWrapper55 extends AbstractCodecContextWrapper {
         
         return frameSize;
     }
+    
+    @Override
+    public int getSkipFrame() {
+        if (context == null)
+            return 0;
+        
+        if (skipFrame == null)
+            skipFrame = context.skip_frame();
+        
+        return skipFrame;
+    }
+    
+    @Override
+    public void setSkipFrame(int skipFrame) {
+        if (context == null)
+            return;
+        
+        context.skip_frame(skipFrame);
+        this.skipFrame = skipFrame;
+    }
+    
+    @Override
+    public int getSkipLoopFilter() {
+        if (context == null)
+            return 0;
+        
+        if (skipLoopFilter == null)
+            skipLoopFilter = context.skip_loop_filter();
+        
+        return skipLoopFilter;
+    }
+    
+    @Override
+    public void setSkipLoopFilter(int skipLoopFilter) {
+        if (context == null)
+            return;
+        
+        context.skip_loop_filter(skipLoopFilter);
+        this.skipLoopFilter = skipLoopFilter;
+    }
+    
+    @Override
+    public int getSkipIdct() {
+        if (context == null)
+            return 0;
+        
+        if (skipIdct == null)
+            skipIdct = context.skip_idct();
+        
+        return skipIdct;
+    }
+    
+    @Override
+    public void setSkipIdct(int skipIdct) {
+        if (context == null)
+            return;
+        
+        context.skip_idct(skipIdct);
+        this.skipIdct = skipIdct;
+    }
+    
+    @Override
+    public int getLowres() {
+        if (context == null)
+            return 0;
+        
+        if (lowres == null)
+            lowres = context.lowres();
+        
+        return lowres;
+    }
+    
+    @Override
+    public void setLowres(int lowres) {
+        if (context == null)
+            return;
+        
+        context.lowres(lowres);
+        this.lowres = lowres;
+    }
+    
+    @Override
+    public byte[] getExtradata() {
+        if (context == null)
+            return null;
+        
+        Pointer<Byte> data = context.extradata();
+        int size = context.extradata_size();
+        if (data == null || size <= 0)
+            return new byte[0];
+        
+        return data.getBytes(size);
+    }
+    
+    @Override
+    public void setExtradata(byte[] extradata) {
+        if (context == null)
+            return;
+        
+        Pointer<Byte> data = context.extradata();
+        if (data != null)
+            utilLib.av_free(data);
+        
+        if (extradata == null || extradata.length == 0) {
+            context.extradata(null);
+            context.extradata_size(0);
+            return;
+        }
+        
+        data = utilLib.av_malloc(extradata.length + AVCodecLibrary.FF_INPUT_BUFFER_PADDING_SIZE).as(Byte.class);
+        data.setBytesAtOffset(0, extradata);
+        data.clearBytesAtOffset(extradata.length, AVCodecLibrary.FF_INPUT_BUFFER_PADDING_SIZE, (byte)0);
+        context.extradata(data);
+        context.extradata_size(extradata.length);
+    }
 
     @Override
     public boolean decodeVideoFrame(IPacketWrapper packet, IFrameWrapper frame) throws LibavException {
@@ -97,6 +97,14 @@ public class CodecWrapper53 extends AbstractCodecWrapper {
         
         return capabilities;
     }
+    
+    @Override
+    public int getMaxLowres() {
+        if (maxLowres == null)
+            maxLowres = codec.max_lowres() & 0xff;
+        
+        return maxLowres;
+    }
 
     @Override
     public Rational[] getSupportedFrameRates() {
@@ -116,6 +116,14 @@ public class CodecWrapper54 extends AbstractCodecWrapper {
         return capabilities;
     }
     
+    @Override
+    public int getMaxLowres() {
+        if (maxLowres == null)
+            maxLowres = codec.max_lowres() & 0xff;
+        
+        return maxLowres;
+    }
+    
     @Override
     public Rational[] getSupportedFrameRates() {
         if (supportedFrameRates == null && codec.supported_framerates() != null) {
@@ -21,8 +21,10 @@ import org.bridj.Pointer;
 import org.libav.LibavException;
 import org.libav.avcodec.bridge.AVCodecLibrary;
 import org.libav.avcodec.bridge.AVFrame55;
+import org.libav.avutil.PictureType;
 import org.libav.avutil.PixelFormat;
 import org.libav.avutil.SampleFormat;
+import org.libav.avutil.bridge.AVPictureType;
 import org.libav.avutil.bridge.AVUtilLibrary;
 import org.libav.bridge.LibraryManager;
 
@@ -196,6 +198,26 @@ public class FrameWrapper55 extends AbstractFrameWrapper {
         this.keyFrame = keyFrame;
     }
     
+    @Override
+    public PictureType getPictureType() {
+        if (frame == null)
+            return null;
+        
+        if (pictureType == null)
+            pictureType = PictureType.valueOf(frame.pict_type());
+        
+        return pictureType;
+    }
+    
+    @Override
+    public void setPictureType(PictureType pictureType) {
+        if (frame == null)
+            return;
+        
+        frame.pict_type(pictureType == null ? AVPictureType.AV_PICTURE_TYPE_NONE : pictureType.value());
+        this.pictureType = pictureType;
+    }
+    
     @Override
     public long getPts() {
         if (frame == null)
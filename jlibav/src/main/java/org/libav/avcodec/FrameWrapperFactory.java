@@ -121,6 +121,30 @@ public class FrameWrapperFactory {
         throw new UnsatisfiedLinkError("unsupported version of the libavcodec");
     }
     
+    /**
+     * Copy picture data of the source frame into the destination frame.
+     * The destination frame must be allocated using the allocPicture() 
+     * method with the same pixel format and size. Other frame properties 
+     * are not copied.
+     * 
+     * @param src source frame
+     * @param dst destination frame
+     * @param pixelFormat a pixel format
+     * @param width frame width
+     * @param height frame height
+     * @throws LibavException if the picture cannot be copied
+     */
+    public void copyPicture(IFrameWrapper src, IFrameWrapper dst, PixelFormat pixelFormat, int width, int height) throws LibavException {
+        int size = codecLib.avpicture_get_size(pixelFormat.value(), width, height);
+        if (size <= 0)
+            throw new LibavException("invalid picture size");
+        
+        // pictures allocated by allocPicture() use the avpicture_layout() 
+        // layout, so the whole picture can be written at once
+        if (codecLib.avpicture_layout(src.getPointer(), pixelFormat.value(), width, height, dst.getData().get(0), size) < 0)
+            throw new LibavException("unable to copy the picture");
+    }
+    
     /**
      * Get size of the native AVPicture structure.
      * 
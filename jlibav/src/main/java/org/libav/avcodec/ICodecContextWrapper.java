@@ -42,6 +42,17 @@ public interface ICodecContextWrapper extends IWrapper {
      */
     void getDefaults(ICodecWrapper codec) throws LibavException;
     
+    /**
+     * Copy all settings (including the extradata) of the given codec context
+     * into this one. This context must not be opened. The codec tag is 
+     * copied as well, it may need to be reset if it is not valid for the 
+     * target container format.
+     * 
+     * @param source a source codec context
+     * @throws LibavException if the settings cannot be copied
+     */
+    void copyParameters(ICodecContextWrapper source) throws LibavException;
+    
     /**
      * Initialize the codec context to use the given codec. The given codec 
      * must be the same codec as passed to the getDefaults() method.
@@ -73,6 +84,12 @@ public interface ICodecContextWrapper extends IWrapper {
      */
     boolean isClosed();
     
+    /**
+     * Reset the internal codec state and drop all buffered frames. It should
+     * be called after seeking in the source stream.
+     */
+    void flushBuffers();
+    
     /**
      * Get the coded_frame property from the AVCodecContext.
      * 
@@ -122,6 +139,25 @@ public interface ICodecContextWrapper extends IWrapper {
      */
     void setCodecId(CodecID codecId);
     
+    /**
+     * Get the codec_tag property from the AVCodecContext.
+     * 
+     * WARNING:
+     * The returned value may be cached. Call the clearWrapperCahce() if you
+     * think the value have been changed.
+     * 
+     * @return codec tag (fourcc)
+     */
+    int getCodecTag();
+    
+    /**
+     * Set the codec_tag property of the AVCodecContext. The value may be 
+     * cached. Use 0 to let the muxer choose a tag.
+     * 
+     * @param codecTag codec tag (fourcc)
+     */
+    void setCodecTag(int codecTag);
+    
     /**
      * Get the flags property from the AVCodecContext.
      * 
@@ -418,6 +454,98 @@ public interface ICodecContextWrapper extends IWrapper {
      */
     int getFrameSize();
     
+    /**
+     * Get the skip_frame property from the AVCodecContext.
+     * 
+     * WARNING:
+     * The returned value may be cached. Call the clearWrapperCahce() if you
+     * think the value have been changed.
+     * 
+     * @return frame skipping mode (see AVDISCARD_ constants)
+     */
+    int getSkipFrame();
+    
+    /**
+     * Set the skip_frame property of the AVCodecContext. The value may be 
+     * cached.
+     * 
+     * @param skipFrame a skip mode
+     */
+    void setSkipFrame(int skipFrame);
+    
+    /**
+     * Get the skip_loop_filter property from the AVCodecContext.
+     * 
+     * WARNING:
+     * The returned value may be cached. Call the clearWrapperCahce() if you
+     * think the value have been changed.
+     * 
+     * @return loop filter skipping mode (see AVDISCARD_ constants)
+     */
+    int getSkipLoopFilter();
+    
+    /**
+     * Set the skip_loop_filter property of the AVCodecContext. The value may be 
+     * cached.
+     * 
+     * @param skipLoopFilter a skip mode
+     */
+    void setSkipLoopFilter(int skipLoopFilter);
+    
+    /**
+     * Get the skip_idct property from the AVCodecContext.
+     * 
+     * WARNING:
+     * The returned value may be cached. Call the clearWrapperCahce() if you
+     * think the value have been changed.
+     * 
+     * @return IDCT skipping mode (see AVDISCARD_ constants)
+     */
+    int getSkipIdct();
+    
+    /**
+     * Set the skip_idct property of the AVCodecContext. The value may be 
+     * cached.
+     * 
+     * @param skipIdct a skip mode
+     */
+    void setSkipIdct(int skipIdct);
+    
+    /**
+     * Get the lowres property from the AVCodecContext.
+     * 
+     * WARNING:
+     * The returned value may be cached. Call the clearWrapperCahce() if you
+     * think the value have been changed.
+     * 
+     * @return decoding resolution reduction (the picture size is divided by 2^lowres)
+     */
+    int getLowres();
+    
+    /**
+     * Set the lowres property of the AVCodecContext. The value may be 
+     * cached.
+     * 
+     * @param lowres a resolution reduction
+     */
+    void setLowres(int lowres);
+    
+    /**
+     * Get a copy of the extradata of the AVCodecContext. The value is not
+     * cached.
+     * 
+     * @return extradata (an empty array if there is no extradata)
+     */
+    byte[] getExtradata();
+    
+    /**
+     * Replace the extradata of the AVCodecContext with a copy of the given
+     * bytes. The codec context must not be opened.
+     * 
+     * @param extradata extradata (may be null)
+     */
+    void setExtradata(byte[] extradata);
+    
     /**
      * Pass the given video packet to the decoder.
      * 
@@ -130,4 +130,15 @@ public interface ICodecWrapper extends IWrapper {
      */
     long[] getSupportedChannelLayouts();
     
+    /**
+     * Get the max_lowres property from the AVCodec.
+     * 
+     * WARNING:
+     * The returned value may be cached. Call the clearWrapperCahce() if you
+     * think the value have been changed.
+     * 
+     * @return maximum lowres value supported by the decoder
+     */
+    int getMaxLowres();
+    
 }
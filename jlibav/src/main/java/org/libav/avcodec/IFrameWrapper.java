@@ -17,8 +17,11 @@
  */
 package org.libav.avcodec;
 
+import java.nio.ByteBuffer;
 import org.bridj.Pointer;
 import org.libav.LibavException;
+import org.libav.avutil.PictureType;
+import org.libav.avutil.PixelFormat;
 import org.libav.avutil.SampleFormat;
 import org.libav.bridge.IWrapper;
 
@@ -124,6 +127,33 @@ public interface IFrameWrapper extends IWrapper {
      */
     int getLineSizeLength();
     
+    /**
+     * Get a read-only view of the given picture plane. No data is copied,
+     * the returned direct buffer points to the native frame data, so it is 
+     * valid only until the frame is freed or reused (e.g. by the decoder). 
+     * Lines of the plane are getLineSize().get(plane) bytes apart and 
+     * the buffer uses the native byte order.
+     * 
+     * @param plane a plane index
+     * @param lines number of lines of the plane (see the PlaneLayout)
+     * @return plane buffer or null if there is no such plane
+     * @throws IllegalStateException if the plane is stored bottom-up 
+     * (i.e. its line size is negative)
+     */
+    ByteBuffer getPlaneBuffer(int plane, int lines);
+    
+    /**
+     * Get read-only views of all picture planes. See the getPlaneBuffer() 
+     * method for details.
+     * 
+     * @param pixelFormat pixel format of the picture
+     * @param height picture height
+     * @return plane buffers
+     * @throws IllegalArgumentException if the plane layout of the pixel 
+     * format is not known
+     */
+    ByteBuffer[] getPlaneBuffers(PixelFormat pixelFormat, int height);
+    
     /**
      * Get the key_frame property from the AVFrame.
      * 
@@ -142,6 +172,26 @@ public interface IFrameWrapper extends IWrapper {
      */
     void setKeyFrame(boolean keyFrame);
     
+    /**
+     * Get the pict_type property from the AVFrame.
+     * 
+     * WARNING:
+     * The returned value may be cached. Call the clearWrapperCahce() if you
+     * think the value have been changed.
+     * 
+     * @return picture type or null if it is unknown
+     */
+    PictureType getPictureType();
+    
+    /**
+     * Set the pict_type property of the AVFrame. Setting PictureType.I 
+     * before encoding forces the encoder to produce a key frame. The value 
+     * may be cached.
+     * 
+     * @param pictureType picture type (null means AV_PICTURE_TYPE_NONE)
+     */
+    void setPictureType(PictureType pictureType);
+    
     /**
      * Get the pts property from the AVFrame.
      * 
@@ -46,6 +46,13 @@ public final class AVCodecLibrary implements ILibrary {
     public static final int AV_PKT_FLAG_KEY = 0x0001;
     public static final int AV_PKT_FLAG_CORRUPT = 0x0002;
     
+    public static final int AVDISCARD_NONE = -16;
+    public static final int AVDISCARD_DEFAULT = 0;
+    public static final int AVDISCARD_NONREF = 8;
+    public static final int AVDISCARD_BIDIR = 16;
+    public static final int AVDISCARD_NONKEY = 32;
+    public static final int AVDISCARD_ALL = 48;
+    
     public static final int CODEC_CAP_DRAW_HORIZ_BAND = 0x0001;
     public static final int CODEC_CAP_DR1 = 0x0002;
     public static final int CODEC_CAP_PARSE_ONLY = 0x0004;
@@ -323,6 +330,18 @@ public final class AVCodecLibrary implements ILibrary {
         Lib.av_free_packet(pkt.getPeer());
     }
     
+    /**
+     * Make sure the packet data are not shared with the demuxer (i.e. they 
+     * are valid after the next av_read_frame() call). The data are copied
+     * only if the packet does not own them.
+     * 
+     * @param pkt packet
+     * @return 0 if OK, AVERROR_xxx otherwise
+     */
+    public int av_dup_packet(Pointer<?> pkt) {
+        return Lib.av_dup_packet(pkt.getPeer());
+    }
+    
     /**
      * Increase packet size, correctly zeroing padding.
      * 
@@ -481,6 +500,16 @@ public final class AVCodecLibrary implements ILibrary {
         return Lib.avcodec_close(avctx.getPeer());
     }
     
+    /**
+     * Reset the internal decoder state / flush internal buffers. Should be 
+     * called e.g. when seeking or when switching to a different stream.
+     * 
+     * @param avctx codec context
+     */
+    public void avcodec_flush_buffers(Pointer<?> avctx) {
+        Lib.avcodec_flush_buffers(avctx.getPeer());
+    }
+    
     /**
      * Register a user provided lock manager supporting the operations
      * specified by AVLockOp. mutex points to a (void *) where the
@@ -877,6 +906,77 @@ public final class AVCodecLibrary implements ILibrary {
         return Lib.avcodec_fill_audio_frame(frame.getPeer(), nb_channels, sample_fmt, buf.getPeer(), buf_size, align);
     }
     
+    /**
+     * Copy the settings of the source AVCodecContext into the destination
+     * AVCodecContext. The resulting destination codec context will be
+     * unopened, i.e. you are required to call avcodec_open2() before you
+     * can use this AVCodecContext to decode/encode video/audio data.
+     * 
+     * @param dest target codec context, should be initialized with
+     * avcodec_alloc_context3(), but otherwise uninitialized
+     * @param src source codec context
+     * @return AVERROR() on error (e.g. memory allocation error), 0 on success
+     */
+    public int avcodec_copy_context(Pointer<?> dest, Pointer<?> src) {
+        return Lib.avcodec_copy_context(dest.getPeer(), src.getPeer());
+    }
+    
+    /**
+     * Create and initialize a bitstream filter context given a bitstream 
+     * filter name.
+     * 
+     * @param name the name of the bitstream filter
+     * @return a bitstream filter context if a matching filter was found
+     * and successfully initialized, NULL otherwise
+     */
+    public Pointer<?> av_bitstream_filter_init(Pointer<Byte> name) {
+        return Lib.av_bitstream_filter_init(name);
+    }
+    
+    /**
+     * Filter bitstream.
+     * 
+     * This function filters the buffer buf with size buf_size, and places the
+     * filtered buffer in the buffer pointed to by poutbuf.
+     * 
+     * The output buffer must be freed by the caller.
+     * 
+     * @param bsfc bitstream filter context created by 
+     * av_bitstream_filter_init()
+     * @param avctx AVCodecContext accessed by the filter, may be NULL.
+     * If specified, this must point to the encoder context of the output 
+     * stream the packet is sent to.
+     * @param args arguments which specify the filter configuration, may be 
+     * NULL
+     * @param poutbuf pointer which is updated to point to the filtered buffer
+     * @param poutbuf_size pointer which is updated to the filtered buffer 
+     * size in bytes
+     * @param buf buffer containing the data to filter
+     * @param buf_size size in bytes of buf
+     * @param keyframe set to non-zero if the buffer to filter corresponds 
+     * to a key-frame packet data
+     * @return &gt;= 0 in case of success, or a negative error code in case 
+     * of failure. If the return value is positive, an output buffer is 
+     * allocated and is availble in *poutbuf, and is distinct from the input 
+     * buffer. If the return value is 0, the output buffer is not allocated 
+     * and should be considered identical to the input buffer, or in case 
+     * *poutbuf was set it points to the input buffer (not necessarily to its
+     * starting address).
+     */
+    public int av_bitstream_filter_filter(Pointer<?> bsfc, Pointer<?> avctx, Pointer<Byte> args, Pointer<Pointer<Byte>> poutbuf, Pointer<Integer> poutbuf_size, Pointer<Byte> buf, int buf_size, int keyframe) {
+        return Lib.av_bitstream_filter_filter(bsfc.getPeer(), avctx == null ? 0 : avctx.getPeer(), args == null ? 0 : args.getPeer(), poutbuf.getPeer(), poutbuf_size.getPeer(), buf == null ? 0 : buf.getPeer(), buf_size, keyframe);
+    }
+    
+    /**
+     * Release bitstream filter context.
+     * 
+     * @param bsf the bitstream filter context created with 
+     * av_bitstream_filter_init(), can be NULL
+     */
+    public void av_bitstream_filter_close(Pointer<?> bsf) {
+        Lib.av_bitstream_filter_close(bsf == null ? 0 : bsf.getPeer());
+    }
+    
     public static abstract class RegisterLockMgrCallback extends Callback<RegisterLockMgrCallback> {
         public abstract int apply(Pointer<Pointer<?>> mutex, int op);
     }
@@ -901,6 +1001,7 @@ public final class AVCodecLibrary implements ILibrary {
         public static native void av_init_packet(@Ptr long pkt);
         public static native int av_new_packet(@Ptr long pkt, int size);
         public static native void av_free_packet(@Ptr long pkt);
+        public static native int av_dup_packet(@Ptr long pkt);
         public static native int av_grow_packet(@Ptr long pkt, int grow_by);
         public static native void av_shrink_packet(@Ptr long pkt, int size);
         @Optional
@@ -920,6 +1021,7 @@ public final class AVCodecLibrary implements ILibrary {
         @Optional
 	public static native int avcodec_open2(@Ptr long avctx, @Ptr long codec, @Ptr long options);
         public static native int avcodec_close(@Ptr long avctx);
+        public static native void avcodec_flush_buffers(@Ptr long avctx);
         public static native int av_lockmgr_register(@Ptr long cb);
         public static native int avcodec_decode_video2(@Ptr long avctx, @Ptr long picture, @Ptr long got_picture_ptr, @Ptr long avpkt);
         @Optional
@@ -945,6 +1047,14 @@ public final class AVCodecLibrary implements ILibrary {
         public static native void audio_resample_close(@Ptr long s);
         @Optional
         public static native int avcodec_fill_audio_frame(@Ptr long frame, int nb_channels, int sample_fmt, @Ptr long buf, int buf_size, int align);
+        @Optional
+        public static native int avcodec_copy_context(@Ptr long dest, @Ptr long src);
+        @Optional
+        public static native Pointer<?> av_bitstream_filter_init(Pointer<Byte> name);
+        @Optional
+        public static native int av_bitstream_filter_filter(@Ptr long bsfc, @Ptr long avctx, @Ptr long args, @Ptr long poutbuf, @Ptr long poutbuf_size, @Ptr long buf, int buf_size, int keyframe);
+        @Optional
+        public static native void av_bitstream_filter_close(@Ptr long bsf);
     }
     
 }
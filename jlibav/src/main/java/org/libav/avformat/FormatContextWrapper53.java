@@ -23,6 +23,7 @@ import org.bridj.Pointer;
 import org.libav.LibavException;
 import org.libav.avcodec.IPacketWrapper;
 import org.libav.avformat.bridge.AVFormatContext53;
+import org.libav.avformat.bridge.AVIOInterruptCB;
 import org.libav.avformat.bridge.AVFormatLibrary;
 import org.libav.avutil.DictionaryWrapperFactory;
 import org.libav.avutil.IDictionaryWrapper;
@@ -58,6 +59,7 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
     
     private AVFormatContext53 context;
     private boolean outputContext;
+    private boolean streamContainer;
     
     /**
      * Create a new wrapper for the given format context.
@@ -67,6 +69,7 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
     public FormatContextWrapper53(AVFormatContext53 context) {
         this.context = context;
         this.outputContext = false;
+        this.streamContainer = false;
     }
 
     @Override
@@ -197,7 +200,9 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
         if (isClosed())
             return;
         
-        if (outputContext) {
+        if (streamContainer)
+            formatLib.avformat_free_context(getPointer());
+        else if (outputContext) {
             if (getIOContext() != null && (getOutputFormat().getFlags() & AVFormatLibrary.AVFMT_NOFILE) == 0)
                 formatLib.avio_close(getIOContext().getPointer());
             LibraryManager.getInstance().getAVUtilLibrary().av_free(getPointer());
@@ -551,6 +556,12 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
         formatLib.av_read_pause(getPointer());
     }
     
+    @Override
+    public boolean setInterruptCallback(AVIOInterruptCB.InterruptCallback callback) {
+        // libavformat 53 has only a global interrupt callback
+        return false;
+    }
+    
     @Override
     public boolean readNextPacket(IPacketWrapper packet) {
         if (isClosed())
@@ -562,17 +573,50 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
         return result >= 0;
     }
     
+    @Override
+    public void openOutput(String url) throws LibavException {
+        if (isClosed())
+            throw new IllegalStateException("the format context has been closed");
+        
+        setFileName(url);
+        if ((getOutputFormat().getFlags() & AVFormatLibrary.AVFMT_NOFILE) != 0)
+            return;
+        
+        Pointer<Byte> purl = Pointer.pointerToString(url, Pointer.StringType.C, Charset.forName("UTF-8")).as(Byte.class);
+        Pointer<Pointer<?>> avioc = Pointer.allocatePointer();
+        avioc.set(null);
+        setIOContext(null);
+        int res = formatLib.avio_open(avioc, purl, AVFormatLibrary.AVIO_FLAG_WRITE);
+        if (res < 0)
+            throw new LibavException(res);
+        setIOContext(avioc.get() == null ? null : IOContextWrapperFactory.getInstance().wrap(avioc.get()));
+    }
+    
     @Override
     public void writeHeader() throws LibavException {
+        writeHeader(null);
+    }
+    
+    @Override
+    public void writeHeader(IDictionaryWrapper options) throws LibavException {
         if (isClosed())
             return;
         
+        Pointer<Pointer<?>> pOptions = null;
+        if (options != null) {
+            pOptions = Pointer.allocatePointer();
+            pOptions.set(options.getPointer());
+        }
+        
+        // the old API does not support muxer options
         int result;
         if (avfWriteHeader)
-            result = formatLib.avformat_write_header(getPointer(), null);
+            result = formatLib.avformat_write_header(getPointer(), pOptions);
         else
             result = formatLib.av_write_header(getPointer());
         
+        if (options != null)
+            options.rebind(pOptions.get());
         if (result < 0)
             throw new LibavException(result);
     }
@@ -624,6 +668,13 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
         return new FormatContextWrapper53(new AVFormatContext53(ptr));
     }
     
+    public static FormatContextWrapper53 allocateStreamContainer() throws LibavException {
+        FormatContextWrapper53 result = allocateContext();
+        result.streamContainer = true;
+        
+        return result;
+    }
+    
     public static FormatContextWrapper53 openMedia(String url) throws LibavException {
         return openMedia(url, (IInputFormatWrapper)null);
     }
@@ -634,16 +685,28 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
     }
     
     public static FormatContextWrapper53 openMedia(String url, IInputFormatWrapper inputFormat) throws LibavException {
+        return openMedia(url, inputFormat, null);
+    }
+    
+    public static FormatContextWrapper53 openMedia(String url, IInputFormatWrapper inputFormat, IDictionaryWrapper options) throws LibavException {
         Pointer<Byte> purl = Pointer.pointerToString(url, Pointer.StringType.C, Charset.forName("UTF-8")).as(Byte.class);
         Pointer<?> pInputFormat = null;
         if (inputFormat != null)
             pInputFormat = inputFormat.getPointer();
         
+        Pointer<Pointer<?>> pOptions = null;
+        if (options != null) {
+            pOptions = Pointer.allocatePointer();
+            pOptions.set(options.getPointer());
+        }
+        
         int result;
         Pointer<Pointer<?>> avfcByRef = Pointer.allocatePointer();
-        if (avfOpenInput)
-            result = formatLib.avformat_open_input(avfcByRef, purl, pInputFormat, null);
-        else
+        if (avfOpenInput) {
+            result = formatLib.avformat_open_input(avfcByRef, purl, pInputFormat, pOptions);
+            if (options != null)
+                options.rebind(pOptions.get());
+        } else // options are not supported by the old API
             result = formatLib.av_open_input_file(avfcByRef, purl, pInputFormat, 0, null);
         
         if (result < 0)
@@ -653,7 +716,6 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
     }
     
     public static FormatContextWrapper53 createMedia(String url, String outputFormatName) throws LibavException {
-        Pointer<Byte> purl = Pointer.pointerToString(url, Pointer.StringType.C, Charset.forName("UTF-8")).as(Byte.class);
         FormatContextWrapper53 result = allocateContext();
         result.outputContext = true;
         
@@ -661,18 +723,14 @@ public class FormatContextWrapper53 extends AbstractFormatContextWrapper {
         if (of == null)
             throw new LibavException("unknown format: " + outputFormatName);
         result.setOutputFormat(of);
-        result.setFileName(url);
         
-        Pointer<Pointer<?>> avioc = Pointer.allocatePointer();
-        avioc.set(null);
-        if ((result.getOutputFormat().getFlags() & AVFormatLibrary.AVFMT_NOFILE) == 0) {
-            result.setIOContext(null);
-            int res = formatLib.avio_open(avioc, purl, AVFormatLibrary.AVIO_FLAG_WRITE);
-            if (res < 0) {
+        if (url != null) {
+            try {
+                result.openOutput(url);
+            } catch (LibavException ex) {
                 result.close();
-                throw new LibavException(res);
+                throw ex;
             }
-            result.setIOContext(avioc.get() == null ? null : IOContextWrapperFactory.getInstance().wrap(avioc.get()));
         }
         
         return result;
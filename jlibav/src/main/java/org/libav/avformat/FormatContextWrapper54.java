@@ -23,6 +23,7 @@ import org.bridj.Pointer;
 import org.libav.LibavException;
 import org.libav.avcodec.IPacketWrapper;
 import org.libav.avformat.bridge.AVFormatContext54;
+import org.libav.avformat.bridge.AVIOInterruptCB;
 import org.libav.avformat.bridge.AVFormatLibrary;
 import org.libav.avutil.DictionaryWrapperFactory;
 import org.libav.avutil.IDictionaryWrapper;
@@ -46,6 +47,8 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
     
     private AVFormatContext54 context;
     private boolean outputContext;
+    private boolean streamContainer;
+    private AVIOInterruptCB.InterruptCallback interruptCallback;
     
     /**
      * Create a new wrapper for the given format context.
@@ -55,6 +58,8 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
     public FormatContextWrapper54(AVFormatContext54 context) {
         this.context = context;
         this.outputContext = false;
+        this.streamContainer = false;
+        this.interruptCallback = null;
     }
 
     @Override
@@ -185,7 +190,9 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
         if (isClosed())
             return;
         
-        if (outputContext) {
+        if (streamContainer)
+            formatLib.avformat_free_context(getPointer());
+        else if (outputContext) {
             if (getIOContext() != null && (getOutputFormat().getFlags() & AVFormatLibrary.AVFMT_NOFILE) == 0)
                 formatLib.avio_close(getIOContext().getPointer());
             LibraryManager.getInstance().getAVUtilLibrary().av_free(getPointer());
@@ -526,6 +533,21 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
         formatLib.av_read_pause(getPointer());
     }
     
+    @Override
+    public boolean setInterruptCallback(AVIOInterruptCB.InterruptCallback callback) {
+        if (isClosed())
+            return false;
+        
+        AVIOInterruptCB cb = new AVIOInterruptCB();
+        if (callback != null)
+            cb.callback(Pointer.pointerTo(callback));
+        context.interrupt_callback(cb);
+        // the native callback must not be garbage collected
+        interruptCallback = callback;
+        
+        return true;
+    }
+    
     @Override
     public boolean readNextPacket(IPacketWrapper packet) {
         if (isClosed())
@@ -537,12 +559,44 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
         return result >= 0;
     }
     
+    @Override
+    public void openOutput(String url) throws LibavException {
+        if (isClosed())
+            throw new IllegalStateException("the format context has been closed");
+        
+        setFileName(url);
+        if ((getOutputFormat().getFlags() & AVFormatLibrary.AVFMT_NOFILE) != 0)
+            return;
+        
+        Pointer<Byte> purl = Pointer.pointerToString(url, Pointer.StringType.C, Charset.forName("UTF-8")).as(Byte.class);
+        Pointer<Pointer<?>> avioc = Pointer.allocatePointer();
+        avioc.set(null);
+        setIOContext(null);
+        int res = formatLib.avio_open(avioc, purl, AVFormatLibrary.AVIO_FLAG_WRITE);
+        if (res < 0)
+            throw new LibavException(res);
+        setIOContext(avioc.get() == null ? null : IOContextWrapperFactory.getInstance().wrap(avioc.get()));
+    }
+    
     @Override
     public void writeHeader() throws LibavException {
+        writeHeader(null);
+    }
+    
+    @Override
+    public void writeHeader(IDictionaryWrapper options) throws LibavException {
         if (isClosed())
             return;
         
-        int result = formatLib.avformat_write_header(getPointer(), null);
+        Pointer<Pointer<?>> pOptions = null;
+        if (options != null) {
+            pOptions = Pointer.allocatePointer();
+            pOptions.set(options.getPointer());
+        }
+        
+        int result = formatLib.avformat_write_header(getPointer(), pOptions);
+        if (options != null)
+            options.rebind(pOptions.get());
         if (result < 0)
             throw new LibavException(result);
     }
@@ -594,6 +648,13 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
         return new FormatContextWrapper54(new AVFormatContext54(ptr));
     }
     
+    public static FormatContextWrapper54 allocateStreamContainer() throws LibavException {
+        FormatContextWrapper54 result = allocateContext();
+        result.streamContainer = true;
+        
+        return result;
+    }
+    
     public static FormatContextWrapper54 openMedia(String url) throws LibavException {
         return openMedia(url, (IInputFormatWrapper)null);
     }
@@ -604,13 +665,25 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
     }
     
     public static FormatContextWrapper54 openMedia(String url, IInputFormatWrapper inputFormat) throws LibavException {
+        return openMedia(url, inputFormat, null);
+    }
+    
+    public static FormatContextWrapper54 openMedia(String url, IInputFormatWrapper inputFormat, IDictionaryWrapper options) throws LibavException {
         Pointer<Byte> purl = Pointer.pointerToString(url, Pointer.StringType.C, Charset.forName("UTF-8")).as(Byte.class);
         Pointer<?> pInputFormat = null;
         if (inputFormat != null)
             pInputFormat = inputFormat.getPointer();
         
+        Pointer<Pointer<?>> pOptions = null;
+        if (options != null) {
+            pOptions = Pointer.allocatePointer();
+            pOptions.set(options.getPointer());
+        }
+        
         Pointer<Pointer<?>> avfcByRef = Pointer.allocatePointer();
-        int result = formatLib.avformat_open_input(avfcByRef, purl, pInputFormat, null);
+        int result = formatLib.avformat_open_input(avfcByRef, purl, pInputFormat, pOptions);
+        if (options != null)
+            options.rebind(pOptions.get());
         if (result < 0)
             throw new LibavException(result);
         
@@ -618,7 +691,6 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
     }
     
     public static FormatContextWrapper54 createMedia(String url, String outputFormatName) throws LibavException {
-        Pointer<Byte> purl = Pointer.pointerToString(url, Pointer.StringType.C, Charset.forName("UTF-8")).as(Byte.class);
         FormatContextWrapper54 result = allocateContext();
         result.outputContext = true;
         
@@ -626,18 +698,14 @@ public class FormatContextWrapper54 extends AbstractFormatContextWrapper {
         if (of == null)
             throw new LibavException("unknown format: " + outputFormatName);
         result.setOutputFormat(of);
-        result.setFileName(url);
         
-        Pointer<Pointer<?>> avioc = Pointer.allocatePointer();
-        avioc.set(null);
-        if ((result.getOutputFormat().getFlags() & AVFormatLibrary.AVFMT_NOFILE) == 0) {
-            result.setIOContext(null);
-            int res = formatLib.avio_open(avioc, purl, AVFormatLibrary.AVIO_FLAG_WRITE);
-            if (res < 0) {
+        if (url != null) {
+            try {
+                result.openOutput(url);
+            } catch (LibavException ex) {
                 result.close();
-                throw new LibavException(res);
+                throw ex;
             }
-            result.setIOContext(avioc.get() == null ? null : IOContextWrapperFactory.getInstance().wrap(avioc.get()));
         }
         
         return result;
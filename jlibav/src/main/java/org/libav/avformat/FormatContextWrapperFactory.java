@@ -22,6 +22,7 @@ import org.libav.LibavException;
 import org.libav.avformat.bridge.AVFormatContext53;
 import org.libav.avformat.bridge.AVFormatContext54;
 import org.libav.avformat.bridge.AVFormatLibrary;
+import org.libav.avutil.IDictionaryWrapper;
 import org.libav.bridge.LibraryManager;
 
 /**
@@ -129,9 +130,32 @@ public class FormatContextWrapperFactory {
     }
     
     /**
-     * Create a new media stream.
+     * Open media stream using the given input format and demuxer options
+     * (e.g. probesize, analyzeduration or fflags). Options not consumed by
+     * the demuxer are left in the given dictionary.
      * 
      * @param url a media URL
+     * @param inputFormat input format (may be null)
+     * @param options demuxer options (may be null)
+     * @return format context wrapper
+     * @throws LibavException if an error occurs while opening media
+     */
+    public IFormatContextWrapper openMedia(String url, IInputFormatWrapper inputFormat, IDictionaryWrapper options) throws LibavException {
+        switch (formatLib.getMajorVersion()) {
+            case 53: return FormatContextWrapper53.openMedia(url, inputFormat, options);
+            case 54:
+            case 55: return FormatContextWrapper54.openMedia(url, inputFormat, options);
+        }
+    
+        throw new UnsatisfiedLinkError("unsupported version of the libavformat");
+    }
+    
+    /**
+     * Create a new media stream.
+     * 
+     * @param url a media URL (if it is null, the output is not opened and
+     * it has to be opened later using the openOutput() method of the returned
+     * context)
      * @param outputFormatName a name of the output format
      * @return format context wrapper
      * @throws LibavException if an error occurs while creating media
@@ -146,6 +170,26 @@ public class FormatContextWrapperFactory {
         throw new UnsatisfiedLinkError("unsupported version of the libavformat");
     }
     
+    /**
+     * Allocate an empty format context without any input or output format.
+     * It can be used as a container of streams whose packets are neither
+     * demuxed nor muxed by Libav (e.g. replayed packets). Streams are 
+     * created using the newStream() method and they are released together
+     * with the context.
+     * 
+     * @return format context wrapper
+     * @throws LibavException if the context cannot be allocated
+     */
+    public IFormatContextWrapper allocateStreamContainer() throws LibavException {
+        switch (formatLib.getMajorVersion()) {
+            case 53: return FormatContextWrapper53.allocateStreamContainer();
+            case 54:
+            case 55: return FormatContextWrapper54.allocateStreamContainer();
+        }
+        
+        throw new UnsatisfiedLinkError("unsupported version of the libavformat");
+    }
+    
     /**
      * Get instance of this factory.
      * 
@@ -21,6 +21,7 @@ import java.util.Date;
 import org.bridj.Pointer;
 import org.libav.LibavException;
 import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.bridge.AVIOInterruptCB;
 import org.libav.avutil.IDictionaryWrapper;
 import org.libav.bridge.IWrapper;
 
@@ -274,6 +275,28 @@ public interface IFormatContextWrapper extends IWrapper {
      */
     boolean readNextPacket(IPacketWrapper packet);
     
+    /**
+     * Set interrupt callback of the context. Blocking IO operations call it
+     * periodically and they are aborted if it returns a non-zero value. 
+     * The wrapper keeps a reference to the callback until it is replaced.
+     * 
+     * @param callback an interrupt callback (null to remove the current one)
+     * @return true if the callback has been set, false if it is not 
+     * supported by the libavformat version
+     */
+    boolean setInterruptCallback(AVIOInterruptCB.InterruptCallback callback);
+    
+    /**
+     * Set URL of an output context and open its IO context (unless 
+     * the output format does not need one). It is intended for output 
+     * contexts created without an URL.
+     * 
+     * @param url a destination URL
+     * @throws LibavException if the output cannot be opened (caused by the
+     * Libav)
+     */
+    void openOutput(String url) throws LibavException;
+    
     /**
      * Write container header.
      * 
@@ -282,6 +305,16 @@ public interface IFormatContextWrapper extends IWrapper {
      */
     void writeHeader() throws LibavException;
     
+    /**
+     * Write container header using the given muxer options (e.g. movflags). 
+     * Options not consumed by the muxer are left in the given dictionary.
+     * 
+     * @param options muxer options (may be null)
+     * @throws LibavException if the header cannot be written (caused by the
+     * Libav)
+     */
+    void writeHeader(IDictionaryWrapper options) throws LibavException;
+    
     /**
      * Write container trailer.
      * 
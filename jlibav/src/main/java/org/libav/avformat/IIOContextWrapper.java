@@ -38,4 +38,32 @@ public interface IIOContextWrapper extends IWrapper {
      */
     boolean isSeekable();
     
+    /**
+     * Write all buffered data to the underlaying resource.
+     */
+    void flush();
+    
+    /**
+     * Get the eof_reached property from the AVIOContext. Note that it is set
+     * also when a read is interrupted or fails.
+     * 
+     * @return true if the end of the stream has been reached or a read 
+     * failed, false otherwise
+     */
+    boolean isEofReached();
+    
+    /**
+     * Get the error property from the AVIOContext.
+     * 
+     * @return error code of the last failed operation or 0
+     */
+    int getError();
+    
+    /**
+     * Clear the eof_reached and error properties of the AVIOContext, so 
+     * that reading can continue after an interrupted or failed read. 
+     * Otherwise these flags are cleared only by a seek.
+     */
+    void clearError();
+    
 }
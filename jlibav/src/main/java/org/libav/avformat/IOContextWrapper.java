@@ -18,7 +18,9 @@
 package org.libav.avformat;
 
 import org.bridj.Pointer;
+import org.libav.avformat.bridge.AVFormatLibrary;
 import org.libav.avformat.bridge.AVIOContext;
+import org.libav.bridge.LibraryManager;
 
 /**
  * Wrapper class for the AVIOContext.
@@ -26,6 +28,12 @@ import org.libav.avformat.bridge.AVIOContext;
  * @author Ondrej Perutka
  */
 public class IOContextWrapper extends AbstractIOContextWrapper {
+    
+    private static final AVFormatLibrary formatLib;
+    
+    static {
+        formatLib = LibraryManager.getInstance().getAVFormatLibrary();
+    }
 
     private AVIOContext context;
 
@@ -56,4 +64,25 @@ public class IOContextWrapper extends AbstractIOContextWrapper {
         return seekable;
     }
     
+    @Override
+    public void flush() {
+        formatLib.avio_flush(getPointer());
+    }
+    
+    @Override
+    public boolean isEofReached() {
+        return context.eof_reached() != 0;
+    }
+    
+    @Override
+    public int getError() {
+        return context.error();
+    }
+    
+    @Override
+    public void clearError() {
+        context.eof_reached(0);
+        context.error(0);
+    }
+    
 }
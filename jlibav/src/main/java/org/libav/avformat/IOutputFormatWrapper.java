@@ -17,6 +17,7 @@
  */
 package org.libav.avformat;
 
+import org.libav.avcodec.CodecID;
 import org.libav.bridge.IWrapper;
 
 /**
@@ -57,4 +58,24 @@ public interface IOutputFormatWrapper extends IWrapper {
      */
     void setFlags(int flags);
     
+    /**
+     * Get the codec ID mapped to the given codec tag by the codec_tag table
+     * of the AVOutputFormat.
+     * 
+     * @param codecTag a codec tag
+     * @return codec ID or CodecID.NONE if the tag is not in the table (or 
+     * the format has no table)
+     */
+    CodecID getCodecId(int codecTag);
+    
+    /**
+     * Get the codec tag mapped to the given codec ID by the codec_tag table
+     * of the AVOutputFormat.
+     * 
+     * @param codecId a codec ID
+     * @return codec tag or 0 if the codec is not in the table (or the format
+     * has no table)
+     */
+    int getCodecTag(CodecID codecId);
+    
 }
@@ -19,6 +19,7 @@ package org.libav.avformat;
 
 import java.nio.charset.Charset;
 import org.bridj.Pointer;
+import org.libav.avcodec.CodecID;
 import org.libav.avformat.bridge.AVFormatLibrary;
 import org.libav.avformat.bridge.AVOutputFormat53;
 import org.libav.bridge.LibraryManager;
@@ -77,6 +78,16 @@ public class OutputFormatWrapper53 extends AbstractOutputFormatWrapper {
         format.flags(flags);
     }
     
+    @Override
+    public CodecID getCodecId(int codecTag) {
+        return CodecID.valueOf(formatLib.av_codec_get_id(format.codec_tag(), codecTag));
+    }
+    
+    @Override
+    public int getCodecTag(CodecID codecId) {
+        return formatLib.av_codec_get_tag(format.codec_tag(), codecId.value());
+    }
+    
     public static OutputFormatWrapper53 guessFormat(String shortName, String fileName, String mimeType) {
         Charset utf8 = Charset.forName("UTF-8");
         
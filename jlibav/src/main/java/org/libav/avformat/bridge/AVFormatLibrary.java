@@ -285,6 +285,32 @@ public final class AVFormatLibrary implements ILibrary {
         return Lib.av_guess_format(shortName, filename, mimeType);
     }
     
+    /**
+     * Get the codec ID for the given codec tag. If no codec ID is found 
+     * returns CODEC_ID_NONE.
+     * 
+     * @param tags list of supported codec_id-codec_tag pairs, as stored in 
+     * AVInputFormat.codec_tag and AVOutputFormat.codec_tag
+     * @param tag codec tag to match to a codec ID
+     * @return codec ID
+     */
+    public int av_codec_get_id(Pointer<Pointer<?>> tags, int tag) {
+        return Lib.av_codec_get_id(tags, tag);
+    }
+    
+    /**
+     * Get the codec tag for the given codec ID. If no codec tag is found 
+     * returns 0.
+     * 
+     * @param tags list of supported codec_id-codec_tag pairs, as stored in 
+     * AVInputFormat.codec_tag and AVOutputFormat.codec_tag
+     * @param id codec ID to match to a codec tag
+     * @return codec tag
+     */
+    public int av_codec_get_tag(Pointer<Pointer<?>> tags, int id) {
+        return Lib.av_codec_get_tag(tags, id);
+    }
+    
     /**
      * Create and initialize a AVIOContext for accessing the resource indicated 
      * by url.
@@ -317,6 +343,15 @@ public final class AVFormatLibrary implements ILibrary {
         return Lib.avio_close(avioContext);
     }
     
+    /**
+     * Force flushing of buffered data to the output.
+     * 
+     * @param avioContext 
+     */
+    public void avio_flush(Pointer<?> avioContext) {
+        Lib.avio_flush(avioContext);
+    }
+    
     /**
      * Read packets of a media file to get stream information.
      * 
@@ -595,8 +630,11 @@ public final class AVFormatLibrary implements ILibrary {
         public static native Pointer<?> av_oformat_next(Pointer<?> f);
         public static native Pointer<?> av_find_input_format(Pointer<Byte>  short_name);
 	public static native Pointer<?> av_guess_format(Pointer<Byte> short_name, Pointer<Byte> filename, Pointer<Byte> mime_type);
+	public static native int av_codec_get_id(Pointer<Pointer<?>> tags, int tag);
+	public static native int av_codec_get_tag(Pointer<Pointer<?>> tags, int id);
 	public static native int avio_open(Pointer<Pointer<?>> s, Pointer<Byte> url, int flags);
 	public static native int avio_close(Pointer<?> s);
+	public static native void avio_flush(Pointer<?> s);
 	@Optional
 	public static native int av_find_stream_info(Pointer<?> ic);
 	@Optional
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.avutil;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Plane layout of common pixel formats. For every plane it describes 
+ * the vertical chroma subsampling, i.e. the plane has 
+ * ceil(height / 2^shift) lines.
+ * 
+ * @author Ondrej Perutka
+ */
+public class PlaneLayout {
+    
+    private static final Map<PixelFormat, int[]> planeShifts;
+    private static final Map<PixelFormat, int[]> horizontalShifts;
+    
+    static {
+        planeShifts = new EnumMap<PixelFormat, int[]>(PixelFormat.class);
+        putPlaneShifts(new int[] { 0 }, PixelFormat.YUYV422, PixelFormat.UYVY422, PixelFormat.RGB24, PixelFormat.BGR24, 
+                PixelFormat.ARGB, PixelFormat.RGBA, PixelFormat.ABGR, PixelFormat.BGRA, PixelFormat.GRAY8, 
+                PixelFormat.GRAY16BE, PixelFormat.GRAY16LE, PixelFormat.Y400A, PixelFormat.RGB48BE, PixelFormat.RGB48LE, 
+                PixelFormat.BGR48BE, PixelFormat.BGR48LE, PixelFormat.RGB565BE, PixelFormat.RGB565LE, 
+                PixelFormat.RGB555BE, PixelFormat.RGB555LE, PixelFormat.BGR565BE, PixelFormat.BGR565LE, 
+                PixelFormat.BGR555BE, PixelFormat.BGR555LE, PixelFormat.RGB444BE, PixelFormat.RGB444LE, 
+                PixelFormat.BGR444BE, PixelFormat.BGR444LE);
+        putPlaneShifts(new int[] { 0, 1, 1 }, PixelFormat.YUV420P, PixelFormat.YUVJ420P, PixelFormat.YUV440P, 
+                PixelFormat.YUVJ440P, PixelFormat.YUV420P9BE, PixelFormat.YUV420P9LE, PixelFormat.YUV420P10BE, 
+                PixelFormat.YUV420P10LE, PixelFormat.YUV420P16BE, PixelFormat.YUV420P16LE);
+        putPlaneShifts(new int[] { 0, 1, 1, 0 }, PixelFormat.YUVA420P, PixelFormat.YUVA420P9BE, PixelFormat.YUVA420P9LE, 
+                PixelFormat.YUVA420P10BE, PixelFormat.YUVA420P10LE, PixelFormat.YUVA420P16BE, PixelFormat.YUVA420P16LE);
+        putPlaneShifts(new int[] { 0, 0, 0 }, PixelFormat.YUV422P, PixelFormat.YUVJ422P, PixelFormat.YUV444P, 
+                PixelFormat.YUVJ444P, PixelFormat.YUV411P, PixelFormat.YUV422P9BE, PixelFormat.YUV422P9LE, 
+                PixelFormat.YUV422P10BE, PixelFormat.YUV422P10LE, PixelFormat.YUV422P16BE, PixelFormat.YUV422P16LE, 
+                PixelFormat.YUV444P9BE, PixelFormat.YUV444P9LE, PixelFormat.YUV444P10BE, PixelFormat.YUV444P10LE, 
+                PixelFormat.YUV444P16BE, PixelFormat.YUV444P16LE, PixelFormat.GBRP, PixelFormat.GBRP9BE, 
+                PixelFormat.GBRP9LE, PixelFormat.GBRP10BE, PixelFormat.GBRP10LE, PixelFormat.GBRP16BE, 
+                PixelFormat.GBRP16LE);
+        putPlaneShifts(new int[] { 0, 0, 0, 0 }, PixelFormat.YUVA422P, PixelFormat.YUVA444P);
+        putPlaneShifts(new int[] { 0, 2, 2 }, PixelFormat.YUV410P);
+        putPlaneShifts(new int[] { 0, 1 }, PixelFormat.NV12, PixelFormat.NV21);
+        putPlaneShifts(new int[] { 0, 0 }, PixelFormat.NV16);
+        
+        // horizontal subsampling of planar formats with one byte per sample
+        horizontalShifts = new EnumMap<PixelFormat, int[]>(PixelFormat.class);
+        putShifts(horizontalShifts, new int[] { 0 }, PixelFormat.GRAY8);
+        putShifts(horizontalShifts, new int[] { 0, 1, 1 }, PixelFormat.YUV420P, PixelFormat.YUVJ420P, 
+                PixelFormat.YUV422P, PixelFormat.YUVJ422P);
+        putShifts(horizontalShifts, new int[] { 0, 1, 1, 0 }, PixelFormat.YUVA420P);
+        putShifts(horizontalShifts, new int[] { 0, 0, 0 }, PixelFormat.YUV444P, PixelFormat.YUVJ444P, 
+                PixelFormat.YUV440P, PixelFormat.YUVJ440P, PixelFormat.GBRP);
+        putShifts(horizontalShifts, new int[] { 0, 2, 2 }, PixelFormat.YUV411P, PixelFormat.YUV410P);
+    }
+    
+    private static void putShifts(Map<PixelFormat, int[]> map, int[] shifts, PixelFormat... formats) {
+        for (PixelFormat pf : formats)
+            map.put(pf, shifts);
+    }
+    
+    private static void putPlaneShifts(int[] shifts, PixelFormat... formats) {
+        for (PixelFormat pf : formats)
+            planeShifts.put(pf, shifts);
+    }
+    
+    /**
+     * Get vertical subsampling shifts of all planes of the given pixel 
+     * format.
+     * 
+     * @param pixelFormat a pixel format
+     * @return vertical shifts (one per plane) or null if the pixel format
+     * is not known
+     */
+    public static int[] getPlaneShifts(PixelFormat pixelFormat) {
+        int[] result = planeShifts.get(pixelFormat);
+        return result == null ? null : result.clone();
+    }
+    
+    /**
+     * Get number of planes of the given pixel format.
+     * 
+     * @param pixelFormat a pixel format
+     * @return number of planes or -1 if the pixel format is not known
+     */
+    public static int getPlaneCount(PixelFormat pixelFormat) {
+        int[] shifts = planeShifts.get(pixelFormat);
+        return shifts == null ? -1 : shifts.length;
+    }
+    
+    /**
+     * Get number of lines of the given plane.
+     * 
+     * @param pixelFormat a pixel format
+     * @param plane a plane index
+     * @param height picture height
+     * @return number of lines of the plane
+     * @throws IllegalArgumentException if the pixel format is not known or
+     * it has no such plane
+     */
+    public static int getPlaneHeight(PixelFormat pixelFormat, int plane, int height) {
+        int[] shifts = planeShifts.get(pixelFormat);
+        if (shifts == null)
+            throw new IllegalArgumentException("unknown plane layout: " + pixelFormat);
+        if (plane < 0 || plane >= shifts.length)
+            throw new IllegalArgumentException("no such plane: " + plane);
+        
+        return -((-height) >> shifts[plane]);
+    }
+    
+    /**
+     * Check whether the byte offset of a pixel can be computed for the given
+     * pixel format using the getPlaneOffset() method (i.e. it is a planar 
+     * format with one byte per sample).
+     * 
+     * @param pixelFormat a pixel format
+     * @return true if the offsets are known, false otherwise
+     */
+    public static boolean isOffsetKnown(PixelFormat pixelFormat) {
+        return horizontalShifts.containsKey(pixelFormat);
+    }
+    
+    /**
+     * Get number of bytes per line of the given plane (without padding). It
+     * is known only for the formats accepted by the isOffsetKnown() method.
+     * 
+     * @param pixelFormat a pixel format
+     * @param plane a plane index
+     * @param width picture width
+     * @return number of bytes per line of the plane
+     * @throws IllegalArgumentException if the offsets are not known for the 
+     * pixel format or it has no such plane
+     */
+    public static int getPlaneWidth(PixelFormat pixelFormat, int plane, int width) {
+        int[] hs = horizontalShifts.get(pixelFormat);
+        if (hs == null)
+            throw new IllegalArgumentException("unknown plane offsets: " + pixelFormat);
+        if (plane < 0 || plane >= hs.length)
+            throw new IllegalArgumentException("no such plane: " + plane);
+        
+        return -((-width) >> hs[plane]);
+    }
+    
+    /**
+     * Get byte offset of the given pixel within the given plane. The pixel 
+     * position should be aligned to the chroma subsampling of the format.
+     * 
+     * @param pixelFormat a pixel format
+     * @param plane a plane index
+     * @param x horizontal position of the pixel
+     * @param y vertical position of the pixel
+     * @param lineSize line size of the plane
+     * @return byte offset of the pixel
+     * @throws IllegalArgumentException if the offsets are not known for the 
+     * pixel format or it has no such plane
+     */
+    public static long getPlaneOffset(PixelFormat pixelFormat, int plane, int x, int y, int lineSize) {
+        int[] hs = horizontalShifts.get(pixelFormat);
+        if (hs == null)
+            throw new IllegalArgumentException("unknown plane offsets: " + pixelFormat);
+        if (plane < 0 || plane >= hs.length)
+            throw new IllegalArgumentException("no such plane: " + plane);
+        
+        int[] vs = planeShifts.get(pixelFormat);
+        
+        return (long)(y >> vs[plane]) * lineSize + (x >> hs[plane]);
+    }
+    
+}
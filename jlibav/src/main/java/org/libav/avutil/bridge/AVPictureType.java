@@ -25,6 +25,7 @@ package org.libav.avutil.bridge;
  */
 public interface AVPictureType {
     
+    public static final int AV_PICTURE_TYPE_NONE = 0;
     public static final int AV_PICTURE_TYPE_I = 1;
     public static final int AV_PICTURE_TYPE_P = 2;
     public static final int AV_PICTURE_TYPE_B = 3;
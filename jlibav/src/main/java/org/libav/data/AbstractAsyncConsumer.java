@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.LibavException;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Base class for asynchronous consumers. Items passed by a producer are 
+ * copied into a bounded queue and delivered to the target consumer by
+ * a separate thread, so a slow consumer does not stall its producer (and
+ * other consumers of the producer). Behaviour of a full queue is given by
+ * an overflow policy.
+ * 
+ * Queue length, lag (time between enqueuing and delivering an item in 
+ * microseconds), number of delivered and dropped items are reported
+ * through the metrics registry.
+ * 
+ * @author Ondrej Perutka
+ * 
+ * @param <T> item type
+ */
+public abstract class AbstractAsyncConsumer<T> {
+    
+    /**
+     * Default queue capacity.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+    
+    private final int capacity;
+    private final OverflowPolicy policy;
+    
+    private final LinkedList<Item<T>> queue;
+    private boolean waitForKey;
+    private boolean busy;
+    private boolean closed;
+    private long droppedCount;
+    
+    private final Thread worker;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final IHistogram lag;
+    private final ICounter delivered;
+    private final ICounter dropped;
+    
+    /**
+     * Create a new asynchronous consumer and start its delivery thread.
+     * 
+     * @param name name used for the delivery thread and metric prefix
+     * @param capacity queue capacity
+     * @param policy overflow policy
+     */
+    protected AbstractAsyncConsumer(String name, int capacity, OverflowPolicy policy) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        
+        this.capacity = capacity;
+        this.policy = policy;
+        
+        queue = new LinkedList<Item<T>>();
+        waitForKey = false;
+        busy = false;
+        closed = false;
+        droppedCount = 0;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix(name);
+        lag = metrics.histogram(metricPrefix + "lag");
+        delivered = metrics.counter(metricPrefix + "delivered");
+        dropped = metrics.counter(metricPrefix + "dropped");
+        metrics.gauge(metricPrefix + "queued", new IGauge() {
+            @Override
+            public long getValue() {
+                return getQueuedCount();
+            }
+        });
+        
+        worker = Execution.newThread(Execution.ASYNC_CONSUMER, new Worker(), metricPrefix.substring(0, metricPrefix.length() - 1), true);
+        worker.start();
+    }
+    
+    /**
+     * Make a private copy of the given item. The producer may reuse the item
+     * after the processing method returns.
+     * 
+     * @param item an item
+     * @return item copy
+     * @throws LibavException if the item cannot be copied
+     */
+    protected abstract T copy(T item) throws LibavException;
+    
+    /**
+     * Release a copy made by the copy() method.
+     * 
+     * @param item an item copy
+     */
+    protected abstract void release(T item);
+    
+    /**
+     * Check whether the given item is a key frame (packet).
+     * 
+     * @param item an item
+     * @return true if the item is a key item, false otherwise
+     */
+    protected abstract boolean isKey(T item);
+    
+    /**
+     * Pass the given item to the target consumer. This method is called 
+     * from the delivery thread.
+     * 
+     * @param producer the original producer
+     * @param item an item copy
+     * @throws LibavException if the target consumer throws it
+     */
+    protected abstract void deliver(Object producer, T item) throws LibavException;
+    
+    /**
+     * Put a copy of the given item into the queue.
+     * 
+     * @param producer a producer
+     * @param item an item
+     * @throws LibavException if the item cannot be copied
+     */
+    protected synchronized void enqueue(Object producer, T item) throws LibavException {
+        if (closed)
+            return;
+        
+        boolean key = isKey(item);
+        if (policy == OverflowPolicy.DROP_NON_KEY && waitForKey) {
+            if (!key) {
+                drop();
+                return;
+            }
+            waitForKey = false;
+        }
+        
+        while (queue.size() >= capacity) {
+            switch (policy) {
+                case BLOCK:
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        drop();
+                        return;
+                    }
+                    if (closed)
+                        return;
+                    break;
+                case DROP_OLDEST:
+                    release(queue.removeFirst().item);
+                    drop();
+                    break;
+                case DROP_NON_KEY:
+                    if (!key) {
+                        waitForKey = true;
+                        drop();
+                        return;
+                    }
+                    while (!queue.isEmpty()) {
+                        release(queue.removeFirst().item);
+                        drop();
+                    }
+                    break;
+            }
+        }
+        
+        queue.addLast(new Item<T>(producer, copy(item), System.nanoTime()));
+        notifyAll();
+    }
+    
+    private void drop() {
+        droppedCount++;
+        dropped.increment();
+    }
+    
+    /**
+     * Get queue capacity.
+     * 
+     * @return queue capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Get overflow policy.
+     * 
+     * @return overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+    
+    /**
+     * Get number of items waiting for delivery.
+     * 
+     * @return number of queued items
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+    
+    /**
+     * Get number of items dropped because of a full queue.
+     * 
+     * @return number of dropped items
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    /**
+     * Wait until all queued items are delivered.
+     * 
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (!closed && (busy || !queue.isEmpty()))
+            wait();
+    }
+    
+    /**
+     * Stop the delivery thread. Items which have not been delivered yet are 
+     * dropped.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            
+            closed = true;
+            notifyAll();
+        }
+        
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        synchronized (this) {
+            while (!queue.isEmpty())
+                release(queue.removeFirst().item);
+        }
+        
+        metrics.removeAll(metricPrefix);
+    }
+    
+    /**
+     * Check whether this consumer has been closed.
+     * 
+     * @return true if it has been closed, false otherwise
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+    
+    private static class Item<T> {
+        private final Object producer;
+        private final T item;
+        private final long time;
+        
+        public Item(Object producer, T item, long time) {
+            this.producer = producer;
+            this.item = item;
+            this.time = time;
+        }
+    }
+    
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            Item<T> it;
+            
+            while (true) {
+                synchronized (AbstractAsyncConsumer.this) {
+                    busy = false;
+                    AbstractAsyncConsumer.this.notifyAll();
+                    while (queue.isEmpty() && !closed) {
+                        try {
+                            AbstractAsyncConsumer.this.wait();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                    }
+                    if (closed)
+                        return;
+                    
+                    it = queue.removeFirst();
+                    busy = true;
+                    AbstractAsyncConsumer.this.notifyAll();
+                }
+                
+                lag.record((System.nanoTime() - it.time) / 1000);
+                try {
+                    deliver(it.producer, it.item);
+                    delivered.increment();
+                } catch (Exception ex) {
+                    Logger.getLogger(AbstractAsyncConsumer.class.getName()).log(Level.WARNING, "asynchronous delivery failed", ex);
+                } finally {
+                    release(it.item);
+                }
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.util.LinkedList;
+import org.libav.LibavException;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+
+/**
+ * Frame consumer adapter which passes video frames to the target consumer 
+ * asynchronously. Frames are copied into pictures of the given format and
+ * size. The pictures are reused.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AsyncFrameConsumer extends AbstractAsyncConsumer<IFrameWrapper> implements IFrameConsumer {
+    
+    private final IFrameConsumer consumer;
+    private final PixelFormat pixelFormat;
+    private final int width;
+    private final int height;
+    
+    private final LinkedList<IFrameWrapper> pictures;
+    
+    /**
+     * Create a new asynchronous frame consumer with the default capacity 
+     * and the BLOCK overflow policy.
+     * 
+     * @param consumer target consumer
+     * @param pixelFormat pixel format of consumed frames
+     * @param width width of consumed frames
+     * @param height height of consumed frames
+     */
+    public AsyncFrameConsumer(IFrameConsumer consumer, PixelFormat pixelFormat, int width, int height) {
+        this(consumer, pixelFormat, width, height, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+    
+    /**
+     * Create a new asynchronous frame consumer.
+     * 
+     * @param consumer target consumer
+     * @param pixelFormat pixel format of consumed frames
+     * @param width width of consumed frames
+     * @param height height of consumed frames
+     * @param capacity queue capacity
+     * @param policy overflow policy
+     */
+    public AsyncFrameConsumer(IFrameConsumer consumer, PixelFormat pixelFormat, int width, int height, int capacity, OverflowPolicy policy) {
+        super("async-frame-consumer", capacity, policy);
+        
+        this.consumer = consumer;
+        this.pixelFormat = pixelFormat;
+        this.width = width;
+        this.height = height;
+        
+        pictures = new LinkedList<IFrameWrapper>();
+    }
+    
+    /**
+     * Get target consumer.
+     * 
+     * @return target consumer
+     */
+    public IFrameConsumer getConsumer() {
+        return consumer;
+    }
+    
+    @Override
+    public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+        enqueue(producer, frame);
+    }
+    
+    @Override
+    protected IFrameWrapper copy(IFrameWrapper item) throws LibavException {
+        IFrameWrapper result;
+        synchronized (pictures) {
+            result = pictures.poll();
+        }
+        
+        if (result == null)
+            result = FrameWrapperFactory.getInstance().allocPicture(pixelFormat, width, height);
+        
+        try {
+            FrameWrapperFactory.getInstance().copyPicture(item, result, pixelFormat, width, height);
+        } catch (LibavException ex) {
+            release(result);
+            throw ex;
+        }
+        
+        result.setPts(item.getPts());
+        result.setKeyFrame(item.isKeyFrame());
+        result.setPictureType(item.getPictureType());
+        result.setRepeatPicture(item.getRepeatPicture());
+        
+        return result;
+    }
+    
+    @Override
+    protected void release(IFrameWrapper item) {
+        synchronized (pictures) {
+            pictures.add(item);
+        }
+    }
+    
+    @Override
+    protected boolean isKey(IFrameWrapper item) {
+        return item.isKeyFrame();
+    }
+    
+    @Override
+    protected void deliver(Object producer, IFrameWrapper item) throws LibavException {
+        consumer.processFrame(producer, item);
+    }
+    
+    @Override
+    public void close() {
+        super.close();
+        
+        synchronized (pictures) {
+            for (IFrameWrapper picture : pictures)
+                picture.free();
+            pictures.clear();
+        }
+    }
+    
+}
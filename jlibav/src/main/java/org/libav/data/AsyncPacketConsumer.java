@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import org.libav.LibavException;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+
+/**
+ * Packet consumer adapter which passes packets to the target consumer 
+ * asynchronously. Packets are cloned into pooled packets, so the producer
+ * may free them as usual.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AsyncPacketConsumer extends AbstractAsyncConsumer<IPacketWrapper> implements IPacketConsumer {
+    
+    private final IPacketConsumer consumer;
+    private final PacketPool packetPool;
+    
+    /**
+     * Create a new asynchronous packet consumer with the default capacity
+     * and the BLOCK overflow policy.
+     * 
+     * @param consumer target consumer
+     */
+    public AsyncPacketConsumer(IPacketConsumer consumer) {
+        this(consumer, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+    
+    /**
+     * Create a new asynchronous packet consumer.
+     * 
+     * @param consumer target consumer
+     * @param capacity queue capacity
+     * @param policy overflow policy
+     */
+    public AsyncPacketConsumer(IPacketConsumer consumer, int capacity, OverflowPolicy policy) {
+        super("async-packet-consumer", capacity, policy);
+        
+        this.consumer = consumer;
+        this.packetPool = new PacketPool();
+    }
+    
+    /**
+     * Get target consumer.
+     * 
+     * @return target consumer
+     */
+    public IPacketConsumer getConsumer() {
+        return consumer;
+    }
+    
+    @Override
+    public void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+        enqueue(producer, packet);
+    }
+    
+    @Override
+    protected IPacketWrapper copy(IPacketWrapper item) throws LibavException {
+        return packetPool.clonePacket(item);
+    }
+    
+    @Override
+    protected void release(IPacketWrapper item) {
+        item.free();
+    }
+    
+    @Override
+    protected boolean isKey(IPacketWrapper item) {
+        return (item.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0;
+    }
+    
+    @Override
+    protected void deliver(Object producer, IPacketWrapper item) throws LibavException {
+        consumer.processPacket(producer, item);
+    }
+    
+    @Override
+    public void close() {
+        super.close();
+        packetPool.dispose();
+    }
+    
+}
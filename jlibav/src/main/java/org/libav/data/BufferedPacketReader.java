@@ -17,28 +17,50 @@
  */
 package org.libav.data;
 
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import org.libav.avcodec.IPacketWrapper;
 import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
 import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avutil.bridge.AVUtilLibrary;
 import org.libav.util.Buffer;
+import org.libav.util.concurrent.Execution;
 
 /**
- * Buffered packet reader.
+ * Buffered packet reader. Packets are read by a background thread directly
+ * into pooled packets and they are published to the buffer in batches.
+ * 
+ * The reader thread and the consumer wait for each other on a lock 
+ * condition rather than on the buffer monitor, so that a virtual reader 
+ * thread waiting for a free space does not pin its carrier thread (JVMs
+ * before JEP 491 pin a virtual thread waiting inside a monitor).
  * 
  * @author Ondrej Perutka
  */
-public class BufferedPacketReader {
+public class BufferedPacketReader implements IBufferedPacketReader {
+    
+    /**
+     * Default number of packets published to the buffer at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 8;
     
     private final IFormatContextWrapper formatContext;
     private final PacketPool packetPool;
     private IPacketWrapper packet;
+    private final int batchSize;
+    private final boolean copyPackets;
     
     private final Buffer<IPacketWrapper> buffer;
-    private boolean eof;
+    private final ReentrantLock bufferLock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private volatile boolean eof;
     
     private ReaderThread readerThread;
     private Thread t;
+    private ThreadFactory threadFactory;
     private final ReentrantLock lock;
 
     /**
@@ -48,25 +70,62 @@ public class BufferedPacketReader {
      * @param bufferSize size of the buffer
      */
     public BufferedPacketReader(IFormatContextWrapper formatContext, int bufferSize) {
+        this(formatContext, bufferSize, DEFAULT_BATCH_SIZE, false);
+    }
+    
+    /**
+     * Create a new pcket reader.
+     * 
+     * @param formatContext a format context
+     * @param bufferSize size of the buffer
+     * @param batchSize maximum number of packets published to the buffer at 
+     * once (a batch is published earlier if the buffer is empty)
+     * @param copyPackets if true, packets are read into a temporary packet
+     * and copied into pooled packets, otherwise they are read directly into
+     * pooled packets
+     */
+    public BufferedPacketReader(IFormatContextWrapper formatContext, int bufferSize, int batchSize, boolean copyPackets) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size must be positive");
+        
         this.formatContext = formatContext;
+        this.batchSize = Math.min(batchSize, bufferSize);
+        this.copyPackets = copyPackets;
         packet = PacketWrapperFactory.getInstance().alloc();
         packetPool = new PacketPool();
         
         buffer = new Buffer<IPacketWrapper>(bufferSize);
+        bufferLock = new ReentrantLock();
+        notEmpty = bufferLock.newCondition();
+        notFull = bufferLock.newCondition();
         eof = false;
         
         readerThread = null;
         t = null;
+        threadFactory = null;
         lock = new ReentrantLock();
     }
     
+    /**
+     * Set thread factory used to create the reader thread. If it is null,
+     * the factory configured for the Execution.PACKET_READER component is 
+     * used. The factory is used next time the reader thread is started.
+     * 
+     * @param threadFactory a thread factory
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+    
     private void start() {
         if (t != null)
             return;
         
         readerThread = new ReaderThread();
-        t = new Thread(readerThread);
-        t.setDaemon(true);
+        if (threadFactory == null)
+            t = Execution.newThread(Execution.PACKET_READER, readerThread, "PacketReader", true);
+        else
+            t = Execution.newThread(threadFactory, readerThread, "PacketReader", true);
         t.start();
     }
     
@@ -81,9 +140,7 @@ public class BufferedPacketReader {
         t = null;
     }
     
-    /**
-     * Drop buffered data.
-     */
+    @Override
     public void dropBuffer() {
         try {
             lock.lockInterruptibly();
@@ -110,16 +167,95 @@ public class BufferedPacketReader {
         lock.unlock();
     }
     
+    @Override
+    public int getBufferedPacketCount() {
+        return buffer.getItemCount();
+    }
+    
+    @Override
+    public long getBufferedDuration(int streamIndex) {
+        return getBufferedDuration(buffer, streamIndex);
+    }
+    
     /**
-     * Reset the EOF flag. (It is usefull when seeking.)
+     * Get buffered duration of the given stream.
+     * 
+     * @param buffer a packet buffer
+     * @param streamIndex a stream index
+     * @return buffered duration in the stream time base units
      */
-    public void resetEof() {
-        eof = false;
+    static long getBufferedDuration(Buffer<IPacketWrapper> buffer, int streamIndex) {
+        long first = AVUtilLibrary.AV_NOPTS_VALUE;
+        long last = AVUtilLibrary.AV_NOPTS_VALUE;
+        IPacketWrapper pw;
+        
+        synchronized (buffer) {
+            for (int i = 0; i < buffer.getItemCount(); i++) {
+                pw = buffer.peek(i);
+                if (pw == null || pw.getStreamIndex() != streamIndex || pw.getPts() == AVUtilLibrary.AV_NOPTS_VALUE)
+                    continue;
+                if (first == AVUtilLibrary.AV_NOPTS_VALUE)
+                    first = pw.getPts();
+                last = pw.getPts();
+            }
+        }
+        
+        return first == AVUtilLibrary.AV_NOPTS_VALUE ? 0 : last - first;
+    }
+    
+    @Override
+    public int dropToLatestKeyFrame(int streamIndex) {
+        bufferLock.lock();
+        try {
+            int result = dropToLatestKeyFrame(buffer, streamIndex);
+            if (result > 0)
+                notFull.signal();
+            return result;
+        } finally {
+            bufferLock.unlock();
+        }
     }
     
     /**
-     * Release all associated resources.
+     * Drop all packets preceding the most recent key frame of the given 
+     * stream from the given buffer.
+     * 
+     * @param buffer a packet buffer
+     * @param streamIndex a stream index
+     * @return number of dropped packets
      */
+    static int dropToLatestKeyFrame(Buffer<IPacketWrapper> buffer, int streamIndex) {
+        IPacketWrapper pw;
+        int keyFrame = -1;
+        
+        synchronized (buffer) {
+            for (int i = buffer.getItemCount() - 1; i > 0 && keyFrame < 0; i--) {
+                pw = buffer.peek(i);
+                if (pw != null && pw.getStreamIndex() == streamIndex && (pw.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0)
+                    keyFrame = i;
+            }
+            
+            for (int i = 0; i < keyFrame; i++) {
+                pw = buffer.get();
+                if (pw != null)
+                    pw.free();
+            }
+        }
+        
+        return Math.max(keyFrame, 0);
+    }
+    
+    @Override
+    public int getUsedPacketCount() {
+        return packetPool.getAllocatedPacketCount() - packetPool.getPooledPacketCount();
+    }
+    
+    @Override
+    public void resetEof() {
+        eof = false;
+    }
+    
+    @Override
     public void close() {
         dropBuffer();
         
@@ -135,20 +271,12 @@ public class BufferedPacketReader {
         lock.unlock();
     }
     
-    /**
-     * Check whether the packet reader is closed or not.
-     * 
-     * @return true if it is close, false otherwise
-     */
+    @Override
     public boolean isClosed() {
         return packet == null;
     }
     
-    /**
-     * Get next packet.
-     * 
-     * @return packet wrapper or null in case of EOF
-     */
+    @Override
     public IPacketWrapper nextPacket() {
         IPacketWrapper pw;
         try {
@@ -157,44 +285,49 @@ public class BufferedPacketReader {
             throw new RuntimeException(ex);
         }
         
-        synchronized (buffer) {
-            if ((eof && buffer.getItemCount() == 0) || isClosed()) {
-                lock.unlock();
+        bufferLock.lock();
+        try {
+            if ((eof && buffer.getItemCount() == 0) || isClosed())
                 return null;
-            }
             if (t == null)
                 start();
             
-            try {
-                pw = buffer.waitGet();
-            } catch (InterruptedException ex) {
-                lock.unlock();
-                throw new RuntimeException(ex);
-            }
+            while (buffer.getItemCount() == 0)
+                notEmpty.await();
+            pw = buffer.get();
+            notFull.signal();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            bufferLock.unlock();
+            lock.unlock();
         }
         
-        lock.unlock();
         return pw;
     }
     
-    private boolean putPacket(IPacketWrapper pw) {
-        if (pw == null)
-            eof = true;
+    private IPacketWrapper readPacket() {
+        IPacketWrapper pw;
         
-        try {
-            buffer.waitPut(pw);
-        } catch (InterruptedException ex) {
-            return false;
-        }
-
-        return true;
+        if (!copyPackets)
+            return packetPool.readPacket(formatContext);
+        
+        if (formatContext.readNextPacket(packet))
+            pw = packetPool.clonePacket(packet);
+        else
+            pw = null;
+        packet.free();
+        
+        return pw;
     }
     
     private class ReaderThread implements Runnable {
-        private boolean stop;
+        private volatile boolean stop;
+        private final IPacketWrapper[] batch;
 
         public ReaderThread() {
             stop = false;
+            batch = new IPacketWrapper[batchSize];
         }
         
         public void stop() {
@@ -203,27 +336,63 @@ public class BufferedPacketReader {
         
         @Override
         public void run() {
-            IPacketWrapper pw;
-            boolean put;
+            IPacketWrapper pw = null;
+            int n, put;
             
             while (!stop) {
-                if (formatContext.readNextPacket(packet))
-                    pw = packetPool.clonePacket(packet);
-                else
-                    pw = null;
-                packet.free();
-                
+                n = 0;
                 do {
+                    pw = readPacket();
                     //System.out.printf("got next packet: pts = %d, dts = %d, stream_index = %d, pos = %d\n", pw.getPts(), pw.getDts(), pw.getStreamIndex(), pw.getPosition());
-                    put = putPacket(pw);
-                } while (!put && !stop);
+                    batch[n++] = pw;
+                    // do not keep the consumer waiting for a full batch
+                } while (pw != null && n < batch.length && !stop && buffer.getItemCount() > 0);
+                
+                if (pw == null) {
+                    // the EOF flag must be set before the end marker is 
+                    // published, otherwise the consumer could take 
+                    // the marker and wait for another packet forever
+                    put = publish(0, n - 1);
+                    eof = true;
+                    put = publish(put, n);
+                } else
+                    put = publish(0, n);
+                
+                for (int i = put; i < n; i++) {
+                    if (batch[i] != null)
+                        batch[i].free();
+                }
+                for (int i = 0; i < n; i++)
+                    batch[i] = null;
                 
                 if (pw == null)
                     stop = true;
-                else if (!put)
-                    pw.free();
             }
         }
+        
+        private int publish(int put, int n) {
+            bufferLock.lock();
+            try {
+                while (put < n && !stop) {
+                    if (buffer.getItemCount() == buffer.getCapacity()) {
+                        try {
+                            notFull.await();
+                        } catch (InterruptedException ex) {
+                            // the stop flag is checked again
+                        }
+                        continue;
+                    }
+                    
+                    while (put < n && buffer.getItemCount() < buffer.getCapacity())
+                        buffer.dropPut(batch[put++]);
+                    notEmpty.signalAll();
+                }
+            } finally {
+                bufferLock.unlock();
+            }
+            
+            return put;
+        }
     }
     
 }
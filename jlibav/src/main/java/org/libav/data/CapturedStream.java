@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.PixelFormat;
+import org.libav.avutil.SampleFormat;
+import org.libav.util.Rational;
+
+/**
+ * Stream parameters stored in a packet capture file. Enumerated values are
+ * stored by name, so a capture can be replayed using a different version 
+ * of Libav.
+ * 
+ * @author Ondrej Perutka
+ */
+public class CapturedStream {
+    
+    private static final Charset charset = Charset.forName("UTF-8");
+    
+    private MediaType codecType;
+    private CodecID codecId;
+    private Rational timeBase;
+    private Rational codecTimeBase;
+    private int width;
+    private int height;
+    private PixelFormat pixelFormat;
+    private int sampleRate;
+    private SampleFormat sampleFormat;
+    private int channels;
+    private long channelLayout;
+    private int bitRate;
+    private byte[] extradata;
+    
+    private CapturedStream() {
+    }
+    
+    /**
+     * Get codec type.
+     * 
+     * @return codec type or null if it is not supported by this version 
+     * of Libav
+     */
+    public MediaType getCodecType() {
+        return codecType;
+    }
+    
+    /**
+     * Get codec ID.
+     * 
+     * @return codec ID or null if it is not supported by this version 
+     * of Libav
+     */
+    public CodecID getCodecId() {
+        return codecId;
+    }
+    
+    /**
+     * Get stream time base (time base of the packet timestamps).
+     * 
+     * @return time base
+     */
+    public Rational getTimeBase() {
+        return timeBase;
+    }
+    
+    /**
+     * Get codec extradata.
+     * 
+     * @return extradata
+     */
+    public byte[] getExtradata() {
+        return extradata;
+    }
+    
+    /**
+     * Set parameters of the given stream and its codec context.
+     * 
+     * @param stream a stream
+     */
+    public void applyTo(IStreamWrapper stream) {
+        ICodecContextWrapper cc = stream.getCodecContext();
+        
+        if (codecType != null)
+            cc.setCodecType(codecType);
+        if (codecId != null)
+            cc.setCodecId(codecId);
+        cc.setTimeBase(codecTimeBase);
+        cc.setBitRate(bitRate);
+        if (codecType == MediaType.VIDEO) {
+            cc.setWidth(width);
+            cc.setHeight(height);
+            if (pixelFormat != null)
+                cc.setPixelFormat(pixelFormat);
+        } else if (codecType == MediaType.AUDIO) {
+            cc.setSampleRate(sampleRate);
+            if (sampleFormat != null)
+                cc.setSampleFormat(sampleFormat);
+            cc.setChannels(channels);
+            cc.setChannelLayout(channelLayout);
+        }
+        cc.setExtradata(extradata);
+        
+        stream.setTimeBase(timeBase);
+    }
+    
+    /**
+     * Get parameters of the given stream.
+     * 
+     * @param stream a stream
+     * @return stream parameters
+     */
+    public static CapturedStream of(IStreamWrapper stream) {
+        ICodecContextWrapper cc = stream.getCodecContext();
+        CapturedStream result = new CapturedStream();
+        
+        result.codecType = cc.getCodecType();
+        result.codecId = cc.getCodecId();
+        result.timeBase = stream.getTimeBase();
+        result.codecTimeBase = cc.getTimeBase();
+        result.bitRate = cc.getBitRate();
+        if (result.codecType == MediaType.VIDEO) {
+            result.width = cc.getWidth();
+            result.height = cc.getHeight();
+            result.pixelFormat = cc.getPixelFormat();
+        } else if (result.codecType == MediaType.AUDIO) {
+            result.sampleRate = cc.getSampleRate();
+            result.sampleFormat = cc.getSampleFormat();
+            result.channels = cc.getChannels();
+            result.channelLayout = cc.getChannelLayout();
+        }
+        result.extradata = cc.getExtradata();
+        if (result.extradata == null)
+            result.extradata = new byte[0];
+        
+        return result;
+    }
+    
+    /**
+     * Get size of the serialized parameters.
+     * 
+     * @return size in bytes
+     */
+    int getSerializedSize() {
+        return 4 * 7 + 8 * 5 + extradata.length
+                + nameSize(codecType) + nameSize(codecId) + nameSize(pixelFormat) + nameSize(sampleFormat);
+    }
+    
+    /**
+     * Write the parameters into the given buffer.
+     * 
+     * @param buffer a buffer
+     */
+    void write(ByteBuffer buffer) {
+        putName(buffer, codecType);
+        putName(buffer, codecId);
+        buffer.putLong(timeBase.getNumerator());
+        buffer.putLong(timeBase.getDenominator());
+        buffer.putLong(codecTimeBase.getNumerator());
+        buffer.putLong(codecTimeBase.getDenominator());
+        buffer.putInt(width);
+        buffer.putInt(height);
+        putName(buffer, pixelFormat);
+        buffer.putInt(sampleRate);
+        putName(buffer, sampleFormat);
+        buffer.putInt(channels);
+        buffer.putLong(channelLayout);
+        buffer.putInt(bitRate);
+        buffer.putInt(extradata.length);
+        buffer.putInt(0);
+        buffer.put(extradata);
+    }
+    
+    /**
+     * Read parameters from the given buffer.
+     * 
+     * @param buffer a buffer
+     * @return stream parameters
+     */
+    static CapturedStream read(ByteBuffer buffer) {
+        CapturedStream result = new CapturedStream();
+        
+        result.codecType = getEnum(buffer, MediaType.class);
+        result.codecId = getEnum(buffer, CodecID.class);
+        result.timeBase = new Rational(buffer.getLong(), buffer.getLong());
+        result.codecTimeBase = new Rational(buffer.getLong(), buffer.getLong());
+        result.width = buffer.getInt();
+        result.height = buffer.getInt();
+        result.pixelFormat = getEnum(buffer, PixelFormat.class);
+        result.sampleRate = buffer.getInt();
+        result.sampleFormat = getEnum(buffer, SampleFormat.class);
+        result.channels = buffer.getInt();
+        result.channelLayout = buffer.getLong();
+        result.bitRate = buffer.getInt();
+        result.extradata = new byte[buffer.getInt()];
+        buffer.getInt();
+        buffer.get(result.extradata);
+        
+        return result;
+    }
+    
+    private static int nameSize(Enum<?> value) {
+        return 4 + (value == null ? 0 : value.name().getBytes(charset).length);
+    }
+    
+    private static void putName(ByteBuffer buffer, Enum<?> value) {
+        byte[] name = value == null ? new byte[0] : value.name().getBytes(charset);
+        buffer.putInt(name.length);
+        buffer.put(name);
+    }
+    
+    private static <T extends Enum<T>> T getEnum(ByteBuffer buffer, Class<T> type) {
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        if (name.length == 0)
+            return null;
+        
+        try {
+            return Enum.valueOf(type, new String(name, charset));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+    
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import org.libav.avcodec.IPacketWrapper;
+
+/**
+ * Interface for packet readers which read packets of a format context 
+ * in background into a buffer.
+ * 
+ * @author Ondrej Perutka
+ */
+public interface IBufferedPacketReader {
+    
+    /**
+     * Get next packet. The method waits until there is a packet available.
+     * 
+     * @return packet wrapper or null in case of EOF
+     */
+    IPacketWrapper nextPacket();
+    
+    /**
+     * Get number of packets waiting in the buffer.
+     * 
+     * @return number of buffered packets
+     */
+    int getBufferedPacketCount();
+    
+    /**
+     * Get difference between PTS of the most recent and the least recent
+     * buffered packet of the given stream.
+     * 
+     * @param streamIndex a stream index
+     * @return buffered duration in the stream time base units
+     */
+    long getBufferedDuration(int streamIndex);
+    
+    /**
+     * Drop all buffered packets preceding the most recent buffered key frame
+     * of the given stream. Nothing is dropped if there is no key frame of
+     * the stream in the buffer.
+     * 
+     * @param streamIndex a stream index
+     * @return number of dropped packets
+     */
+    int dropToLatestKeyFrame(int streamIndex);
+    
+    /**
+     * Get number of packets allocated by the reader which are currently 
+     * in use.
+     * 
+     * @return number of packets in use
+     */
+    int getUsedPacketCount();
+    
+    /**
+     * Stop reading and drop buffered data. Reading continues with the next
+     * call of the nextPacket() method.
+     */
+    void dropBuffer();
+    
+    /**
+     * Reset the EOF flag. (It is usefull when seeking.)
+     */
+    void resetEof();
+    
+    /**
+     * Release all associated resources.
+     */
+    void close();
+    
+    /**
+     * Check whether the packet reader is closed or not.
+     * 
+     * @return true if it is close, false otherwise
+     */
+    boolean isClosed();
+    
+}
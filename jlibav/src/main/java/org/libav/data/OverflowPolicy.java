@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+/**
+ * Behaviour of asynchronous consumers when their queue is full.
+ * 
+ * @author Ondrej Perutka
+ */
+public enum OverflowPolicy {
+    
+    /**
+     * The producer waits until there is a free space in the queue.
+     */
+    BLOCK,
+    
+    /**
+     * The oldest queued item is dropped.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * The new item is dropped unless it is a key frame (packet). All following
+     * non-key items are dropped until the next key item arrives, so that
+     * the consumer never receives items depending on a dropped one. A key 
+     * item arriving to a full queue replaces all queued items.
+     */
+    DROP_NON_KEY
+    
+}
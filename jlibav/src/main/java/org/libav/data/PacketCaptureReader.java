@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.bridj.Pointer;
+import org.libav.LibavException;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.util.Rational;
+
+/**
+ * Packet capture reader. It reads packets stored by the PacketCaptureWriter
+ * from memory-mapped windows of the capture file. Record headers are 
+ * scanned when the file is opened, so the reader knows the duration of all
+ * streams and it can seek to key packets of the reference stream (the first
+ * video stream or the first stream if there is no video). Scanning stops
+ * at the first record without the sync word or at a truncated record, so
+ * the unused end of the last window of a capture which was not closed 
+ * properly is ignored.
+ * 
+ * @author Ondrej Perutka
+ */
+public class PacketCaptureReader {
+    
+    private RandomAccessFile raf;
+    private final FileChannel channel;
+    private long length;
+    
+    private final CapturedStream[] streams;
+    private final long[] tsMul;
+    private final long[] tsDiv;
+    private final long[] startTimes;
+    private final long[] endTimes;
+    private final int referenceStream;
+    private final long dataOffset;
+    
+    private long[] keyOffsets;
+    private long[] keyTimes;
+    private int keyCount;
+    private long packetCount;
+    
+    private ByteBuffer window;
+    private Pointer<?> windowPointer;
+    private long windowOffset;
+    private long position;
+    
+    /**
+     * Open the given capture file.
+     * 
+     * @param file a capture file
+     * @throws IOException if the file cannot be read or if it is not 
+     * a packet capture file
+     */
+    public PacketCaptureReader(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        
+        try {
+            length = channel.size();
+            window = null;
+            ensureWindow(0, (int)Math.min(length, PacketCaptureWriter.WINDOW_SIZE));
+            
+            try {
+                if (window.getInt() != PacketCaptureWriter.MAGIC)
+                    throw new IOException("not a packet capture file");
+                if (window.getInt() != PacketCaptureWriter.VERSION)
+                    throw new IOException("unsupported version of the packet capture file");
+                
+                streams = new CapturedStream[window.getInt()];
+                for (int i = 0; i < streams.length; i++)
+                    streams[i] = CapturedStream.read(window);
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("corrupted packet capture header");
+            }
+            dataOffset = window.position();
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+        
+        tsMul = new long[streams.length];
+        tsDiv = new long[streams.length];
+        startTimes = new long[streams.length];
+        endTimes = new long[streams.length];
+        int ref = -1;
+        Rational tb;
+        for (int i = 0; i < streams.length; i++) {
+            tb = streams[i].getTimeBase();
+            tsMul[i] = tb.getNumerator() * 1000;
+            tsDiv[i] = tb.getDenominator();
+            startTimes[i] = AVUtilLibrary.AV_NOPTS_VALUE;
+            endTimes[i] = AVUtilLibrary.AV_NOPTS_VALUE;
+            if (ref < 0 && streams[i].getCodecType() == MediaType.VIDEO)
+                ref = i;
+        }
+        referenceStream = Math.max(ref, 0);
+        
+        keyOffsets = new long[256];
+        keyTimes = new long[256];
+        keyCount = 0;
+        packetCount = 0;
+        
+        scan();
+        position = dataOffset;
+    }
+    
+    private void ensureWindow(long offset, int size) throws IOException {
+        if (window != null && offset >= windowOffset && offset + size <= windowOffset + window.capacity())
+            return;
+        
+        windowOffset = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Math.max(PacketCaptureWriter.WINDOW_SIZE, size), length - offset));
+        windowPointer = Pointer.pointerToBuffer(window);
+    }
+    
+    private void scan() throws IOException {
+        long offset = dataOffset;
+        int p, si, size, flags;
+        long time;
+        
+        while (offset + PacketCaptureWriter.RECORD_HEADER_SIZE <= length) {
+            ensureWindow(offset, PacketCaptureWriter.RECORD_HEADER_SIZE);
+            p = (int)(offset - windowOffset);
+            if (window.getInt(p + PacketCaptureWriter.RECORD_SYNC) != PacketCaptureWriter.SYNC_WORD)
+                break;
+            si = window.getInt(p + PacketCaptureWriter.RECORD_STREAM_INDEX);
+            flags = window.getInt(p + PacketCaptureWriter.RECORD_FLAGS);
+            size = window.getInt(p + PacketCaptureWriter.RECORD_SIZE);
+            if (si < 0 || si >= streams.length || size < 0 || offset + PacketCaptureWriter.RECORD_HEADER_SIZE + size > length)
+                break;
+            
+            time = getTime(window.getLong(p + PacketCaptureWriter.RECORD_PTS), window.getLong(p + PacketCaptureWriter.RECORD_DTS), si);
+            if (time != AVUtilLibrary.AV_NOPTS_VALUE) {
+                if (startTimes[si] == AVUtilLibrary.AV_NOPTS_VALUE)
+                    startTimes[si] = time;
+                endTimes[si] = time;
+                
+                if (si == referenceStream && (flags & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0)
+                    addKey(offset, time);
+            }
+            
+            offset += PacketCaptureWriter.RECORD_HEADER_SIZE + size;
+            packetCount++;
+        }
+        
+        // ignore a truncated record and the unused end of the file
+        length = offset;
+    }
+    
+    private void addKey(long offset, long time) {
+        if (keyCount == keyOffsets.length) {
+            keyOffsets = Arrays.copyOf(keyOffsets, keyCount * 2);
+            keyTimes = Arrays.copyOf(keyTimes, keyCount * 2);
+        }
+        
+        keyOffsets[keyCount] = offset;
+        keyTimes[keyCount++] = time;
+    }
+    
+    private long getTime(long pts, long dts, int streamIndex) {
+        long ts = dts == AVUtilLibrary.AV_NOPTS_VALUE ? pts : dts;
+        if (ts == AVUtilLibrary.AV_NOPTS_VALUE || tsDiv[streamIndex] == 0)
+            return AVUtilLibrary.AV_NOPTS_VALUE;
+        
+        return ts * tsMul[streamIndex] / tsDiv[streamIndex];
+    }
+    
+    /**
+     * Get number of captured streams.
+     * 
+     * @return number of streams
+     */
+    public int getStreamCount() {
+        return streams.length;
+    }
+    
+    /**
+     * Get parameters of the given stream.
+     * 
+     * @param streamIndex a stream index
+     * @return stream parameters
+     */
+    public CapturedStream getStream(int streamIndex) {
+        return streams[streamIndex];
+    }
+    
+    /**
+     * Get number of captured packets.
+     * 
+     * @return number of packets
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+    
+    /**
+     * Get time of the first packet of the given stream.
+     * 
+     * @param streamIndex a stream index
+     * @return time in miliseconds or AV_NOPTS_VALUE if it is not known
+     */
+    public long getStartTime(int streamIndex) {
+        return startTimes[streamIndex];
+    }
+    
+    /**
+     * Get duration of the given stream.
+     * 
+     * @param streamIndex a stream index
+     * @return duration in miliseconds
+     */
+    public long getDuration(int streamIndex) {
+        if (startTimes[streamIndex] == AVUtilLibrary.AV_NOPTS_VALUE)
+            return 0;
+        
+        return endTimes[streamIndex] - startTimes[streamIndex];
+    }
+    
+    /**
+     * Get duration of the whole capture.
+     * 
+     * @return duration in miliseconds
+     */
+    public long getDuration() {
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (int i = 0; i < streams.length; i++) {
+            if (startTimes[i] == AVUtilLibrary.AV_NOPTS_VALUE)
+                continue;
+            start = Math.min(start, startTimes[i]);
+            end = Math.max(end, endTimes[i]);
+        }
+        
+        return start > end ? 0 : end - start;
+    }
+    
+    /**
+     * Get time of the given packet in miliseconds.
+     * 
+     * @param packet a packet read by this reader
+     * @return time in miliseconds or AV_NOPTS_VALUE if the packet has no
+     * timestamp
+     */
+    public long getTime(IPacketWrapper packet) {
+        return getTime(packet.getPts(), packet.getDts(), packet.getStreamIndex());
+    }
+    
+    /**
+     * Move to the last key packet of the reference stream not after the 
+     * given time (or to the first packet if there is no such key packet).
+     * 
+     * @param time a time in miliseconds
+     */
+    public synchronized void seek(long time) {
+        int i = Arrays.binarySearch(keyTimes, 0, keyCount, time);
+        if (i < 0)
+            i = -i - 2;
+        else {
+            while (i + 1 < keyCount && keyTimes[i + 1] == time)
+                i++;
+        }
+        
+        position = i < 0 ? dataOffset : keyOffsets[i];
+    }
+    
+    /**
+     * Move to the first packet.
+     */
+    public synchronized void rewind() {
+        position = dataOffset;
+    }
+    
+    /**
+     * Read the next packet. The returned packet has to be freed by the 
+     * caller.
+     * 
+     * @return packet or null if there are no more packets
+     * @throws LibavException if the packet cannot be allocated or the file
+     * cannot be read
+     */
+    public synchronized IPacketWrapper nextPacket() throws LibavException {
+        if (isClosed() || position >= length)
+            return null;
+        
+        int p, size;
+        try {
+            ensureWindow(position, PacketCaptureWriter.RECORD_HEADER_SIZE);
+            p = (int)(position - windowOffset);
+            size = window.getInt(p + PacketCaptureWriter.RECORD_SIZE);
+            ensureWindow(position, PacketCaptureWriter.RECORD_HEADER_SIZE + size);
+            p = (int)(position - windowOffset);
+        } catch (IOException ex) {
+            throw new LibavException("unable to read the capture file", ex);
+        }
+        
+        IPacketWrapper result = PacketWrapperFactory.getInstance().alloc(size);
+        if (size > 0)
+            windowPointer.copyBytesAtOffsetTo(p + PacketCaptureWriter.RECORD_HEADER_SIZE, result.getData(), 0, size);
+        result.setStreamIndex(window.getInt(p + PacketCaptureWriter.RECORD_STREAM_INDEX));
+        result.setFlags(window.getInt(p + PacketCaptureWriter.RECORD_FLAGS));
+        result.setDuration(window.getInt(p + PacketCaptureWriter.RECORD_DURATION));
+        result.setPts(window.getLong(p + PacketCaptureWriter.RECORD_PTS));
+        result.setDts(window.getLong(p + PacketCaptureWriter.RECORD_DTS));
+        
+        position += PacketCaptureWriter.RECORD_HEADER_SIZE + size;
+        return result;
+    }
+    
+    /**
+     * Close the capture file.
+     * 
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (isClosed())
+            return;
+        
+        window = null;
+        windowPointer = null;
+        raf.close();
+        raf = null;
+    }
+    
+    /**
+     * Check whether the reader has been closed.
+     * 
+     * @return true if it has been closed, false otherwise
+     */
+    public synchronized boolean isClosed() {
+        return raf == null;
+    }
+    
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.bridj.Pointer;
+import org.libav.LibavException;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.IStreamWrapper;
+
+/**
+ * Packet capture writer. It stores packets of the given streams (payload, 
+ * timestamps, flags and stream index) together with the stream parameters
+ * (including the codec extradata) into a compact binary file, so they can 
+ * be replayed later without any demuxer (see the PacketCaptureReader and 
+ * the ReplayMediaReader). Register the writer as a packet consumer of any
+ * packet producer (e.g. a media reader or an encoder).
+ * 
+ * Packets are appended into memory-mapped windows of the capture file. 
+ * The file is truncated to the captured data when the writer is closed.
+ * Every record starts with a sync word which is written after the rest of
+ * the record, so the reader stops at the zero-filled end of the last window
+ * if the writer was not closed.
+ * 
+ * @author Ondrej Perutka
+ */
+public class PacketCaptureWriter implements IPacketConsumer {
+    
+    static final int MAGIC = 0x4a4c5043;
+    static final int VERSION = 2;
+    static final int SYNC_WORD = 0x4a4c5052;
+    static final int RECORD_HEADER_SIZE = 36;
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    
+    static final int RECORD_SYNC = 0;
+    static final int RECORD_STREAM_INDEX = 4;
+    static final int RECORD_FLAGS = 8;
+    static final int RECORD_DURATION = 12;
+    static final int RECORD_SIZE = 16;
+    static final int RECORD_PTS = 20;
+    static final int RECORD_DTS = 28;
+    
+    private RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int[] streamMap;
+    
+    private ByteBuffer window;
+    private Pointer<?> windowPointer;
+    private long windowOffset;
+    private long length;
+    
+    private long packetCount;
+    private long byteCount;
+    
+    /**
+     * Create a new capture file and write the parameters of the given 
+     * streams. Only packets of these streams are captured and they are 
+     * stored with stream indexes corresponding to their position in the 
+     * given array.
+     * 
+     * @param file a capture file (it is overwritten if it exists)
+     * @param streams captured streams
+     * @throws IOException if the file cannot be created
+     */
+    public PacketCaptureWriter(File file, IStreamWrapper[] streams) throws IOException {
+        int maxIndex = -1;
+        for (IStreamWrapper s : streams)
+            maxIndex = Math.max(maxIndex, s.getIndex());
+        streamMap = new int[maxIndex + 1];
+        Arrays.fill(streamMap, -1);
+        
+        CapturedStream[] cs = new CapturedStream[streams.length];
+        int headerSize = 12;
+        for (int i = 0; i < streams.length; i++) {
+            streamMap[streams[i].getIndex()] = i;
+            cs[i] = CapturedStream.of(streams[i]);
+            headerSize += cs[i].getSerializedSize();
+        }
+        
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(cs.length);
+        for (CapturedStream s : cs)
+            s.write(header);
+        header.flip();
+        
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            channel.truncate(0);
+            while (header.hasRemaining())
+                channel.write(header);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+        
+        window = null;
+        windowPointer = null;
+        windowOffset = headerSize;
+        length = headerSize;
+        
+        packetCount = 0;
+        byteCount = 0;
+    }
+    
+    /**
+     * Get number of captured packets.
+     * 
+     * @return number of captured packets
+     */
+    public synchronized long getPacketCount() {
+        return packetCount;
+    }
+    
+    /**
+     * Get number of captured bytes of packet data.
+     * 
+     * @return number of captured bytes
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+    
+    /**
+     * Get size of the capture file.
+     * 
+     * @return size in bytes
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+    
+    private void ensureWindow(int recordLength) throws IOException {
+        if (window != null && length + recordLength <= windowOffset + window.capacity())
+            return;
+        
+        windowOffset = length;
+        window = channel.map(FileChannel.MapMode.READ_WRITE, windowOffset, Math.max(WINDOW_SIZE, recordLength));
+        windowPointer = Pointer.pointerToBuffer(window);
+    }
+    
+    @Override
+    public synchronized void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+        int si = packet.getStreamIndex();
+        if (isClosed() || si < 0 || si >= streamMap.length || streamMap[si] < 0)
+            return;
+        
+        int size = packet.getSize();
+        try {
+            ensureWindow(RECORD_HEADER_SIZE + size);
+        } catch (IOException ex) {
+            throw new LibavException("unable to extend the capture file", ex);
+        }
+        
+        int p = (int)(length - windowOffset);
+        window.putInt(p + RECORD_STREAM_INDEX, streamMap[si]);
+        window.putInt(p + RECORD_FLAGS, packet.getFlags());
+        window.putInt(p + RECORD_DURATION, packet.getDuration());
+        window.putInt(p + RECORD_SIZE, size);
+        window.putLong(p + RECORD_PTS, packet.getPts());
+        window.putLong(p + RECORD_DTS, packet.getDts());
+        if (size > 0)
+            packet.getData().copyBytesAtOffsetTo(0, windowPointer, p + RECORD_HEADER_SIZE, size);
+        window.putInt(p + RECORD_SYNC, SYNC_WORD);
+        
+        length += RECORD_HEADER_SIZE + size;
+        packetCount++;
+        byteCount += size;
+    }
+    
+    /**
+     * Truncate the capture file to the captured data and close it.
+     * 
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (isClosed())
+            return;
+        
+        window = null;
+        windowPointer = null;
+        try {
+            channel.truncate(length);
+        } finally {
+            raf.close();
+            raf = null;
+        }
+    }
+    
+    /**
+     * Check whether the writer has been closed.
+     * 
+     * @return true if it has been closed, false otherwise
+     */
+    public synchronized boolean isClosed() {
+        return raf == null;
+    }
+    
+}
@@ -22,6 +22,9 @@ import java.util.Deque;
 import org.bridj.Pointer;
 import org.libav.avcodec.IPacketWrapper;
 import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.bridge.LibraryManager;
 
 /**
  * Packet pool. Allows to reuse old packets to avoid pointless memory 
@@ -31,14 +34,18 @@ import org.libav.avcodec.PacketWrapperFactory;
  */
 public class PacketPool {
     
+    private static final AVCodecLibrary codecLib = LibraryManager.getInstance().getAVCodecLibrary();
+    
     private final PacketWrapperFactory packetFactory;
     private final Deque<PooledPacket> recycle;
+    private int allocated;
     
     /**
      * Create a new packet pool instance.
      */
     public PacketPool() {
         recycle = new ArrayDeque<PooledPacket>();
+        allocated = 0;
         packetFactory = PacketWrapperFactory.getInstance();
     }
     
@@ -46,8 +53,29 @@ public class PacketPool {
      * Release all resources held by this pool.
      */
     public synchronized void dispose() {
-        while (!recycle.isEmpty())
+        while (!recycle.isEmpty()) {
             recycle.poll().dispose();
+            allocated--;
+        }
+    }
+    
+    /**
+     * Get number of packets available for reuse.
+     * 
+     * @return number of pooled packets
+     */
+    public synchronized int getPooledPacketCount() {
+        return recycle.size();
+    }
+    
+    /**
+     * Get number of packets allocated by this pool which have not been 
+     * disposed yet (both pooled and in use).
+     * 
+     * @return number of allocated packets
+     */
+    public synchronized int getAllocatedPacketCount() {
+        return allocated;
     }
     
     /**
@@ -62,6 +90,32 @@ public class PacketPool {
         return result;
     }
     
+    /**
+     * Read next packet from the given format context directly into a pooled
+     * packet. It avoids copying of the packet data (the data buffer allocated
+     * by the demuxer is kept until the packet is freed).
+     * 
+     * @param formatContext a format context
+     * @return packet wrapper or null in case of EOF or a read error
+     */
+    public IPacketWrapper readPacket(IFormatContextWrapper formatContext) {
+        PooledPacket result = getPacket();
+        result.releaseBuffer();
+        
+        if (!formatContext.readNextPacket(result)) {
+            result.free();
+            return null;
+        }
+        
+        // the packet data may be owned by the demuxer
+        if (codecLib.av_dup_packet(result.getPointer()) != 0) {
+            result.free();
+            return null;
+        }
+        
+        return result;
+    }
+    
     /**
      * Clone existing packet.
      * 
@@ -80,6 +134,8 @@ public class PacketPool {
         
         synchronized (this) {
             result = recycle.poll();
+            if (result == null)
+                allocated++;
         }
         
         if (result == null)
@@ -95,10 +151,25 @@ public class PacketPool {
     private class PooledPacket implements IPacketWrapper {
         private IPacketWrapper internal;
         private int bufferSize;
+        private boolean ownsBuffer;
 
         public PooledPacket(IPacketWrapper internal) {
             this.internal = internal;
             this.bufferSize = internal.getSize();
+            this.ownsBuffer = true;
+        }
+        
+        /**
+         * Release the reusable data buffer. The packet is ready to be filled 
+         * by a demuxer afterwards.
+         */
+        public void releaseBuffer() {
+            internal.free();
+            internal.init();
+            internal.setData(null);
+            internal.setSize(0);
+            bufferSize = 0;
+            ownsBuffer = false;
         }
 
         @Override
@@ -122,7 +193,16 @@ public class PacketPool {
 
         @Override
         public void free() {
-            setSize(bufferSize);
+            if (ownsBuffer)
+                setSize(bufferSize);
+            else {
+                // the data buffer has been allocated by a demuxer
+                internal.free();
+                internal.setData(null);
+                internal.setSize(0);
+                bufferSize = 0;
+                ownsBuffer = true;
+            }
             recycle(this);
         }
 
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Reader scheduler. It allows to read many inputs using a small pool of 
+ * worker threads instead of a thread per input. 
+ * 
+ * Inputs are served in a round-robin fashion. A worker reads at most 
+ * a quantum of packets of an input at once, then the input is put at the end
+ * of the queue. An input whose buffer budget is exhausted is parked until its
+ * consumer takes some packets. Reads are guarded by the libavformat interrupt
+ * callback, so a stalled input is interrupted after the read timeout and 
+ * it is retried after the stall backoff without blocking a worker (the 
+ * interrupt callback requires libavformat 54 or newer).
+ * 
+ * @author Ondrej Perutka
+ */
+public class ReaderScheduler {
+    
+    /**
+     * Default maximum number of packets read from an input at once.
+     */
+    public static final int DEFAULT_QUANTUM = 8;
+    
+    /**
+     * Default timeout of a single packet read (in milliseconds).
+     */
+    public static final long DEFAULT_READ_TIMEOUT = 1000;
+    
+    /**
+     * Default delay before a stalled input is read again (in milliseconds).
+     */
+    public static final long DEFAULT_STALL_BACKOFF = 100;
+    
+    /**
+     * Default maximum number of bytes buffered per input.
+     */
+    public static final int DEFAULT_MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+    
+    private final ScheduledThreadPoolExecutor executor;
+    private final int quantum;
+    private final long readTimeout;
+    private final long stallBackoff;
+    private final int maxBufferedBytes;
+    
+    private final Set<ScheduledPacketReader> readers;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter turnCounter;
+    private final ICounter stallCounter;
+    
+    /**
+     * Create a new reader scheduler using the default settings.
+     * 
+     * @param workerCount number of worker threads
+     */
+    public ReaderScheduler(int workerCount) {
+        this(workerCount, DEFAULT_QUANTUM, DEFAULT_READ_TIMEOUT, DEFAULT_STALL_BACKOFF, DEFAULT_MAX_BUFFERED_BYTES);
+    }
+    
+    /**
+     * Create a new reader scheduler.
+     * 
+     * @param workerCount number of worker threads
+     * @param quantum maximum number of packets read from an input at once
+     * @param readTimeout timeout of a single packet read in milliseconds 
+     * (0 means no timeout)
+     * @param stallBackoff delay before a stalled input is read again 
+     * in milliseconds
+     * @param maxBufferedBytes maximum number of bytes buffered per input 
+     * (0 means no limit)
+     */
+    public ReaderScheduler(int workerCount, int quantum, long readTimeout, long stallBackoff, int maxBufferedBytes) {
+        if (workerCount < 1)
+            throw new IllegalArgumentException("worker count must be positive");
+        if (quantum < 1)
+            throw new IllegalArgumentException("quantum must be positive");
+        
+        this.quantum = quantum;
+        this.readTimeout = readTimeout;
+        this.stallBackoff = stallBackoff;
+        this.maxBufferedBytes = maxBufferedBytes;
+        
+        executor = new ScheduledThreadPoolExecutor(workerCount, 
+                Execution.getThreadFactory(Execution.READER_SCHEDULER, "ReaderWorker-%d", true));
+        readers = new HashSet<ScheduledPacketReader>();
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("reader-scheduler");
+        turnCounter = metrics.counter(metricPrefix + "turns");
+        stallCounter = metrics.counter(metricPrefix + "stalls");
+        metrics.gauge(metricPrefix + "inputs", new IGauge() {
+            @Override
+            public long getValue() {
+                return getReaderCount();
+            }
+        });
+        metrics.gauge(metricPrefix + "queuedInputs", new IGauge() {
+            @Override
+            public long getValue() {
+                return executor.getQueue().size();
+            }
+        });
+        metrics.gauge(metricPrefix + "busyWorkers", new IGauge() {
+            @Override
+            public long getValue() {
+                return executor.getActiveCount();
+            }
+        });
+    }
+    
+    /**
+     * Create a new packet reader served by this scheduler. Reading starts 
+     * with the first call of its nextPacket() method.
+     * 
+     * @param formatContext a format context
+     * @param maxBufferedPackets maximum number of buffered packets
+     * @return packet reader
+     */
+    public ScheduledPacketReader createReader(IFormatContextWrapper formatContext, int maxBufferedPackets) {
+        ScheduledPacketReader result = new ScheduledPacketReader(this, formatContext, maxBufferedPackets, maxBufferedBytes);
+        synchronized (readers) {
+            readers.add(result);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Get number of worker threads.
+     * 
+     * @return number of worker threads
+     */
+    public int getWorkerCount() {
+        return executor.getCorePoolSize();
+    }
+    
+    /**
+     * Get number of readers served by this scheduler.
+     * 
+     * @return number of readers
+     */
+    public int getReaderCount() {
+        synchronized (readers) {
+            return readers.size();
+        }
+    }
+    
+    /**
+     * Get maximum number of packets read from an input at once.
+     * 
+     * @return quantum
+     */
+    public int getQuantum() {
+        return quantum;
+    }
+    
+    /**
+     * Get timeout of a single packet read.
+     * 
+     * @return timeout in milliseconds (0 means no timeout)
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+    
+    /**
+     * Get delay before a stalled input is read again.
+     * 
+     * @return delay in milliseconds
+     */
+    public long getStallBackoff() {
+        return stallBackoff;
+    }
+    
+    /**
+     * Close all readers served by this scheduler and stop the worker 
+     * threads.
+     */
+    public void shutdown() {
+        ScheduledPacketReader[] tmp;
+        synchronized (readers) {
+            tmp = readers.toArray(new ScheduledPacketReader[readers.size()]);
+        }
+        for (ScheduledPacketReader reader : tmp)
+            reader.close();
+        
+        executor.shutdown();
+        metrics.removeAll(metricPrefix);
+    }
+    
+    /**
+     * Check whether the scheduler has been shut down.
+     * 
+     * @return true if the scheduler has been shut down, false otherwise
+     */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+    
+    void submit(Runnable turn, long delay) {
+        if (delay > 0)
+            executor.schedule(turn, delay, TimeUnit.MILLISECONDS);
+        else
+            executor.execute(turn);
+    }
+    
+    void turnFinished(boolean stalled) {
+        turnCounter.increment();
+        if (stalled)
+            stallCounter.increment();
+    }
+    
+    void remove(ScheduledPacketReader reader) {
+        synchronized (readers) {
+            readers.remove(reader);
+        }
+    }
+    
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bridj.Pointer;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IIOContextWrapper;
+import org.libav.avformat.bridge.AVIOInterruptCB;
+import org.libav.util.Buffer;
+
+/**
+ * Buffered packet reader served by worker threads of a ReaderScheduler. Use
+ * the ReaderScheduler.createReader() method to create an instance.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ScheduledPacketReader implements IBufferedPacketReader {
+    
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_QUEUED = 1;
+    private static final int STATE_RUNNING = 2;
+    private static final int STATE_PARKED = 3;
+    private static final int STATE_EOF = 4;
+    
+    private final ReaderScheduler scheduler;
+    private final IFormatContextWrapper formatContext;
+    private final PacketPool packetPool;
+    private final int maxBufferedPackets;
+    private final int maxBufferedBytes;
+    private final InterruptHandler interruptHandler;
+    private final boolean interruptible;
+    
+    private final Buffer<IPacketWrapper> buffer;
+    private long bufferedBytes;
+    private int state;
+    private int generation;
+    private boolean closed;
+    
+    private volatile long deadline;
+    private volatile boolean abort;
+    private volatile boolean timedOut;
+    
+    ScheduledPacketReader(ReaderScheduler scheduler, IFormatContextWrapper formatContext, int maxBufferedPackets, int maxBufferedBytes) {
+        if (maxBufferedPackets < 1)
+            throw new IllegalArgumentException("buffer size must be positive");
+        
+        this.scheduler = scheduler;
+        this.formatContext = formatContext;
+        this.maxBufferedPackets = maxBufferedPackets;
+        this.maxBufferedBytes = maxBufferedBytes;
+        packetPool = new PacketPool();
+        
+        buffer = new Buffer<IPacketWrapper>(maxBufferedPackets);
+        bufferedBytes = 0;
+        state = STATE_IDLE;
+        generation = 0;
+        closed = false;
+        
+        deadline = 0;
+        abort = false;
+        timedOut = false;
+        
+        interruptHandler = new InterruptHandler();
+        interruptible = formatContext.setInterruptCallback(interruptHandler);
+        if (!interruptible)
+            Logger.getLogger(getClass().getName()).log(Level.WARNING, "interrupt callback is not supported, stalled input will block a worker");
+    }
+    
+    /**
+     * Get number of bytes waiting in the buffer.
+     * 
+     * @return number of buffered bytes
+     */
+    public long getBufferedBytes() {
+        synchronized (buffer) {
+            return bufferedBytes;
+        }
+    }
+    
+    @Override
+    public IPacketWrapper nextPacket() {
+        IPacketWrapper pw;
+        
+        synchronized (buffer) {
+            if (closed)
+                return null;
+            if (state == STATE_IDLE)
+                schedule(0);
+            
+            try {
+                while (buffer.getItemCount() == 0 && state != STATE_EOF && !closed)
+                    buffer.wait();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            
+            pw = buffer.get();
+            if (pw != null)
+                bufferedBytes -= pw.getSize();
+            if (state == STATE_PARKED && hasSpace())
+                schedule(0);
+        }
+        
+        return pw;
+    }
+    
+    @Override
+    public int getBufferedPacketCount() {
+        return buffer.getItemCount();
+    }
+    
+    @Override
+    public long getBufferedDuration(int streamIndex) {
+        return BufferedPacketReader.getBufferedDuration(buffer, streamIndex);
+    }
+    
+    @Override
+    public int dropToLatestKeyFrame(int streamIndex) {
+        synchronized (buffer) {
+            int result = BufferedPacketReader.dropToLatestKeyFrame(buffer, streamIndex);
+            recountBytes();
+            if (state == STATE_PARKED && hasSpace())
+                schedule(0);
+            
+            return result;
+        }
+    }
+    
+    @Override
+    public int getUsedPacketCount() {
+        return packetPool.getAllocatedPacketCount() - packetPool.getPooledPacketCount();
+    }
+    
+    @Override
+    public void dropBuffer() {
+        IPacketWrapper pw;
+        
+        synchronized (buffer) {
+            generation++;
+            abort = true;
+            try {
+                while (state == STATE_RUNNING)
+                    buffer.wait();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            } finally {
+                abort = false;
+            }
+            
+            while (buffer.getItemCount() > 0) {
+                pw = buffer.get();
+                if (pw != null)
+                    pw.free();
+            }
+            bufferedBytes = 0;
+            if (state != STATE_EOF)
+                state = STATE_IDLE;
+        }
+    }
+    
+    @Override
+    public void resetEof() {
+        synchronized (buffer) {
+            if (state == STATE_EOF)
+                state = STATE_IDLE;
+        }
+    }
+    
+    @Override
+    public void close() {
+        dropBuffer();
+        
+        synchronized (buffer) {
+            if (closed)
+                return;
+            
+            closed = true;
+            buffer.notifyAll();
+        }
+        
+        if (interruptible && !formatContext.isClosed())
+            formatContext.setInterruptCallback(null);
+        packetPool.dispose();
+        scheduler.remove(this);
+    }
+    
+    @Override
+    public boolean isClosed() {
+        synchronized (buffer) {
+            return closed;
+        }
+    }
+    
+    private boolean hasSpace() {
+        return buffer.getItemCount() < maxBufferedPackets && (maxBufferedBytes <= 0 || bufferedBytes < maxBufferedBytes);
+    }
+    
+    private void recountBytes() {
+        bufferedBytes = 0;
+        for (int i = 0; i < buffer.getItemCount(); i++)
+            bufferedBytes += buffer.peek(i).getSize();
+    }
+    
+    private void schedule(long delay) {
+        state = STATE_QUEUED;
+        try {
+            scheduler.submit(new Turn(generation), delay);
+        } catch (RejectedExecutionException ex) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING, "the reader scheduler has been shut down");
+            state = STATE_EOF;
+            buffer.notifyAll();
+        }
+    }
+    
+    private IPacketWrapper readPacket() {
+        long timeout = scheduler.getReadTimeout();
+        
+        timedOut = false;
+        deadline = timeout > 0 ? System.nanoTime() + timeout * 1000000 : 0;
+        try {
+            return packetPool.readPacket(formatContext);
+        } finally {
+            deadline = 0;
+        }
+    }
+    
+    /**
+     * Prepare a stalled input for the next read. The interrupted read marks
+     * the AVIOContext as finished (eof_reached and error), so all further 
+     * reads would fail with AVERROR_EOF. Data already buffered by the 
+     * AVIOContext is kept and the demuxer continues from the current 
+     * position, i.e. only the packet being read when the read timed out may
+     * be incomplete.
+     */
+    private void resume() {
+        IIOContextWrapper io = formatContext.getIOContext();
+        if (io != null)
+            io.clearError();
+    }
+    
+    private void runTurn(int turnGeneration) {
+        IPacketWrapper pw;
+        boolean eof = false;
+        boolean stalled = false;
+        int n = 0;
+        
+        synchronized (buffer) {
+            if (turnGeneration != generation || closed || state != STATE_QUEUED)
+                return;
+            state = STATE_RUNNING;
+        }
+        
+        try {
+            while (n < scheduler.getQuantum()) {
+                synchronized (buffer) {
+                    if (turnGeneration != generation || !hasSpace())
+                        break;
+                }
+                
+                pw = readPacket();
+                if (pw == null) {
+                    stalled = timedOut && !abort;
+                    eof = !stalled;
+                    if (stalled)
+                        resume();
+                    break;
+                }
+                
+                synchronized (buffer) {
+                    if (turnGeneration != generation) {
+                        pw.free();
+                        break;
+                    }
+                    buffer.put(pw);
+                    bufferedBytes += pw.getSize();
+                }
+                n++;
+            }
+        } catch (RuntimeException ex) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING, "error while reading packets", ex);
+            eof = true;
+        } finally {
+            synchronized (buffer) {
+                if (turnGeneration != generation || closed)
+                    state = STATE_IDLE;
+                else if (eof)
+                    state = STATE_EOF;
+                else if (stalled)
+                    schedule(scheduler.getStallBackoff());
+                else if (!hasSpace())
+                    state = STATE_PARKED;
+                else
+                    schedule(0);
+                buffer.notifyAll();
+            }
+            
+            scheduler.turnFinished(stalled);
+        }
+    }
+    
+    private class Turn implements Runnable {
+        private final int turnGeneration;
+        
+        public Turn(int turnGeneration) {
+            this.turnGeneration = turnGeneration;
+        }
+        
+        @Override
+        public void run() {
+            runTurn(turnGeneration);
+        }
+    }
+    
+    private class InterruptHandler extends AVIOInterruptCB.InterruptCallback {
+        @Override
+        public int apply(Pointer<?> opaque) {
+            if (abort)
+                return 1;
+            
+            long d = deadline;
+            if (d != 0 && System.nanoTime() - d > 0) {
+                timedOut = true;
+                return 1;
+            }
+            
+            return 0;
+        }
+    }
+    
+}
@@ -0,0 +1,711 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bridj.Pointer;
+import org.libav.LibavException;
+import org.libav.LibavRuntimeException;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.util.Rational;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Disk-backed time-shift buffer for live inputs. Packets of a source packet
+ * reader are appended by a background recorder thread into a ring file 
+ * mapped into memory. The oldest packets are overwritten once the ring is 
+ * full, so the disk footprint is bounded by the ring capacity and the 
+ * recorded window depends on the bit rate of the input.
+ * 
+ * Key packets of the reference stream (the first video stream or the first
+ * stream if there is no video) are indexed, so readers created by this 
+ * buffer can seek within the recorded window and catch up to live. Records
+ * are written sequentially and the recorder does not allocate any objects 
+ * per packet. Readers copy the packet data into newly allocated packets.
+ * 
+ * The ring file is deleted when the buffer is closed. Note that the mapping
+ * itself is released by the garbage collector.
+ * 
+ * @author Ondrej Perutka
+ */
+public class TimeShiftBuffer {
+    
+    /**
+     * Default maximum number of entries in the key packet index.
+     */
+    public static final int DEFAULT_KEY_INDEX_SIZE = 16384;
+    
+    /**
+     * Minimum time between two indexed key packets (in milliseconds).
+     */
+    public static final long KEY_INDEX_INTERVAL = 200;
+    
+    private static final int MIN_CAPACITY = 65536;
+    
+    private static final int RECORD_LENGTH = 0;
+    private static final int RECORD_STREAM_INDEX = 4;
+    private static final int RECORD_FLAGS = 8;
+    private static final int RECORD_DURATION = 12;
+    private static final int RECORD_PTS = 16;
+    private static final int RECORD_DTS = 24;
+    private static final int RECORD_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 40;
+    private static final int WRAP_MARKER = -1;
+    
+    private final IBufferedPacketReader source;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final ByteBuffer ring;
+    private final Pointer<?> ringPointer;
+    private final int capacity;
+    
+    private final long[] tsMul;
+    private final long[] tsDiv;
+    private final int referenceStream;
+    
+    private final long[] keyOffsets;
+    private final long[] keySequences;
+    private final long[] keyTimes;
+    private int keyFront;
+    private int keyCount;
+    
+    private long start;
+    private long end;
+    private long startSequence;
+    private long endSequence;
+    private long endTime;
+    private boolean eof;
+    private boolean closed;
+    
+    private Thread recorderThread;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter recordedPackets;
+    private final ICounter droppedPackets;
+    private final ICounter overwrittenPackets;
+    
+    /**
+     * Create a new time-shift buffer. The recording starts when the start()
+     * method is called.
+     * 
+     * @param source a source packet reader (it is closed together with this
+     * buffer)
+     * @param streams streams of the source (they are used to convert 
+     * timestamps and to choose the reference stream)
+     * @param file a ring file (if it is null, a temporary file is created)
+     * @param capacity capacity of the ring file in bytes (it determines the
+     * maximum length of the time-shift window)
+     * @throws IOException if the ring file cannot be created
+     */
+    public TimeShiftBuffer(IBufferedPacketReader source, IStreamWrapper[] streams, File file, int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY)
+            throw new IllegalArgumentException("the capacity must be at least " + MIN_CAPACITY + " bytes");
+        
+        this.source = source;
+        this.capacity = capacity & ~7;
+        this.file = file == null ? File.createTempFile("timeshift", ".ring") : file;
+        
+        raf = new RandomAccessFile(this.file, "rw");
+        try {
+            raf.setLength(this.capacity);
+            ring = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.capacity).order(ByteOrder.nativeOrder());
+        } catch (IOException ex) {
+            raf.close();
+            this.file.delete();
+            throw ex;
+        }
+        ringPointer = Pointer.pointerToBuffer(ring);
+        
+        tsMul = new long[streams.length];
+        tsDiv = new long[streams.length];
+        int ref = -1;
+        Rational tb;
+        for (int i = 0; i < streams.length; i++) {
+            tb = streams[i].getTimeBase();
+            tsMul[i] = tb.getNumerator() * 1000;
+            tsDiv[i] = tb.getDenominator();
+            if (ref < 0 && streams[i].getCodecContext().getCodecType() == MediaType.VIDEO)
+                ref = i;
+        }
+        referenceStream = Math.max(ref, 0);
+        
+        keyOffsets = new long[DEFAULT_KEY_INDEX_SIZE];
+        keySequences = new long[DEFAULT_KEY_INDEX_SIZE];
+        keyTimes = new long[DEFAULT_KEY_INDEX_SIZE];
+        keyFront = 0;
+        keyCount = 0;
+        
+        start = 0;
+        end = 0;
+        startSequence = 0;
+        endSequence = 0;
+        endTime = AVUtilLibrary.AV_NOPTS_VALUE;
+        eof = false;
+        closed = false;
+        
+        recorderThread = null;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("time-shift");
+        recordedPackets = metrics.counter(metricPrefix + "recordedPackets");
+        droppedPackets = metrics.counter(metricPrefix + "droppedPackets");
+        overwrittenPackets = metrics.counter(metricPrefix + "overwrittenPackets");
+        metrics.gauge(metricPrefix + "usedBytes", new IGauge() {
+            @Override
+            public long getValue() {
+                return getUsedSize();
+            }
+        });
+        metrics.gauge(metricPrefix + "window", new IGauge() {
+            @Override
+            public long getValue() {
+                return getWindowDuration();
+            }
+        });
+    }
+    
+    /**
+     * Start the recorder thread. It has no effect if the recorder has been
+     * already started.
+     */
+    public synchronized void start() {
+        if (recorderThread != null || closed)
+            return;
+        
+        recorderThread = Execution.newThread(Execution.TIME_SHIFT_RECORDER, new Recorder(), "TimeShiftRecorder", true);
+        recorderThread.start();
+    }
+    
+    /**
+     * Create a new reader. The reader starts at the most recent indexed key
+     * packet (i.e. near the live edge).
+     * 
+     * @return reader
+     */
+    public synchronized Reader createReader() {
+        return new Reader();
+    }
+    
+    /**
+     * Get capacity of the ring file.
+     * 
+     * @return capacity in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Get number of bytes occupied by the recorded window.
+     * 
+     * @return used size in bytes
+     */
+    public synchronized long getUsedSize() {
+        return end - start;
+    }
+    
+    /**
+     * Get time of the oldest seekable position (i.e. the oldest indexed key
+     * packet).
+     * 
+     * @return time in miliseconds or AV_NOPTS_VALUE if there is no key packet
+     * in the buffer
+     */
+    public synchronized long getWindowStart() {
+        return keyCount == 0 ? AVUtilLibrary.AV_NOPTS_VALUE : keyTimes[keyFront];
+    }
+    
+    /**
+     * Get time of the most recently recorded packet.
+     * 
+     * @return time in miliseconds or AV_NOPTS_VALUE if nothing has been 
+     * recorded yet
+     */
+    public synchronized long getWindowEnd() {
+        return endTime;
+    }
+    
+    /**
+     * Get duration of the seekable window.
+     * 
+     * @return duration in miliseconds
+     */
+    public synchronized long getWindowDuration() {
+        if (keyCount == 0 || endTime == AVUtilLibrary.AV_NOPTS_VALUE)
+            return 0;
+        
+        return Math.max(endTime - keyTimes[keyFront], 0);
+    }
+    
+    /**
+     * Check whether the source has reached its end.
+     * 
+     * @return true if there will be no more recorded packets, false otherwise
+     */
+    public synchronized boolean isEof() {
+        return eof;
+    }
+    
+    /**
+     * Stop the recorder, close the source reader and delete the ring file.
+     * All readers of this buffer are notified that there are no more packets.
+     */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            if (closed)
+                return;
+            
+            closed = true;
+            t = recorderThread;
+            notifyAll();
+        }
+        
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        source.close();
+        try {
+            raf.close();
+        } catch (IOException ex) {
+            Logger.getLogger(TimeShiftBuffer.class.getName()).log(Level.WARNING, "unable to close the ring file", ex);
+        }
+        if (!file.delete())
+            file.deleteOnExit();
+        
+        metrics.removeAll(metricPrefix);
+    }
+    
+    /**
+     * Check whether this buffer has been closed.
+     * 
+     * @return true if it has been closed, false otherwise
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+    
+    private long toMillis(long ts, int streamIndex) {
+        if (ts == AVUtilLibrary.AV_NOPTS_VALUE || streamIndex >= tsDiv.length || tsDiv[streamIndex] == 0)
+            return AVUtilLibrary.AV_NOPTS_VALUE;
+        
+        return ts * tsMul[streamIndex] / tsDiv[streamIndex];
+    }
+    
+    private long fromMillis(long ms, int streamIndex) {
+        if (streamIndex < 0 || streamIndex >= tsMul.length || tsMul[streamIndex] == 0)
+            return 0;
+        
+        return ms * tsDiv[streamIndex] / tsMul[streamIndex];
+    }
+    
+    private int physical(long offset) {
+        return (int)(offset % capacity);
+    }
+    
+    /**
+     * Drop the oldest records until there is the given number of free bytes
+     * in the ring. Called with the lock held.
+     */
+    private void reserve(int length) {
+        int phys, recordLength;
+        
+        while (end + length - start > capacity) {
+            phys = physical(start);
+            recordLength = ring.getInt(phys + RECORD_LENGTH);
+            if (recordLength == WRAP_MARKER)
+                start += capacity - phys;
+            else {
+                start += recordLength;
+                startSequence++;
+                overwrittenPackets.increment();
+            }
+        }
+        
+        while (keyCount > 0 && keyOffsets[keyFront] < start) {
+            keyFront = (keyFront + 1) % keyOffsets.length;
+            keyCount--;
+        }
+    }
+    
+    private void append(IPacketWrapper packet) {
+        int size = packet.getSize();
+        int length = (RECORD_HEADER_SIZE + size + 7) & ~7;
+        if (length > capacity / 2) {
+            droppedPackets.increment();
+            return;
+        }
+        
+        long offset;
+        int phys;
+        synchronized (this) {
+            phys = physical(end);
+            if (phys + length > capacity) {
+                reserve(capacity - phys);
+                ring.putInt(phys + RECORD_LENGTH, WRAP_MARKER);
+                end += capacity - phys;
+            }
+            
+            reserve(length);
+            offset = end;
+        }
+        
+        // the record region is not visible to readers until the end offset
+        // is updated
+        phys = physical(offset);
+        int streamIndex = packet.getStreamIndex();
+        int flags = packet.getFlags();
+        long pts = packet.getPts();
+        long dts = packet.getDts();
+        ring.putInt(phys + RECORD_LENGTH, length);
+        ring.putInt(phys + RECORD_STREAM_INDEX, streamIndex);
+        ring.putInt(phys + RECORD_FLAGS, flags);
+        ring.putInt(phys + RECORD_DURATION, packet.getDuration());
+        ring.putLong(phys + RECORD_PTS, pts);
+        ring.putLong(phys + RECORD_DTS, dts);
+        ring.putInt(phys + RECORD_SIZE, size);
+        if (size > 0)
+            packet.getData().copyBytesAtOffsetTo(0, ringPointer, phys + RECORD_HEADER_SIZE, size);
+        
+        long time = toMillis(dts == AVUtilLibrary.AV_NOPTS_VALUE ? pts : dts, streamIndex);
+        boolean key = streamIndex == referenceStream && (flags & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0;
+        
+        synchronized (this) {
+            if (time == AVUtilLibrary.AV_NOPTS_VALUE)
+                time = endTime;
+            if (key && time != AVUtilLibrary.AV_NOPTS_VALUE && (keyCount == 0 || time - keyTimes[(keyFront + keyCount - 1) % keyTimes.length] >= KEY_INDEX_INTERVAL)) {
+                if (keyCount == keyTimes.length) {
+                    keyFront = (keyFront + 1) % keyTimes.length;
+                    keyCount--;
+                }
+                int i = (keyFront + keyCount++) % keyTimes.length;
+                keyOffsets[i] = offset;
+                keySequences[i] = endSequence;
+                keyTimes[i] = time;
+            }
+            
+            end = offset + length;
+            endSequence++;
+            endTime = time;
+            notifyAll();
+        }
+        
+        recordedPackets.increment();
+    }
+    
+    private class Recorder implements Runnable {
+        @Override
+        public void run() {
+            IPacketWrapper pw;
+            
+            try {
+                while (!isClosed()) {
+                    pw = source.nextPacket();
+                    if (pw == null)
+                        break;
+                    
+                    try {
+                        append(pw);
+                    } finally {
+                        pw.free();
+                    }
+                }
+            } catch (RuntimeException ex) {
+                if (!isClosed())
+                    Logger.getLogger(TimeShiftBuffer.class.getName()).log(Level.WARNING, "time-shift recording failed", ex);
+            } finally {
+                synchronized (TimeShiftBuffer.this) {
+                    eof = true;
+                    TimeShiftBuffer.this.notifyAll();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Time-shift buffer reader. Each reader has its own position within 
+     * the recorded window. If the position is overwritten by the recorder,
+     * the reader continues with the oldest indexed key packet. A reader
+     * may be moved (seek(), goLive()) from another thread while a packet is 
+     * being read, such packet is dropped and the reading continues from 
+     * the new position.
+     */
+    public class Reader implements IBufferedPacketReader {
+        
+        private long moveCount;
+        private long offset;
+        private long sequence;
+        private long time;
+        private boolean readerClosed;
+        
+        private Reader() {
+            offset = end;
+            sequence = endSequence;
+            time = endTime;
+            readerClosed = false;
+            
+            // start with the most recent key packet
+            if (keyCount > 0)
+                moveTo((keyFront + keyCount - 1) % keyTimes.length);
+        }
+        
+        /**
+         * Get the time-shift buffer of this reader.
+         * 
+         * @return time-shift buffer
+         */
+        public TimeShiftBuffer getBuffer() {
+            return TimeShiftBuffer.this;
+        }
+        
+        /**
+         * Get time of the last packet returned by this reader.
+         * 
+         * @return time in miliseconds or AV_NOPTS_VALUE if it is not known
+         */
+        public long getTime() {
+            synchronized (TimeShiftBuffer.this) {
+                return time;
+            }
+        }
+        
+        /**
+         * Get distance of this reader from the live edge.
+         * 
+         * @return delay in miliseconds
+         */
+        public long getDelay() {
+            synchronized (TimeShiftBuffer.this) {
+                if (time == AVUtilLibrary.AV_NOPTS_VALUE || endTime == AVUtilLibrary.AV_NOPTS_VALUE)
+                    return 0;
+                
+                return Math.max(endTime - time, 0);
+            }
+        }
+        
+        /**
+         * Move the reader to the last indexed key packet not after the given
+         * time (or to the oldest indexed key packet if the time is out of 
+         * the recorded window).
+         * 
+         * @param time a time in miliseconds
+         */
+        public void seek(long time) {
+            synchronized (TimeShiftBuffer.this) {
+                int k = -1, j;
+                for (int i = keyCount - 1; i >= 0 && k < 0; i--) {
+                    j = (keyFront + i) % keyTimes.length;
+                    if (keyTimes[j] <= time)
+                        k = j;
+                }
+                
+                moveTo(k < 0 && keyCount > 0 ? keyFront : k);
+            }
+        }
+        
+        /**
+         * Move the reader to the most recent indexed key packet if it is 
+         * ahead of the current position.
+         * 
+         * @return number of skipped packets
+         */
+        public int goLive() {
+            synchronized (TimeShiftBuffer.this) {
+                if (keyCount == 0)
+                    return 0;
+                
+                int k = (keyFront + keyCount - 1) % keyTimes.length;
+                if (keyOffsets[k] <= offset)
+                    return 0;
+                
+                long skipped = keySequences[k] - sequence;
+                moveTo(k);
+                
+                return (int)Math.min(skipped, Integer.MAX_VALUE);
+            }
+        }
+        
+        /**
+         * Move to the given key index entry or to the oldest record if the
+         * index is negative. Called with the lock held.
+         */
+        private void moveTo(int keyIndex) {
+            moveCount++;
+            if (keyIndex < 0) {
+                offset = start;
+                sequence = startSequence;
+            } else {
+                offset = keyOffsets[keyIndex];
+                sequence = keySequences[keyIndex];
+                time = keyTimes[keyIndex];
+            }
+        }
+        
+        @Override
+        public IPacketWrapper nextPacket() {
+            IPacketWrapper pw;
+            int phys, length, size;
+            long moves;
+            
+            while (true) {
+                synchronized (TimeShiftBuffer.this) {
+                    if (offset < start)
+                        moveTo(keyCount > 0 ? keyFront : -1);
+                    
+                    while (offset >= end) {
+                        if (readerClosed || closed || eof)
+                            return null;
+                        try {
+                            TimeShiftBuffer.this.wait();
+                        } catch (InterruptedException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+                    
+                    phys = physical(offset);
+                    length = ring.getInt(phys + RECORD_LENGTH);
+                    if (length == WRAP_MARKER) {
+                        offset += capacity - phys;
+                        continue;
+                    }
+                    size = ring.getInt(phys + RECORD_SIZE);
+                    moves = moveCount;
+                }
+                
+                try {
+                    pw = PacketWrapperFactory.getInstance().alloc(size);
+                } catch (LibavException ex) {
+                    throw new LibavRuntimeException(ex);
+                }
+                if (size > 0)
+                    ringPointer.copyBytesAtOffsetTo(phys + RECORD_HEADER_SIZE, pw.getData(), 0, size);
+                pw.setStreamIndex(ring.getInt(phys + RECORD_STREAM_INDEX));
+                pw.setFlags(ring.getInt(phys + RECORD_FLAGS));
+                pw.setDuration(ring.getInt(phys + RECORD_DURATION));
+                pw.setPts(ring.getLong(phys + RECORD_PTS));
+                pw.setDts(ring.getLong(phys + RECORD_DTS));
+                
+                synchronized (TimeShiftBuffer.this) {
+                    // the record has been overwritten while it was copied
+                    // or the reader has been moved meanwhile
+                    if (offset < start || moveCount != moves) {
+                        pw.free();
+                        continue;
+                    }
+                    
+                    offset += length;
+                    sequence++;
+                    long t = toMillis(pw.getDts() == AVUtilLibrary.AV_NOPTS_VALUE ? pw.getPts() : pw.getDts(), pw.getStreamIndex());
+                    if (t != AVUtilLibrary.AV_NOPTS_VALUE)
+                        time = t;
+                }
+                
+                return pw;
+            }
+        }
+        
+        @Override
+        public int getBufferedPacketCount() {
+            synchronized (TimeShiftBuffer.this) {
+                return (int)Math.min(endSequence - Math.max(sequence, startSequence), Integer.MAX_VALUE);
+            }
+        }
+        
+        @Override
+        public long getBufferedDuration(int streamIndex) {
+            return fromMillis(getDelay(), streamIndex);
+        }
+        
+        /**
+         * Move the reader to the most recent indexed key packet (the stream
+         * index is ignored, key packets of the reference stream are used).
+         * 
+         * @param streamIndex a stream index
+         * @return number of skipped packets
+         */
+        @Override
+        public int dropToLatestKeyFrame(int streamIndex) {
+            return goLive();
+        }
+        
+        /**
+         * Packets returned by this reader are not pooled.
+         * 
+         * @return always 0
+         */
+        @Override
+        public int getUsedPacketCount() {
+            return 0;
+        }
+        
+        /**
+         * There are no packets buffered in memory, so this method does 
+         * nothing.
+         */
+        @Override
+        public void dropBuffer() {
+        }
+        
+        @Override
+        public void resetEof() {
+        }
+        
+        /**
+         * Close this reader. The time-shift buffer is not closed.
+         */
+        @Override
+        public void close() {
+            synchronized (TimeShiftBuffer.this) {
+                readerClosed = true;
+                TimeShiftBuffer.this.notifyAll();
+            }
+        }
+        
+        @Override
+        public boolean isClosed() {
+            synchronized (TimeShiftBuffer.this) {
+                return readerClosed;
+            }
+        }
+        
+    }
+    
+}
@@ -20,8 +20,10 @@ package org.libav.net;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.SocketException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import org.libav.util.concurrent.Execution;
 
 /**
  * Universal ServerSocket listener.
@@ -57,17 +59,37 @@ public class Server {
     
     /**
      * Start listening on the given server socket and use the given thread
-     * pool size (number of threads to server client requests).
+     * pool size (number of threads to server client requests). Threads of 
+     * the pool are created by the factory configured for the 
+     * Execution.CONNECTION_HANDLER component.
      * 
      * @param ss a server socket
      * @param threadPoolSize a number of threads to server client requests
      */
     public synchronized void startListening(ServerSocket ss, int threadPoolSize) {
+        ExecutorService threadPool = Executors.newFixedThreadPool(threadPoolSize, 
+                Execution.getThreadFactory(Execution.CONNECTION_HANDLER, "ConnectionHandler-%d", false));
+        startListening(ss, threadPool, threadPool);
+    }
+    
+    /**
+     * Start listening on the given server socket and use the given executor
+     * to serve client requests. The executor is not shut down when 
+     * the server stops listening.
+     * 
+     * @param ss a server socket
+     * @param executor an executor
+     */
+    public synchronized void startListening(ServerSocket ss, Executor executor) {
+        startListening(ss, executor, null);
+    }
+    
+    private void startListening(ServerSocket ss, Executor executor, ExecutorService ownedExecutor) {
         if (cl != null)
             throw new IllegalStateException("already listening");
         
-        cl = new ConnectionListener(ss, threadPoolSize);
-        Thread t = new Thread(cl);
+        cl = new ConnectionListener(ss, executor, ownedExecutor);
+        Thread t = Execution.newThread(Execution.CONNECTION_LISTENER, cl, "ConnectionListener", false);
         t.start();
     }
     
@@ -87,7 +109,7 @@ public class Server {
     
     /**
      * Stop listening, close the underlaying server socket and interrupt all
-     * client request handlers.
+     * client request handlers (if the server uses its own thread pool).
      * 
      * @throws IOException if an I/O error occurs when closing underlaying
      * server socket
@@ -102,18 +124,20 @@ public class Server {
     
     private class ConnectionListener implements Runnable {
         private final ServerSocket ss;
+        private final Executor executor;
         private final ExecutorService threadPool;
 
-        public ConnectionListener(ServerSocket ss, int threadPoolSize) {
+        public ConnectionListener(ServerSocket ss, Executor executor, ExecutorService threadPool) {
             this.ss = ss;
-            this.threadPool = Executors.newFixedThreadPool(threadPoolSize);
+            this.executor = executor;
+            this.threadPool = threadPool;
         }
         
         @Override
         public void run() {
             try {
                 while (true)
-                    threadPool.execute(chFactory.createConnectionHandler(ss.accept()));
+                    executor.execute(chFactory.createConnectionHandler(ss.accept()));
             } catch (SocketException ex) {
             } catch (IOException ex) {
                 throw new RuntimeException("accept failed", ex);
@@ -122,12 +146,14 @@ public class Server {
         
         public void stop() throws IOException {
             ss.close();
-            threadPool.shutdown();
+            if (threadPool != null)
+                threadPool.shutdown();
         }
         
         public void shutdown() throws IOException {
             ss.close();
-            threadPool.shutdownNow();
+            if (threadPool != null)
+                threadPool.shutdownNow();
         }
     }
     
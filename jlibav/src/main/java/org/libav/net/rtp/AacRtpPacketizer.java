@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.nio.ByteBuffer;
+import org.libav.net.sdp.Attribute;
+import org.libav.net.sdp.MediaDescription;
+import org.libav.util.Rational;
+
+/**
+ * AAC RTP packetizer (RFC 3640, AAC-hbr mode). Every source packet is sent
+ * as a single access unit with a 13-bit size AU header. Access units larger
+ * than the maximum payload size are fragmented. ADTS headers of the source
+ * packets are stripped.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AacRtpPacketizer extends RtpPacketizer {
+    
+    private static final int[] SAMPLE_RATES = { 96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350 };
+    
+    private final int sampleRate;
+    private final int channelCount;
+    private final byte[] config;
+    
+    /**
+     * Create a new AAC packetizer.
+     * 
+     * @param payloadType RTP payload type
+     * @param sampleRate sample rate (it is also the RTP clock rate)
+     * @param channelCount number of channels
+     * @param timeBase time base of the source packets
+     * @param config audio specific config (it is used only to generate
+     * the SDP)
+     * @param maxPacketSize maximum RTP packet size (including the RTP header)
+     */
+    public AacRtpPacketizer(int payloadType, int sampleRate, int channelCount, Rational timeBase, byte[] config, int maxPacketSize) {
+        super(payloadType, sampleRate, timeBase, maxPacketSize);
+        
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.config = config;
+    }
+    
+    @Override
+    public MediaDescription createMediaDescription() {
+        int pt = getPayloadType();
+        MediaDescription result = new MediaDescription(MediaDescription.MEDIA_AUDIO, 0, "RTP/AVP", Integer.toString(pt));
+        
+        StringBuilder fmtp = new StringBuilder();
+        fmtp.append(pt).append(" profile-level-id=1;mode=AAC-hbr;sizelength=13;indexlength=3;indexdeltalength=3");
+        if (config != null) {
+            fmtp.append(";config=");
+            for (byte b : config)
+                fmtp.append(String.format("%02x", b & 0xff));
+        }
+        
+        result.addAttribute(new Attribute("rtpmap", pt + " MPEG4-GENERIC/" + sampleRate + "/" + channelCount));
+        result.addAttribute(new Attribute("fmtp", fmtp.toString()));
+        
+        return result;
+    }
+    
+    @Override
+    protected void packetize(ByteBuffer data, int offset, int length, RtpPacketBatch batch) {
+        if (length >= 7 && (data.get(offset) & 0xff) == 0xff && (data.get(offset + 1) & 0xf6) == 0xf0) {
+            int headerSize = (data.get(offset + 1) & 0x01) != 0 ? 7 : 9;
+            offset += headerSize;
+            length -= headerSize;
+        }
+        if (length <= 0)
+            return;
+        
+        int auSize = length;
+        int chunk = getMaxPayloadSize() - 4;
+        int n;
+        while (length > 0) {
+            n = Math.min(chunk, length);
+            ByteBuffer packet = allocatePacket();
+            packet.putShort((short)16);
+            packet.putShort((short)((auSize << 3) & 0xfff8));
+            copy(data, offset, n, packet);
+            addPacket(batch, packet, 0);
+            
+            offset += n;
+            length -= n;
+        }
+        
+        batch.setMarker();
+    }
+    
+    /**
+     * Get audio specific config for the SDP. If the codec extradata is not
+     * available, the config is created for the AAC LC profile.
+     * 
+     * @param extradata codec extradata (may be null)
+     * @param sampleRate sample rate
+     * @param channelCount number of channels
+     * @return audio specific config
+     */
+    public static byte[] getAudioSpecificConfig(byte[] extradata, int sampleRate, int channelCount) {
+        if (extradata != null && extradata.length >= 2)
+            return extradata;
+        
+        int index = 15;
+        for (int i = 0; i < SAMPLE_RATES.length; i++) {
+            if (SAMPLE_RATES[i] == sampleRate)
+                index = i;
+        }
+        
+        int objectType = 2;
+        if (index == 15) {
+            long config = ((long)objectType << 35) | ((long)index << 31) | ((long)(sampleRate & 0xffffff) << 7) | ((channelCount & 0x0f) << 3);
+            return new byte[] { (byte)(config >> 32), (byte)(config >> 24), (byte)(config >> 16), (byte)(config >> 8), (byte)config };
+        }
+        
+        int config = (objectType << 11) | (index << 7) | ((channelCount & 0x0f) << 3);
+        return new byte[] { (byte)(config >> 8), (byte)config };
+    }
+    
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.util.Arrays;
+import java.util.List;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Loss-based bit rate controller of a single session driven by RTCP receiver 
+ * reports. The bit rate is multiplicatively decreased if the reported loss 
+ * exceeds the high loss threshold, slowly increased if it stays under the 
+ * low loss threshold and kept unchanged otherwise. If a list of rungs is set,
+ * the session moves only between the given bit rates.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AdaptiveBitRateController implements IRtcpListener {
+    
+    /**
+     * Default loss fraction above which the bit rate is decreased.
+     */
+    public static final double DEFAULT_HIGH_LOSS = 0.1;
+    
+    /**
+     * Default loss fraction under which the bit rate is increased.
+     */
+    public static final double DEFAULT_LOW_LOSS = 0.02;
+    
+    /**
+     * Default bit rate increase factor.
+     */
+    public static final double DEFAULT_INCREASE = 1.08;
+    
+    /**
+     * Default time after a decrease during which the bit rate is not 
+     * increased (in milliseconds).
+     */
+    public static final long DEFAULT_HOLD_TIME = 2000;
+    
+    private final IBitRateControl control;
+    private final int clockRate;
+    private final int minBitRate;
+    private final int maxBitRate;
+    
+    private double highLoss;
+    private double lowLoss;
+    private double increase;
+    private long holdTime;
+    private int[] rungs;
+    private int ssrc;
+    private boolean ssrcKnown;
+    
+    private double target;
+    private int bitRate;
+    private long lastDecrease;
+    
+    private double loss;
+    private long jitter;
+    private long roundTripTime;
+    private long reportCount;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter decreases;
+    private final ICounter increases;
+    
+    /**
+     * Create a new controller. The current bit rate of the given control 
+     * (limited to the given range) is used as the initial bit rate.
+     * 
+     * @param control controlled session
+     * @param clockRate RTP clock rate of the reported stream (used to convert 
+     * jitter)
+     * @param minBitRate minimum bit rate
+     * @param maxBitRate maximum bit rate
+     */
+    public AdaptiveBitRateController(IBitRateControl control, int clockRate, int minBitRate, int maxBitRate) {
+        if (minBitRate <= 0 || maxBitRate < minBitRate)
+            throw new IllegalArgumentException("illegal bit rate range");
+        
+        this.control = control;
+        this.clockRate = clockRate;
+        this.minBitRate = minBitRate;
+        this.maxBitRate = maxBitRate;
+        
+        highLoss = DEFAULT_HIGH_LOSS;
+        lowLoss = DEFAULT_LOW_LOSS;
+        increase = DEFAULT_INCREASE;
+        holdTime = DEFAULT_HOLD_TIME;
+        rungs = null;
+        ssrc = 0;
+        ssrcKnown = false;
+        
+        bitRate = clamp(control.getBitRate());
+        target = bitRate;
+        lastDecrease = 0;
+        
+        loss = 0;
+        jitter = 0;
+        roundTripTime = -1;
+        reportCount = 0;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("abr");
+        decreases = metrics.counter(metricPrefix + "decreases");
+        increases = metrics.counter(metricPrefix + "increases");
+        metrics.gauge(metricPrefix + "bitRate", new IGauge() {
+            @Override
+            public long getValue() {
+                return getBitRate();
+            }
+        });
+        metrics.gauge(metricPrefix + "loss", new IGauge() {
+            @Override
+            public long getValue() {
+                return Math.round(getLoss() * 1000);
+            }
+        });
+    }
+    
+    private int clamp(int bitRate) {
+        return Math.max(minBitRate, Math.min(maxBitRate, bitRate));
+    }
+    
+    /**
+     * Set loss thresholds.
+     * 
+     * @param lowLoss loss fraction under which the bit rate is increased
+     * @param highLoss loss fraction above which the bit rate is decreased
+     */
+    public synchronized void setLossThresholds(double lowLoss, double highLoss) {
+        if (lowLoss < 0 || highLoss < lowLoss || highLoss > 1)
+            throw new IllegalArgumentException("illegal loss thresholds");
+        
+        this.lowLoss = lowLoss;
+        this.highLoss = highLoss;
+    }
+    
+    /**
+     * Set bit rate increase factor.
+     * 
+     * @param increase increase factor (greater than 1)
+     */
+    public synchronized void setIncrease(double increase) {
+        if (increase <= 1)
+            throw new IllegalArgumentException("increase factor must be greater than 1");
+        
+        this.increase = increase;
+    }
+    
+    /**
+     * Set time after a decrease during which the bit rate is not increased.
+     * 
+     * @param holdTime hold time in milliseconds
+     */
+    public synchronized void setHoldTime(long holdTime) {
+        this.holdTime = holdTime;
+    }
+    
+    /**
+     * Set bit rates the session can move between (e.g. bit rates of encoder
+     * rungs). The session is moved to a lower rung as soon as the target bit
+     * rate drops under the current rung and to a higher rung only when the 
+     * target bit rate reaches it. Rungs outside the bit rate range are 
+     * ignored.
+     * 
+     * @param rungs bit rates or null to set the bit rate continuously
+     */
+    public synchronized void setRungs(int... rungs) {
+        if (rungs == null || rungs.length == 0) {
+            this.rungs = null;
+            return;
+        }
+        
+        int[] tmp = new int[rungs.length];
+        int n = 0;
+        for (int r : rungs) {
+            if (r >= minBitRate && r <= maxBitRate)
+                tmp[n++] = r;
+        }
+        if (n == 0)
+            throw new IllegalArgumentException("no rung within the bit rate range");
+        
+        this.rungs = Arrays.copyOf(tmp, n);
+        Arrays.sort(this.rungs);
+        apply(selectRung(bitRate));
+    }
+    
+    /**
+     * Set SSRC of the controlled RTP stream. Only report blocks about this
+     * source are used. If the SSRC is not set, only reports with a single
+     * report block are used.
+     * 
+     * @param ssrc SSRC of the controlled RTP stream
+     */
+    public synchronized void setSsrc(int ssrc) {
+        this.ssrc = ssrc;
+        this.ssrcKnown = true;
+    }
+    
+    private int selectRung(double target) {
+        int result = rungs[0];
+        for (int r : rungs) {
+            if (r <= target)
+                result = r;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Get current bit rate.
+     * 
+     * @return bit rate
+     */
+    public synchronized int getBitRate() {
+        return bitRate;
+    }
+    
+    /**
+     * Get the most recently reported loss fraction.
+     * 
+     * @return loss fraction (0 - 1)
+     */
+    public synchronized double getLoss() {
+        return loss;
+    }
+    
+    /**
+     * Get the most recently reported jitter.
+     * 
+     * @return jitter in milliseconds
+     */
+    public synchronized long getJitter() {
+        return jitter;
+    }
+    
+    /**
+     * Get the most recent round-trip time. It is known only if the client 
+     * receives sender reports.
+     * 
+     * @return round-trip time in milliseconds or -1 if it is not known
+     */
+    public synchronized long getRoundTripTime() {
+        return roundTripTime;
+    }
+    
+    /**
+     * Get number of processed reports.
+     * 
+     * @return number of processed reports
+     */
+    public synchronized long getReportCount() {
+        return reportCount;
+    }
+    
+    @Override
+    public void processReport(RtcpReceiver source, RtcpReport report, long arrivalTime) {
+        RtcpReport.ReportBlock block = findBlock(report.getReportBlocks());
+        if (block == null)
+            return;
+        
+        update(block.getFractionLost() / 256.0, block.getJitter() * 1000 / clockRate, block.getRoundTripTime(arrivalTime), arrivalTime);
+    }
+    
+    private synchronized RtcpReport.ReportBlock findBlock(List<RtcpReport.ReportBlock> blocks) {
+        if (!ssrcKnown)
+            return blocks.size() == 1 ? blocks.get(0) : null;
+        
+        for (RtcpReport.ReportBlock block : blocks) {
+            if (block.getSsrc() == ssrc)
+                return block;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Update the bit rate using the given reception statistics.
+     * 
+     * @param loss loss fraction (0 - 1)
+     * @param jitter jitter in milliseconds
+     * @param roundTripTime round-trip time in milliseconds (or -1)
+     * @param time current time in milliseconds
+     */
+    public synchronized void update(double loss, long jitter, long roundTripTime, long time) {
+        this.loss = loss;
+        this.jitter = jitter;
+        if (roundTripTime >= 0)
+            this.roundTripTime = roundTripTime;
+        reportCount++;
+        
+        if (loss > highLoss) {
+            target = Math.max(minBitRate, bitRate * (1 - 0.5 * loss));
+            lastDecrease = time;
+        } else if (loss < lowLoss && time - lastDecrease >= holdTime)
+            target = Math.min(maxBitRate, Math.max(target, bitRate) * increase);
+        else
+            return;
+        
+        apply(rungs == null ? (int)target : selectRung(target));
+    }
+    
+    private void apply(int newBitRate) {
+        if (newBitRate == bitRate)
+            return;
+        
+        if (newBitRate < bitRate)
+            decreases.increment();
+        else
+            increases.increment();
+        
+        bitRate = newBitRate;
+        control.setBitRate(newBitRate);
+    }
+    
+    /**
+     * Release metrics of this controller.
+     */
+    public void close() {
+        metrics.removeAll(metricPrefix);
+    }
+    
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import org.libav.IEncoder;
+
+/**
+ * Bit rate control of an encoder. The encoder is re-opened with the new bit 
+ * rate before the next frame (see IEncoder.setBitRate()), so each change 
+ * costs a key frame. Use bit rate rungs to limit the number of changes.
+ * 
+ * @author Ondrej Perutka
+ */
+public class EncoderBitRateControl implements IBitRateControl {
+    
+    private final IEncoder encoder;
+    
+    /**
+     * Create a new bit rate control for the given encoder.
+     * 
+     * @param encoder an encoder
+     */
+    public EncoderBitRateControl(IEncoder encoder) {
+        this.encoder = encoder;
+    }
+    
+    @Override
+    public int getBitRate() {
+        return encoder.getBitRate();
+    }
+    
+    @Override
+    public void setBitRate(int bitRate) {
+        encoder.setBitRate(bitRate);
+    }
+    
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.nio.ByteBuffer;
+import org.libav.net.rtsp.SdpGenerator;
+import org.libav.net.sdp.Attribute;
+import org.libav.net.sdp.MediaDescription;
+import org.libav.util.Rational;
+
+/**
+ * Generic audio RTP packetizer for payload formats without any payload 
+ * header (e.g. PCMU, PCMA or L16). Source packets are split into packets
+ * containing whole sample frames and the RTP timestamp of each packet is 
+ * advanced by the number of preceding sample frames.
+ * 
+ * @author Ondrej Perutka
+ */
+public class GenericRtpPacketizer extends RtpPacketizer {
+    
+    private final String encodingName;
+    private final int channelCount;
+    private final int frameSize;
+    
+    /**
+     * Create a new generic packetizer.
+     * 
+     * @param payloadType RTP payload type
+     * @param encodingName encoding name used in the SDP rtpmap attribute
+     * @param sampleRate sample rate (it is also the RTP clock rate)
+     * @param channelCount number of channels
+     * @param frameSize size of a sample frame (all channels) in bytes
+     * @param timeBase time base of the source packets
+     * @param maxPacketSize maximum RTP packet size (including the RTP header)
+     */
+    public GenericRtpPacketizer(int payloadType, String encodingName, int sampleRate, int channelCount, int frameSize, Rational timeBase, int maxPacketSize) {
+        super(payloadType, sampleRate, timeBase, maxPacketSize);
+        
+        if (frameSize < 1 || frameSize > getMaxPayloadSize())
+            throw new IllegalArgumentException("illegal sample frame size");
+        
+        this.encodingName = encodingName;
+        this.channelCount = channelCount;
+        this.frameSize = frameSize;
+    }
+    
+    @Override
+    public MediaDescription createMediaDescription() {
+        int pt = getPayloadType();
+        MediaDescription result = new MediaDescription(MediaDescription.MEDIA_AUDIO, 0, "RTP/AVP", Integer.toString(pt));
+        if (pt >= SdpGenerator.RTP_PT_PRIVATE)
+            result.addAttribute(new Attribute("rtpmap", pt + " " + encodingName + "/" + getClockRate() + "/" + channelCount));
+        
+        return result;
+    }
+    
+    @Override
+    protected void packetize(ByteBuffer data, int offset, int length, RtpPacketBatch batch) {
+        int chunk = getMaxPayloadSize() - getMaxPayloadSize() % frameSize;
+        int sent = 0;
+        int n;
+        
+        length -= length % frameSize;
+        while (sent < length) {
+            n = Math.min(chunk, length - sent);
+            ByteBuffer packet = allocatePacket();
+            copy(data, offset + sent, n, packet);
+            addPacket(batch, packet, sent / frameSize);
+            sent += n;
+        }
+    }
+    
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.libav.net.sdp.Attribute;
+import org.libav.net.sdp.MediaDescription;
+import org.libav.util.Rational;
+
+/**
+ * H.264 RTP packetizer (RFC 6184, packetization mode 1). NAL units larger 
+ * than the maximum payload size are fragmented into FU-A packets, small 
+ * consecutive NAL units (e.g. parameter sets and SEI) are aggregated into
+ * STAP-A packets. Both the Annex B byte stream format and the 
+ * length-prefixed format (avcC) of the source packets are supported.
+ * 
+ * @author Ondrej Perutka
+ */
+public class H264RtpPacketizer extends RtpPacketizer {
+    
+    /**
+     * RTP clock rate of H.264 streams.
+     */
+    public static final int CLOCK_RATE = 90000;
+    
+    private static final int NAL_STAP_A = 24;
+    private static final int NAL_FU_A = 28;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    
+    private final int nalLengthSize;
+    private final List<byte[]> parameterSets;
+    
+    private int[] pendingOffsets;
+    private int[] pendingLengths;
+    private int pendingCount;
+    private int pendingSize;
+    
+    /**
+     * Create a new H.264 packetizer.
+     * 
+     * @param payloadType RTP payload type
+     * @param timeBase time base of the source packets
+     * @param nalLengthSize size of the NAL unit length prefix of the source
+     * packets (0 for the Annex B byte stream format)
+     * @param extradata codec extradata (may be null), it is used only to 
+     * generate the SDP
+     * @param maxPacketSize maximum RTP packet size (including the RTP header)
+     */
+    public H264RtpPacketizer(int payloadType, Rational timeBase, int nalLengthSize, byte[] extradata, int maxPacketSize) {
+        super(payloadType, CLOCK_RATE, timeBase, maxPacketSize);
+        
+        if (nalLengthSize < 0 || nalLengthSize > 4)
+            throw new IllegalArgumentException("illegal NAL unit length size");
+        
+        this.nalLengthSize = nalLengthSize;
+        this.parameterSets = getParameterSets(extradata);
+        
+        pendingOffsets = new int[8];
+        pendingLengths = new int[8];
+        pendingCount = 0;
+        pendingSize = 0;
+    }
+    
+    /**
+     * Get size of the NAL unit length prefix of the source packets.
+     * 
+     * @return NAL unit length size or 0 for the Annex B byte stream format
+     */
+    public int getNalLengthSize() {
+        return nalLengthSize;
+    }
+    
+    @Override
+    public MediaDescription createMediaDescription() {
+        int pt = getPayloadType();
+        MediaDescription result = new MediaDescription(MediaDescription.MEDIA_VIDEO, 0, "RTP/AVP", Integer.toString(pt));
+        
+        StringBuilder fmtp = new StringBuilder();
+        fmtp.append(pt).append(" packetization-mode=1");
+        
+        StringBuilder sprop = new StringBuilder();
+        for (byte[] ps : parameterSets) {
+            if ((ps[0] & 0x1f) == NAL_SPS && ps.length >= 4 && fmtp.indexOf("profile-level-id") < 0)
+                fmtp.append(String.format(";profile-level-id=%02X%02X%02X", ps[1] & 0xff, ps[2] & 0xff, ps[3] & 0xff));
+            if (sprop.length() > 0)
+                sprop.append(",");
+            sprop.append(base64(ps));
+        }
+        if (sprop.length() > 0)
+            fmtp.append(";sprop-parameter-sets=").append(sprop);
+        
+        result.addAttribute(new Attribute("rtpmap", pt + " H264/" + CLOCK_RATE));
+        result.addAttribute(new Attribute("fmtp", fmtp.toString()));
+        
+        return result;
+    }
+    
+    @Override
+    protected synchronized void packetize(ByteBuffer data, int offset, int length, RtpPacketBatch batch) {
+        int end = offset + length;
+        int p, len;
+        
+        pendingCount = 0;
+        if (nalLengthSize > 0) {
+            p = offset;
+            while (p + nalLengthSize <= end) {
+                len = 0;
+                for (int i = 0; i < nalLengthSize; i++)
+                    len = (len << 8) | (data.get(p++) & 0xff);
+                if (len <= 0 || len > end - p)
+                    break;
+                addNal(data, p, len, batch);
+                p += len;
+            }
+        } else {
+            p = findStartCode(data, offset, end);
+            if (p == end && length > 0)
+                addNal(data, offset, length, batch);
+            
+            int nalStart = p + 3;
+            int nalEnd;
+            while (nalStart < end) {
+                p = findStartCode(data, nalStart, end);
+                // a NAL unit cannot end with a zero byte, the zeros belong 
+                // to the next start code
+                for (nalEnd = p; nalEnd > nalStart && data.get(nalEnd - 1) == 0; nalEnd--) { }
+                if (nalEnd > nalStart)
+                    addNal(data, nalStart, nalEnd - nalStart, batch);
+                nalStart = p + 3;
+            }
+        }
+        
+        flushPending(data, batch);
+        batch.setMarker();
+    }
+    
+    private static int findStartCode(ByteBuffer data, int offset, int end) {
+        int b;
+        for (int i = offset; i + 2 < end; ) {
+            b = data.get(i + 2);
+            if (b > 1 || b < 0)
+                i += 3;
+            else if (b == 1 && data.get(i) == 0 && data.get(i + 1) == 0)
+                return i;
+            else
+                i++;
+        }
+        
+        return end;
+    }
+    
+    private void addNal(ByteBuffer data, int offset, int length, RtpPacketBatch batch) {
+        int maxPayloadSize = getMaxPayloadSize();
+        
+        if (length > maxPayloadSize) {
+            flushPending(data, batch);
+            fragment(data, offset, length, batch);
+        } else if (pendingCount > 0 && pendingSize + 2 + length <= maxPayloadSize) {
+            addPending(offset, length);
+            pendingSize += 2 + length;
+        } else {
+            flushPending(data, batch);
+            addPending(offset, length);
+            pendingSize = 1 + 2 + length;
+        }
+    }
+    
+    private void addPending(int offset, int length) {
+        if (pendingCount == pendingOffsets.length) {
+            int[] o = new int[pendingCount * 2];
+            int[] l = new int[pendingCount * 2];
+            System.arraycopy(pendingOffsets, 0, o, 0, pendingCount);
+            System.arraycopy(pendingLengths, 0, l, 0, pendingCount);
+            pendingOffsets = o;
+            pendingLengths = l;
+        }
+        
+        pendingOffsets[pendingCount] = offset;
+        pendingLengths[pendingCount++] = length;
+    }
+    
+    private void flushPending(ByteBuffer data, RtpPacketBatch batch) {
+        if (pendingCount == 0)
+            return;
+        
+        ByteBuffer packet = allocatePacket();
+        if (pendingCount == 1)
+            copy(data, pendingOffsets[0], pendingLengths[0], packet);
+        else {
+            int f = 0;
+            int nri = 0;
+            int header;
+            for (int i = 0; i < pendingCount; i++) {
+                header = data.get(pendingOffsets[i]);
+                f |= header & 0x80;
+                nri = Math.max(nri, header & 0x60);
+            }
+            
+            packet.put((byte)(f | nri | NAL_STAP_A));
+            for (int i = 0; i < pendingCount; i++) {
+                packet.putShort((short)pendingLengths[i]);
+                copy(data, pendingOffsets[i], pendingLengths[i], packet);
+            }
+        }
+        
+        addPacket(batch, packet, 0);
+        pendingCount = 0;
+    }
+    
+    private void fragment(ByteBuffer data, int offset, int length, RtpPacketBatch batch) {
+        int header = data.get(offset);
+        byte indicator = (byte)((header & 0xe0) | NAL_FU_A);
+        int type = header & 0x1f;
+        int chunk = getMaxPayloadSize() - 2;
+        int n;
+        
+        int start = 0x80;
+        offset++;
+        length--;
+        while (length > 0) {
+            n = Math.min(chunk, length);
+            ByteBuffer packet = allocatePacket();
+            packet.put(indicator);
+            packet.put((byte)(start | (n == length ? 0x40 : 0) | type));
+            copy(data, offset, n, packet);
+            addPacket(batch, packet, 0);
+            
+            offset += n;
+            length -= n;
+            start = 0;
+        }
+    }
+    
+    /**
+     * Get size of the NAL unit length prefix for the given extradata.
+     * 
+     * @param extradata codec extradata (may be null)
+     * @return NAL unit length size if the extradata is in the avcC format,
+     * 0 otherwise (Annex B byte stream format)
+     */
+    public static int getNalLengthSize(byte[] extradata) {
+        if (extradata == null || extradata.length < 7 || extradata[0] != 1)
+            return 0;
+        
+        return (extradata[4] & 0x03) + 1;
+    }
+    
+    /**
+     * Extract SPS and PPS NAL units from the given extradata.
+     * 
+     * @param extradata codec extradata in the avcC or Annex B format (may be
+     * null)
+     * @return list of parameter sets (it is empty if there are no parameter
+     * sets or the extradata cannot be parsed)
+     */
+    public static List<byte[]> getParameterSets(byte[] extradata) {
+        List<byte[]> result = new ArrayList<byte[]>();
+        if (extradata == null || extradata.length < 4)
+            return result;
+        
+        if (getNalLengthSize(extradata) > 0) {
+            int p = 5;
+            int count, len;
+            for (int k = 0; k < 2 && p < extradata.length; k++) {
+                count = extradata[p++] & (k == 0 ? 0x1f : 0xff);
+                for (int i = 0; i < count && p + 2 <= extradata.length; i++) {
+                    len = ((extradata[p] & 0xff) << 8) | (extradata[p + 1] & 0xff);
+                    p += 2;
+                    if (len == 0 || p + len > extradata.length)
+                        return result;
+                    result.add(copyOf(extradata, p, len));
+                    p += len;
+                }
+            }
+        } else {
+            ByteBuffer bb = ByteBuffer.wrap(extradata);
+            int end = extradata.length;
+            int nalStart = findStartCode(bb, 0, end) + 3;
+            int nalEnd, p, type;
+            while (nalStart < end) {
+                p = findStartCode(bb, nalStart, end);
+                for (nalEnd = p; nalEnd > nalStart && extradata[nalEnd - 1] == 0; nalEnd--) { }
+                type = extradata[nalStart] & 0x1f;
+                if (nalEnd > nalStart && (type == NAL_SPS || type == NAL_PPS))
+                    result.add(copyOf(extradata, nalStart, nalEnd - nalStart));
+                nalStart = p + 3;
+            }
+        }
+        
+        return result;
+    }
+    
+    private static byte[] copyOf(byte[] data, int offset, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(data, offset, result, 0, length);
+        return result;
+    }
+    
+    private static String base64(byte[] data) {
+        StringBuilder result = new StringBuilder();
+        int b;
+        for (int i = 0; i < data.length; i += 3) {
+            b = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length)
+                b |= (data[i + 1] & 0xff) << 8;
+            if (i + 2 < data.length)
+                b |= data[i + 2] & 0xff;
+            result.append(BASE64[(b >> 18) & 0x3f]);
+            result.append(BASE64[(b >> 12) & 0x3f]);
+            result.append(i + 1 < data.length ? BASE64[(b >> 6) & 0x3f] : '=');
+            result.append(i + 2 < data.length ? BASE64[b & 0x3f] : '=');
+        }
+        
+        return result.toString();
+    }
+    
+}
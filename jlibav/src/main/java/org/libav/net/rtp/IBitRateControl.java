@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+/**
+ * Bit rate of a single session (e.g. an encoder or an encoder selection).
+ * 
+ * @author Ondrej Perutka
+ */
+public interface IBitRateControl {
+    
+    /**
+     * Get current bit rate.
+     * 
+     * @return bit rate in bits per second
+     */
+    int getBitRate();
+    
+    /**
+     * Set bit rate.
+     * 
+     * @param bitRate bit rate in bits per second
+     */
+    void setBitRate(int bitRate);
+    
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+/**
+ * RTCP report listener.
+ * 
+ * @author Ondrej Perutka
+ */
+public interface IRtcpListener {
+    
+    /**
+     * This method is called by the RTCP receiver for every SR or RR received
+     * from the source the listener is registered for.
+     * 
+     * @param source the RTCP receiver
+     * @param report received report
+     * @param arrivalTime arrival time of the report (milliseconds since the
+     * Unix epoch)
+     */
+    void processReport(RtcpReceiver source, RtcpReport report, long arrivalTime);
+    
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * High-resolution hashed timer wheel. It runs short tasks (e.g. sending 
+ * a paced RTP packet) at the given System.nanoTime() with the resolution
+ * of one tick. All tasks are executed by a single timer thread, so they 
+ * must not block. Tasks scheduled for the same tick are executed in 
+ * the order they were scheduled.
+ * 
+ * The timer thread waits for a notification if there are no tasks, 
+ * otherwise it wakes up once per tick.
+ * 
+ * @author Ondrej Perutka
+ */
+public class PacingTimer {
+    
+    /**
+     * Default tick length in nanoseconds.
+     */
+    public static final long DEFAULT_TICK = 250000;
+    
+    /**
+     * Default number of wheel slots.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 4096;
+    
+    private static PacingTimer defaultTimer = null;
+    
+    private final long tick;
+    private final Task[] heads;
+    private final Task[] tails;
+    private final int mask;
+    private final long origin;
+    
+    private final Object lock;
+    private long processedTick;
+    private int taskCount;
+    private boolean closed;
+    private final Thread thread;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter executed;
+    private final IHistogram lateness;
+    
+    /**
+     * Create a new timer with the default tick length and wheel size and 
+     * start its thread.
+     */
+    public PacingTimer() {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+    
+    /**
+     * Create a new timer and start its thread.
+     * 
+     * @param tick tick length in nanoseconds
+     * @param wheelSize number of wheel slots (it must be a power of two)
+     */
+    public PacingTimer(long tick, int wheelSize) {
+        if (tick <= 0)
+            throw new IllegalArgumentException("tick length must be positive");
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0)
+            throw new IllegalArgumentException("wheel size must be a power of two");
+        
+        this.tick = tick;
+        this.heads = new Task[wheelSize];
+        this.tails = new Task[wheelSize];
+        this.mask = wheelSize - 1;
+        this.origin = System.nanoTime();
+        
+        lock = new Object();
+        processedTick = 0;
+        taskCount = 0;
+        closed = false;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("pacing-timer");
+        executed = metrics.counter(metricPrefix + "executed");
+        lateness = metrics.histogram(metricPrefix + "lateness");
+        metrics.gauge(metricPrefix + "pending", new IGauge() {
+            @Override
+            public long getValue() {
+                return getTaskCount();
+            }
+        });
+        
+        thread = Execution.newThread(Execution.RTP_PACER, new TimerThread(), "PacingTimer", true);
+        thread.start();
+    }
+    
+    /**
+     * Get tick length.
+     * 
+     * @return tick length in nanoseconds
+     */
+    public long getTick() {
+        return tick;
+    }
+    
+    /**
+     * Get number of scheduled tasks.
+     * 
+     * @return number of tasks
+     */
+    public int getTaskCount() {
+        synchronized (lock) {
+            return taskCount;
+        }
+    }
+    
+    /**
+     * Run the given task at the given time. If the time has already passed,
+     * the task is executed on the next tick.
+     * 
+     * @param task a task
+     * @param time time (System.nanoTime())
+     */
+    public void schedule(Runnable task, long time) {
+        synchronized (lock) {
+            if (closed)
+                throw new IllegalStateException("the timer has been closed");
+            
+            long t = time - origin;
+            t = t <= 0 ? 0 : (t + tick - 1) / tick;
+            t = Math.max(t, processedTick + 1);
+            
+            Task tt = new Task(task, time, t);
+            int slot = (int)(t & mask);
+            if (tails[slot] == null)
+                heads[slot] = tt;
+            else
+                tails[slot].next = tt;
+            tails[slot] = tt;
+            
+            if (taskCount++ == 0)
+                lock.notifyAll();
+        }
+    }
+    
+    /**
+     * Stop the timer thread. Pending tasks are discarded.
+     */
+    public void close() {
+        synchronized (lock) {
+            if (closed)
+                return;
+            
+            closed = true;
+            lock.notifyAll();
+        }
+        
+        LockSupport.unpark(thread);
+        metrics.removeAll(metricPrefix);
+    }
+    
+    /**
+     * Check whether the timer has been closed.
+     * 
+     * @return true if the timer has been closed, false otherwise
+     */
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+    
+    private Task collect(long now) {
+        Task first = null;
+        Task last = null;
+        Task prev, t, next;
+        int slot;
+        
+        long nowTick = (now - origin) / tick;
+        long from = processedTick + 1;
+        if (nowTick - from > mask)
+            from = nowTick - mask;
+        
+        for (long i = from; i <= nowTick; i++) {
+            slot = (int)(i & mask);
+            prev = null;
+            for (t = heads[slot]; t != null; t = next) {
+                next = t.next;
+                if (t.tick > nowTick) {
+                    prev = t;
+                    continue;
+                }
+                
+                if (prev == null)
+                    heads[slot] = next;
+                else
+                    prev.next = next;
+                if (tails[slot] == t)
+                    tails[slot] = prev;
+                
+                t.next = null;
+                if (last == null)
+                    first = t;
+                else
+                    last.next = t;
+                last = t;
+                taskCount--;
+            }
+        }
+        
+        processedTick = Math.max(processedTick, nowTick);
+        
+        return first;
+    }
+    
+    /**
+     * Get the default (shared) timer. It is created on demand.
+     * 
+     * @return default timer
+     */
+    public static synchronized PacingTimer getDefault() {
+        if (defaultTimer == null || defaultTimer.isClosed())
+            defaultTimer = new PacingTimer();
+        
+        return defaultTimer;
+    }
+    
+    private static class Task {
+        private final Runnable runnable;
+        private final long time;
+        private final long tick;
+        private Task next;
+        
+        public Task(Runnable runnable, long time, long tick) {
+            this.runnable = runnable;
+            this.time = time;
+            this.tick = tick;
+            this.next = null;
+        }
+    }
+    
+    private class TimerThread implements Runnable {
+        @Override
+        public void run() {
+            Task due;
+            long now;
+            
+            while (true) {
+                synchronized (lock) {
+                    try {
+                        while (taskCount == 0 && !closed)
+                            lock.wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    if (closed)
+                        return;
+                    
+                    now = System.nanoTime();
+                    due = collect(now);
+                }
+                
+                for (; due != null; due = due.next) {
+                    lateness.record(Math.max(0, now - due.time) / 1000);
+                    executed.increment();
+                    try {
+                        due.runnable.run();
+                    } catch (RuntimeException ex) {
+                        Logger.getLogger(PacingTimer.class.getName()).log(Level.WARNING, "pacing timer task failed", ex);
+                    }
+                }
+                
+                now = System.nanoTime();
+                long wakeUp;
+                synchronized (lock) {
+                    wakeUp = origin + (processedTick + 1) * tick;
+                }
+                if (wakeUp > now)
+                    LockSupport.parkNanos(wakeUp - now);
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * RTCP receiver. It receives RTCP packets on any number of UDP ports using
+ * a single thread and dispatches SRs and RRs to listeners registered for the
+ * source address of the packets (i.e. the client address and its RTCP port).
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtcpReceiver {
+    
+    private static final int MAX_PACKET_SIZE = 1500;
+    
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<DatagramChannel> pending;
+    private final Map<SocketAddress, IRtcpListener> listeners;
+    private final Thread thread;
+    private volatile boolean closed;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter packets;
+    private final ICounter reports;
+    private final ICounter malformed;
+    private final ICounter unknown;
+    
+    /**
+     * Create a new RTCP receiver and start its thread.
+     * 
+     * @throws IOException if the selector cannot be opened
+     */
+    public RtcpReceiver() throws IOException {
+        selector = Selector.open();
+        pending = new ConcurrentLinkedQueue<DatagramChannel>();
+        listeners = new ConcurrentHashMap<SocketAddress, IRtcpListener>();
+        closed = false;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("rtcp-receiver");
+        packets = metrics.counter(metricPrefix + "packets");
+        reports = metrics.counter(metricPrefix + "reports");
+        malformed = metrics.counter(metricPrefix + "malformed");
+        unknown = metrics.counter(metricPrefix + "unknownSource");
+        
+        thread = Execution.newThread(Execution.RTCP_RECEIVER, new Receiver(), "RtcpReceiver", true);
+        thread.start();
+    }
+    
+    /**
+     * Open a new UDP port and receive RTCP packets from it.
+     * 
+     * @param port port number (0 means any free port)
+     * @return the channel bound to the port
+     * @throws IOException if the port cannot be bound
+     */
+    public DatagramChannel open(int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        
+        add(channel);
+        return channel;
+    }
+    
+    /**
+     * Receive RTCP packets from the given bound channel. The channel is 
+     * switched to the non-blocking mode.
+     * 
+     * @param channel a bound datagram channel
+     * @throws IOException if the channel cannot be switched to the 
+     * non-blocking mode
+     */
+    public void add(DatagramChannel channel) throws IOException {
+        if (closed)
+            throw new IllegalStateException("the receiver is closed");
+        
+        channel.configureBlocking(false);
+        pending.add(channel);
+        selector.wakeup();
+    }
+    
+    /**
+     * Stop receiving from the given channel and close it.
+     * 
+     * @param channel a channel returned by the open() method or passed to the
+     * add() method
+     */
+    public void close(DatagramChannel channel) {
+        pending.remove(channel);
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null)
+            key.cancel();
+        
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Logger.getLogger(RtcpReceiver.class.getName()).log(Level.WARNING, "unable to close an RTCP channel", ex);
+        }
+    }
+    
+    /**
+     * Register listener for reports sent from the given address.
+     * 
+     * @param source source address of the reports (client address and its 
+     * RTCP port)
+     * @param listener a listener
+     */
+    public void addListener(InetSocketAddress source, IRtcpListener listener) {
+        listeners.put(source, listener);
+    }
+    
+    /**
+     * Unregister listener for reports sent from the given address.
+     * 
+     * @param source source address of the reports
+     */
+    public void removeListener(InetSocketAddress source) {
+        listeners.remove(source);
+    }
+    
+    /**
+     * Get number of received SRs and RRs.
+     * 
+     * @return number of received reports
+     */
+    public long getReportCount() {
+        return reports.getCount();
+    }
+    
+    /**
+     * Stop the receiver thread and close all channels.
+     */
+    public void close() {
+        if (closed)
+            return;
+        
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ex) {
+                Logger.getLogger(RtcpReceiver.class.getName()).log(Level.WARNING, "unable to close an RTCP channel", ex);
+            }
+        }
+        DatagramChannel channel;
+        while ((channel = pending.poll()) != null)
+            close(channel);
+        
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            Logger.getLogger(RtcpReceiver.class.getName()).log(Level.WARNING, "unable to close the selector", ex);
+        }
+        
+        listeners.clear();
+        metrics.removeAll(metricPrefix);
+    }
+    
+    private void dispatch(SocketAddress source, ByteBuffer data) {
+        packets.increment();
+        
+        IRtcpListener listener = listeners.get(source);
+        if (listener == null) {
+            unknown.increment();
+            return;
+        }
+        
+        List<RtcpReport> parsed = RtcpReport.parse(data);
+        if (parsed.isEmpty()) {
+            malformed.increment();
+            return;
+        }
+        
+        long arrivalTime = System.currentTimeMillis();
+        for (RtcpReport report : parsed) {
+            reports.increment();
+            try {
+                listener.processReport(this, report, arrivalTime);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(RtcpReceiver.class.getName()).log(Level.WARNING, "RTCP listener failed", ex);
+            }
+        }
+    }
+    
+    private class Receiver implements Runnable {
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+            DatagramChannel channel;
+            SocketAddress source;
+            Iterator<SelectionKey> it;
+            SelectionKey key;
+            
+            while (!closed) {
+                try {
+                    while ((channel = pending.poll()) != null) {
+                        if (channel.isOpen())
+                            channel.register(selector, SelectionKey.OP_READ);
+                    }
+                    
+                    selector.select();
+                    
+                    it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        key = it.next();
+                        it.remove();
+                        if (!key.isValid())
+                            continue;
+                        
+                        channel = (DatagramChannel)key.channel();
+                        while (true) {
+                            buffer.clear();
+                            try {
+                                source = channel.receive(buffer);
+                            } catch (IOException ex) {
+                                // e.g. ICMP port unreachable, the channel remains usable
+                                source = null;
+                            }
+                            if (source == null)
+                                break;
+                            
+                            buffer.flip();
+                            dispatch(source, buffer);
+                        }
+                    }
+                } catch (IOException ex) {
+                    if (!closed)
+                        Logger.getLogger(RtcpReceiver.class.getName()).log(Level.WARNING, "RTCP receiver failure", ex);
+                }
+            }
+        }
+    }
+    
+}
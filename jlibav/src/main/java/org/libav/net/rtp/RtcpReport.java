@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RTCP sender report (SR) or receiver report (RR) as defined in RFC 3550.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtcpReport {
+    
+    /**
+     * Sender report packet type.
+     */
+    public static final int PT_SR = 200;
+    
+    /**
+     * Receiver report packet type.
+     */
+    public static final int PT_RR = 201;
+    
+    /**
+     * Difference between the NTP epoch (1900) and the Unix epoch (1970) in
+     * seconds.
+     */
+    public static final long NTP_OFFSET = 2208988800l;
+    
+    private final int packetType;
+    private final int ssrc;
+    private final long ntpTimestamp;
+    private final long rtpTimestamp;
+    private final long packetCount;
+    private final long octetCount;
+    private final List<ReportBlock> reportBlocks;
+    
+    private RtcpReport(int packetType, int ssrc, long ntpTimestamp, long rtpTimestamp, long packetCount, long octetCount, List<ReportBlock> reportBlocks) {
+        this.packetType = packetType;
+        this.ssrc = ssrc;
+        this.ntpTimestamp = ntpTimestamp;
+        this.rtpTimestamp = rtpTimestamp;
+        this.packetCount = packetCount;
+        this.octetCount = octetCount;
+        this.reportBlocks = Collections.unmodifiableList(reportBlocks);
+    }
+    
+    /**
+     * Get packet type (PT_SR or PT_RR).
+     * 
+     * @return packet type
+     */
+    public int getPacketType() {
+        return packetType;
+    }
+    
+    /**
+     * Get SSRC of the report sender.
+     * 
+     * @return SSRC
+     */
+    public int getSsrc() {
+        return ssrc;
+    }
+    
+    /**
+     * Get NTP timestamp of a sender report.
+     * 
+     * @return 64-bit NTP timestamp or 0 for receiver reports
+     */
+    public long getNtpTimestamp() {
+        return ntpTimestamp;
+    }
+    
+    /**
+     * Get RTP timestamp of a sender report.
+     * 
+     * @return RTP timestamp or 0 for receiver reports
+     */
+    public long getRtpTimestamp() {
+        return rtpTimestamp;
+    }
+    
+    /**
+     * Get sender's packet count of a sender report.
+     * 
+     * @return packet count or 0 for receiver reports
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+    
+    /**
+     * Get sender's octet count of a sender report.
+     * 
+     * @return octet count or 0 for receiver reports
+     */
+    public long getOctetCount() {
+        return octetCount;
+    }
+    
+    /**
+     * Get reception report blocks.
+     * 
+     * @return unmodifiable list of report blocks
+     */
+    public List<ReportBlock> getReportBlocks() {
+        return reportBlocks;
+    }
+    
+    /**
+     * Parse all SR and RR packets of the given compound RTCP packet. Other
+     * RTCP packets are skipped. Parsing stops at the first malformed packet.
+     * 
+     * @param data RTCP packet (from the position to the limit)
+     * @return list of reports
+     */
+    public static List<RtcpReport> parse(ByteBuffer data) {
+        List<RtcpReport> result = new ArrayList<RtcpReport>();
+        int p = data.position();
+        int end = data.limit();
+        int header, count, pt, length, q;
+        
+        while (p + 8 <= end) {
+            header = data.get(p) & 0xff;
+            count = header & 0x1f;
+            pt = data.get(p + 1) & 0xff;
+            length = 4 * ((data.getShort(p + 2) & 0xffff) + 1);
+            if ((header >> 6) != 2 || p + length > end)
+                break;
+            
+            if (pt == PT_SR || pt == PT_RR) {
+                q = p + 8 + (pt == PT_SR ? 20 : 0);
+                if (q + 24 * count > p + length)
+                    break;
+                
+                List<ReportBlock> blocks = new ArrayList<ReportBlock>();
+                for (int i = 0; i < count; i++, q += 24) {
+                    blocks.add(new ReportBlock(data.getInt(q), 
+                            data.get(q + 4) & 0xff, 
+                            (data.getInt(q + 4) << 8) >> 8, 
+                            data.getInt(q + 8) & 0xffffffffl, 
+                            data.getInt(q + 12) & 0xffffffffl, 
+                            data.getInt(q + 16) & 0xffffffffl, 
+                            data.getInt(q + 20) & 0xffffffffl));
+                }
+                
+                if (pt == PT_SR)
+                    result.add(new RtcpReport(pt, data.getInt(p + 4), data.getLong(p + 8), data.getInt(p + 16) & 0xffffffffl, data.getInt(p + 20) & 0xffffffffl, data.getInt(p + 24) & 0xffffffffl, blocks));
+                else
+                    result.add(new RtcpReport(pt, data.getInt(p + 4), 0, 0, 0, 0, blocks));
+            }
+            
+            p += length;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Get the middle 32 bits of the NTP timestamp for the given time (the 
+     * format used by the LSR and DLSR fields).
+     * 
+     * @param timeMillis time in milliseconds since the Unix epoch
+     * @return middle 32 bits of the NTP timestamp
+     */
+    public static long getNtpMiddle(long timeMillis) {
+        long seconds = timeMillis / 1000 + NTP_OFFSET;
+        long fraction = (timeMillis % 1000) * 65536 / 1000;
+        
+        return ((seconds & 0xffff) << 16) | fraction;
+    }
+    
+    /**
+     * Reception report block.
+     */
+    public static class ReportBlock {
+        private final int ssrc;
+        private final int fractionLost;
+        private final int cumulativeLost;
+        private final long highestSequenceNumber;
+        private final long jitter;
+        private final long lastSenderReport;
+        private final long delaySinceLastSenderReport;
+        
+        /**
+         * Create a new report block.
+         * 
+         * @param ssrc SSRC of the reported source
+         * @param fractionLost fraction of lost packets (0 - 255)
+         * @param cumulativeLost cumulative number of lost packets
+         * @param highestSequenceNumber extended highest sequence number
+         * @param jitter interarrival jitter in the RTP timestamp units
+         * @param lastSenderReport middle 32 bits of the NTP timestamp of
+         * the last SR
+         * @param delaySinceLastSenderReport delay since the last SR in 
+         * 1/65536 seconds
+         */
+        public ReportBlock(int ssrc, int fractionLost, int cumulativeLost, long highestSequenceNumber, long jitter, long lastSenderReport, long delaySinceLastSenderReport) {
+            this.ssrc = ssrc;
+            this.fractionLost = fractionLost;
+            this.cumulativeLost = cumulativeLost;
+            this.highestSequenceNumber = highestSequenceNumber;
+            this.jitter = jitter;
+            this.lastSenderReport = lastSenderReport;
+            this.delaySinceLastSenderReport = delaySinceLastSenderReport;
+        }
+        
+        /**
+         * Get SSRC of the reported source.
+         * 
+         * @return SSRC
+         */
+        public int getSsrc() {
+            return ssrc;
+        }
+        
+        /**
+         * Get fraction of packets lost since the previous report.
+         * 
+         * @return fraction lost (0 - 255)
+         */
+        public int getFractionLost() {
+            return fractionLost;
+        }
+        
+        /**
+         * Get cumulative number of lost packets.
+         * 
+         * @return cumulative number of lost packets
+         */
+        public int getCumulativeLost() {
+            return cumulativeLost;
+        }
+        
+        /**
+         * Get extended highest sequence number received.
+         * 
+         * @return extended highest sequence number
+         */
+        public long getHighestSequenceNumber() {
+            return highestSequenceNumber;
+        }
+        
+        /**
+         * Get interarrival jitter.
+         * 
+         * @return jitter in the RTP timestamp units
+         */
+        public long getJitter() {
+            return jitter;
+        }
+        
+        /**
+         * Get LSR field.
+         * 
+         * @return middle 32 bits of the NTP timestamp of the last SR (0 if 
+         * no SR has been received)
+         */
+        public long getLastSenderReport() {
+            return lastSenderReport;
+        }
+        
+        /**
+         * Get DLSR field.
+         * 
+         * @return delay since the last SR in 1/65536 seconds
+         */
+        public long getDelaySinceLastSenderReport() {
+            return delaySinceLastSenderReport;
+        }
+        
+        /**
+         * Get round-trip time.
+         * 
+         * @param arrivalTime arrival time of the report (milliseconds since
+         * the Unix epoch)
+         * @return round-trip time in milliseconds or -1 if it is not known
+         */
+        public long getRoundTripTime(long arrivalTime) {
+            if (lastSenderReport == 0)
+                return -1;
+            
+            long rtt = (getNtpMiddle(arrivalTime) - lastSenderReport - delaySinceLastSenderReport) & 0xffffffffl;
+            if (rtt > 0x7fffffffl)
+                return -1;
+            
+            return rtt * 1000 / 65536;
+        }
+    }
+    
+}
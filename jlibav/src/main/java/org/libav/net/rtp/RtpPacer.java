@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * RTP send pacing. Instead of sending all packets of a frame back to back,
+ * the pacer spreads them evenly over a part of the frame interval (which
+ * is estimated from the RTP timestamps) using a shared PacingTimer. 
+ * The packets can be further limited by a global token bucket (shared 
+ * e.g. by all streams of a server) and by per-session token buckets. 
+ * Packets exceeding the rate of a session are queued in the session 
+ * backlog; if the backlog is full, the oldest packets are dropped.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtpPacer {
+    
+    /**
+     * Default part of the frame interval used to send a frame.
+     */
+    public static final double DEFAULT_SPREAD = 0.8;
+    
+    /**
+     * Default frame interval used until it can be estimated from 
+     * the timestamps (in nanoseconds).
+     */
+    public static final long DEFAULT_FRAME_INTERVAL = 40000000;
+    
+    /**
+     * Default maximum number of packets in a session backlog.
+     */
+    public static final int DEFAULT_MAX_BACKLOG = 256;
+    
+    private static final long MAX_FRAME_INTERVAL = 1000000000;
+    
+    private final RtpSender sender;
+    private final int clockRate;
+    private final PacingTimer timer;
+    private final TokenBucket globalBucket;
+    
+    private volatile double spread;
+    private volatile long sessionRate;
+    private volatile long sessionBurst;
+    private volatile int maxBacklog;
+    
+    private long frameInterval;
+    private long lastTimestamp;
+    private long lastScheduled;
+    
+    private final ConcurrentHashMap<RtpSender.Session, SessionQueue> queues;
+    private volatile boolean closed;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter packets;
+    private final ICounter deferred;
+    private final ICounter dropped;
+    private final IHistogram frameSpread;
+    
+    /**
+     * Create a new pacer using the default timer and no rate limits.
+     * 
+     * @param sender an RTP sender
+     * @param clockRate RTP clock rate of the stream
+     */
+    public RtpPacer(RtpSender sender, int clockRate) {
+        this(sender, clockRate, PacingTimer.getDefault(), null);
+    }
+    
+    /**
+     * Create a new pacer.
+     * 
+     * @param sender an RTP sender
+     * @param clockRate RTP clock rate of the stream
+     * @param timer a pacing timer
+     * @param globalBucket token bucket limiting the total output of all 
+     * sessions (may be null; it may be shared by several pacers)
+     */
+    public RtpPacer(RtpSender sender, int clockRate, PacingTimer timer, TokenBucket globalBucket) {
+        this.sender = sender;
+        this.clockRate = clockRate;
+        this.timer = timer;
+        this.globalBucket = globalBucket;
+        
+        spread = DEFAULT_SPREAD;
+        sessionRate = 0;
+        sessionBurst = 0;
+        maxBacklog = DEFAULT_MAX_BACKLOG;
+        
+        frameInterval = DEFAULT_FRAME_INTERVAL;
+        lastTimestamp = -1;
+        lastScheduled = 0;
+        
+        queues = new ConcurrentHashMap<RtpSender.Session, SessionQueue>();
+        closed = false;
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("rtp-pacer");
+        packets = metrics.counter(metricPrefix + "packets");
+        deferred = metrics.counter(metricPrefix + "deferred");
+        dropped = metrics.counter(metricPrefix + "dropped");
+        frameSpread = metrics.histogram(metricPrefix + "frameSpread");
+        metrics.gauge(metricPrefix + "backlog", new IGauge() {
+            @Override
+            public long getValue() {
+                return getBacklog();
+            }
+        });
+    }
+    
+    /**
+     * Get part of the frame interval used to send a frame.
+     * 
+     * @return spread
+     */
+    public double getSpread() {
+        return spread;
+    }
+    
+    /**
+     * Set part of the frame interval used to send a frame. The value 0 
+     * disables spreading (but the token buckets still apply).
+     * 
+     * @param spread spread (between 0 and 1)
+     */
+    public void setSpread(double spread) {
+        if (spread < 0 || spread > 1)
+            throw new IllegalArgumentException("spread must be between 0 and 1");
+        
+        this.spread = spread;
+    }
+    
+    /**
+     * Set rate limit of each session. It applies to sessions whose first 
+     * packet is paced after this call.
+     * 
+     * @param rate rate in bytes per second (0 means no limit)
+     * @param burst bucket size in bytes
+     */
+    public void setSessionRate(long rate, long burst) {
+        this.sessionBurst = burst;
+        this.sessionRate = rate;
+    }
+    
+    /**
+     * Get rate limit of each session.
+     * 
+     * @return rate in bytes per second (0 means no limit)
+     */
+    public long getSessionRate() {
+        return sessionRate;
+    }
+    
+    /**
+     * Get maximum number of packets in a session backlog.
+     * 
+     * @return maximum backlog
+     */
+    public int getMaxBacklog() {
+        return maxBacklog;
+    }
+    
+    /**
+     * Set maximum number of packets in a session backlog.
+     * 
+     * @param maxBacklog maximum backlog
+     */
+    public void setMaxBacklog(int maxBacklog) {
+        if (maxBacklog < 1)
+            throw new IllegalArgumentException("maximum backlog must be positive");
+        
+        this.maxBacklog = maxBacklog;
+    }
+    
+    /**
+     * Get current frame interval estimate.
+     * 
+     * @return frame interval in nanoseconds
+     */
+    public synchronized long getFrameInterval() {
+        return frameInterval;
+    }
+    
+    /**
+     * Get number of packets in all session backlogs.
+     * 
+     * @return number of packets
+     */
+    public int getBacklog() {
+        int result = 0;
+        for (SessionQueue q : queues.values())
+            result += q.size();
+        
+        return result;
+    }
+    
+    /**
+     * Schedule the given packets. The pacer takes ownership of the batch 
+     * and frees it when all packets are sent.
+     * 
+     * @param batch RTP packets
+     */
+    public void send(RtpPacketBatch batch) {
+        int count = batch.getPacketCount();
+        if (count == 0 || closed) {
+            batch.free();
+            return;
+        }
+        
+        BatchRef ref = new BatchRef(batch, count);
+        int sessions = sender.getActiveSessionCount();
+        long now = System.nanoTime();
+        long window, t;
+        
+        synchronized (this) {
+            long ts = batch.getTimestamp();
+            if (lastTimestamp >= 0 && ts > lastTimestamp) {
+                long interval = (ts - lastTimestamp) * 1000000000L / clockRate;
+                if (interval < MAX_FRAME_INTERVAL)
+                    frameInterval = interval;
+            }
+            lastTimestamp = ts;
+            
+            window = (long)(frameInterval * spread);
+            long start = Math.max(now, lastScheduled);
+            t = start;
+            for (int i = 0; i < count; i++) {
+                t = start + window * i / count;
+                if (globalBucket != null)
+                    t = Math.max(t, globalBucket.reserve(batch.getPacket(i).limit() * Math.max(sessions, 1), t));
+                timer.schedule(new PacketTask(ref, i), t);
+            }
+            lastScheduled = t;
+        }
+        
+        frameSpread.record((t - now) / 1000);
+    }
+    
+    /**
+     * Drop the backlog of the given session. It should be called when 
+     * the session is removed from the sender.
+     * 
+     * @param session a session
+     */
+    public void removeSession(RtpSender.Session session) {
+        SessionQueue q = queues.remove(session);
+        if (q != null)
+            q.clear();
+    }
+    
+    /**
+     * Drop all backlogs and release the metrics. Packets already scheduled
+     * are not sent.
+     */
+    public void close() {
+        closed = true;
+        for (SessionQueue q : queues.values())
+            q.clear();
+        queues.clear();
+        metrics.removeAll(metricPrefix);
+    }
+    
+    private SessionQueue getQueue(RtpSender.Session session) {
+        SessionQueue result = queues.get(session);
+        if (result == null) {
+            result = new SessionQueue(session);
+            SessionQueue tmp = queues.putIfAbsent(session, result);
+            if (tmp != null)
+                result = tmp;
+        }
+        
+        return result;
+    }
+    
+    private void send(RtpSender.Session session, BatchRef ref, int index) {
+        try {
+            sender.send(session, ref.batch.getPacket(index), ref.batch.getTimestamp(index));
+            packets.increment();
+        } catch (IOException ex) {
+            Logger.getLogger(RtpPacer.class.getName()).log(Level.WARNING, "unable to send an RTP packet", ex);
+        }
+    }
+    
+    private static class BatchRef {
+        private final RtpPacketBatch batch;
+        private int refCount;
+        
+        public BatchRef(RtpPacketBatch batch, int refCount) {
+            this.batch = batch;
+            this.refCount = refCount;
+        }
+        
+        public synchronized void retain() {
+            refCount++;
+        }
+        
+        public synchronized void release() {
+            if (--refCount == 0)
+                batch.free();
+        }
+    }
+    
+    private class PacketTask implements Runnable {
+        private final BatchRef ref;
+        private final int index;
+        
+        public PacketTask(BatchRef ref, int index) {
+            this.ref = ref;
+            this.index = index;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                if (closed)
+                    return;
+                
+                for (RtpSender.Session s : sender.getSessions()) {
+                    if (!s.isActive())
+                        continue;
+                    
+                    if (sessionRate <= 0 && !queues.containsKey(s))
+                        send(s, ref, index);
+                    else
+                        getQueue(s).offer(ref, index);
+                }
+            } finally {
+                ref.release();
+            }
+        }
+    }
+    
+    private class SessionQueue implements Runnable {
+        private final RtpSender.Session session;
+        private final TokenBucket bucket;
+        private final LinkedList<BatchRef> refs;
+        private final LinkedList<Integer> indexes;
+        private boolean scheduled;
+        
+        public SessionQueue(RtpSender.Session session) {
+            long rate = sessionRate;
+            this.session = session;
+            this.bucket = rate > 0 ? new TokenBucket(rate, Math.max(sessionBurst, 1)) : null;
+            this.refs = new LinkedList<BatchRef>();
+            this.indexes = new LinkedList<Integer>();
+            this.scheduled = false;
+        }
+        
+        public synchronized int size() {
+            return refs.size();
+        }
+        
+        public synchronized void offer(BatchRef ref, int index) {
+            long now = System.nanoTime();
+            int length = ref.batch.getPacket(index).limit();
+            if (refs.isEmpty() && (bucket == null || bucket.peek(length, now) <= now)) {
+                if (bucket != null)
+                    bucket.reserve(length, now);
+                send(session, ref, index);
+                return;
+            }
+            
+            ref.retain();
+            refs.add(ref);
+            indexes.add(index);
+            deferred.increment();
+            while (refs.size() > maxBacklog) {
+                refs.removeFirst().release();
+                indexes.removeFirst();
+                dropped.increment();
+            }
+            
+            schedule(now);
+        }
+        
+        private void schedule(long now) {
+            if (scheduled || refs.isEmpty() || closed)
+                return;
+            
+            long t = bucket == null ? now : bucket.peek(refs.getFirst().batch.getPacket(indexes.getFirst()).limit(), now);
+            timer.schedule(this, t);
+            scheduled = true;
+        }
+        
+        public synchronized void clear() {
+            while (!refs.isEmpty()) {
+                refs.removeFirst().release();
+                indexes.removeFirst();
+            }
+        }
+        
+        @Override
+        public synchronized void run() {
+            scheduled = false;
+            long now = System.nanoTime();
+            BatchRef ref;
+            int index, length;
+            
+            while (!refs.isEmpty() && !closed) {
+                ref = refs.getFirst();
+                index = indexes.getFirst();
+                length = ref.batch.getPacket(index).limit();
+                if (bucket != null && bucket.peek(length, now) > now)
+                    break;
+                
+                if (bucket != null)
+                    bucket.reserve(length, now);
+                refs.removeFirst();
+                indexes.removeFirst();
+                if (session.isActive())
+                    send(session, ref, index);
+                ref.release();
+            }
+            
+            schedule(now);
+        }
+    }
+    
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RTP packets created from a single source packet. The packets are stored 
+ * in pooled direct buffers (position 0, limit set to the packet length) 
+ * and their RTP headers contain only the version, the marker bit and 
+ * the payload type. The sequence number, the timestamp and the SSRC are
+ * filled in for each session just before sending.
+ * 
+ * The batch must be freed using the free() method when it is no longer
+ * needed.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtpPacketBatch {
+    
+    private final RtpPacketizer packetizer;
+    private ByteBuffer[] packets;
+    private int[] timestampOffsets;
+    private int count;
+    private long timestamp;
+    
+    RtpPacketBatch(RtpPacketizer packetizer, long timestamp) {
+        this.packetizer = packetizer;
+        this.packets = new ByteBuffer[4];
+        this.timestampOffsets = new int[4];
+        this.count = 0;
+        this.timestamp = timestamp;
+    }
+    
+    void add(ByteBuffer packet, int timestampOffset) {
+        if (count == packets.length) {
+            ByteBuffer[] p = new ByteBuffer[count * 2];
+            int[] t = new int[count * 2];
+            System.arraycopy(packets, 0, p, 0, count);
+            System.arraycopy(timestampOffsets, 0, t, 0, count);
+            packets = p;
+            timestampOffsets = t;
+        }
+        
+        packets[count] = packet;
+        timestampOffsets[count++] = timestampOffset;
+    }
+    
+    /**
+     * Set the marker bit of the last packet.
+     */
+    void setMarker() {
+        if (count > 0)
+            packets[count - 1].put(1, (byte)(packets[count - 1].get(1) | 0x80));
+    }
+    
+    /**
+     * Get number of RTP packets.
+     * 
+     * @return number of packets
+     */
+    public int getPacketCount() {
+        return count;
+    }
+    
+    /**
+     * Get the index-th RTP packet.
+     * 
+     * @param index packet index
+     * @return RTP packet (including the RTP header)
+     */
+    public ByteBuffer getPacket(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException();
+        
+        return packets[index];
+    }
+    
+    /**
+     * Get RTP timestamp of the index-th packet relative to the beginning of
+     * the stream (i.e. without any random session offset).
+     * 
+     * @param index packet index
+     * @return RTP timestamp in the clock rate units
+     */
+    public long getTimestamp(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException();
+        
+        return timestamp + timestampOffsets[index];
+    }
+    
+    /**
+     * Get RTP timestamp of the source packet relative to the beginning of 
+     * the stream.
+     * 
+     * @return RTP timestamp in the clock rate units
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * Return all packet buffers to the packetizer pool.
+     */
+    public void free() {
+        for (int i = 0; i < count; i++) {
+            packetizer.recycle(packets[i]);
+            packets[i] = null;
+        }
+        count = 0;
+    }
+    
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.bridge.AVUtilLibrary;
+import org.libav.net.rtsp.SdpGenerator;
+import org.libav.net.sdp.MediaDescription;
+import org.libav.util.Rational;
+
+/**
+ * Java-side RTP packetizer. Each source packet is packetized only once and
+ * the resulting RTP packets can be sent to any number of sessions by 
+ * the RtpSender. Packet buffers are direct and pooled.
+ * 
+ * @author Ondrej Perutka
+ */
+public abstract class RtpPacketizer {
+    
+    /**
+     * Size of the RTP header (without CSRC list and extensions).
+     */
+    public static final int RTP_HEADER_SIZE = 12;
+    
+    /**
+     * Default maximum RTP packet size (including the RTP header). It leaves
+     * enough space for the IP and UDP headers in a 1500 byte MTU.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1400;
+    
+    private final int payloadType;
+    private final int clockRate;
+    private final int maxPacketSize;
+    private final long tsNum;
+    private final long tsDen;
+    
+    private final ConcurrentLinkedQueue<ByteBuffer> pool;
+    
+    /**
+     * Create a new packetizer.
+     * 
+     * @param payloadType RTP payload type
+     * @param clockRate RTP clock rate
+     * @param timeBase time base of the source packets
+     * @param maxPacketSize maximum RTP packet size (including the RTP header)
+     */
+    protected RtpPacketizer(int payloadType, int clockRate, Rational timeBase, int maxPacketSize) {
+        if (maxPacketSize <= RTP_HEADER_SIZE + 4)
+            throw new IllegalArgumentException("maximum packet size is too small");
+        
+        this.payloadType = payloadType & 0x7f;
+        this.clockRate = clockRate;
+        this.maxPacketSize = maxPacketSize;
+        
+        Rational r = timeBase.mul(clockRate).normalize();
+        tsNum = r.getNumerator();
+        tsDen = r.getDenominator();
+        
+        pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+    
+    /**
+     * Get RTP payload type.
+     * 
+     * @return payload type
+     */
+    public int getPayloadType() {
+        return payloadType;
+    }
+    
+    /**
+     * Get RTP clock rate.
+     * 
+     * @return clock rate
+     */
+    public int getClockRate() {
+        return clockRate;
+    }
+    
+    /**
+     * Get maximum RTP packet size (including the RTP header).
+     * 
+     * @return maximum packet size
+     */
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+    
+    /**
+     * Get maximum RTP payload size.
+     * 
+     * @return maximum payload size
+     */
+    public int getMaxPayloadSize() {
+        return maxPacketSize - RTP_HEADER_SIZE;
+    }
+    
+    /**
+     * Get number of pooled packet buffers.
+     * 
+     * @return number of pooled buffers
+     */
+    public int getPooledBufferCount() {
+        return pool.size();
+    }
+    
+    /**
+     * Create SDP media description of the RTP stream. The port is set to 0.
+     * 
+     * @return media description
+     */
+    public abstract MediaDescription createMediaDescription();
+    
+    /**
+     * Packetize the given source packet.
+     * 
+     * @param packet a source packet
+     * @return RTP packets
+     */
+    public RtpPacketBatch packetize(IPacketWrapper packet) {
+        long ts = packet.getPts();
+        if (ts == AVUtilLibrary.AV_NOPTS_VALUE)
+            ts = packet.getDts();
+        
+        if (packet.getSize() <= 0 || packet.getData() == null)
+            return new RtpPacketBatch(this, rescale(ts));
+        
+        return packetize(packet.getData().getByteBuffer(packet.getSize()), ts);
+    }
+    
+    /**
+     * Packetize the given source packet data.
+     * 
+     * @param data packet data (from the position to the limit)
+     * @param ts presentation timestamp of the packet in the source time base
+     * @return RTP packets
+     */
+    public RtpPacketBatch packetize(ByteBuffer data, long ts) {
+        RtpPacketBatch result = new RtpPacketBatch(this, rescale(ts));
+        packetize(data, data.position(), data.remaining(), result);
+        return result;
+    }
+    
+    /**
+     * Packetize the given data into the given batch.
+     * 
+     * @param data source packet data
+     * @param offset offset of the first byte
+     * @param length data length
+     * @param batch output batch
+     */
+    protected abstract void packetize(ByteBuffer data, int offset, int length, RtpPacketBatch batch);
+    
+    private long rescale(long ts) {
+        if (ts == AVUtilLibrary.AV_NOPTS_VALUE)
+            return 0;
+        
+        return ts * tsNum / tsDen;
+    }
+    
+    /**
+     * Get an empty packet buffer with the RTP header filled in. The buffer
+     * position is set right after the RTP header.
+     * 
+     * @return packet buffer
+     */
+    protected ByteBuffer allocatePacket() {
+        ByteBuffer result = pool.poll();
+        if (result == null)
+            result = ByteBuffer.allocateDirect(maxPacketSize);
+        
+        result.clear();
+        result.put((byte)0x80);
+        result.put((byte)payloadType);
+        for (int i = 2; i < RTP_HEADER_SIZE; i++)
+            result.put((byte)0);
+        
+        return result;
+    }
+    
+    /**
+     * Append the given packet to the given batch.
+     * 
+     * @param batch a batch
+     * @param packet a packet buffer returned by the allocatePacket() method
+     * @param timestampOffset RTP timestamp offset relative to the source
+     * packet timestamp
+     */
+    protected void addPacket(RtpPacketBatch batch, ByteBuffer packet, int timestampOffset) {
+        packet.flip();
+        batch.add(packet, timestampOffset);
+    }
+    
+    /**
+     * Copy the given data into the given packet buffer.
+     * 
+     * @param data source data
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param packet a packet buffer
+     */
+    protected static void copy(ByteBuffer data, int offset, int length, ByteBuffer packet) {
+        ByteBuffer src = data.duplicate();
+        src.limit(offset + length).position(offset);
+        packet.put(src);
+    }
+    
+    void recycle(ByteBuffer buffer) {
+        if (buffer.capacity() == maxPacketSize)
+            pool.offer(buffer);
+    }
+    
+    /**
+     * Create a packetizer for the given stream.
+     * 
+     * @param stream a stream
+     * @param maxPacketSize maximum RTP packet size (including the RTP header)
+     * @return packetizer or null if there is no Java-side packetizer for
+     * the stream codec
+     */
+    public static RtpPacketizer create(IStreamWrapper stream, int maxPacketSize) {
+        ICodecContextWrapper cc = stream.getCodecContext();
+        int pt = SdpGenerator.getPayloadType(cc);
+        
+        switch (cc.getCodecId()) {
+            case H264: return new H264RtpPacketizer(pt, stream.getTimeBase(), H264RtpPacketizer.getNalLengthSize(cc.getExtradata()), cc.getExtradata(), maxPacketSize);
+            case AAC: return new AacRtpPacketizer(pt, cc.getSampleRate(), cc.getChannels(), stream.getTimeBase(), AacRtpPacketizer.getAudioSpecificConfig(cc.getExtradata(), cc.getSampleRate(), cc.getChannels()), maxPacketSize);
+            case PCM_MULAW: return new GenericRtpPacketizer(pt, "PCMU", cc.getSampleRate(), cc.getChannels(), cc.getChannels(), stream.getTimeBase(), maxPacketSize);
+            case PCM_ALAW: return new GenericRtpPacketizer(pt, "PCMA", cc.getSampleRate(), cc.getChannels(), cc.getChannels(), stream.getTimeBase(), maxPacketSize);
+            case PCM_S16BE: return new GenericRtpPacketizer(pt, "L16", cc.getSampleRate(), cc.getChannels(), 2 * cc.getChannels(), stream.getTimeBase(), maxPacketSize);
+            default: return null;
+        }
+    }
+    
+}
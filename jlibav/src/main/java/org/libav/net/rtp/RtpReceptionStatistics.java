@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reception statistics of a single RTP source as defined in appendix A of 
+ * RFC 3550. It can be used to generate receiver reports.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtpReceptionStatistics {
+    
+    private static final int RTP_SEQ_MOD = 1 << 16;
+    private static final int MAX_DROPOUT = 3000;
+    private static final int MAX_MISORDER = 100;
+    
+    private final int clockRate;
+    
+    private boolean initialized;
+    private int ssrc;
+    private int maxSeq;
+    private long cycles;
+    private int baseSeq;
+    private long received;
+    private long expectedPrior;
+    private long receivedPrior;
+    private long transit;
+    private double jitter;
+    
+    /**
+     * Create new reception statistics.
+     * 
+     * @param clockRate RTP clock rate of the source
+     */
+    public RtpReceptionStatistics(int clockRate) {
+        this.clockRate = clockRate;
+        
+        initialized = false;
+    }
+    
+    /**
+     * Update the statistics using the given RTP packet.
+     * 
+     * @param packet RTP packet (from the position to the limit)
+     * @param arrivalTime arrival time in nanoseconds (System.nanoTime())
+     */
+    public void update(ByteBuffer packet, long arrivalTime) {
+        int p = packet.position();
+        if (packet.remaining() < RtpPacketizer.RTP_HEADER_SIZE || (packet.get(p) & 0xc0) != 0x80)
+            return;
+        
+        update(packet.getInt(p + 8), packet.getShort(p + 2) & 0xffff, packet.getInt(p + 4) & 0xffffffffl, arrivalTime);
+    }
+    
+    /**
+     * Update the statistics.
+     * 
+     * @param ssrc SSRC of the packet
+     * @param seq sequence number of the packet
+     * @param timestamp RTP timestamp of the packet
+     * @param arrivalTime arrival time in nanoseconds (System.nanoTime())
+     */
+    public synchronized void update(int ssrc, int seq, long timestamp, long arrivalTime) {
+        long arrival = arrivalTime / 1000 * clockRate / 1000000;
+        long t = arrival - timestamp;
+        
+        if (!initialized || this.ssrc != ssrc) {
+            init(ssrc, seq);
+            transit = t;
+            return;
+        }
+        
+        int delta = (seq - maxSeq + RTP_SEQ_MOD) % RTP_SEQ_MOD;
+        if (delta < MAX_DROPOUT) {
+            if (seq < maxSeq)
+                cycles += RTP_SEQ_MOD;
+            maxSeq = seq;
+        } else if (delta <= RTP_SEQ_MOD - MAX_MISORDER) {
+            // a large jump, restart the sequence
+            init(ssrc, seq);
+            transit = t;
+            return;
+        }
+        
+        received++;
+        
+        long d = Math.abs(t - transit);
+        transit = t;
+        jitter += (d - jitter) / 16.0;
+    }
+    
+    private void init(int ssrc, int seq) {
+        this.ssrc = ssrc;
+        initialized = true;
+        baseSeq = seq;
+        maxSeq = seq;
+        cycles = 0;
+        received = 1;
+        expectedPrior = 0;
+        receivedPrior = 0;
+        jitter = 0;
+    }
+    
+    /**
+     * Get SSRC of the source.
+     * 
+     * @return SSRC
+     */
+    public synchronized int getSsrc() {
+        return ssrc;
+    }
+    
+    /**
+     * Get number of received packets.
+     * 
+     * @return number of received packets
+     */
+    public synchronized long getReceivedCount() {
+        return received;
+    }
+    
+    /**
+     * Get extended highest sequence number received.
+     * 
+     * @return extended highest sequence number
+     */
+    public synchronized long getHighestSequenceNumber() {
+        return cycles + maxSeq;
+    }
+    
+    /**
+     * Get cumulative number of lost packets.
+     * 
+     * @return number of lost packets
+     */
+    public synchronized long getLostCount() {
+        if (!initialized)
+            return 0;
+        
+        return cycles + maxSeq - baseSeq + 1 - received;
+    }
+    
+    /**
+     * Get interarrival jitter.
+     * 
+     * @return jitter in the RTP timestamp units
+     */
+    public synchronized long getJitter() {
+        return (long)jitter;
+    }
+    
+    /**
+     * Write a receiver report containing a single report block for the 
+     * source into the given buffer. The interval counters used to compute 
+     * the fraction lost are reset.
+     * 
+     * @param buffer output buffer
+     * @param senderSsrc SSRC of the report sender
+     * @param lastSenderReport middle 32 bits of the NTP timestamp of the last
+     * SR received from the source (or 0)
+     * @param delaySinceLastSenderReport delay since the last SR in 1/65536
+     * seconds (or 0)
+     * @return number of written bytes
+     */
+    public synchronized int writeReceiverReport(ByteBuffer buffer, int senderSsrc, long lastSenderReport, long delaySinceLastSenderReport) {
+        int count = initialized ? 1 : 0;
+        
+        buffer.put((byte)(0x80 | count));
+        buffer.put((byte)RtcpReport.PT_RR);
+        buffer.putShort((short)(1 + 6 * count));
+        buffer.putInt(senderSsrc);
+        if (count == 0)
+            return 8;
+        
+        long expected = cycles + maxSeq - baseSeq + 1;
+        long lost = expected - received;
+        long expectedInterval = expected - expectedPrior;
+        long receivedInterval = received - receivedPrior;
+        long lostInterval = expectedInterval - receivedInterval;
+        int fraction = expectedInterval == 0 || lostInterval <= 0 ? 0 : (int)((lostInterval << 8) / expectedInterval);
+        expectedPrior = expected;
+        receivedPrior = received;
+        
+        lost = Math.max(Math.min(lost, 0x7fffff), -0x800000);
+        
+        buffer.putInt(ssrc);
+        buffer.putInt(((fraction & 0xff) << 24) | (int)(lost & 0xffffff));
+        buffer.putInt((int)(cycles + maxSeq));
+        buffer.putInt((int)jitter);
+        buffer.putInt((int)lastSenderReport);
+        buffer.putInt((int)delaySinceLastSenderReport);
+        
+        return 32;
+    }
+    
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * RTP sender. It sends packetized RTP packets to any number of sessions 
+ * over a single datagram channel. The session specific header fields 
+ * (sequence number, timestamp and SSRC) are patched directly into 
+ * the shared packet buffers before each datagram is sent, so the packets 
+ * are neither copied nor packetized again for each session.
+ * 
+ * The channel may be shared by several senders (e.g. by all streams of 
+ * an RTSP server).
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtpSender {
+    
+    private final DatagramChannel channel;
+    private final List<Session> sessions;
+    private final Random random;
+    
+    /**
+     * Create a new RTP sender.
+     * 
+     * @param channel a datagram channel (it is not closed by the sender)
+     */
+    public RtpSender(DatagramChannel channel) {
+        this.channel = channel;
+        this.sessions = new CopyOnWriteArrayList<Session>();
+        this.random = new Random();
+    }
+    
+    /**
+     * Get the underlaying datagram channel.
+     * 
+     * @return datagram channel
+     */
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+    
+    /**
+     * Add a new session with random SSRC, initial sequence number and 
+     * timestamp offset. The session is not active (no packets are sent to 
+     * it) until it is activated using the setActive() method.
+     * 
+     * @param destination destination address of the RTP packets
+     * @return session
+     */
+    public Session addSession(InetSocketAddress destination) {
+        Session result;
+        synchronized (random) {
+            result = new Session(destination, random.nextInt(), random.nextInt(0x10000), random.nextInt() & 0xffffffffl);
+        }
+        sessions.add(result);
+        return result;
+    }
+    
+    /**
+     * Remove the given session.
+     * 
+     * @param session a session
+     */
+    public void removeSession(Session session) {
+        sessions.remove(session);
+    }
+    
+    /**
+     * Get number of sessions.
+     * 
+     * @return number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+    
+    /**
+     * Get all sessions.
+     * 
+     * @return unmodifiable list of sessions
+     */
+    public List<Session> getSessions() {
+        return Collections.unmodifiableList(sessions);
+    }
+    
+    /**
+     * Get number of active sessions.
+     * 
+     * @return number of active sessions
+     */
+    public int getActiveSessionCount() {
+        int result = 0;
+        for (Session s : sessions) {
+            if (s.isActive())
+                result++;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Check whether there is at least one active session.
+     * 
+     * @return true if there is an active session, false otherwise
+     */
+    public boolean hasActiveSession() {
+        for (Session s : sessions) {
+            if (s.isActive())
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Send the given packets to all active sessions.
+     * 
+     * @param batch RTP packets
+     * @return number of sent datagrams
+     * @throws IOException if the packets cannot be sent
+     */
+    public synchronized int send(RtpPacketBatch batch) throws IOException {
+        int result = 0;
+        int count = batch.getPacketCount();
+        long ts;
+        ByteBuffer packet;
+        
+        for (int i = 0; i < count; i++) {
+            packet = batch.getPacket(i);
+            ts = batch.getTimestamp(i);
+            for (Session s : sessions) {
+                if (s.active && send(s, packet, ts))
+                    result++;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Send the given packet to the given session.
+     * 
+     * @param session a session
+     * @param packet an RTP packet
+     * @param ts RTP timestamp relative to the beginning of the stream
+     * @return true if the packet has been sent, false if there was no space
+     * in the socket buffer
+     * @throws IOException if the packet cannot be sent
+     */
+    synchronized boolean send(Session session, ByteBuffer packet, long ts) throws IOException {
+        boolean result;
+        
+        session.lastTimestamp = (ts + session.timestampOffset) & 0xffffffffl;
+        packet.putShort(2, (short)session.sequenceNumber);
+        packet.putInt(4, (int)session.lastTimestamp);
+        packet.putInt(8, session.ssrc);
+        packet.position(0);
+        try {
+            result = channel.send(packet, session.destination) > 0;
+        } finally {
+            packet.position(0);
+        }
+        
+        if (result) {
+            session.packetCount++;
+            session.octetCount += packet.limit() - RtpPacketizer.RTP_HEADER_SIZE;
+        } else
+            session.dropCount++;
+        session.sequenceNumber = (session.sequenceNumber + 1) & 0xffff;
+        
+        return result;
+    }
+    
+    /**
+     * RTP session (a single receiver).
+     */
+    public static class Session {
+        private final InetSocketAddress destination;
+        private final int ssrc;
+        private final long timestampOffset;
+        private volatile boolean active;
+        
+        private volatile int sequenceNumber;
+        private volatile long lastTimestamp;
+        private volatile long packetCount;
+        private volatile long octetCount;
+        private volatile long dropCount;
+        
+        private Session(InetSocketAddress destination, int ssrc, int sequenceNumber, long timestampOffset) {
+            this.destination = destination;
+            this.ssrc = ssrc;
+            this.timestampOffset = timestampOffset;
+            this.active = false;
+            
+            this.sequenceNumber = sequenceNumber;
+            this.lastTimestamp = timestampOffset;
+            this.packetCount = 0;
+            this.octetCount = 0;
+            this.dropCount = 0;
+        }
+        
+        /**
+         * Get destination address.
+         * 
+         * @return destination address
+         */
+        public InetSocketAddress getDestination() {
+            return destination;
+        }
+        
+        /**
+         * Get SSRC of the session.
+         * 
+         * @return SSRC
+         */
+        public int getSsrc() {
+            return ssrc;
+        }
+        
+        /**
+         * Get RTP timestamp offset of the session.
+         * 
+         * @return timestamp offset
+         */
+        public long getTimestampOffset() {
+            return timestampOffset;
+        }
+        
+        /**
+         * Check whether the packets are sent to this session.
+         * 
+         * @return true if the session is active, false otherwise
+         */
+        public boolean isActive() {
+            return active;
+        }
+        
+        /**
+         * Enable or disable sending packets to this session.
+         * 
+         * @param active true to send packets to this session, false otherwise
+         */
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+        
+        /**
+         * Get sequence number of the next packet.
+         * 
+         * @return sequence number
+         */
+        public int getSequenceNumber() {
+            return sequenceNumber;
+        }
+        
+        /**
+         * Get RTP timestamp of the last sent packet.
+         * 
+         * @return RTP timestamp
+         */
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+        
+        /**
+         * Get number of sent packets.
+         * 
+         * @return number of packets
+         */
+        public long getPacketCount() {
+            return packetCount;
+        }
+        
+        /**
+         * Get number of sent payload octets.
+         * 
+         * @return number of octets
+         */
+        public long getOctetCount() {
+            return octetCount;
+        }
+        
+        /**
+         * Get number of packets which were not sent because there was no 
+         * space in the socket buffer (non-blocking channels only).
+         * 
+         * @return number of dropped packets
+         */
+        public long getDropCount() {
+            return dropCount;
+        }
+    }
+    
+}
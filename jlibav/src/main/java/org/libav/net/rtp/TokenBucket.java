@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+/**
+ * Token bucket rate limiter. Tokens are bytes. Instead of rejecting 
+ * the traffic exceeding the rate, the bucket returns the time when 
+ * the traffic conforms to the rate (i.e. the bucket may go into debt), 
+ * so it can be used to schedule packets.
+ * 
+ * @author Ondrej Perutka
+ */
+public class TokenBucket {
+    
+    private volatile long rate;
+    private volatile long burst;
+    
+    private double tokens;
+    private long lastUpdate;
+    
+    /**
+     * Create a new full token bucket.
+     * 
+     * @param rate rate in bytes per second
+     * @param burst bucket size in bytes
+     */
+    public TokenBucket(long rate, long burst) {
+        if (rate <= 0 || burst <= 0)
+            throw new IllegalArgumentException("rate and burst size must be positive");
+        
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastUpdate = System.nanoTime();
+    }
+    
+    /**
+     * Get rate.
+     * 
+     * @return rate in bytes per second
+     */
+    public long getRate() {
+        return rate;
+    }
+    
+    /**
+     * Set rate.
+     * 
+     * @param rate rate in bytes per second
+     */
+    public synchronized void setRate(long rate) {
+        if (rate <= 0)
+            throw new IllegalArgumentException("rate must be positive");
+        
+        refill(System.nanoTime());
+        this.rate = rate;
+    }
+    
+    /**
+     * Get bucket size.
+     * 
+     * @return bucket size in bytes
+     */
+    public long getBurst() {
+        return burst;
+    }
+    
+    /**
+     * Set bucket size.
+     * 
+     * @param burst bucket size in bytes
+     */
+    public synchronized void setBurst(long burst) {
+        if (burst <= 0)
+            throw new IllegalArgumentException("burst size must be positive");
+        
+        this.burst = burst;
+        tokens = Math.min(tokens, burst);
+    }
+    
+    /**
+     * Get number of available tokens.
+     * 
+     * @return available tokens (it is negative if the bucket is in debt)
+     */
+    public synchronized long getTokens() {
+        refill(System.nanoTime());
+        return (long)tokens;
+    }
+    
+    private void refill(long now) {
+        if (now > lastUpdate) {
+            tokens = Math.min(burst, tokens + (now - lastUpdate) * (double)rate / 1e9);
+            lastUpdate = now;
+        }
+    }
+    
+    /**
+     * Take the given number of tokens and return the time when they are
+     * available.
+     * 
+     * @param bytes number of bytes
+     * @param now current System.nanoTime()
+     * @return time (System.nanoTime()) when the given bytes can be sent
+     */
+    public synchronized long reserve(int bytes, long now) {
+        refill(now);
+        tokens -= bytes;
+        if (tokens >= 0)
+            return now;
+        
+        return now + (long)(-tokens * 1e9 / rate);
+    }
+    
+    /**
+     * Check when the given number of tokens will be available without 
+     * taking them.
+     * 
+     * @param bytes number of bytes
+     * @param now current System.nanoTime()
+     * @return time (System.nanoTime()) when the given bytes can be sent
+     */
+    public synchronized long peek(int bytes, long now) {
+        refill(now);
+        if (tokens >= bytes)
+            return now;
+        
+        return now + (long)((bytes - tokens) * 1e9 / rate);
+    }
+    
+}
@@ -64,7 +64,13 @@ public abstract class AbstractMediaStream implements IMediaStream {
         return new DefaultMediaWriter(createRtpUrl(connectionInfo), "rtp");
     }
     
-    private String createRtpUrl(ISingleMediaStream.UnicastConnectionInfo connectionInfo) {
+    /**
+     * Create an RTP URL for the given connection description.
+     * 
+     * @param connectionInfo a connection description
+     * @return RTP URL
+     */
+    protected static String createRtpUrl(ISingleMediaStream.UnicastConnectionInfo connectionInfo) {
         StringBuilder url = new StringBuilder("rtp://");
         url.append(connectionInfo.getClientAddress().getHostAddress());
         url.append(":").append(connectionInfo.getClientRtpPort());
@@ -41,6 +41,18 @@ public class AudioTranscodeStream extends TranscodeStream implements IFrameConsu
     public AudioTranscodeStream(IStreamWriterFactory streamWriterFactory) throws IOException {
         super(streamWriterFactory);
     }
+    
+    /**
+     * Create a new audio transcode stream and keep the given number of 
+     * pre-warmed encoders ready for new clients.
+     * 
+     * @param streamWriterFactory a stream writer factory
+     * @param poolSize number of pre-warmed encoders
+     * @throws IOException if the stream cannot be created
+     */
+    public AudioTranscodeStream(IStreamWriterFactory streamWriterFactory, int poolSize) throws IOException {
+        super(streamWriterFactory, poolSize);
+    }
 
     @Override
     public synchronized UnicastConnectionInfo setupUnicast(String sessionId, InetAddress address, int rtpPort, int rtcpPort) throws IOException {
@@ -128,6 +128,24 @@ public interface IMediaStream {
                 throw new IOException("unable to find a free server port pair");
         }
     
+        /**
+         * Create a new unicast connection info with the given server ports
+         * (e.g. ports of a socket shared by several sessions).
+         * 
+         * @param clientAddress a client address
+         * @param clientRtpPort a client RTP port
+         * @param clientRtcpPort a client RTCP port
+         * @param serverRtpPort a server RTP port
+         * @param serverRtcpPort a server RTCP port
+         */
+        public UnicastConnectionInfo(InetAddress clientAddress, int clientRtpPort, int clientRtcpPort, int serverRtpPort, int serverRtcpPort) {
+            this.clientAddress = clientAddress;
+            this.clientRtpPort = clientRtpPort;
+            this.clientRtcpPort = clientRtcpPort;
+            this.serverRtpPort = serverRtpPort;
+            this.serverRtcpPort = serverRtcpPort;
+        }
+    
         private boolean findFreeServerPortPair() {
             DatagramSocket ds1 = null;
             DatagramSocket ds2 = null;
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp;
+
+import java.io.IOException;
+import org.libav.DefaultMediaEncoder;
+import org.libav.IEncoder;
+import org.libav.IMediaEncoder;
+import org.libav.IMediaWriter;
+import org.libav.LibavException;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PictureType;
+import org.libav.data.IFrameConsumer;
+import org.libav.net.rtp.RtpPacketizer;
+import org.libav.util.Rational;
+import org.libav.video.DecodeMode;
+import org.libav.video.FrameMosaic;
+import org.libav.video.VideoFrameDecoder;
+
+/**
+ * RTSP mosaic (multiviewer) stream. Frames of many video decoders are 
+ * composed into a single FrameMosaic canvas which is encoded once and the 
+ * encoded packets are sent to all clients (see the PacketizedCopyStream).
+ * The canvas size and pixel format are given by the video stream created
+ * by the stream writer factory. The codec of the stream has to be supported
+ * by the RtpPacketizer.
+ * 
+ * @author Ondrej Perutka
+ */
+public class MosaicStream extends PacketizedCopyStream implements IFrameConsumer {
+    
+    private final IMediaEncoder mediaEncoder;
+    private final IEncoder encoder;
+    private final FrameMosaic mosaic;
+    private DecodeMode sourceDecodeMode;
+    private volatile boolean forceKeyFrame;
+    
+    /**
+     * Create a new mosaic stream and start composing the mosaic.
+     * 
+     * @param streamWriterFactory a stream writer factory creating the video 
+     * stream of the mosaic
+     * @param columns number of tile columns
+     * @param rows number of tile rows
+     * @param frameRate frame rate of the mosaic
+     * @throws IOException if the stream cannot be created
+     */
+    public MosaicStream(IStreamWriterFactory streamWriterFactory, int columns, int rows, Rational frameRate) throws IOException {
+        this(createEncoder(streamWriterFactory), columns, rows, frameRate);
+    }
+    
+    private MosaicStream(IMediaEncoder mediaEncoder, int columns, int rows, Rational frameRate) throws IOException {
+        super(mediaEncoder.getMediaWriter().getVideoStream(0));
+        
+        this.mediaEncoder = mediaEncoder;
+        
+        try {
+            IMediaWriter mw = mediaEncoder.getMediaWriter();
+            encoder = mediaEncoder.getVideoStreamEncoder(0);
+            // packets are sent by this stream, there is no muxer output
+            encoder.removePacketConsumer(mw);
+            encoder.addPacketConsumer(this);
+            
+            ICodecContextWrapper cc = encoder.getCodecContext();
+            mosaic = new FrameMosaic(cc.getWidth(), cc.getHeight(), cc.getPixelFormat(), columns, rows);
+        } catch (LibavException ex) {
+            super.free();
+            closeEncoder(mediaEncoder);
+            throw new IOException(ex);
+        }
+        
+        sourceDecodeMode = DecodeMode.FAST;
+        forceKeyFrame = true;
+        
+        mosaic.addFrameConsumer(this);
+        mosaic.start(frameRate);
+    }
+    
+    private static IMediaEncoder createEncoder(IStreamWriterFactory streamWriterFactory) throws IOException {
+        IMediaEncoder me = null;
+        
+        try {
+            me = new DefaultMediaEncoder(null, "rtp");
+            IMediaWriter mw = me.getMediaWriter();
+            mw.setInterleave(false);
+            streamWriterFactory.createWriter(mw);
+            if (mw.getVideoStreamCount() == 0)
+                throw new LibavException("the stream writer factory created no video stream");
+            // the muxer header is never written, so the RTP time base has to
+            // be set here
+            mw.getVideoStream(0).setTimeBase(new Rational(1, 90000));
+            me.openCodecs();
+            if (RtpPacketizer.create(mw.getVideoStream(0), RtpPacketizer.DEFAULT_MAX_PACKET_SIZE) == null)
+                throw new LibavException("unsupported codec: " + mw.getVideoStream(0).getCodecContext().getCodecId());
+        } catch (LibavException ex) {
+            closeEncoder(me);
+            throw new IOException(ex);
+        }
+        
+        return me;
+    }
+    
+    private static void closeEncoder(IMediaEncoder me) {
+        if (me == null)
+            return;
+        
+        try {
+            me.close();
+        } catch (LibavException ex) {
+            // ignore, the original error is reported
+        }
+    }
+    
+    /**
+     * Get the mosaic.
+     * 
+     * @return mosaic
+     */
+    public FrameMosaic getMosaic() {
+        return mosaic;
+    }
+    
+    /**
+     * Get decoding mode set to decoders added using the addSource() method.
+     * 
+     * @return decoding mode or null if it is not changed
+     */
+    public synchronized DecodeMode getSourceDecodeMode() {
+        return sourceDecodeMode;
+    }
+    
+    /**
+     * Set decoding mode set to decoders added using the addSource() method.
+     * The default is DecodeMode.FAST, because the artifacts are mostly lost
+     * in the downscaled tiles.
+     * 
+     * @param sourceDecodeMode decoding mode or null to keep the decoder mode
+     */
+    public synchronized void setSourceDecodeMode(DecodeMode sourceDecodeMode) {
+        this.sourceDecodeMode = sourceDecodeMode;
+    }
+    
+    /**
+     * Draw frames of the given decoder into the given tile. The decoder
+     * should be created with the lowres value returned by the 
+     * getMosaic().getLowres() method to make decoding cheaper.
+     * 
+     * @param tile tile index
+     * @param decoder a video decoder
+     * @throws LibavException if the tile scaler cannot be created
+     */
+    public synchronized void addSource(int tile, VideoFrameDecoder decoder) throws LibavException {
+        mosaic.setSource(tile, decoder);
+        if (sourceDecodeMode != null)
+            decoder.setDecodeMode(sourceDecodeMode);
+        decoder.addFrameConsumer(mosaic.getTile(tile));
+    }
+    
+    /**
+     * Stop drawing frames of the given decoder into the given tile and make
+     * the tile black.
+     * 
+     * @param tile tile index
+     * @param decoder a video decoder
+     */
+    public synchronized void removeSource(int tile, VideoFrameDecoder decoder) {
+        decoder.removeFrameConsumer(mosaic.getTile(tile));
+        mosaic.clearSource(tile);
+    }
+    
+    @Override
+    public synchronized boolean play(String sessionId) {
+        if (!super.play(sessionId))
+            return false;
+        
+        // new clients need a key frame
+        forceKeyFrame = true;
+        
+        return true;
+    }
+    
+    @Override
+    public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+        // nobody is watching, do not waste time encoding
+        if (!getSender().hasActiveSession())
+            return;
+        
+        if (forceKeyFrame) {
+            forceKeyFrame = false;
+            frame.setPictureType(PictureType.I);
+            encoder.processFrame(this, frame);
+            frame.setPictureType(null);
+        } else
+            encoder.processFrame(this, frame);
+    }
+    
+    @Override
+    public synchronized void free() {
+        mosaic.close();
+        super.free();
+        closeEncoder(mediaEncoder);
+    }
+    
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.LibavException;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.data.IPacketConsumer;
+import org.libav.net.rtp.RtcpReceiver;
+import org.libav.net.rtp.RtpPacer;
+import org.libav.net.rtp.RtpPacketBatch;
+import org.libav.net.rtp.RtpPacketizer;
+import org.libav.net.rtp.RtpSender;
+import org.libav.net.sdp.*;
+
+/**
+ * RTSP stream sending packets of the input stream without transcoding. 
+ * Unlike the CopyStream, it does not create a Libav RTP muxer for each 
+ * session. Every input packet is packetized only once by a Java-side RTP
+ * packetizer and the RTP packets are sent to all playing sessions over 
+ * a single datagram channel. RTCP packets of the clients are received on 
+ * the RTCP channel of the stream and they can be routed to an RTCP 
+ * receiver. Both channels may be shared by several streams (e.g. by all 
+ * streams of an RTSP server).
+ * 
+ * @author Ondrej Perutka
+ */
+public class PacketizedCopyStream extends AbstractSingleMediaStream implements ISingleMediaStream, IPacketConsumer {
+    
+    private final IStreamWrapper inputStream;
+    private final RtpPacketizer packetizer;
+    private final RtpSender sender;
+    private final boolean ownChannel;
+    private final int serverPort;
+    private final int serverRtcpPort;
+    private final DatagramChannel rtcpChannel;
+    private RtcpReceiver rtcpReceiver;
+    
+    private final Map<String, RtpSender.Session> sessions;
+    private final SessionDescription sdp;
+    
+    private volatile RtpPacer pacer;
+    
+    /**
+     * Create a new packetized copy stream with its own datagram channel.
+     * 
+     * @param inputStream an input stream
+     * @throws IOException if the codec of the input stream is not supported
+     * or the channel cannot be open
+     */
+    public PacketizedCopyStream(IStreamWrapper inputStream) throws IOException {
+        this(inputStream, openChannelPair(), true);
+    }
+    
+    /**
+     * Create a new packetized copy stream sending RTP packets over the given
+     * shared channel and advertising the given shared RTCP channel. 
+     * The channels are not closed by the stream. The owner of the RTCP 
+     * channel is responsible for receiving the reports, e.g. by adding 
+     * the channel to an RTCP receiver and registering listeners for 
+     * the client addresses (reports are routed by their source address).
+     * 
+     * @param inputStream an input stream
+     * @param channel a bound datagram channel
+     * @param rtcpChannel a bound datagram channel for RTCP (usually bound to
+     * the port following the RTP port)
+     * @throws IOException if the codec of the input stream is not supported
+     */
+    public PacketizedCopyStream(IStreamWrapper inputStream, DatagramChannel channel, DatagramChannel rtcpChannel) throws IOException {
+        this(inputStream, new DatagramChannel[] { channel, rtcpChannel }, false);
+    }
+    
+    private PacketizedCopyStream(IStreamWrapper inputStream, DatagramChannel[] channels, boolean ownChannel) throws IOException {
+        this.inputStream = inputStream;
+        this.packetizer = RtpPacketizer.create(inputStream, RtpPacketizer.DEFAULT_MAX_PACKET_SIZE);
+        this.sender = new RtpSender(channels[0]);
+        this.ownChannel = ownChannel;
+        this.serverPort = channels[0].socket().getLocalPort();
+        this.serverRtcpPort = channels[1].socket().getLocalPort();
+        this.rtcpChannel = channels[1];
+        this.rtcpReceiver = null;
+        this.sessions = new HashMap<String, RtpSender.Session>();
+        this.pacer = null;
+        
+        if (packetizer == null) {
+            if (ownChannel) {
+                channels[0].close();
+                channels[1].close();
+            }
+            throw new IOException("unsupported codec: " + inputStream.getCodecContext().getCodecId());
+        }
+        
+        // prepare the stream session description
+        InetAddress blank = null;
+        try {
+            blank = InetAddress.getByName("0.0.0.0");
+        } catch (UnknownHostException ex) { }
+        
+        sdp = new SessionDescription(blank);
+        sdp.getMediaDescriptions().add(packetizer.createMediaDescription());
+        sdp.setOrigin(new Origin(blank));
+        sdp.setConnectionData(new Connection(blank));
+        sdp.addAttribute(new Attribute("tool", "jlibav"));
+        sdp.addAttribute(new Attribute("recvonly"));
+        sdp.addAttribute(new Attribute("type", "broadcast"));
+        for (MediaDescription md : sdp.getMediaDescriptions()) {
+            md.setConnection(null);
+            md.setPort(0);
+            md.setNumOfPorts(1);
+        }
+    }
+    
+    private static DatagramChannel openChannel(int port) throws IOException {
+        DatagramChannel result = DatagramChannel.open();
+        try {
+            result.socket().bind(new InetSocketAddress(port));
+        } catch (IOException ex) {
+            result.close();
+            throw ex;
+        }
+        
+        return result;
+    }
+    
+    private static DatagramChannel[] openChannelPair() throws IOException {
+        IOException error = null;
+        DatagramChannel rtp;
+        
+        // the RTCP port must follow the RTP port, try a few random ports
+        for (int i = 0; i < 16; i++) {
+            rtp = openChannel(0);
+            try {
+                return new DatagramChannel[] { rtp, openChannel(rtp.socket().getLocalPort() + 1) };
+            } catch (IOException ex) {
+                rtp.close();
+                error = ex;
+            }
+        }
+        
+        throw error;
+    }
+    
+    /**
+     * Get the RTP packetizer.
+     * 
+     * @return packetizer
+     */
+    public RtpPacketizer getPacketizer() {
+        return packetizer;
+    }
+    
+    /**
+     * Get the RTP sender.
+     * 
+     * @return sender
+     */
+    public RtpSender getSender() {
+        return sender;
+    }
+    
+    /**
+     * Get the channel receiving RTCP packets of the clients.
+     * 
+     * @return RTCP channel
+     */
+    public DatagramChannel getRtcpChannel() {
+        return rtcpChannel;
+    }
+    
+    /**
+     * Route RTCP packets of the clients to the given receiver. Listeners for
+     * the particular clients (i.e. the client addresses and RTCP ports 
+     * passed to the setupUnicast() method) must be registered with 
+     * the receiver. RTCP packets are discarded if no receiver is set. 
+     * The receiver can be set only once and only if the stream owns its 
+     * channels (a shared RTCP channel is added to a receiver by its owner).
+     * 
+     * @param rtcpReceiver an RTCP receiver
+     * @throws IOException if the RTCP channel cannot be added to the receiver
+     */
+    public synchronized void setRtcpReceiver(RtcpReceiver rtcpReceiver) throws IOException {
+        if (!ownChannel)
+            throw new IllegalStateException("the RTCP channel is shared");
+        if (this.rtcpReceiver != null)
+            throw new IllegalStateException("the RTCP receiver is already set");
+        
+        rtcpReceiver.add(rtcpChannel);
+        this.rtcpReceiver = rtcpReceiver;
+    }
+    
+    /**
+     * Get the RTP pacer.
+     * 
+     * @return pacer or null if the packets are not paced
+     */
+    public RtpPacer getPacer() {
+        return pacer;
+    }
+    
+    /**
+     * Set RTP pacer. If it is not null, packets of each frame are spread 
+     * over the frame interval instead of being sent in a burst. The pacer 
+     * must use the sender of this stream. The previous pacer (if any) is 
+     * closed.
+     * 
+     * @param pacer a pacer (may be null)
+     */
+    public synchronized void setPacer(RtpPacer pacer) {
+        if (this.pacer != null)
+            this.pacer.close();
+        
+        this.pacer = pacer;
+    }
+    
+    @Override
+    public synchronized UnicastConnectionInfo setupUnicast(String sessionId, InetAddress address, int rtpPort, int rtcpPort) throws IOException {
+        if (sessions.containsKey(sessionId))
+            return null;
+        
+        sessions.put(sessionId, sender.addSession(new InetSocketAddress(address, rtpPort)));
+        
+        return new UnicastConnectionInfo(address, rtpPort, rtcpPort, serverPort, serverRtcpPort);
+    }
+    
+    @Override
+    public synchronized boolean play(String sessionId) {
+        RtpSender.Session session = sessions.get(sessionId);
+        if (session == null)
+            return false;
+        
+        session.setActive(true);
+        
+        return true;
+    }
+    
+    @Override
+    public synchronized boolean pause(String sessionId) {
+        RtpSender.Session session = sessions.get(sessionId);
+        if (session == null)
+            return false;
+        
+        session.setActive(false);
+        
+        return true;
+    }
+    
+    @Override
+    public synchronized void teardown(String sessionId) {
+        RtpSender.Session session = sessions.remove(sessionId);
+        if (session == null)
+            return;
+        
+        sender.removeSession(session);
+        if (pacer != null)
+            pacer.removeSession(session);
+    }
+    
+    @Override
+    public synchronized void free() {
+        for (RtpSender.Session session : sessions.values())
+            sender.removeSession(session);
+        sessions.clear();
+        setPacer(null);
+        
+        if (!ownChannel)
+            return;
+        
+        try {
+            sender.getChannel().close();
+        } catch (IOException ex) {
+            Logger.getLogger(PacketizedCopyStream.class.getName()).log(Level.WARNING, "unable to close the RTP channel", ex);
+        }
+        
+        if (rtcpReceiver != null)
+            rtcpReceiver.close(rtcpChannel);
+        else {
+            try {
+                rtcpChannel.close();
+            } catch (IOException ex) {
+                Logger.getLogger(PacketizedCopyStream.class.getName()).log(Level.WARNING, "unable to close the RTCP channel", ex);
+            }
+        }
+    }
+    
+    @Override
+    public SessionDescription getSessionDescription(String url, Charset charset) {
+        SessionDescription result = sdp.clone();
+        result.addAttribute(new Attribute("charset", charset.name()));
+        result.addAttribute(new Attribute("control", url));
+        
+        return result;
+    }
+    
+    @Override
+    public MediaDescription getMediaDescription(int trackId) {
+        MediaDescription md = sdp.getMediaDescriptions().get(0);
+        md = md.clone();
+        if (trackId >= 0)
+            md.addAttribute(new Attribute("control", "trackId=" + trackId));
+        else
+            md.removeAttribute("control");
+        
+        return md;
+    }
+    
+    @Override
+    public void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+        if (packet.getStreamIndex() != inputStream.getIndex() || !sender.hasActiveSession())
+            return;
+        
+        RtpPacketBatch batch = packetizer.packetize(packet);
+        RtpPacer p = pacer;
+        if (p != null) {
+            p.send(batch);
+            return;
+        }
+        
+        try {
+            sender.send(batch);
+        } catch (IOException ex) {
+            Logger.getLogger(PacketizedCopyStream.class.getName()).log(Level.WARNING, "unable to send RTP packets", ex);
+        } finally {
+            batch.free();
+        }
+    }
+    
+}
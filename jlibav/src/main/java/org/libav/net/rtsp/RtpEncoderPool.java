@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp;
+
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.libav.DefaultMediaEncoder;
+import org.libav.IMediaEncoder;
+import org.libav.IMediaWriter;
+import org.libav.LibavException;
+import org.libav.avutil.IDictionaryWrapper;
+import org.libav.net.sdp.MediaDescription;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Pool of pre-warmed RTP media encoders. Pooled encoders have their streams
+ * created by the given stream writer factory and their codecs open, only 
+ * the RTP output is not open yet, because the destination is not known
+ * until a client sends the SETUP request. Claiming an encoder just opens
+ * the output and writes the header. The pool is refilled by a background
+ * thread.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtpEncoderPool {
+    
+    /**
+     * Default number of pre-warmed encoders.
+     */
+    public static final int DEFAULT_SIZE = 2;
+    
+    private final IStreamWriterFactory streamWriterFactory;
+    private final int size;
+    
+    private final LinkedList<IMediaEncoder> warm;
+    private int pending;
+    private boolean closed;
+    private final ExecutorService refillExecutor;
+    
+    private final MediaDescription mediaDescription;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter hits;
+    private final ICounter misses;
+    private final IHistogram warmUpTime;
+    private final IHistogram claimTime;
+    
+    /**
+     * Create a new pool and pre-warm the first encoder.
+     * 
+     * @param streamWriterFactory a stream writer factory
+     * @param size number of pre-warmed encoders (if it is 0, encoders are
+     * created on demand)
+     * @throws LibavException if an encoder cannot be created
+     */
+    public RtpEncoderPool(IStreamWriterFactory streamWriterFactory, int size) throws LibavException {
+        if (size < 0)
+            throw new IllegalArgumentException("size must not be negative");
+        
+        this.streamWriterFactory = streamWriterFactory;
+        this.size = size;
+        
+        warm = new LinkedList<IMediaEncoder>();
+        pending = 0;
+        closed = false;
+        refillExecutor = Executors.newSingleThreadExecutor(Execution.getThreadFactory(Execution.RTSP_SERVER, "RtpEncoderPoolRefill", true));
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("rtp-encoder-pool");
+        hits = metrics.counter(metricPrefix + "hits");
+        misses = metrics.counter(metricPrefix + "misses");
+        warmUpTime = metrics.histogram(metricPrefix + "warmUpTime");
+        claimTime = metrics.histogram(metricPrefix + "claimTime");
+        metrics.gauge(metricPrefix + "warm", new IGauge() {
+            @Override
+            public long getValue() {
+                return getWarmCount();
+            }
+        });
+        
+        // the first encoder is also used to describe the stream
+        IMediaEncoder me = createEncoder();
+        mediaDescription = SdpGenerator.createMediaDescription(me.getMediaWriter().getStream(0).getCodecContext());
+        if (size > 0)
+            warm.add(me);
+        else
+            closeEncoder(me);
+        
+        refill();
+    }
+    
+    /**
+     * Get media description generated from codec parameters of the pooled 
+     * encoders.
+     * 
+     * @return media description or null if the codec is not supported by 
+     * the SdpGenerator
+     */
+    public MediaDescription getMediaDescription() {
+        return mediaDescription;
+    }
+    
+    /**
+     * Get number of encoders ready to be claimed.
+     * 
+     * @return number of pre-warmed encoders
+     */
+    public synchronized int getWarmCount() {
+        return warm.size();
+    }
+    
+    /**
+     * Take a pre-warmed encoder (or create a new one if there is none), open 
+     * its output and write the header. The caller is responsible for closing
+     * the returned encoder.
+     * 
+     * @param url an RTP URL
+     * @return media encoder
+     * @throws LibavException if the encoder cannot be created or its output
+     * cannot be opened
+     */
+    public IMediaEncoder claim(String url) throws LibavException {
+        return claim(url, null);
+    }
+    
+    /**
+     * Take a pre-warmed encoder (or create a new one if there is none), open 
+     * its output and write the header using the given RTP muxer options.
+     * Options not consumed by the muxer are left in the given dictionary.
+     * The caller is responsible for closing the returned encoder.
+     * 
+     * @param url an RTP URL
+     * @param options RTP muxer options (may be null)
+     * @return media encoder
+     * @throws LibavException if the encoder cannot be created or its output
+     * cannot be opened
+     */
+    public IMediaEncoder claim(String url, IDictionaryWrapper options) throws LibavException {
+        long t = System.nanoTime();
+        IMediaEncoder me;
+        
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("the encoder pool has been closed");
+            me = warm.poll();
+        }
+        
+        if (me == null) {
+            misses.increment();
+            me = createEncoder();
+        } else
+            hits.increment();
+        
+        refill();
+        
+        try {
+            IMediaWriter mw = me.getMediaWriter();
+            mw.getFormatContext().openOutput(url);
+            if (options == null)
+                mw.writeHeader();
+            else
+                mw.getFormatContext().writeHeader(options);
+        } catch (LibavException ex) {
+            closeEncoder(me);
+            throw ex;
+        }
+        
+        claimTime.record((System.nanoTime() - t) / 1000);
+        
+        return me;
+    }
+    
+    /**
+     * Create a new media encoder with open codecs and without an output.
+     * 
+     * @return media encoder
+     * @throws LibavException if the encoder cannot be created
+     */
+    protected IMediaEncoder createEncoder() throws LibavException {
+        long t = System.nanoTime();
+        IMediaEncoder me = new DefaultMediaEncoder(null, "rtp");
+        
+        try {
+            IMediaWriter mw = me.getMediaWriter();
+            mw.setInterleave(false);
+            streamWriterFactory.createWriter(mw);
+            me.openCodecs();
+            for (int i = 0; i < mw.getVideoStreamCount(); i++)
+                me.getVideoStreamEncoder(i);
+            for (int i = 0; i < mw.getAudioStreamCount(); i++)
+                me.getAudioStreamEncoder(i);
+        } catch (LibavException ex) {
+            closeEncoder(me);
+            throw ex;
+        }
+        
+        warmUpTime.record((System.nanoTime() - t) / 1000);
+        
+        return me;
+    }
+    
+    private synchronized void refill() {
+        if (closed)
+            return;
+        
+        while (warm.size() + pending < size) {
+            pending++;
+            refillExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    IMediaEncoder me = null;
+                    try {
+                        me = createEncoder();
+                    } catch (LibavException ex) {
+                        Logger.getLogger(RtpEncoderPool.class.getName()).log(Level.WARNING, "unable to pre-warm an encoder", ex);
+                    }
+                    
+                    addWarm(me);
+                }
+            });
+        }
+    }
+    
+    private void addWarm(IMediaEncoder me) {
+        synchronized (this) {
+            pending--;
+            if (me == null)
+                return;
+            if (!closed) {
+                warm.add(me);
+                return;
+            }
+        }
+        
+        closeEncoder(me);
+    }
+    
+    private static void closeEncoder(IMediaEncoder me) {
+        try {
+            me.close();
+        } catch (LibavException ex) {
+            Logger.getLogger(RtpEncoderPool.class.getName()).log(Level.WARNING, "unable to close a media encoder", ex);
+        }
+    }
+    
+    /**
+     * Close all pre-warmed encoders and stop refilling. Claimed encoders are 
+     * not affected.
+     */
+    public void close() {
+        IMediaEncoder[] mes;
+        
+        synchronized (this) {
+            if (closed)
+                return;
+            
+            closed = true;
+            mes = warm.toArray(new IMediaEncoder[warm.size()]);
+            warm.clear();
+        }
+        
+        refillExecutor.shutdown();
+        for (IMediaEncoder me : mes)
+            closeEncoder(me);
+        
+        metrics.removeAll(metricPrefix);
+    }
+    
+}
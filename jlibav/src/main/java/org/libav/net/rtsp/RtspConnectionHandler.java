@@ -22,16 +22,10 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
 import java.util.TimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.libav.net.NetworkStreamReader;
-import org.libav.net.NetworkStreamWriter;
 import org.libav.net.rtsp.message.*;
 
 /**
@@ -42,7 +36,6 @@ import org.libav.net.rtsp.message.*;
  */
 public class RtspConnectionHandler implements Runnable {
 
-    private static final Pattern uriParsePattern = Pattern.compile("rtsp://([^\\s:/]+)(:([0-9]+))?(/[^\\s?]*)?.*");
     private static final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
     
     private final Charset charset;
@@ -63,42 +56,29 @@ public class RtspConnectionHandler implements Runnable {
     
     @Override
     public void run() {
-        NetworkStreamWriter nsw;
-        NetworkStreamReader nsr;
-        List<String> lines = new ArrayList<String>();
+        RtspMessageWriter writer;
+        RtspMessageReader reader;
+        RtspMessage request;
         RtspRequestHeader header;
-        ContentLengthField cl;
-        String line;
-        byte[] body;
         
         try {
-            nsw = new NetworkStreamWriter(socket.getOutputStream(), charset);
-            nsr = new NetworkStreamReader(socket.getInputStream(), 2048, charset);
+            writer = new RtspMessageWriter(socket.getOutputStream(), charset);
+            reader = new RtspMessageReader(socket.getInputStream(), charset);
             Logger.getLogger(getClass().getName()).log(Level.INFO, "opened connection with client: {0}", socket.getInetAddress().getHostAddress());
             
             do {
-                line = nsr.readLine();
-                if (line == null)
-                    return;
-                
-                lines.clear();
-                while (line != null && !"".equals(line)) {
-                    lines.add(line);
-                    line = nsr.readLine();
-                }
-                
                 header = null;
                 try {
-                    header = RtspRequestHeader.parse(lines.toArray(new String[lines.size()]));
-                    cl = (ContentLengthField)header.getField("content-length");
-                    body = null;
-                    if (cl != null)
-                        nsr.read(body, 0, (int)cl.getLength());
-                    sendResponse(nsw, processRequest(new RtspMessage(header, body)));
+                    request = reader.readRequest();
+                    if (request == null)
+                        return;
+                    
+                    header = (RtspRequestHeader)request.getHeader();
+                    sendResponse(writer, processRequest(request));
                 } catch (ParseException ex) {
-                    sendResponse(nsw, new RtspMessage(400, "Bad Request: " + ex.getMessage(), 0));
+                    sendResponse(writer, new RtspMessage(400, "Bad Request: " + ex.getMessage(), 0));
                 } catch (RtspException ex) {
-                    sendResponse(nsw, ex.getResponse());
+                    sendResponse(writer, ex.getResponse());
                 }
             } while (header != null && !shouldCloseConnection(header));
         } catch (SocketException ex) {
@@ -119,21 +99,31 @@ public class RtspConnectionHandler implements Runnable {
     /**
      * Send the given response to the remote client.
      * 
-     * @param nsw stream writer
+     * @param writer message writer
      * @param response a response
-     * @throws IOException an exception thrown by the stream writer
+     * @throws IOException an exception thrown by the message writer
+     */
+    private void sendResponse(RtspMessageWriter writer, RtspMessage response) throws IOException {
+        if (Logger.getLogger(getClass().getName()).isLoggable(Level.FINE))
+            logMessage("Sending response to the client: ", response);
+        
+        writer.write(response);
+    }
+    
+    /**
+     * Log the given message.
+     * 
+     * @param title log message title
+     * @param message an RTSP message
      */
-    private void sendResponse(NetworkStreamWriter nsw, RtspMessage response) throws IOException {
+    private void logMessage(String title, RtspMessage message) {
         StringBuilder log = new StringBuilder("\n--------------------------------------------------------------------------------\n");
-        log.append("Sending response to the client: ").append(socket.getInetAddress().getHostAddress()).append("\n");
-        log.append(response.getHeader().toString().replace("\r\n", "\n"));
-        if (response.getBody() != null)
-            log.append(response.getBodyText(charset));
+        log.append(title).append(socket.getInetAddress().getHostAddress()).append("\n");
+        log.append(message.getHeader().toString().replace("\r\n", "\n"));
+        if (message.getBody() != null)
+            log.append(message.getBodyText(charset));
         log.append("--------------------------------------------------------------------------------");
-        Logger.getLogger(getClass().getName()).log(Level.INFO, log.toString());
-        
-        nsw.write(response.getRawMessage());
-        nsw.flush();
+        Logger.getLogger(getClass().getName()).log(Level.FINE, log.toString());
     }
     
     /**
@@ -157,13 +147,8 @@ public class RtspConnectionHandler implements Runnable {
      * @return a response to the given request
      */
     private RtspMessage processRequest(RtspMessage request) {
-        StringBuilder log = new StringBuilder("\n--------------------------------------------------------------------------------\n");
-        log.append("Received request from client: ").append(socket.getInetAddress().getHostAddress()).append("\n");
-        log.append(request.getHeader().toString().replace("\r\n", "\n"));
-        if (request.getBody() != null)
-            log.append(request.getBodyText(charset));
-        log.append("--------------------------------------------------------------------------------");
-        Logger.getLogger(getClass().getName()).log(Level.INFO, log.toString());
+        if (Logger.getLogger(getClass().getName()).isLoggable(Level.FINE))
+            logMessage("Received request from client: ", request);
         
         RtspRequestHeader requestHeader = (RtspRequestHeader)request.getHeader();
         
@@ -421,10 +406,30 @@ public class RtspConnectionHandler implements Runnable {
      * given request header
      */
     private IMediaStream getMediaStream(RtspRequestHeader requestHeader) throws RtspException {
-        Matcher m = uriParsePattern.matcher(requestHeader.getUri());
-        if (!m.find())
+        String uri = requestHeader.getUri();
+        int hostStart = uri.indexOf("rtsp://") + 7;
+        int i = hostStart;
+        while (hostStart >= 7 && i < uri.length() && !isHostDelimiter(uri.charAt(i)))
+            i++;
+        if (hostStart < 7 || i == hostStart)
             throw new RtspException(404, "Not found", requestHeader.getCSeq());
-        IMediaStream result = server.getMediaStream(m.group(4));
+        
+        // skip port
+        int j = i + 1;
+        while (i < uri.length() && uri.charAt(i) == ':' && j < uri.length() && Character.isDigit(uri.charAt(j)))
+            j++;
+        if (j > i + 1)
+            i = j;
+        
+        String path = null;
+        if (i < uri.length() && uri.charAt(i) == '/') {
+            j = i;
+            while (j < uri.length() && !Character.isWhitespace(uri.charAt(j)) && uri.charAt(j) != '?')
+                j++;
+            path = uri.substring(i, j);
+        }
+        
+        IMediaStream result = server.getMediaStream(path);
         if (result == null)
             throw new RtspException(404, "Not found", requestHeader.getCSeq());
         
@@ -448,4 +453,8 @@ public class RtspConnectionHandler implements Runnable {
         return (ISingleMediaStream)result;
     }
     
+    private static boolean isHostDelimiter(char c) {
+        return c == '/' || c == ':' || Character.isWhitespace(c);
+    }
+    
 }
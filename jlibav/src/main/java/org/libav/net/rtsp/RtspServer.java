@@ -19,7 +19,15 @@ package org.libav.net.rtsp;
 
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.libav.net.IConnectionHandlerFactory;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
 
 /**
  * Implementation of the IConnectionHandlerFactory which allows to serve RTSP 
@@ -36,7 +44,12 @@ public class RtspServer implements IConnectionHandlerFactory {
     private final Map<String, RtspSession> sessions;
     private final AggregateChangeListener aggregateChangeListener;
     
-    private final Timer sessionChecker;
+    private final ScheduledExecutorService sessionChecker;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter connectionCounter;
+    private final ICounter sessionCounter;
 
     /**
      * Create a new RTSP server.
@@ -47,8 +60,22 @@ public class RtspServer implements IConnectionHandlerFactory {
         sessions = new HashMap<String, RtspSession>();
         aggregateChangeListener = new AggregateChangeListener();
         
-        sessionChecker = new Timer("RTSP session checker", true);
-        sessionChecker.schedule(new SessionChecker(), SESSION_CHECKER_PERIOD, SESSION_CHECKER_PERIOD);
+        sessionChecker = Executors.newSingleThreadScheduledExecutor(
+                Execution.getThreadFactory(Execution.RTSP_SERVER, "RTSP session checker", true));
+        sessionChecker.scheduleWithFixedDelay(new SessionChecker(), SESSION_CHECKER_PERIOD, SESSION_CHECKER_PERIOD, TimeUnit.MILLISECONDS);
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("rtsp-server");
+        connectionCounter = metrics.counter(metricPrefix + "connections");
+        sessionCounter = metrics.counter(metricPrefix + "createdSessions");
+        metrics.gauge(metricPrefix + "activeSessions", new IGauge() {
+            @Override
+            public long getValue() {
+                synchronized (sessions) {
+                    return sessions.size();
+                }
+            }
+        });
     }
     
     private void addAlias(IMediaStream mediaStream, String alias) {
@@ -165,6 +192,7 @@ public class RtspServer implements IConnectionHandlerFactory {
         synchronized (sessions) {
             RtspSession sess = new RtspSession();
             sessions.put(sess.getId(), sess);
+            sessionCounter.increment();
             return sess;
         }
     }
@@ -208,6 +236,7 @@ public class RtspServer implements IConnectionHandlerFactory {
     
     @Override
     public Runnable createConnectionHandler(Socket socket) {
+        connectionCounter.increment();
         return new RtspConnectionHandler(this, socket);
     }
     
@@ -228,9 +257,11 @@ public class RtspServer implements IConnectionHandlerFactory {
                 session.free();
             sessions.clear();
         }
+        
+        metrics.removeAll(metricPrefix);
     }
     
-    private class SessionChecker extends TimerTask {
+    private class SessionChecker implements Runnable {
         @Override
         public void run() {
             List<String> dropIds = new ArrayList<String>();
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp;
+
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.net.sdp.Attribute;
+import org.libav.net.sdp.MediaDescription;
+import org.libav.net.sdp.SessionDescription;
+
+/**
+ * Generator of RTP media descriptions. The media descriptions are created
+ * directly from codec parameters, so there is no need to open an RTP output 
+ * and let the Libav generate the SDP. The payload types and format 
+ * parameters follow the Libav RTP muxer. Codec specific configuration 
+ * derived from the codec extradata is not included.
+ * 
+ * @author Ondrej Perutka
+ */
+public class SdpGenerator {
+    
+    /**
+     * The first dynamic RTP payload type.
+     */
+    public static final int RTP_PT_PRIVATE = 96;
+    
+    /**
+     * Get RTP payload type used by the Libav RTP muxer for the given codec.
+     * 
+     * @param codecContext a codec context
+     * @return payload type
+     */
+    public static int getPayloadType(ICodecContextWrapper codecContext) {
+        CodecID codecId = codecContext.getCodecId();
+        
+        switch (codecId) {
+            case PCM_MULAW: return 0;
+            case PCM_ALAW: return 8;
+            case MP2:
+            case MP3: return 14;
+            case MPEG1VIDEO:
+            case MPEG2VIDEO: return 32;
+            case PCM_S16BE:
+                if (codecContext.getSampleRate() == 44100 && codecContext.getChannels() == 2)
+                    return 10;
+                if (codecContext.getSampleRate() == 44100 && codecContext.getChannels() == 1)
+                    return 11;
+                break;
+            default: break;
+        }
+        
+        return RTP_PT_PRIVATE;
+    }
+    
+    /**
+     * Create an RTP media description for the given codec. The media 
+     * description port is set to 0.
+     * 
+     * @param codecContext a codec context
+     * @return media description or null if the codec is not supported
+     */
+    public static MediaDescription createMediaDescription(ICodecContextWrapper codecContext) {
+        int pt = getPayloadType(codecContext);
+        String media;
+        
+        if (codecContext.getCodecType() == MediaType.VIDEO)
+            media = MediaDescription.MEDIA_VIDEO;
+        else if (codecContext.getCodecType() == MediaType.AUDIO)
+            media = MediaDescription.MEDIA_AUDIO;
+        else
+            return null;
+        
+        MediaDescription result = new MediaDescription(media, 0, "RTP/AVP", Integer.toString(pt));
+        if (codecContext.getBitRate() > 0)
+            result.addBandwidth(SessionDescription.BANDWIDTH_APPLICATION_SPECIFIC, codecContext.getBitRate() / 1000);
+        
+        switch (codecContext.getCodecId()) {
+            case H264:
+                result.addAttribute(new Attribute("rtpmap", pt + " H264/90000"));
+                result.addAttribute(new Attribute("fmtp", pt + " packetization-mode=1"));
+                break;
+            case MPEG4:
+                result.addAttribute(new Attribute("rtpmap", pt + " MP4V-ES/90000"));
+                result.addAttribute(new Attribute("fmtp", pt + " profile-level-id=1"));
+                break;
+            case H263:
+            case H263P:
+                result.addAttribute(new Attribute("rtpmap", pt + " H263-2000/90000"));
+                result.addAttribute(new Attribute("framesize", pt + " " + codecContext.getWidth() + "-" + codecContext.getHeight()));
+                break;
+            case PCM_S16BE:
+                if (pt >= RTP_PT_PRIVATE)
+                    result.addAttribute(new Attribute("rtpmap", pt + " L16/" + codecContext.getSampleRate() + "/" + codecContext.getChannels()));
+                break;
+            case PCM_MULAW:
+            case PCM_ALAW:
+            case MP2:
+            case MP3:
+            case MPEG1VIDEO:
+            case MPEG2VIDEO:
+                break;
+            default:
+                return null;
+        }
+        
+        return result;
+    }
+    
+}
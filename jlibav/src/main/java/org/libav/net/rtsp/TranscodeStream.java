@@ -18,16 +18,25 @@
 package org.libav.net.rtsp;
 
 import java.io.IOException;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.libav.IEncoder;
 import org.libav.IMediaEncoder;
 import org.libav.IMediaWriter;
 import org.libav.LibavException;
+import org.libav.avutil.DictionaryWrapperFactory;
+import org.libav.avutil.IDictionaryWrapper;
+import org.libav.net.rtp.AdaptiveBitRateController;
+import org.libav.net.rtp.EncoderBitRateControl;
+import org.libav.net.rtp.RtcpReceiver;
 import org.libav.net.sdp.*;
 
 /**
@@ -40,9 +49,17 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
     protected final Map<String, IMediaEncoder> mediaEncoders;
     protected final Set<IMediaEncoder> playbackSet;
     protected IStreamWriterFactory streamWriterFactory;
+    protected final RtpEncoderPool encoderPool;
     
     protected SessionDescription sdp;
     
+    private final Map<String, AdaptiveSession> adaptiveSessions;
+    private RtcpReceiver rtcpReceiver;
+    private int minBitRate;
+    private int maxBitRate;
+    private int[] rungs;
+    private final Random random;
+    
     /**
      * Create a new transcode RTSP stream.
      * 
@@ -50,9 +67,31 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
      * @throws IOException if the stream cannot be created
      */
     protected TranscodeStream(IStreamWriterFactory streamWriterFactory) throws IOException {
+        this(streamWriterFactory, RtpEncoderPool.DEFAULT_SIZE);
+    }
+    
+    /**
+     * Create a new transcode RTSP stream and keep the given number of 
+     * pre-warmed encoders ready for new clients.
+     * 
+     * @param streamWriterFactory a stream writer factory
+     * @param poolSize number of pre-warmed encoders
+     * @throws IOException if the stream cannot be created
+     */
+    protected TranscodeStream(IStreamWriterFactory streamWriterFactory, int poolSize) throws IOException {
         this.mediaEncoders = new HashMap<String, IMediaEncoder>();
         this.playbackSet = Collections.synchronizedSet(new HashSet<IMediaEncoder>());
         this.streamWriterFactory = streamWriterFactory;
+        this.adaptiveSessions = new HashMap<String, AdaptiveSession>();
+        this.rtcpReceiver = null;
+        this.rungs = null;
+        this.random = new Random();
+        
+        try {
+            this.encoderPool = new RtpEncoderPool(streamWriterFactory, poolSize);
+        } catch (LibavException ex) {
+            throw new IOException(ex);
+        }
         
         // prepare the stream session description
         InetAddress blank = null;
@@ -60,7 +99,18 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
             blank = InetAddress.getByName("0.0.0.0");
         } catch (UnknownHostException ex) { }
         
-        this.sdp = getLibavSdp();
+        MediaDescription generated = encoderPool.getMediaDescription();
+        if (generated == null) {
+            try {
+                this.sdp = getLibavSdp();
+            } catch (IOException ex) {
+                encoderPool.close();
+                throw ex;
+            }
+        } else {
+            this.sdp = new SessionDescription(blank);
+            this.sdp.getMediaDescriptions().add(generated.clone());
+        }
         this.sdp.setOrigin(new Origin(blank));
         this.sdp.setConnectionData(new Connection(blank));
         this.sdp.addAttribute(new Attribute("tool", "jlibav"));
@@ -73,27 +123,131 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
         }
     }
     
+    /**
+     * Enable adaptive bit rate of sessions set up after this call. RTCP 
+     * receiver reports of each session are received by the given RTCP 
+     * receiver on the server RTCP port advertised to the client (the Libav 
+     * RTP muxer gets another local RTCP port) and the bit rate of the 
+     * session encoder (the first video encoder, or the first audio encoder
+     * if there is no video) is adjusted according to the reported loss.
+     * The encoder is re-opened (and a key frame is sent) on every bit rate
+     * change, so it is recommended to limit the bit rates to a few rungs.
+     * 
+     * @param rtcpReceiver an RTCP receiver or null to disable adaptive bit 
+     * rate
+     * @param minBitRate minimum bit rate
+     * @param maxBitRate maximum bit rate
+     * @param rungs bit rates the sessions can move between (see the 
+     * AdaptiveBitRateController.setRungs() method), the bit rate changes 
+     * continuously if no rung is given
+     */
+    public synchronized void setAdaptiveBitRate(RtcpReceiver rtcpReceiver, int minBitRate, int maxBitRate, int... rungs) {
+        if (rtcpReceiver != null && (minBitRate <= 0 || maxBitRate < minBitRate))
+            throw new IllegalArgumentException("illegal bit rate range");
+        
+        boolean rungInRange = false;
+        for (int i = 0; rungs != null && i < rungs.length; i++)
+            rungInRange |= rungs[i] >= minBitRate && rungs[i] <= maxBitRate;
+        if (rtcpReceiver != null && rungs != null && rungs.length > 0 && !rungInRange)
+            throw new IllegalArgumentException("no rung within the bit rate range");
+        
+        this.rtcpReceiver = rtcpReceiver;
+        this.minBitRate = minBitRate;
+        this.maxBitRate = maxBitRate;
+        this.rungs = rungs == null || rungs.length == 0 ? null : rungs.clone();
+    }
+    
+    /**
+     * Get adaptive bit rate controller of the given session.
+     * 
+     * @param sessionId a session ID
+     * @return controller or null if the session does not use adaptive bit 
+     * rate
+     */
+    public synchronized AdaptiveBitRateController getBitRateController(String sessionId) {
+        AdaptiveSession as = adaptiveSessions.get(sessionId);
+        return as == null ? null : as.controller;
+    }
+    
     @Override
     public synchronized UnicastConnectionInfo setupUnicast(String sessionId, InetAddress address, int rtpPort, int rtcpPort) throws IOException {
         if (mediaEncoders.containsKey(sessionId))
             return null;
         
         UnicastConnectionInfo result;
+        DatagramChannel rtcpChannel = null;
         try {
             result = new UnicastConnectionInfo(address, rtpPort, rtcpPort);
-            IMediaEncoder me = createUnicastMediaEncoder(result);
-            IMediaWriter mw = me.getMediaWriter();
-            mw.setInterleave(false);
-            streamWriterFactory.createWriter(mw);
-            mw.writeHeader();
-            mediaEncoders.put(sessionId, me);
+            if (rtcpReceiver == null)
+                mediaEncoders.put(sessionId, encoderPool.claim(createRtpUrl(result)));
+            else {
+                rtcpChannel = rtcpReceiver.open(result.getServerRtcpPort());
+                UnicastConnectionInfo muxerInfo = new UnicastConnectionInfo(address, rtpPort, rtcpPort, result.getServerRtpPort(), findFreePort());
+                
+                // ask the RTP muxer for a known SSRC, so that the right 
+                // report blocks are used (older muxers ignore the option)
+                int ssrc = 0;
+                while (ssrc == 0)
+                    ssrc = random.nextInt();
+                IDictionaryWrapper options = DictionaryWrapperFactory.getInstance().allocate();
+                IMediaEncoder me;
+                Integer muxerSsrc;
+                try {
+                    options.set("ssrc", Integer.toString(ssrc), 0);
+                    me = encoderPool.claim(createRtpUrl(muxerInfo), options);
+                    muxerSsrc = options.get("ssrc", 0) == null ? ssrc : null;
+                } finally {
+                    options.free();
+                }
+                mediaEncoders.put(sessionId, me);
+                
+                AdaptiveSession as = createAdaptiveSession(me, new InetSocketAddress(address, rtcpPort), rtcpChannel, muxerSsrc);
+                if (as != null)
+                    adaptiveSessions.put(sessionId, as);
+            }
         } catch (Exception ex) {
+            if (rtcpChannel != null)
+                rtcpReceiver.close(rtcpChannel);
             throw new IOException(ex);
         }
         
         return result;
     }
     
+    private AdaptiveSession createAdaptiveSession(IMediaEncoder me, InetSocketAddress source, DatagramChannel channel, Integer ssrc) throws LibavException {
+        IMediaWriter mw = me.getMediaWriter();
+        IEncoder encoder;
+        int clockRate;
+        
+        if (mw.getVideoStreamCount() > 0) {
+            encoder = me.getVideoStreamEncoder(0);
+            clockRate = 90000;
+        } else if (mw.getAudioStreamCount() > 0) {
+            encoder = me.getAudioStreamEncoder(0);
+            clockRate = encoder.getCodecContext().getSampleRate();
+        } else {
+            rtcpReceiver.close(channel);
+            return null;
+        }
+        
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(new EncoderBitRateControl(encoder), clockRate, minBitRate, maxBitRate);
+        if (ssrc != null)
+            controller.setSsrc(ssrc);
+        if (rungs != null)
+            controller.setRungs(rungs);
+        rtcpReceiver.addListener(source, controller);
+        
+        return new AdaptiveSession(rtcpReceiver, channel, source, controller);
+    }
+    
+    private static int findFreePort() throws IOException {
+        DatagramSocket ds = new DatagramSocket();
+        int port = ds.getLocalPort();
+        ds.close();
+        
+        return port;
+    }
+    
     @Override
     public synchronized boolean play(String sessionId) {
         IMediaEncoder me = mediaEncoders.get(sessionId);
@@ -124,6 +278,10 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
         
         teardown(me);
         mediaEncoders.remove(sessionId);
+        
+        AdaptiveSession as = adaptiveSessions.remove(sessionId);
+        if (as != null)
+            as.close();
     }
     
     private void teardown(IMediaEncoder me) {
@@ -137,10 +295,15 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
 
     @Override
     public synchronized void free() {
+        encoderPool.close();
         for (IMediaEncoder me : mediaEncoders.values())
             teardown(me);
         mediaEncoders.clear();
         playbackSet.clear();
+        
+        for (AdaptiveSession as : adaptiveSessions.values())
+            as.close();
+        adaptiveSessions.clear();
     }
 
     @Override
@@ -165,7 +328,8 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
     }
     
     /**
-     * Get session description provided by the Libav.
+     * Get session description provided by the Libav. It is used only if
+     * the SdpGenerator does not support the codec.
      * 
      * @return a session description
      * @throws IOException if the SDP cannot be created for some reason
@@ -197,4 +361,24 @@ public class TranscodeStream extends AbstractSingleMediaStream implements ISingl
         }
     }
     
+    private static class AdaptiveSession {
+        private final RtcpReceiver receiver;
+        private final DatagramChannel channel;
+        private final InetSocketAddress source;
+        private final AdaptiveBitRateController controller;
+        
+        public AdaptiveSession(RtcpReceiver receiver, DatagramChannel channel, InetSocketAddress source, AdaptiveBitRateController controller) {
+            this.receiver = receiver;
+            this.channel = channel;
+            this.source = source;
+            this.controller = controller;
+        }
+        
+        public void close() {
+            receiver.removeListener(source);
+            receiver.close(channel);
+            controller.close();
+        }
+    }
+    
 }
@@ -88,6 +88,27 @@ public abstract class RtspHeader {
         return toString().getBytes(Charset.forName("UTF-8"));
     }
     
+    /**
+     * Append the first line of the message (including the line terminator)
+     * to the given builder. Headers without a first line append nothing.
+     * 
+     * @param bldr a string builder
+     */
+    protected void appendStartLine(StringBuilder bldr) {
+    }
+    
+    /**
+     * Append a text representation of this header to the given builder.
+     * 
+     * @param bldr a string builder
+     */
+    public void appendTo(StringBuilder bldr) {
+        appendStartLine(bldr);
+        for (Field field : fields.values())
+            bldr.append(field.getName()).append(':').append(field.getValueText()).append("\r\n");
+        bldr.append("\r\n");
+    }
+    
     /**
      * Make a text representation of this header.
      * 
@@ -96,9 +117,7 @@ public abstract class RtspHeader {
     @Override
     public String toString() {
         StringBuilder bldr = new StringBuilder();
-        for (Field field : fields.values())
-            bldr.append(field).append("\r\n");
-        bldr.append("\r\n");
+        appendTo(bldr);
         
         return bldr.toString();
     }
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp.message;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import org.libav.net.rtsp.RtspException;
+
+/**
+ * Byte-oriented RTSP message reader. Messages are read from the underlaying
+ * stream in blocks into a reusable buffer and the header is parsed directly 
+ * from the buffer without splitting it into lines or using regular 
+ * expressions. Names of common header fields and methods are shared 
+ * constants, so they are not allocated for every message.
+ * 
+ * Header lines may be terminated by CRLF or LF.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtspMessageReader {
+    
+    /**
+     * Default maximum size of a message header (in bytes).
+     */
+    public static final int DEFAULT_MAX_HEADER_SIZE = 8192;
+    
+    /**
+     * Maximum size of a message body (in bytes).
+     */
+    public static final int MAX_BODY_SIZE = 1024 * 1024;
+    
+    private static final String CSEQ = "CSeq";
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String TRANSPORT = "Transport";
+    private static final String SESSION = "Session";
+    private static final String DATE = "Date";
+    private static final String REQUIRE = "Require";
+    private static final String PROXY_REQUIRE = "Proxy-Require";
+    private static final String UNSUPPORTED = "Unsupported";
+    private static final String CONNECTION = "Connection";
+    
+    private static final String[][] knownNames;
+    private static final String[] knownMethods;
+    
+    static {
+        knownNames = new String[32][];
+        registerNames(CSEQ, CONTENT_LENGTH, TRANSPORT, SESSION, DATE, REQUIRE, 
+                PROXY_REQUIRE, UNSUPPORTED, CONNECTION, "Accept", "Accept-Encoding", 
+                "Accept-Language", "Allow", "Authorization", "Bandwidth", "Blocksize", 
+                "Cache-Control", "Content-Base", "Content-Encoding", "Content-Language", 
+                "Content-Location", "Content-Type", "From", "Host", "If-Modified-Since", 
+                "Last-Modified", "Public", "Range", "Referer", "RTP-Info", "Scale", 
+                "Server", "Speed", "Timestamp", "User-Agent", "Via", "WWW-Authenticate");
+        
+        knownMethods = new String[] { RtspRequestHeader.METHOD_DESCRIBE, RtspRequestHeader.METHOD_OPTIONS, 
+            RtspRequestHeader.METHOD_PAUSE, RtspRequestHeader.METHOD_PLAY, RtspRequestHeader.METHOD_SETUP, 
+            RtspRequestHeader.METHOD_TEARDOWN, RtspRequestHeader.METHOD_GET_PARAMETER, 
+            "SET_PARAMETER", "ANNOUNCE", "RECORD", "REDIRECT" };
+    }
+    
+    private final InputStream in;
+    private final Charset charset;
+    private final byte[] buffer;
+    private int start;
+    private int end;
+    
+    private char[] chars;
+    private final StringBuilder folded;
+    
+    /**
+     * Create a new RTSP message reader using the default maximum header 
+     * size.
+     * 
+     * @param in an input stream
+     * @param charset charset of the header text
+     */
+    public RtspMessageReader(InputStream in, Charset charset) {
+        this(in, DEFAULT_MAX_HEADER_SIZE, charset);
+    }
+    
+    /**
+     * Create a new RTSP message reader.
+     * 
+     * @param in an input stream
+     * @param maxHeaderSize maximum size of a message header (in bytes)
+     * @param charset charset of the header text
+     */
+    public RtspMessageReader(InputStream in, int maxHeaderSize, Charset charset) {
+        this.in = in;
+        this.charset = charset;
+        buffer = new byte[maxHeaderSize];
+        start = 0;
+        end = 0;
+        
+        chars = new char[256];
+        folded = new StringBuilder();
+    }
+    
+    private static void registerNames(String... names) {
+        for (String name : names) {
+            String[] old = knownNames[name.length()];
+            String[] tmp = new String[old == null ? 1 : old.length + 1];
+            if (old != null)
+                System.arraycopy(old, 0, tmp, 0, old.length);
+            tmp[tmp.length - 1] = name;
+            knownNames[name.length()] = tmp;
+        }
+    }
+    
+    /**
+     * Read the next RTSP request. Empty lines preceding the request are 
+     * ignored. If the request header cannot be parsed, the header is skipped
+     * and the next call reads the following message.
+     * 
+     * @return RTSP request or null if the end of stream has been reached
+     * @throws IOException if an IO error occurs or the stream ends in 
+     * the middle of the message body
+     * @throws ParseException if the request header is not valid
+     * @throws RtspException if the RTSP version is not supported
+     */
+    public RtspMessage readRequest() throws IOException, ParseException, RtspException {
+        int headerEnd = readHeader();
+        if (headerEnd < 0)
+            return null;
+        
+        int headerStart = start;
+        start = headerEnd;
+        RtspRequestHeader header = parseRequestHeader(headerStart, headerEnd);
+        
+        byte[] body = null;
+        ContentLengthField cl = (ContentLengthField)header.getField("content-length");
+        if (cl != null && cl.getLength() > 0)
+            body = readBody(cl.getLength());
+        
+        return new RtspMessage(header, body);
+    }
+    
+    private int readHeader() throws IOException, ParseException {
+        int scanned = 0;
+        
+        for (;;) {
+            // skip line terminators between messages
+            while (scanned == 0 && start < end && (buffer[start] == '\r' || buffer[start] == '\n'))
+                start++;
+            
+            if (start < end) {
+                int result = findHeaderEnd(start + scanned);
+                if (result >= 0)
+                    return result;
+                // the terminator may be split between two reads
+                scanned = Math.max(0, end - start - 2);
+            }
+            
+            if (start == 0 && end == buffer.length)
+                throw new ParseException("message header is too large", 0);
+            if (!fill()) {
+                start = end;
+                return -1;
+            }
+        }
+    }
+    
+    private int findHeaderEnd(int from) {
+        for (int i = from; i < end; i++) {
+            if (buffer[i] != '\n')
+                continue;
+            
+            int j = i + 1;
+            if (j < end && buffer[j] == '\r')
+                j++;
+            if (j < end && buffer[j] == '\n')
+                return j + 1;
+        }
+        
+        return -1;
+    }
+    
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n < 0)
+            return false;
+        
+        end += n;
+        return true;
+    }
+    
+    private byte[] readBody(long length) throws IOException, ParseException {
+        if (length > MAX_BODY_SIZE)
+            throw new ParseException("message body is too large", 0);
+        
+        byte[] result = new byte[(int)length];
+        int n = Math.min(end - start, result.length);
+        System.arraycopy(buffer, start, result, 0, n);
+        start += n;
+        
+        while (n < result.length) {
+            int r = in.read(result, n, result.length - n);
+            if (r < 0)
+                throw new EOFException("unexpected end of the message body");
+            n += r;
+        }
+        
+        return result;
+    }
+    
+    private RtspRequestHeader parseRequestHeader(int from, int to) throws ParseException, RtspException {
+        int lineEnd = lineEnd(from, to);
+        
+        int methodEnd = tokenEnd(from, lineEnd);
+        int uriStart = skipSpaces(methodEnd, lineEnd);
+        int uriEnd = tokenEnd(uriStart, lineEnd);
+        int versionStart = skipSpaces(uriEnd, lineEnd);
+        int versionEnd = tokenEnd(versionStart, lineEnd);
+        int slash = indexOf('/', versionStart, versionEnd);
+        if (methodEnd == from || uriEnd == uriStart || slash <= versionStart || slash + 1 == versionEnd || skipSpaces(versionEnd, lineEnd) != lineEnd)
+            throw new ParseException("not a valid request line", 0);
+        
+        if (!equalsIgnoreCase("RTSP", versionStart, slash))
+            throw new ParseException("unsupported protocol: " + decode(versionStart, slash), 0);
+        if (!equalsIgnoreCase("1.0", slash + 1, versionEnd))
+            throw new RtspException(505, "unsupported RTSP version: " + decode(slash + 1, versionEnd), 0);
+        
+        RtspRequestHeader result = new RtspRequestHeader(internMethod(from, methodEnd), decode(uriStart, uriEnd));
+        parseFields(result, nextLine(lineEnd, to), to);
+        
+        return result;
+    }
+    
+    private void parseFields(RtspHeader header, int from, int to) throws ParseException {
+        int line = from;
+        
+        while (line < to) {
+            int lineEnd = lineEnd(line, to);
+            if (lineEnd == line)
+                break;
+            
+            int next = nextLine(lineEnd, to);
+            int colon = indexOf(':', line, lineEnd);
+            int nameEnd = tokenEnd(line, colon < 0 ? lineEnd : colon);
+            if (colon < 0 || nameEnd == line || nameEnd != colon) {
+                // not a header field, skip it including its continuation
+                while (next < to && isSpace(buffer[next]))
+                    next = nextLine(lineEnd(next, to), to);
+                line = next;
+                continue;
+            }
+            
+            int valueStart = skipSpaces(colon + 1, lineEnd);
+            int valueEnd = trimEnd(valueStart, lineEnd);
+            String name = internName(line, nameEnd);
+            
+            if (next < to && isSpace(buffer[next])) {
+                // folded value
+                folded.setLength(0);
+                folded.append(decode(valueStart, valueEnd));
+                while (next < to && isSpace(buffer[next])) {
+                    int contEnd = lineEnd(next, to);
+                    int contStart = skipWhitespace(next, contEnd);
+                    folded.append(decode(contStart, trimEnd(contStart, contEnd)));
+                    next = nextLine(contEnd, to);
+                }
+                header.addField(createField(name, folded.toString()));
+            } else if (name == CSEQ)
+                header.addField(new CSeqField((int)parseNumber(valueStart, valueEnd, Integer.MAX_VALUE)));
+            else if (name == CONTENT_LENGTH)
+                header.addField(new ContentLengthField(parseNumber(valueStart, valueEnd, Long.MAX_VALUE)));
+            else
+                header.addField(createField(name, decode(valueStart, valueEnd)));
+            
+            line = next;
+        }
+    }
+    
+    private static RtspHeader.Field createField(String name, String value) throws ParseException {
+        if (name == CSEQ)
+            return CSeqField.parse(value);
+        else if (name == CONTENT_LENGTH)
+            return ContentLengthField.parse(value);
+        else if (name == TRANSPORT)
+            return TransportField.parse(value);
+        else if (name == SESSION)
+            return SessionField.parse(value);
+        else if (name == DATE)
+            return DateField.parse(value);
+        else if (name == REQUIRE)
+            return RequireField.parse(value);
+        else if (name == PROXY_REQUIRE)
+            return ProxyRequireField.parse(value);
+        else if (name == UNSUPPORTED)
+            return UnsupportedField.parse(value);
+        else if (name == CONNECTION)
+            return ConnectionField.parse(value);
+        
+        return new GenericField(name, value);
+    }
+    
+    private long parseNumber(int from, int to, long max) throws ParseException {
+        if (from == to)
+            throw new ParseException("not a valid number", 0);
+        
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            int d = buffer[i] - '0';
+            if (d < 0 || d > 9 || result > (max - d) / 10)
+                throw new ParseException("not a valid number: " + decode(from, to), 0);
+            result = result * 10 + d;
+        }
+        
+        return result;
+    }
+    
+    private String internName(int from, int to) {
+        int len = to - from;
+        String[] candidates = len < knownNames.length ? knownNames[len] : null;
+        if (candidates != null) {
+            for (String c : candidates) {
+                if (equalsIgnoreCase(c, from, to))
+                    return c;
+            }
+        }
+        
+        return decode(from, to);
+    }
+    
+    private String internMethod(int from, int to) {
+        for (String m : knownMethods) {
+            if (m.length() != to - from)
+                continue;
+            
+            int i = 0;
+            while (i < m.length() && m.charAt(i) == buffer[from + i])
+                i++;
+            if (i == m.length())
+                return m;
+        }
+        
+        return decode(from, to);
+    }
+    
+    private boolean equalsIgnoreCase(String str, int from, int to) {
+        if (str.length() != to - from)
+            return false;
+        
+        for (int i = 0; i < str.length(); i++) {
+            int a = str.charAt(i);
+            int b = buffer[from + i];
+            if (a != b && toLowerCase(a) != toLowerCase(b))
+                return false;
+        }
+        
+        return true;
+    }
+    
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+    
+    private String decode(int from, int to) {
+        int len = to - from;
+        if (chars.length < len)
+            chars = new char[Math.max(len, chars.length * 2)];
+        
+        for (int i = 0; i < len; i++) {
+            byte b = buffer[from + i];
+            if (b < 0) // not an ASCII string
+                return new String(buffer, from, len, charset);
+            chars[i] = (char)b;
+        }
+        
+        return new String(chars, 0, len);
+    }
+    
+    private int lineEnd(int from, int to) {
+        while (from < to && buffer[from] != '\r' && buffer[from] != '\n')
+            from++;
+        
+        return from;
+    }
+    
+    private int nextLine(int lineEnd, int to) {
+        if (lineEnd < to && buffer[lineEnd] == '\r')
+            lineEnd++;
+        if (lineEnd < to && buffer[lineEnd] == '\n')
+            lineEnd++;
+        
+        return lineEnd;
+    }
+    
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c)
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    private int tokenEnd(int from, int to) {
+        while (from < to && !isSpace(buffer[from]))
+            from++;
+        
+        return from;
+    }
+    
+    private int skipSpaces(int from, int to) {
+        while (from < to && isSpace(buffer[from]))
+            from++;
+        
+        return from;
+    }
+    
+    private int skipWhitespace(int from, int to) {
+        while (from < to && buffer[from] >= 0 && buffer[from] <= ' ')
+            from++;
+        
+        return from;
+    }
+    
+    private int trimEnd(int from, int to) {
+        while (to > from && buffer[to - 1] >= 0 && buffer[to - 1] <= ' ')
+            to--;
+        
+        return to;
+    }
+    
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+    
+}
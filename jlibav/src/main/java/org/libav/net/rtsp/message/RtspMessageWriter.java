@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp.message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * RTSP message writer. The message header is formatted into a reusable 
+ * string builder and encoded together with the message body into a reusable
+ * byte buffer, so the whole message is passed to the underlaying stream 
+ * using a single write.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtspMessageWriter {
+    
+    private final OutputStream out;
+    private final Charset charset;
+    private final StringBuilder text;
+    private byte[] buffer;
+    
+    /**
+     * Create a new RTSP message writer.
+     * 
+     * @param out an output stream
+     * @param charset charset of the header text
+     */
+    public RtspMessageWriter(OutputStream out, Charset charset) {
+        this.out = out;
+        this.charset = charset;
+        
+        text = new StringBuilder(512);
+        buffer = new byte[1024];
+    }
+    
+    /**
+     * Write the given message and flush the underlaying stream. The 
+     * Content-Length field of the message header is updated according to 
+     * the message body.
+     * 
+     * @param message an RTSP message
+     * @throws IOException if an IO error occurs
+     */
+    public void write(RtspMessage message) throws IOException {
+        RtspHeader header = message.getHeader();
+        byte[] body = message.getBody();
+        
+        if (body == null)
+            header.removeField("content-length");
+        else
+            header.addField(new ContentLengthField(body.length));
+        
+        text.setLength(0);
+        header.appendTo(text);
+        
+        int len = encode(body == null ? 0 : body.length);
+        if (body != null) {
+            System.arraycopy(body, 0, buffer, len, body.length);
+            len += body.length;
+        }
+        
+        out.write(buffer, 0, len);
+        out.flush();
+    }
+    
+    private int encode(int reserve) {
+        int len = text.length();
+        ensureCapacity(len + reserve);
+        
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) // not an ASCII string
+                return encode(text.toString().getBytes(charset), reserve);
+            buffer[i] = (byte)c;
+        }
+        
+        return len;
+    }
+    
+    private int encode(byte[] data, int reserve) {
+        ensureCapacity(data.length + reserve);
+        System.arraycopy(data, 0, buffer, 0, data.length);
+        return data.length;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity)
+            buffer = new byte[Math.max(capacity, buffer.length * 2)];
+    }
+    
+}
@@ -96,14 +96,9 @@ public class RtspRequestHeader extends RtspHeader {
         this.uri = uri;
     }
     
-    /**
-     * Make a text representation of this header.
-     * 
-     * @return a text representation of this header
-     */
     @Override
-    public String toString() {
-        return method + " " + uri + " RTSP/1.0\r\n" + super.toString();
+    protected void appendStartLine(StringBuilder bldr) {
+        bldr.append(method).append(' ').append(uri).append(" RTSP/1.0\r\n");
     }
     
     /**
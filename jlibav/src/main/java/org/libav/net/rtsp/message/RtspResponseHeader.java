@@ -88,14 +88,9 @@ public class RtspResponseHeader extends RtspHeader {
         this.message = message;
     }
 
-    /**
-     * Make a text representation of this header.
-     * 
-     * @return a text representation of this header
-     */
     @Override
-    public String toString() {
-        return "RTSP/1.0 " + code + " " + message + "\r\n" + super.toString();
+    protected void appendStartLine(StringBuilder bldr) {
+        bldr.append("RTSP/1.0 ").append(code).append(' ').append(message).append("\r\n");
     }
     
     /**
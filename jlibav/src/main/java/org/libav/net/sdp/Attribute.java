@@ -18,8 +18,6 @@
 package org.libav.net.sdp;
 
 import java.text.ParseException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Attribute field parser/builder.
@@ -28,8 +26,6 @@ import java.util.regex.Pattern;
  */
 public class Attribute implements Cloneable {
     
-    private static final Pattern parsePattern = Pattern.compile("^a=([^:\\s]+)(:(.*))?$");
-    
     private String name;
     private String value;
 
@@ -120,11 +116,16 @@ public class Attribute implements Cloneable {
      * @throws ParseException if the given line is not a valid attribute field
      */
     public static Attribute parse(String line) throws ParseException {
-        Matcher m = parsePattern.matcher(line);
-        if (!m.find())
+        if (!line.startsWith("a="))
+            throw new ParseException("not a valid attribute record", 0);
+        
+        int i = 2;
+        while (i < line.length() && line.charAt(i) != ':' && !Character.isWhitespace(line.charAt(i)))
+            i++;
+        if (i == 2 || (i < line.length() && line.charAt(i) != ':'))
             throw new ParseException("not a valid attribute record", 0);
         
-        return new Attribute(m.group(1), m.group(3));
+        return new Attribute(line.substring(2, i), i < line.length() ? line.substring(i + 1) : null);
     }
     
 }
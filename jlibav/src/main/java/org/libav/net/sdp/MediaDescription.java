@@ -369,10 +369,8 @@ public class MediaDescription implements Cloneable {
             else if (lines[offset].startsWith("c="))
                 md.setConnection(Connection.parse(lines[offset]));
             else if (lines[offset].startsWith("b=")) {
-                if (!lines[offset].matches("b=[^:\\s]+:.*"))
-                    throw new ParseException("not a valid bandwidth record", offset);
-                String[] bw = lines[offset].substring(2).split(":");
-                md.addBandwidth(bw[0], Long.parseLong(bw[1]));
+                int separator = SessionDescription.findBandwidthSeparator(lines[offset], offset);
+                md.addBandwidth(lines[offset].substring(2, separator), SessionDescription.parseBandwidthValue(lines[offset], separator));
             } else if (lines[offset].startsWith("k="))
                 md.setKey(Key.parse(lines[offset]));
             else if (lines[offset].startsWith("a="))
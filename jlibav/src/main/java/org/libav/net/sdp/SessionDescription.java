@@ -407,7 +407,7 @@ public class SessionDescription implements Cloneable {
      * @throws ParseException if the given text is not a valid SDP
      */
     public static SessionDescription parse(String sdp) throws ParseException {
-        String[] lines = sdp.split("\r\n");
+        String[] lines = splitLines(sdp);
         int i = 0;
         SessionDescription result = new SessionDescription();
         
@@ -430,10 +430,8 @@ public class SessionDescription implements Cloneable {
                 else if (lines[i].startsWith("c="))
                     result.setConnectionData(Connection.parse(lines[i]));
                 else if (lines[i].startsWith("b=")) {
-                    if (!lines[i].matches("b=[^:\\s]+:.*"))
-                        throw new ParseException("not a valid bandwidth record", i);
-                    String[] bw = lines[i].substring(2).split(":");
-                    result.addBandwidth(bw[0], Long.parseLong(bw[1]));
+                    int separator = findBandwidthSeparator(lines[i], i);
+                    result.addBandwidth(lines[i].substring(2, separator), parseBandwidthValue(lines[i], separator));
                 } else if (lines[i].startsWith("t="))
                     i += TimeDescription.parse(result, lines, i) - 1;
                 else if (lines[i].startsWith("z="))
@@ -452,4 +450,61 @@ public class SessionDescription implements Cloneable {
         return result;
     }
     
+    /**
+     * Split the given text into lines. Lines may be terminated by CRLF or LF
+     * and trailing empty lines are ignored.
+     * 
+     * @param text a text
+     * @return lines
+     */
+    private static String[] splitLines(String text) {
+        List<String> result = new ArrayList<String>();
+        int start = 0;
+        int end;
+        
+        while (start < text.length()) {
+            end = text.indexOf('\n', start);
+            if (end < 0)
+                end = text.length();
+            result.add(text.substring(start, end > start && text.charAt(end - 1) == '\r' ? end - 1 : end));
+            start = end + 1;
+        }
+        
+        while (!result.isEmpty() && result.get(result.size() - 1).length() == 0)
+            result.remove(result.size() - 1);
+        
+        return result.toArray(new String[result.size()]);
+    }
+    
+    /**
+     * Find the colon separating bandwidth type and value in the given 
+     * bandwidth record.
+     * 
+     * @param line a bandwidth record
+     * @param lineIndex line index (used as an error offset)
+     * @return index of the separator
+     * @throws ParseException if the given line is not a valid bandwidth record
+     */
+    static int findBandwidthSeparator(String line, int lineIndex) throws ParseException {
+        int i = 2;
+        while (i < line.length() && line.charAt(i) != ':' && !Character.isWhitespace(line.charAt(i)))
+            i++;
+        if (i == 2 || i == line.length() || line.charAt(i) != ':')
+            throw new ParseException("not a valid bandwidth record", lineIndex);
+        
+        return i;
+    }
+    
+    /**
+     * Parse value of the given bandwidth record.
+     * 
+     * @param line a bandwidth record
+     * @param separator index of the type/value separator
+     * @return bandwidth value
+     */
+    static long parseBandwidthValue(String line, int separator) {
+        int end = line.indexOf(':', separator + 1);
+        return Long.parseLong(line.substring(separator + 1, end < 0 ? line.length() : end));
+    }
+    
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.swscale;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import org.libav.LibavException;
+import org.libav.avutil.PixelFormat;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Process-wide pool of scale contexts. Contexts are keyed by the source and
+ * destination geometry, pixel formats and scaling flags. A borrowed context
+ * is used exclusively by the borrower until it is released back to the pool.
+ * When borrowing, an idle context last used by the calling thread is 
+ * preferred. Idle contexts above the pool capacity are freed in the least 
+ * recently used order.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ScaleContextPool {
+    
+    /**
+     * Default maximum number of idle contexts.
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+    
+    private static final ScaleContextPool instance = new ScaleContextPool(DEFAULT_CAPACITY);
+    
+    private int capacity;
+    private final LinkedList<Entry> idle;
+    private final Map<ScaleContextWrapper, Key> borrowed;
+    
+    private long hits;
+    private long misses;
+    
+    private final ICounter hitCounter;
+    private final ICounter missCounter;
+    private final ICounter evictionCounter;
+    
+    /**
+     * Create a new scale context pool.
+     * 
+     * @param capacity maximum number of idle contexts
+     */
+    public ScaleContextPool(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        
+        this.capacity = capacity;
+        idle = new LinkedList<Entry>();
+        borrowed = new IdentityHashMap<ScaleContextWrapper, Key>();
+        
+        hits = 0;
+        misses = 0;
+        
+        IMetricRegistry metrics = Metrics.getRegistry();
+        String prefix = Metrics.createPrefix("scale-context-pool");
+        hitCounter = metrics.counter(prefix + "hits");
+        missCounter = metrics.counter(prefix + "misses");
+        evictionCounter = metrics.counter(prefix + "evictions");
+        metrics.gauge(prefix + "idle", new IGauge() {
+            @Override
+            public long getValue() {
+                return getIdleCount();
+            }
+        });
+        metrics.gauge(prefix + "borrowed", new IGauge() {
+            @Override
+            public long getValue() {
+                return getBorrowedCount();
+            }
+        });
+    }
+    
+    /**
+     * Get the process-wide instance of this pool.
+     * 
+     * @return scale context pool
+     */
+    public static ScaleContextPool getInstance() {
+        return instance;
+    }
+    
+    /**
+     * Borrow a scale context. The context must be returned using 
+     * the release() method and it must not be freed by the borrower.
+     * 
+     * @param srcWidth source width
+     * @param srcHeight source height
+     * @param srcFormat source pixel format
+     * @param dstWidth destination width
+     * @param dstHeight destination height
+     * @param dstFormat destination pixel format
+     * @param flags scaling flags (see SWScaleLibrary.SWS_ constants)
+     * @return scale context
+     * @throws LibavException if a new context cannot be created
+     */
+    public ScaleContextWrapper borrow(int srcWidth, int srcHeight, PixelFormat srcFormat, int dstWidth, int dstHeight, PixelFormat dstFormat, int flags) throws LibavException {
+        Key key = new Key(srcWidth, srcHeight, srcFormat, dstWidth, dstHeight, dstFormat, flags);
+        long thread = Thread.currentThread().getId();
+        
+        synchronized (this) {
+            Entry found = null;
+            Entry e;
+            
+            // most recently used contexts are at the end
+            Iterator<Entry> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                e = it.next();
+                if (!e.key.equals(key))
+                    continue;
+                if (found == null || e.thread == thread)
+                    found = e;
+                if (e.thread == thread)
+                    break;
+            }
+            
+            if (found != null) {
+                idle.remove(found);
+                borrowed.put(found.context, key);
+                hits++;
+                hitCounter.increment();
+                return found.context;
+            }
+            
+            misses++;
+            missCounter.increment();
+        }
+        
+        // filter initialization is expensive, do not block other threads
+        ScaleContextWrapper result = ScaleContextWrapper.createContext(srcWidth, srcHeight, srcFormat, dstWidth, dstHeight, dstFormat, flags);
+        synchronized (this) {
+            borrowed.put(result, key);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Return a borrowed context back to the pool. Contexts which have not 
+     * been borrowed from this pool are freed.
+     * 
+     * @param context a scale context (it may be null)
+     */
+    public void release(ScaleContextWrapper context) {
+        if (context == null)
+            return;
+        
+        Key key;
+        synchronized (this) {
+            key = borrowed.remove(context);
+            if (key != null) {
+                idle.addLast(new Entry(key, context, Thread.currentThread().getId()));
+                evict(capacity);
+                return;
+            }
+        }
+        
+        context.free();
+    }
+    
+    private void evict(int maxIdle) {
+        while (idle.size() > maxIdle) {
+            idle.removeFirst().context.free();
+            evictionCounter.increment();
+        }
+    }
+    
+    /**
+     * Free all idle contexts.
+     */
+    public synchronized void clear() {
+        evict(0);
+    }
+    
+    /**
+     * Get maximum number of idle contexts.
+     * 
+     * @return capacity
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Set maximum number of idle contexts. The least recently used idle
+     * contexts are freed if there is more idle contexts than the new 
+     * capacity.
+     * 
+     * @param capacity capacity
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        
+        this.capacity = capacity;
+        evict(capacity);
+    }
+    
+    /**
+     * Get number of idle contexts.
+     * 
+     * @return number of idle contexts
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+    
+    /**
+     * Get number of borrowed contexts.
+     * 
+     * @return number of borrowed contexts
+     */
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+    
+    /**
+     * Get number of borrowings satisfied by an idle context.
+     * 
+     * @return number of hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+    
+    /**
+     * Get number of borrowings which required a new context.
+     * 
+     * @return number of misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+    
+    /**
+     * Get ratio of borrowings satisfied by an idle context.
+     * 
+     * @return hit rate (0 if nothing has been borrowed yet)
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double)hits / total;
+    }
+    
+    private static class Entry {
+        private final Key key;
+        private final ScaleContextWrapper context;
+        private final long thread;
+
+        public Entry(Key key, ScaleContextWrapper context, long thread) {
+            this.key = key;
+            this.context = context;
+            this.thread = thread;
+        }
+    }
+    
+    private static class Key {
+        private final int srcWidth;
+        private final int srcHeight;
+        private final PixelFormat srcFormat;
+        private final int dstWidth;
+        private final int dstHeight;
+        private final PixelFormat dstFormat;
+        private final int flags;
+
+        public Key(int srcWidth, int srcHeight, PixelFormat srcFormat, int dstWidth, int dstHeight, PixelFormat dstFormat, int flags) {
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.srcFormat = srcFormat;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+            this.dstFormat = dstFormat;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            
+            Key k = (Key)obj;
+            return srcWidth == k.srcWidth && srcHeight == k.srcHeight && srcFormat == k.srcFormat
+                    && dstWidth == k.dstWidth && dstHeight == k.dstHeight && dstFormat == k.dstFormat
+                    && flags == k.flags;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + srcWidth;
+            hash = 31 * hash + srcHeight;
+            hash = 31 * hash + (srcFormat == null ? 0 : srcFormat.hashCode());
+            hash = 31 * hash + dstWidth;
+            hash = 31 * hash + dstHeight;
+            hash = 31 * hash + (dstFormat == null ? 0 : dstFormat.hashCode());
+            hash = 31 * hash + flags;
+            return hash;
+        }
+    }
+    
+}
@@ -75,6 +75,14 @@ public class ScaleContextWrapper implements IScaleContextWrapper {
         return scaleLib.sws_scale(scaleContext, src.getData(), src.getLineSize(), srcSliceY, srcSliceHeight, dst.getData(), dst.getLineSize());
     }
     
+    @Override
+    public int scale(Pointer<Pointer<Byte>> srcData, Pointer<Integer> srcLineSize, int srcSliceY, int srcSliceHeight, Pointer<Pointer<Byte>> dstData, Pointer<Integer> dstLineSize) throws LibavException {
+        if (scaleContext == null)
+            throw new LibavException("current context has been freed");
+        
+        return scaleLib.sws_scale(scaleContext, srcData, srcLineSize, srcSliceY, srcSliceHeight, dstData, dstLineSize);
+    }
+    
     /**
      * Create SWScale context using given params.
      * 
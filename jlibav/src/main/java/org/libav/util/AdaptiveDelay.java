@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util;
+
+/**
+ * Playout delay controller. The delay grows immediately by the lateness of 
+ * a late frame and it shrinks slowly by a half of the minimum slack observed 
+ * over a window of frames. The delay is always kept within the given bounds.
+ * A fixed delay can be obtained by setting both bounds to the same value.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AdaptiveDelay {
+    
+    /**
+     * Default number of samples observed before the delay is decreased.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    
+    private long delay;
+    private long minDelay;
+    private long maxDelay;
+    private final int windowSize;
+    
+    private long minSlack;
+    private int samples;
+    
+    /**
+     * Create a new fixed delay.
+     * 
+     * @param delay a delay in milliseconds
+     */
+    public AdaptiveDelay(long delay) {
+        this(delay, delay, delay);
+    }
+    
+    /**
+     * Create a new adaptive delay.
+     * 
+     * @param delay initial delay in milliseconds
+     * @param minDelay minimum delay in milliseconds
+     * @param maxDelay maximum delay in milliseconds
+     */
+    public AdaptiveDelay(long delay, long minDelay, long maxDelay) {
+        this(delay, minDelay, maxDelay, DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * Create a new adaptive delay.
+     * 
+     * @param delay initial delay in milliseconds
+     * @param minDelay minimum delay in milliseconds
+     * @param maxDelay maximum delay in milliseconds
+     * @param windowSize number of samples observed before the delay is 
+     * decreased
+     */
+    public AdaptiveDelay(long delay, long minDelay, long maxDelay, int windowSize) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("window size must be positive");
+        
+        this.windowSize = windowSize;
+        reset(delay, minDelay, maxDelay);
+    }
+    
+    /**
+     * Set new bounds and the current delay.
+     * 
+     * @param delay current delay in milliseconds
+     * @param minDelay minimum delay in milliseconds
+     * @param maxDelay maximum delay in milliseconds
+     */
+    public synchronized void reset(long delay, long minDelay, long maxDelay) {
+        if (minDelay < 0 || minDelay > maxDelay)
+            throw new IllegalArgumentException("illegal delay bounds");
+        
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.delay = Math.max(minDelay, Math.min(maxDelay, delay));
+        
+        minSlack = Long.MAX_VALUE;
+        samples = 0;
+    }
+    
+    /**
+     * Get current delay.
+     * 
+     * @return delay in milliseconds
+     */
+    public synchronized long getDelay() {
+        return delay;
+    }
+    
+    /**
+     * Get minimum delay.
+     * 
+     * @return minimum delay in milliseconds
+     */
+    public synchronized long getMinDelay() {
+        return minDelay;
+    }
+    
+    /**
+     * Get maximum delay.
+     * 
+     * @return maximum delay in milliseconds
+     */
+    public synchronized long getMaxDelay() {
+        return maxDelay;
+    }
+    
+    /**
+     * Check whether the delay is fixed.
+     * 
+     * @return true if the delay cannot change, false otherwise
+     */
+    public synchronized boolean isFixed() {
+        return minDelay == maxDelay;
+    }
+    
+    /**
+     * Report time remaining until presentation of a frame.
+     * 
+     * @param slack time in milliseconds between the moment when a frame was
+     * ready and its presentation time (negative if the frame was late)
+     * @return current delay in milliseconds
+     */
+    public synchronized long update(long slack) {
+        if (slack < 0) {
+            delay = Math.min(maxDelay, delay - slack);
+            minSlack = Long.MAX_VALUE;
+            samples = 0;
+            return delay;
+        }
+        
+        minSlack = Math.min(minSlack, slack);
+        if (++samples >= windowSize) {
+            delay = Math.max(minDelay, delay - minSlack / 2);
+            minSlack = Long.MAX_VALUE;
+            samples = 0;
+        }
+        
+        return delay;
+    }
+    
+}
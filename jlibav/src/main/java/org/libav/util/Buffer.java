@@ -119,6 +119,44 @@ public class Buffer<T> {
         notifyAll();
     }
     
+    /**
+     * Put the given elements into this buffer. Wait until there is a free 
+     * space if the buffer is full. Waiting threads are notified once per 
+     * a contiguous block of inserted elements rather than once per element.
+     * 
+     * If the calling thread is interrupted while waiting, the method returns 
+     * the number of elements stored so far and the interrupted status of 
+     * the thread is set again.
+     * 
+     * @param elems elements
+     * @param offset index of the first element to be inserted
+     * @param length number of elements to be inserted
+     * @return number of inserted elements
+     */
+    public synchronized int waitPutAll(T[] elems, int offset, int length) {
+        int result = 0;
+        
+        while (result < length) {
+            while (count == buffer.length) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return result;
+                }
+            }
+            
+            while (result < length && count < buffer.length) {
+                count++;
+                buffer[end] = elems[offset + result++];
+                end = (end + 1) % buffer.length;
+            }
+            notifyAll();
+        }
+        
+        return result;
+    }
+    
     /**
      * Put a new element into this buffer. Doubles the buffer capacity if there
      * is no space to store the given element.
@@ -191,4 +229,17 @@ public class Buffer<T> {
         return (T)buffer[front];
     }
     
+    /**
+     * Get the index-th least recently inserted element but do not remove it.
+     * 
+     * @param index index of the element (0 is the front element)
+     * @return the element or null if there is no such element
+     */
+    public synchronized T peek(int index) {
+        if (index < 0 || index >= count)
+            return null;
+        
+        return (T)buffer[(front + index) % buffer.length];
+    }
+    
 }
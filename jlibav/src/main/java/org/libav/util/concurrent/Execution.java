@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Global execution configuration. Every internal thread of the library is 
+ * created by a thread factory obtained from this class using a component
+ * name. If there is no factory set for a component, the default factory 
+ * is used and if there is no default factory either, the component creates
+ * its threads in the same way as before (a platform thread with a 
+ * component-specific name and daemon flag).
+ * 
+ * Custom factories are responsible for thread names, daemon flags and 
+ * priorities. Components read the configuration at the time they create
+ * their threads, so changes affect only threads created afterwards. Some
+ * components (e.g. the BufferedPacketReader or the Server) also accept 
+ * a thread factory or an executor directly.
+ * 
+ * @author Ondrej Perutka
+ */
+public final class Execution {
+    
+    /**
+     * Packet reader threads (BufferedPacketReader). They block in native 
+     * reads.
+     */
+    public static final String PACKET_READER = "packet-reader";
+    
+    /**
+     * Worker threads of the ReaderScheduler. They block in native reads.
+     */
+    public static final String READER_SCHEDULER = "reader-scheduler";
+    
+    /**
+     * Recorder threads of the TimeShiftBuffer. They block in packet reading.
+     */
+    public static final String TIME_SHIFT_RECORDER = "time-shift-recorder";
+    
+    /**
+     * Stream player threads (DefaultMediaPlayer).
+     */
+    public static final String STREAM_PLAYER = "stream-player";
+    
+    /**
+     * Audio player threads (AudioStreamPlayer).
+     */
+    public static final String AUDIO_PLAYER = "audio-player";
+    
+    /**
+     * Muxing threads of the AsyncMediaWriter. They block in native writes.
+     */
+    public static final String ASYNC_WRITER = "async-writer";
+    
+    /**
+     * Worker threads of asynchronous consumer adapters.
+     */
+    public static final String ASYNC_CONSUMER = "async-consumer";
+    
+    /**
+     * Worker threads of transcoders (SegmentedTranscoder, 
+     * AbrLadderTranscoder).
+     */
+    public static final String TRANSCODER = "transcoder";
+    
+    /**
+     * Worker threads of the ThumbnailExtractor.
+     */
+    public static final String THUMBNAIL_EXTRACTOR = "thumbnail-extractor";
+    
+    /**
+     * Shared worker threads of the ParallelFrameScaler.
+     */
+    public static final String FRAME_SCALER = "frame-scaler";
+    
+    /**
+     * Compositor threads of the FrameMosaic. They also run the mosaic 
+     * encoder.
+     */
+    public static final String MOSAIC = "mosaic";
+    
+    /**
+     * Connection listener threads of the Server.
+     */
+    public static final String CONNECTION_LISTENER = "connection-listener";
+    
+    /**
+     * Connection handler threads of the Server. They block in socket IO.
+     */
+    public static final String CONNECTION_HANDLER = "connection-handler";
+    
+    /**
+     * Background threads of the RTSP server (session checker, RTP encoder 
+     * pool refill).
+     */
+    public static final String RTSP_SERVER = "rtsp-server";
+    
+    /**
+     * Timer threads of the PacingTimer. They send paced RTP packets.
+     */
+    public static final String RTP_PACER = "rtp-pacer";
+    
+    /**
+     * Receiver threads of the RtcpReceiver.
+     */
+    public static final String RTCP_RECEIVER = "rtcp-receiver";
+    
+    private static final Map<String, ThreadFactory> factories = new HashMap<String, ThreadFactory>();
+    private static ThreadFactory defaultFactory = null;
+    
+    private Execution() {
+    }
+    
+    /**
+     * Set the default thread factory used by all components without their
+     * own factory. Pass null to restore the built-in behaviour.
+     * 
+     * @param threadFactory a thread factory
+     */
+    public static synchronized void setDefaultThreadFactory(ThreadFactory threadFactory) {
+        defaultFactory = threadFactory;
+    }
+    
+    /**
+     * Set thread factory for the given component. Pass null to use the 
+     * default thread factory.
+     * 
+     * @param component a component name
+     * @param threadFactory a thread factory
+     */
+    public static synchronized void setThreadFactory(String component, ThreadFactory threadFactory) {
+        if (threadFactory == null)
+            factories.remove(component);
+        else
+            factories.put(component, threadFactory);
+    }
+    
+    /**
+     * Get thread factory configured for the given component.
+     * 
+     * @param component a component name
+     * @return thread factory or null if the component should use the 
+     * built-in one
+     */
+    public static synchronized ThreadFactory getThreadFactory(String component) {
+        ThreadFactory result = factories.get(component);
+        return result == null ? defaultFactory : result;
+    }
+    
+    /**
+     * Get thread factory for the given component. If there is no factory 
+     * configured, a new NamedThreadFactory with the given parameters is 
+     * returned.
+     * 
+     * @param component a component name
+     * @param threadName name of threads created by the built-in factory (it
+     * may contain "%d" for a thread index)
+     * @param daemon daemon flag of threads created by the built-in factory
+     * @return thread factory
+     */
+    public static ThreadFactory getThreadFactory(String component, String threadName, boolean daemon) {
+        ThreadFactory result = getThreadFactory(component);
+        return result == null ? new NamedThreadFactory(threadName, daemon) : result;
+    }
+    
+    /**
+     * Create a new (unstarted) thread for the given component.
+     * 
+     * @param component a component name
+     * @param r a runnable
+     * @param threadName name of the thread if it is created by the built-in
+     * factory
+     * @param daemon daemon flag of the thread if it is created by the 
+     * built-in factory
+     * @return thread
+     */
+    public static Thread newThread(String component, Runnable r, String threadName, boolean daemon) {
+        return newThread(getThreadFactory(component), r, threadName, daemon);
+    }
+    
+    /**
+     * Create a new (unstarted) thread using the given factory.
+     * 
+     * @param threadFactory a thread factory (if it is null, a platform thread
+     * is created)
+     * @param r a runnable
+     * @param threadName name of the thread if the factory is null
+     * @param daemon daemon flag of the thread if the factory is null
+     * @return thread
+     */
+    public static Thread newThread(ThreadFactory threadFactory, Runnable r, String threadName, boolean daemon) {
+        if (threadFactory != null)
+            return threadFactory.newThread(r);
+        
+        Thread result = new Thread(r, threadName);
+        result.setDaemon(daemon);
+        return result;
+    }
+    
+    /**
+     * Get a factory creating virtual threads. Virtual threads are available
+     * on Java 21 and newer only.
+     * 
+     * @param namePrefix prefix of the thread names (an index is appended)
+     * @return virtual thread factory or null if virtual threads are not 
+     * supported by the running JVM
+     */
+    public static ThreadFactory getVirtualThreadFactory(String namePrefix) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory)ofVirtualClass.getMethod("factory").invoke(builder);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * Check whether the running JVM supports virtual threads.
+     * 
+     * @return true if virtual threads are supported, false otherwise
+     */
+    public static boolean isVirtualThreadSupported() {
+        return getVirtualThreadFactory("virtual-") != null;
+    }
+    
+    /**
+     * Use virtual threads for the components blocking mainly in IO (packet
+     * readers, async writers and connection handlers). 
+     * 
+     * Note that native calls pin the carrier thread of a virtual thread. It 
+     * works well for inputs which do not block for long in native reads
+     * (e.g. files), a stalled network input pins its carrier thread until
+     * the read returns. Packet readers wait for a free buffer space on lock
+     * conditions, the other components may still wait inside monitors which
+     * pins the carrier thread on JVMs without JEP 491 (before Java 24).
+     * 
+     * @return true if virtual threads are used, false if they are not 
+     * supported by the running JVM
+     */
+    public static synchronized boolean enableVirtualThreads() {
+        String[] components = new String[] { PACKET_READER, ASYNC_WRITER, CONNECTION_HANDLER };
+        for (String component : components) {
+            ThreadFactory tf = getVirtualThreadFactory(component + "-");
+            if (tf == null) {
+                Logger.getLogger(Execution.class.getName()).log(Level.WARNING, "virtual threads are not supported by this JVM");
+                return false;
+            }
+            factories.put(component, tf);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Remove all configured thread factories.
+     */
+    public static synchronized void reset() {
+        factories.clear();
+        defaultFactory = null;
+    }
+    
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory creating platform threads with the given name. If the name
+ * contains "%d", it is replaced with a thread index (starting from zero).
+ * 
+ * @author Ondrej Perutka
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    
+    private final String name;
+    private final boolean daemon;
+    private final int priority;
+    private final AtomicInteger index;
+    
+    /**
+     * Create a new thread factory.
+     * 
+     * @param name thread name (may contain "%d" for a thread index)
+     * @param daemon daemon flag of the created threads
+     */
+    public NamedThreadFactory(String name, boolean daemon) {
+        this(name, daemon, Thread.NORM_PRIORITY);
+    }
+    
+    /**
+     * Create a new thread factory.
+     * 
+     * @param name thread name (may contain "%d" for a thread index)
+     * @param daemon daemon flag of the created threads
+     * @param priority priority of the created threads
+     */
+    public NamedThreadFactory(String name, boolean daemon, int priority) {
+        this.name = name;
+        this.daemon = daemon;
+        this.priority = priority;
+        this.index = new AtomicInteger();
+    }
+    
+    @Override
+    public Thread newThread(Runnable r) {
+        String tName = name.contains("%d") ? name.replace("%d", Integer.toString(index.getAndIncrement())) : name;
+        Thread t = new Thread(r, tName);
+        t.setDaemon(daemon);
+        if (t.getPriority() != priority)
+            t.setPriority(priority);
+        
+        return t;
+    }
+    
+}
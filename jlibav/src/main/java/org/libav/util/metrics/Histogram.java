@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with logarithmic buckets. Values below 64 are stored
+ * exactly, larger values are stored in buckets with relative width of 1/32
+ * (i.e. every power of two is split into 32 linear sub-buckets). It covers 
+ * the whole range of non-negative long values using less than 2000 
+ * counters.
+ * 
+ * @author Ondrej Perutka
+ */
+public class Histogram implements IHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    public Histogram() {
+        counts = new AtomicLongArray(BUCKET_COUNT);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        min = new AtomicLong(Long.MAX_VALUE);
+        max = new AtomicLong(Long.MIN_VALUE);
+    }
+    
+    /**
+     * Get bucket index for the given value.
+     * 
+     * @param value a non-negative value
+     * @return bucket index
+     */
+    static int getBucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int)value;
+        
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+    
+    /**
+     * Get the largest value stored in the bucket with the given index.
+     * 
+     * @param index a bucket index
+     * @return the largest value of the bucket
+     */
+    static long getBucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index - shift * SUB_BUCKETS;
+        
+        return ((mantissa + 1) << shift) - 1;
+    }
+    
+    @Override
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        
+        counts.incrementAndGet(getBucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        
+        long m;
+        while (value < (m = min.get()) && !min.compareAndSet(m, value));
+        while (value > (m = max.get()) && !max.compareAndSet(m, value));
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    @Override
+    public long getMax() {
+        return count.get() == 0 ? 0 : max.get();
+    }
+
+    @Override
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double)sum.get() / c;
+    }
+
+    @Override
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0)
+            return 0;
+        
+        long rank = (long)Math.ceil(Math.max(0, Math.min(100, percentile)) * c / 100.0);
+        if (rank < 1)
+            rank = 1;
+        
+        long acc = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            acc += counts.get(i);
+            if (acc >= rank)
+                return Math.min(getBucketUpperBound(i), getMax());
+        }
+        
+        return getMax();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+    
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+/**
+ * Monotonic counter.
+ * 
+ * @author Ondrej Perutka
+ */
+public interface ICounter {
+    
+    /**
+     * Increment the counter by one.
+     */
+    void increment();
+    
+    /**
+     * Add the given value to the counter.
+     * 
+     * @param n a value
+     */
+    void add(long n);
+    
+    /**
+     * Get current value of the counter.
+     * 
+     * @return current value
+     */
+    long getCount();
+    
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+/**
+ * Histogram of recorded values (e.g. latencies in microseconds).
+ * 
+ * @author Ondrej Perutka
+ */
+public interface IHistogram {
+    
+    /**
+     * Record a value. Negative values are recorded as zeros.
+     * 
+     * @param value a value
+     */
+    void record(long value);
+    
+    /**
+     * Get number of recorded values.
+     * 
+     * @return number of recorded values
+     */
+    long getCount();
+    
+    /**
+     * Get the smallest recorded value.
+     * 
+     * @return the smallest recorded value or 0 if there are no values
+     */
+    long getMin();
+    
+    /**
+     * Get the largest recorded value.
+     * 
+     * @return the largest recorded value or 0 if there are no values
+     */
+    long getMax();
+    
+    /**
+     * Get mean of the recorded values.
+     * 
+     * @return mean or 0 if there are no values
+     */
+    double getMean();
+    
+    /**
+     * Get value at the given percentile. The result is an upper bound of
+     * the value range containing the percentile.
+     * 
+     * @param percentile a percentile (0 - 100)
+     * @return value at the given percentile or 0 if there are no values
+     */
+    long getPercentile(double percentile);
+    
+    /**
+     * Drop all recorded values.
+     */
+    void reset();
+    
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import java.util.Set;
+
+/**
+ * Metric registry interface. Implement this interface to forward metrics
+ * into a custom monitoring system.
+ * 
+ * Metrics are identified by dot-separated names. Instrumented objects 
+ * register their metrics under a unique prefix (e.g. "reader-1.") and remove
+ * all of them using the removeAll() method when they are closed.
+ * 
+ * @author Ondrej Perutka
+ */
+public interface IMetricRegistry {
+    
+    /**
+     * Check whether this registry collects metrics. Instrumented code may
+     * skip expensive measurements (e.g. timing) if it returns false.
+     * 
+     * @return true if the metrics are collected, false otherwise
+     */
+    boolean isEnabled();
+    
+    /**
+     * Get counter with the given name. The counter is created if it does not
+     * exist.
+     * 
+     * @param name a metric name
+     * @return counter
+     */
+    ICounter counter(String name);
+    
+    /**
+     * Get histogram with the given name. The histogram is created if it does
+     * not exist.
+     * 
+     * @param name a metric name
+     * @return histogram
+     */
+    IHistogram histogram(String name);
+    
+    /**
+     * Register a gauge under the given name. Any previously registered gauge
+     * with the same name is replaced.
+     * 
+     * @param name a metric name
+     * @param gauge a gauge
+     */
+    void gauge(String name, IGauge gauge);
+    
+    /**
+     * Get metric with the given name.
+     * 
+     * @param name a metric name
+     * @return ICounter, IHistogram, IGauge or null if there is no such metric
+     */
+    Object get(String name);
+    
+    /**
+     * Get names of all registered metrics.
+     * 
+     * @return set of metric names
+     */
+    Set<String> getNames();
+    
+    /**
+     * Remove metric with the given name.
+     * 
+     * @param name a metric name
+     */
+    void remove(String name);
+    
+    /**
+     * Remove all metrics whose names start with the given prefix.
+     * 
+     * @param prefix a name prefix
+     */
+    void removeAll(String prefix);
+    
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Default in-memory metric registry.
+ * 
+ * @author Ondrej Perutka
+ */
+public class MetricRegistry implements IMetricRegistry {
+    
+    private final ConcurrentMap<String, Object> metrics;
+
+    public MetricRegistry() {
+        metrics = new ConcurrentHashMap<String, Object>();
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public ICounter counter(String name) {
+        Object result = metrics.get(name);
+        if (result == null) {
+            result = metrics.putIfAbsent(name, new Counter());
+            if (result == null)
+                result = metrics.get(name);
+        }
+        
+        if (!(result instanceof ICounter))
+            throw new IllegalArgumentException("metric " + name + " is not a counter");
+        
+        return (ICounter)result;
+    }
+
+    @Override
+    public IHistogram histogram(String name) {
+        Object result = metrics.get(name);
+        if (result == null) {
+            result = metrics.putIfAbsent(name, new Histogram());
+            if (result == null)
+                result = metrics.get(name);
+        }
+        
+        if (!(result instanceof IHistogram))
+            throw new IllegalArgumentException("metric " + name + " is not a histogram");
+        
+        return (IHistogram)result;
+    }
+
+    @Override
+    public void gauge(String name, IGauge gauge) {
+        metrics.put(name, gauge);
+    }
+
+    @Override
+    public Object get(String name) {
+        return metrics.get(name);
+    }
+
+    @Override
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(new HashSet<String>(metrics.keySet()));
+    }
+
+    @Override
+    public void remove(String name) {
+        metrics.remove(name);
+    }
+
+    @Override
+    public void removeAll(String prefix) {
+        Iterator<String> it = metrics.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix))
+                it.remove();
+        }
+    }
+    
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only dynamic MBean exposing all metrics of the current registry.
+ * Counters and gauges are exposed as single attributes, histograms are 
+ * exposed as a group of attributes (name.count, name.mean, name.p50, ...).
+ * 
+ * @author Ondrej Perutka
+ */
+class MetricRegistryMBean implements DynamicMBean {
+    
+    private static final String[] HISTOGRAM_ATTRIBUTES = new String[] { "count", "min", "mean", "p50", "p90", "p99", "p999", "max" };
+    
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        IMetricRegistry registry = Metrics.getRegistry();
+        Object metric = registry.get(attribute);
+        if (metric instanceof ICounter)
+            return ((ICounter)metric).getCount();
+        else if (metric instanceof IGauge)
+            return ((IGauge)metric).getValue();
+        
+        int i = attribute.lastIndexOf('.');
+        if (i > 0) {
+            metric = registry.get(attribute.substring(0, i));
+            if (metric instanceof IHistogram)
+                return getHistogramAttribute((IHistogram)metric, attribute.substring(i + 1));
+        }
+        
+        throw new AttributeNotFoundException(attribute);
+    }
+    
+    private Object getHistogramAttribute(IHistogram histogram, String attribute) throws AttributeNotFoundException {
+        if ("count".equals(attribute))
+            return histogram.getCount();
+        else if ("min".equals(attribute))
+            return histogram.getMin();
+        else if ("mean".equals(attribute))
+            return histogram.getMean();
+        else if ("p50".equals(attribute))
+            return histogram.getPercentile(50);
+        else if ("p90".equals(attribute))
+            return histogram.getPercentile(90);
+        else if ("p99".equals(attribute))
+            return histogram.getPercentile(99);
+        else if ("p999".equals(attribute))
+            return histogram.getPercentile(99.9);
+        else if ("max".equals(attribute))
+            return histogram.getMax();
+        
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("all attributes are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList result = new AttributeList();
+        for (String name : attributes) {
+            try {
+                result.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException ex) {
+            }
+        }
+        
+        return result;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        IMetricRegistry registry = Metrics.getRegistry();
+        Set<String> names = new TreeSet<String>(registry.getNames());
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        Object metric;
+        
+        for (String name : names) {
+            metric = registry.get(name);
+            if (metric instanceof IHistogram) {
+                for (String attr : HISTOGRAM_ATTRIBUTES)
+                    attributes.add(new MBeanAttributeInfo(name + "." + attr, "mean".equals(attr) ? "double" : "long", name + " " + attr, true, false, false));
+            } else if (metric != null)
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        
+        return new MBeanInfo(getClass().getName(), "Libav metrics", attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+    }
+    
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Global access point to the metric registry. Metrics are disabled by 
+ * default. Call setRegistry() (or enable()) before creating the objects 
+ * you want to monitor; the objects use the registry which was set at 
+ * the time of their creation.
+ * 
+ * @author Ondrej Perutka
+ */
+public final class Metrics {
+    
+    /**
+     * Default JMX object name of the registry MBean.
+     */
+    public static final String DEFAULT_OBJECT_NAME = "org.libav:type=Metrics";
+    
+    private static volatile IMetricRegistry registry = NullMetricRegistry.getInstance();
+    private static final AtomicLong idGenerator = new AtomicLong();
+    
+    private static ObjectName mbeanName = null;
+
+    private Metrics() {
+    }
+    
+    /**
+     * Get current metric registry.
+     * 
+     * @return metric registry
+     */
+    public static IMetricRegistry getRegistry() {
+        return registry;
+    }
+    
+    /**
+     * Set metric registry. Pass null to disable the metrics.
+     * 
+     * @param registry a metric registry
+     */
+    public static void setRegistry(IMetricRegistry registry) {
+        Metrics.registry = registry == null ? NullMetricRegistry.getInstance() : registry;
+    }
+    
+    /**
+     * Enable metrics using the default in-memory registry (if there is no 
+     * registry set already).
+     * 
+     * @return current metric registry
+     */
+    public static synchronized IMetricRegistry enable() {
+        if (!registry.isEnabled())
+            registry = new MetricRegistry();
+        
+        return registry;
+    }
+    
+    /**
+     * Check whether the metrics are enabled.
+     * 
+     * @return true if the metrics are enabled, false otherwise
+     */
+    public static boolean isEnabled() {
+        return registry.isEnabled();
+    }
+    
+    /**
+     * Create a unique metric name prefix for an instrumented object 
+     * (e.g. "reader-12.").
+     * 
+     * @param type an object type
+     * @return metric name prefix
+     */
+    public static String createPrefix(String type) {
+        return type + "-" + idGenerator.incrementAndGet() + ".";
+    }
+    
+    /**
+     * Expose the current registry through JMX using the default object name.
+     * 
+     * @throws JMException if the registration fails
+     */
+    public static void registerMBean() throws JMException {
+        registerMBean(DEFAULT_OBJECT_NAME);
+    }
+    
+    /**
+     * Expose the current registry through JMX. The MBean always reflects
+     * the registry which is current at the time of the attribute access.
+     * 
+     * @param objectName a JMX object name
+     * @throws JMException if the registration fails
+     */
+    public static synchronized void registerMBean(String objectName) throws JMException {
+        unregisterMBean();
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(objectName);
+        server.registerMBean(new MetricRegistryMBean(), name);
+        mbeanName = name;
+    }
+    
+    /**
+     * Remove the registry MBean.
+     * 
+     * @throws JMException if the MBean cannot be unregistered
+     */
+    public static synchronized void unregisterMBean() throws JMException {
+        if (mbeanName == null)
+            return;
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(mbeanName))
+            server.unregisterMBean(mbeanName);
+        mbeanName = null;
+    }
+    
+}
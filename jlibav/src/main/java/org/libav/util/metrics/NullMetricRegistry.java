@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Metric registry which does not collect anything. It is used when 
+ * the metrics are disabled; all its metrics are shared no-op instances.
+ * 
+ * @author Ondrej Perutka
+ */
+public final class NullMetricRegistry implements IMetricRegistry {
+    
+    private static final NullMetricRegistry instance = new NullMetricRegistry();
+    
+    private static final ICounter nullCounter = new ICounter() {
+        @Override
+        public void increment() {
+        }
+
+        @Override
+        public void add(long n) {
+        }
+
+        @Override
+        public long getCount() {
+            return 0;
+        }
+    };
+    
+    private static final IHistogram nullHistogram = new IHistogram() {
+        @Override
+        public void record(long value) {
+        }
+
+        @Override
+        public long getCount() {
+            return 0;
+        }
+
+        @Override
+        public long getMin() {
+            return 0;
+        }
+
+        @Override
+        public long getMax() {
+            return 0;
+        }
+
+        @Override
+        public double getMean() {
+            return 0;
+        }
+
+        @Override
+        public long getPercentile(double percentile) {
+            return 0;
+        }
+
+        @Override
+        public void reset() {
+        }
+    };
+
+    private NullMetricRegistry() {
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public ICounter counter(String name) {
+        return nullCounter;
+    }
+
+    @Override
+    public IHistogram histogram(String name) {
+        return nullHistogram;
+    }
+
+    @Override
+    public void gauge(String name, IGauge gauge) {
+    }
+
+    @Override
+    public Object get(String name) {
+        return null;
+    }
+
+    @Override
+    public Set<String> getNames() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void remove(String name) {
+    }
+
+    @Override
+    public void removeAll(String prefix) {
+    }
+    
+    /**
+     * Get instance of this registry.
+     * 
+     * @return instance of this registry
+     */
+    public static NullMetricRegistry getInstance() {
+        return instance;
+    }
+    
+}
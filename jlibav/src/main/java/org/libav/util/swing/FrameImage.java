@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.swing;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import org.libav.LibavException;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+
+/**
+ * RGB picture which can be accessed both as a native frame and as 
+ * a BufferedImage. The raster of the image reads the native picture data 
+ * directly, so a scaler can write into the frame returned by the getFrame()
+ * method and the pixels are available through the image without any copy.
+ * 
+ * The image raster is not backed by a Java array, so Java2D cannot 
+ * accelerate drawing of the image. It is intended for pixel access 
+ * (analytics) rather than for painting.
+ * 
+ * @author Ondrej Perutka
+ */
+public class FrameImage {
+    
+    private static final PixelFormat pixelFormat;
+    
+    static {
+        if (ByteOrder.BIG_ENDIAN.equals(ByteOrder.nativeOrder()))
+            pixelFormat = PixelFormat.ARGB;
+        else
+            pixelFormat = PixelFormat.BGRA;
+    }
+    
+    private final int width;
+    private final int height;
+    private IFrameWrapper picture;
+    private final BufferedImage image;
+    
+    /**
+     * Allocate a new frame image.
+     * 
+     * @param width image width
+     * @param height image height
+     * @throws LibavException if the native picture cannot be allocated
+     */
+    public FrameImage(int width, int height) throws LibavException {
+        this.width = width;
+        this.height = height;
+        
+        picture = FrameWrapperFactory.getInstance().allocPicture(pixelFormat, width, height);
+        
+        int stride = picture.getLineSize().get() / 4;
+        IntBuffer pixels = picture.getData().get().getByteBuffer((long)stride * 4 * height).order(ByteOrder.nativeOrder()).asIntBuffer();
+        DataBuffer db = new DirectDataBufferInt(pixels);
+        int[] masks = new int[] { 0x00ff0000, 0x0000ff00, 0x000000ff };
+        SampleModel sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, stride, masks);
+        WritableRaster wr = Raster.createWritableRaster(sm, db, new Point());
+        image = new BufferedImage(new DirectColorModel(24, 0x00ff0000, 0x0000ff00, 0x000000ff), wr, false, null);
+    }
+    
+    /**
+     * Get pixel format of the native frame. It is a 32-bit RGB format whose
+     * pixels are read as 0xAARRGGBB integers on the current platform.
+     * 
+     * @return pixel format
+     */
+    public static PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+    
+    /**
+     * Get image width.
+     * 
+     * @return image width
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Get image height.
+     * 
+     * @return image height
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Get the native frame. It can be used as a destination picture of 
+     * a scale context.
+     * 
+     * @return native frame
+     */
+    public IFrameWrapper getFrame() {
+        return picture;
+    }
+    
+    /**
+     * Get the image backed by the native frame data. The image must not be 
+     * used after this object is freed.
+     * 
+     * @return image
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+    
+    /**
+     * Free the native picture.
+     */
+    public synchronized void free() {
+        if (picture != null)
+            picture.free();
+        
+        picture = null;
+    }
+    
+    /**
+     * Check whether the native picture has been freed.
+     * 
+     * @return true if it has been freed, false otherwise
+     */
+    public synchronized boolean isFreed() {
+        return picture == null;
+    }
+    
+    private static class DirectDataBufferInt extends DataBuffer {
+        private final IntBuffer buffer;
+        
+        public DirectDataBufferInt(IntBuffer buffer) {
+            super(DataBuffer.TYPE_INT, buffer.capacity());
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public int getElem(int bank, int i) {
+            return buffer.get(i);
+        }
+        
+        @Override
+        public void setElem(int bank, int i, int val) {
+            buffer.put(i, val);
+        }
+    }
+    
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.swing;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import org.libav.LibavException;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IGauge;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Process-wide pool of frame images keyed by their size. Idle images above
+ * the pool capacity are freed in the least recently used order.
+ * 
+ * @author Ondrej Perutka
+ */
+public class FrameImagePool {
+    
+    /**
+     * Default maximum number of idle images.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+    
+    private static final FrameImagePool instance = new FrameImagePool(DEFAULT_CAPACITY);
+    
+    private int capacity;
+    private final LinkedList<FrameImage> idle;
+    private final Set<FrameImage> borrowed;
+    
+    private final ICounter hitCounter;
+    private final ICounter missCounter;
+    
+    /**
+     * Create a new frame image pool.
+     * 
+     * @param capacity maximum number of idle images
+     */
+    public FrameImagePool(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        
+        this.capacity = capacity;
+        idle = new LinkedList<FrameImage>();
+        borrowed = Collections.newSetFromMap(new IdentityHashMap<FrameImage, Boolean>());
+        
+        IMetricRegistry metrics = Metrics.getRegistry();
+        String prefix = Metrics.createPrefix("frame-image-pool");
+        hitCounter = metrics.counter(prefix + "hits");
+        missCounter = metrics.counter(prefix + "misses");
+        metrics.gauge(prefix + "idle", new IGauge() {
+            @Override
+            public long getValue() {
+                return getIdleCount();
+            }
+        });
+        metrics.gauge(prefix + "borrowed", new IGauge() {
+            @Override
+            public long getValue() {
+                return getBorrowedCount();
+            }
+        });
+    }
+    
+    /**
+     * Get the process-wide instance of this pool.
+     * 
+     * @return frame image pool
+     */
+    public static FrameImagePool getInstance() {
+        return instance;
+    }
+    
+    /**
+     * Borrow a frame image of the given size. The image must be returned 
+     * using the release() method and it must not be freed by the borrower.
+     * 
+     * @param width image width
+     * @param height image height
+     * @return frame image
+     * @throws LibavException if a new image cannot be allocated
+     */
+    public FrameImage borrow(int width, int height) throws LibavException {
+        synchronized (this) {
+            // most recently used images are at the end
+            Iterator<FrameImage> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                FrameImage fi = it.next();
+                if (fi.getWidth() == width && fi.getHeight() == height) {
+                    it.remove();
+                    borrowed.add(fi);
+                    hitCounter.increment();
+                    return fi;
+                }
+            }
+            
+            missCounter.increment();
+        }
+        
+        FrameImage result = new FrameImage(width, height);
+        synchronized (this) {
+            borrowed.add(result);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Return a borrowed image back to the pool. Images which have not been 
+     * borrowed from this pool are freed.
+     * 
+     * @param image a frame image (it may be null)
+     */
+    public void release(FrameImage image) {
+        if (image == null)
+            return;
+        
+        synchronized (this) {
+            if (borrowed.remove(image)) {
+                idle.addLast(image);
+                evict(capacity);
+                return;
+            }
+        }
+        
+        image.free();
+    }
+    
+    private void evict(int maxIdle) {
+        while (idle.size() > maxIdle)
+            idle.removeFirst().free();
+    }
+    
+    /**
+     * Free all idle images.
+     */
+    public synchronized void clear() {
+        evict(0);
+    }
+    
+    /**
+     * Get maximum number of idle images.
+     * 
+     * @return capacity
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Set maximum number of idle images.
+     * 
+     * @param capacity capacity
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        
+        this.capacity = capacity;
+        evict(capacity);
+    }
+    
+    /**
+     * Get number of idle images.
+     * 
+     * @return number of idle images
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+    
+    /**
+     * Get number of borrowed images.
+     * 
+     * @return number of borrowed images
+     */
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+    
+}
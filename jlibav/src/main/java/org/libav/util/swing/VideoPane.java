@@ -34,6 +34,7 @@ import org.libav.avcodec.FrameWrapperFactory;
 import org.libav.avcodec.IFrameWrapper;
 import org.libav.avutil.PixelFormat;
 import org.libav.data.IFrameConsumer;
+import org.libav.swscale.ScaleContextPool;
 import org.libav.swscale.ScaleContextWrapper;
 import org.libav.swscale.bridge.SWScaleLibrary;
 
@@ -249,14 +250,14 @@ public class VideoPane extends JComponent implements IFrameConsumer {
         dstHeight = (int)(srcHeight * r);
         
         try {
-            scaleContext = ScaleContextWrapper.createContext(srcWidth, srcHeight, srcPixelFormat, dstWidth, dstHeight, dstPixelFormat, scalingAlgorithm);
+            scaleContext = ScaleContextPool.getInstance().borrow(srcWidth, srcHeight, srcPixelFormat, dstWidth, dstHeight, dstPixelFormat, scalingAlgorithm);
             rgbFrame = FrameWrapperFactory.getInstance().allocPicture(dstPixelFormat, dstWidth, dstHeight);
             rgbFrameData = rgbFrame.getData().get();
             rgbFrameStride = rgbFrame.getLineSize().get();
         } catch (LibavException ex) {
             Logger.getLogger(VideoPane.class.getName()).log(Level.SEVERE, "unable initialize video pane scaling context", ex);
             if (scaleContext != null)
-                scaleContext.free();
+                ScaleContextPool.getInstance().release(scaleContext);
             scaleContext = null;
             return;
         }
@@ -271,7 +272,7 @@ public class VideoPane extends JComponent implements IFrameConsumer {
     
     private synchronized void disposeScaleContext() {
         if (scaleContext != null)
-            scaleContext.free();
+            ScaleContextPool.getInstance().release(scaleContext);
         if (rgbFrame != null)
             rgbFrame.free();
         
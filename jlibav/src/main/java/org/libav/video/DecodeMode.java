@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+
+/**
+ * Reduced-cost video decoding modes. They trade the output frame rate or 
+ * picture quality for the decoding speed and they are intended for previews,
+ * analytics or monitoring grids.
+ * 
+ * @author Ondrej Perutka
+ */
+public enum DecodeMode {
+    
+    /**
+     * All frames are fully decoded.
+     */
+    FULL(AVCodecLibrary.AVDISCARD_DEFAULT, AVCodecLibrary.AVDISCARD_DEFAULT, false),
+    
+    /**
+     * All frames are decoded but the loop (deblocking) filter is skipped. 
+     * The output may contain blocking artifacts.
+     */
+    FAST(AVCodecLibrary.AVDISCARD_DEFAULT, AVCodecLibrary.AVDISCARD_ALL, false),
+    
+    /**
+     * Frames which are not used as a reference by any other frame (usually
+     * B-frames) are not decoded.
+     */
+    REFERENCE_FRAMES(AVCodecLibrary.AVDISCARD_NONREF, AVCodecLibrary.AVDISCARD_NONREF, false),
+    
+    /**
+     * Only key frames are decoded. Non-key packets may be dropped even 
+     * before they reach the decoder.
+     */
+    KEY_FRAMES(AVCodecLibrary.AVDISCARD_NONKEY, AVCodecLibrary.AVDISCARD_NONKEY, true);
+    
+    private final int skipFrame;
+    private final int skipLoopFilter;
+    private final boolean keyPacketsOnly;
+    
+    private DecodeMode(int skipFrame, int skipLoopFilter, boolean keyPacketsOnly) {
+        this.skipFrame = skipFrame;
+        this.skipLoopFilter = skipLoopFilter;
+        this.keyPacketsOnly = keyPacketsOnly;
+    }
+    
+    /**
+     * Get the skip_frame value for this mode.
+     * 
+     * @return AVDISCARD_ constant
+     */
+    public int getSkipFrame() {
+        return skipFrame;
+    }
+    
+    /**
+     * Get the skip_loop_filter value for this mode.
+     * 
+     * @return AVDISCARD_ constant
+     */
+    public int getSkipLoopFilter() {
+        return skipLoopFilter;
+    }
+    
+    /**
+     * Check whether only key packets are needed in this mode, so the other 
+     * packets can be filtered out before decoding.
+     * 
+     * @return true if only key packets are needed, false otherwise
+     */
+    public boolean isKeyPacketsOnly() {
+        return keyPacketsOnly;
+    }
+    
+    /**
+     * Apply this mode to the given decoder context. It can be applied
+     * before or after the decoder is opened.
+     * 
+     * @param cc a decoder context
+     */
+    public void apply(ICodecContextWrapper cc) {
+        cc.setSkipFrame(skipFrame);
+        cc.setSkipLoopFilter(skipLoopFilter);
+    }
+    
+}
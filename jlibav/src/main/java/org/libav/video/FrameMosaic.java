@@ -0,0 +1,507 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bridj.Pointer;
+import org.libav.LibavException;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+import org.libav.avutil.PlaneLayout;
+import org.libav.data.IFrameConsumer;
+import org.libav.data.IFrameProducer;
+import org.libav.swscale.bridge.SWScaleLibrary;
+import org.libav.util.Rational;
+import org.libav.util.concurrent.Execution;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
+
+/**
+ * Video mosaic (multiviewer). Frames of up to columns x rows sources are 
+ * scaled directly into tiles of a shared canvas (each tile has its own 
+ * FrameScaler writing into a sub-rectangle of the canvas) and a snapshot of
+ * the canvas is passed to the frame consumers at a fixed frame rate, so the 
+ * whole mosaic can be encoded once. A tile keeps the last frame of its 
+ * source until a new one arrives.
+ * 
+ * The canvas pixel format has to be a planar format with one byte per 
+ * sample (e.g. YUV420P).
+ * 
+ * @author Ondrej Perutka
+ */
+public class FrameMosaic implements IFrameProducer {
+    
+    private static final int ALIGNMENT = 4;
+    private static final int MAX_LOWRES = 3;
+    
+    private final int width;
+    private final int height;
+    private final PixelFormat pixelFormat;
+    private final int columns;
+    private final int rows;
+    private int scalingAlg;
+    
+    private final IFrameWrapper canvas;
+    private final IFrameWrapper output;
+    private final Tile[] tiles;
+    private final ReadWriteLock lock;
+    
+    private Thread compositor;
+    private volatile boolean stop;
+    private boolean closed;
+    
+    private final Set<IFrameConsumer> consumers;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter frameCounter;
+    private final ICounter tileFrameCounter;
+    private final ICounter skippedFrameCounter;
+    private final IHistogram composeTime;
+    
+    /**
+     * Create a new mosaic with a black canvas.
+     * 
+     * @param width canvas width
+     * @param height canvas height
+     * @param pixelFormat canvas pixel format
+     * @param columns number of tile columns
+     * @param rows number of tile rows
+     * @throws LibavException if the canvas cannot be allocated
+     */
+    public FrameMosaic(int width, int height, PixelFormat pixelFormat, int columns, int rows) throws LibavException {
+        if (!PlaneLayout.isOffsetKnown(pixelFormat))
+            throw new IllegalArgumentException("unsupported canvas pixel format: " + pixelFormat);
+        if (columns < 1 || rows < 1 || width / columns < ALIGNMENT || height / rows < ALIGNMENT)
+            throw new IllegalArgumentException("illegal tile grid");
+        
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.columns = columns;
+        this.rows = rows;
+        scalingAlg = SWScaleLibrary.SWS_FAST_BILINEAR;
+        
+        FrameWrapperFactory fwf = FrameWrapperFactory.getInstance();
+        canvas = fwf.allocPicture(pixelFormat, width, height);
+        output = fwf.allocPicture(pixelFormat, width, height);
+        fill(canvas, 0, 0, width, height);
+        
+        tiles = new Tile[columns * rows];
+        int[] xs = computeTileBorders(width, columns);
+        int[] ys = computeTileBorders(height, rows);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++)
+                tiles[r * columns + c] = new Tile(xs[c], ys[r], xs[c + 1] - xs[c], ys[r + 1] - ys[r]);
+        }
+        
+        lock = new ReentrantReadWriteLock();
+        compositor = null;
+        stop = false;
+        closed = false;
+        
+        consumers = new CopyOnWriteArraySet<IFrameConsumer>();
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("mosaic");
+        frameCounter = metrics.counter(metricPrefix + "frames");
+        tileFrameCounter = metrics.counter(metricPrefix + "tileFrames");
+        skippedFrameCounter = metrics.counter(metricPrefix + "skippedFrames");
+        composeTime = metrics.histogram(metricPrefix + "composeTime");
+    }
+    
+    /**
+     * Split the given canvas dimension into tiles. Tile borders are aligned
+     * to the chroma subsampling of all supported pixel formats.
+     * 
+     * @param size canvas width or height
+     * @param count number of tiles
+     * @return count + 1 tile borders (the first one is 0 and the last one is
+     * the size)
+     */
+    static int[] computeTileBorders(int size, int count) {
+        int[] result = new int[count + 1];
+        for (int i = 1; i < count; i++)
+            result[i] = (int)((long)i * size / count) / ALIGNMENT * ALIGNMENT;
+        result[count] = size;
+        
+        return result;
+    }
+    
+    /**
+     * Get canvas width.
+     * 
+     * @return canvas width
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Get canvas height.
+     * 
+     * @return canvas height
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Get canvas pixel format.
+     * 
+     * @return canvas pixel format
+     */
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+    
+    /**
+     * Get number of tiles.
+     * 
+     * @return columns x rows
+     */
+    public int getTileCount() {
+        return tiles.length;
+    }
+    
+    /**
+     * Get tile width.
+     * 
+     * @param tile tile index (tiles are indexed row by row)
+     * @return tile width
+     */
+    public int getTileWidth(int tile) {
+        return tiles[tile].width;
+    }
+    
+    /**
+     * Get tile height.
+     * 
+     * @param tile tile index
+     * @return tile height
+     */
+    public int getTileHeight(int tile) {
+        return tiles[tile].height;
+    }
+    
+    /**
+     * Get frame consumer drawing into the given tile. Frames are ignored
+     * until the source format is set using the setSource() method.
+     * 
+     * @param tile tile index
+     * @return frame consumer
+     */
+    public IFrameConsumer getTile(int tile) {
+        return tiles[tile];
+    }
+    
+    /**
+     * Set scaling algorithm used for sources set after this call.
+     * 
+     * @param scalingAlgorithm one of the SWScaleLibrary.SWS_* constants
+     */
+    public synchronized void setScalingAlgorithm(int scalingAlgorithm) {
+        this.scalingAlg = scalingAlgorithm;
+    }
+    
+    /**
+     * Set format of frames drawn into the given tile.
+     * 
+     * @param tile tile index
+     * @param width source width
+     * @param height source height
+     * @param pixelFormat source pixel format
+     * @throws LibavException if the tile scaler cannot be created
+     */
+    public synchronized void setSource(int tile, int width, int height, PixelFormat pixelFormat) throws LibavException {
+        Tile t = tiles[tile];
+        FrameScaler scaler = t.scaler;
+        if (scaler == null) {
+            scaler = new FrameScaler(width, height, pixelFormat, t.width, t.height, this.pixelFormat);
+            scaler.setScalingAlgorithm(scalingAlg);
+            scaler.setTarget(canvas, t.x, t.y);
+            t.scaler = scaler;
+        } else
+            scaler.setSourceImageFormat(width, height, pixelFormat);
+    }
+    
+    /**
+     * Set format of frames drawn into the given tile using the output 
+     * format of the given decoder. The output size of the decoder already
+     * reflects its lowres setting.
+     * 
+     * @param tile tile index
+     * @param decoder a video decoder
+     * @throws LibavException if the tile scaler cannot be created
+     */
+    public void setSource(int tile, VideoFrameDecoder decoder) throws LibavException {
+        setSource(tile, decoder.getOutputWidth(), decoder.getOutputHeight(), decoder.getCodecContext().getPixelFormat());
+    }
+    
+    /**
+     * Stop drawing into the given tile and make it black.
+     * 
+     * @param tile tile index
+     */
+    public synchronized void clearSource(int tile) {
+        Tile t = tiles[tile];
+        FrameScaler scaler = t.scaler;
+        t.scaler = null;
+        
+        lock.writeLock().lock();
+        try {
+            if (scaler != null)
+                scaler.dispose();
+            fill(canvas, t.x, t.y, t.width, t.height);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Get the highest lowres value (see VideoFrameDecoder) which still 
+     * decodes frames of the given size at least as large as the given tile.
+     * 
+     * @param tile tile index
+     * @param sourceWidth width of the source video
+     * @param sourceHeight height of the source video
+     * @return lowres value
+     */
+    public int getLowres(int tile, int sourceWidth, int sourceHeight) {
+        return getLowres(tiles[tile].width, tiles[tile].height, sourceWidth, sourceHeight);
+    }
+    
+    static int getLowres(int tileWidth, int tileHeight, int sourceWidth, int sourceHeight) {
+        int result = 0;
+        while (result < MAX_LOWRES && (sourceWidth >> (result + 1)) >= tileWidth && (sourceHeight >> (result + 1)) >= tileHeight)
+            result++;
+        
+        return result;
+    }
+    
+    /**
+     * Pass a snapshot of the canvas to the frame consumers.
+     * 
+     * @param pts presentation time stamp of the snapshot in milliseconds
+     * @throws LibavException if the canvas cannot be copied or a consumer
+     * fails
+     */
+    public void compose(long pts) throws LibavException {
+        long t = System.nanoTime();
+        
+        synchronized (output) {
+            lock.writeLock().lock();
+            try {
+                if (closed)
+                    return;
+                FrameWrapperFactory.getInstance().copyPicture(canvas, output, pixelFormat, width, height);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            
+            composeTime.record((System.nanoTime() - t) / 1000);
+            frameCounter.increment();
+            
+            output.setPts(pts);
+            for (IFrameConsumer c : consumers)
+                c.processFrame(this, output);
+        }
+    }
+    
+    /**
+     * Start a thread composing the mosaic at the given frame rate. 
+     * Presentation time stamps of the snapshots start at 0. Snapshots are 
+     * skipped if the consumers are slower than the frame rate.
+     * 
+     * @param frameRate frame rate
+     */
+    public synchronized void start(Rational frameRate) {
+        if (compositor != null || closed)
+            return;
+        
+        final long interval = frameRate.invert().mul(1000000000).longValue();
+        stop = false;
+        compositor = Execution.newThread(Execution.MOSAIC, new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                long next = start;
+                long now;
+                
+                while (!stop) {
+                    try {
+                        compose((next - start) / 1000000);
+                    } catch (LibavException ex) {
+                        Logger.getLogger(FrameMosaic.class.getName()).log(Level.WARNING, "unable to compose the mosaic", ex);
+                    }
+                    
+                    next += interval;
+                    now = System.nanoTime();
+                    if (now - next > interval) {
+                        skippedFrameCounter.add((now - next) / interval);
+                        next += (now - next) / interval * interval;
+                    }
+                    
+                    try {
+                        if (next > now)
+                            Thread.sleep((next - now) / 1000000, (int)((next - now) % 1000000));
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }, "FrameMosaic", true);
+        compositor.start();
+    }
+    
+    /**
+     * Stop the compositor thread.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = compositor;
+            compositor = null;
+        }
+        if (t == null)
+            return;
+        
+        stop = true;
+        t.interrupt();
+        try {
+            t.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Stop the compositor thread and release all native resources.
+     */
+    public void close() {
+        stop();
+        
+        synchronized (this) {
+            for (Tile t : tiles) {
+                if (t.scaler != null)
+                    t.scaler.dispose();
+                t.scaler = null;
+            }
+        }
+        
+        synchronized (output) {
+            lock.writeLock().lock();
+            try {
+                if (closed)
+                    return;
+                closed = true;
+                canvas.free();
+                output.free();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        metrics.removeAll(metricPrefix);
+    }
+    
+    private void fill(IFrameWrapper picture, int x, int y, int w, int h) {
+        Pointer<Pointer<Byte>> data = picture.getData();
+        Pointer<Integer> lineSize = picture.getLineSize();
+        int planes = PlaneLayout.getPlaneCount(pixelFormat);
+        int ls, lines, bytes;
+        long offset;
+        byte value;
+        Pointer<Byte> plane;
+        
+        for (int i = 0; i < planes; i++) {
+            plane = data.get(i);
+            ls = lineSize.get(i);
+            value = getBlack(i);
+            offset = PlaneLayout.getPlaneOffset(pixelFormat, i, x, y, ls);
+            lines = PlaneLayout.getPlaneHeight(pixelFormat, i, y + h) - PlaneLayout.getPlaneHeight(pixelFormat, i, y);
+            bytes = PlaneLayout.getPlaneWidth(pixelFormat, i, x + w) - PlaneLayout.getPlaneWidth(pixelFormat, i, x);
+            for (int j = 0; j < lines; j++, offset += ls)
+                plane.clearBytesAtOffset(offset, bytes, value);
+        }
+    }
+    
+    private byte getBlack(int plane) {
+        switch (pixelFormat) {
+            case GRAY8:
+            case GBRP: return 0;
+            case YUVJ420P:
+            case YUVJ422P:
+            case YUVJ440P:
+            case YUVJ444P: return plane == 0 ? 0 : (byte)128;
+        }
+        
+        // limited range YUV, alpha plane is opaque
+        return plane == 0 ? 16 : plane == 3 ? (byte)255 : (byte)128;
+    }
+    
+    @Override
+    public void addFrameConsumer(IFrameConsumer consumer) {
+        consumers.add(consumer);
+    }
+    
+    @Override
+    public void removeFrameConsumer(IFrameConsumer consumer) {
+        consumers.remove(consumer);
+    }
+    
+    private class Tile implements IFrameConsumer {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private volatile FrameScaler scaler;
+        
+        public Tile(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.scaler = null;
+        }
+        
+        @Override
+        public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+            // tiles do not overlap, so they can be drawn concurrently
+            lock.readLock().lock();
+            try {
+                FrameScaler s = scaler;
+                if (s == null || closed)
+                    return;
+                s.processFrame(this, frame);
+                tileFrameCounter.increment();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+    
+}
@@ -17,15 +17,17 @@
  */
 package org.libav.video;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import org.bridj.Pointer;
 import org.libav.LibavException;
 import org.libav.avcodec.FrameWrapperFactory;
 import org.libav.avcodec.IFrameWrapper;
 import org.libav.avutil.PixelFormat;
+import org.libav.avutil.PlaneLayout;
 import org.libav.data.IFrameConsumer;
 import org.libav.data.IFrameProducer;
+import org.libav.swscale.ScaleContextPool;
 import org.libav.swscale.ScaleContextWrapper;
 import org.libav.swscale.bridge.SWScaleLibrary;
 
@@ -49,6 +51,12 @@ public class FrameScaler implements IFrameConsumer, IFrameProducer {
     
     private IFrameWrapper picture;
     
+    private IFrameWrapper target;
+    private int targetX;
+    private int targetY;
+    private Pointer<Pointer<Byte>> targetData;
+    private Pointer<Integer> targetLineSize;
+    
     private final Set<IFrameConsumer> consumers;
 
     /**
@@ -73,16 +81,89 @@ public class FrameScaler implements IFrameConsumer, IFrameProducer {
         
         init();
         
-        consumers = Collections.synchronizedSet(new HashSet<IFrameConsumer>());
+        consumers = new CopyOnWriteArraySet<IFrameConsumer>();
     }
     
     private void init() throws LibavException {
         if (scaleContext != null)
-            scaleContext.free();
+            ScaleContextPool.getInstance().release(scaleContext);
         if (picture != null)
             picture.free();
-        scaleContext = ScaleContextWrapper.createContext(srcWidth, srcHeight, srcFormat, dstWidth, dstHeight, dstFormat, scalingAlg);
-        picture = FrameWrapperFactory.getInstance().allocPicture(dstFormat, dstWidth, dstHeight);
+        scaleContext = ScaleContextPool.getInstance().borrow(srcWidth, srcHeight, srcFormat, dstWidth, dstHeight, dstFormat, scalingAlg);
+        picture = target == null ? FrameWrapperFactory.getInstance().allocPicture(dstFormat, dstWidth, dstHeight) : null;
+    }
+    
+    /**
+     * Scale images directly into a sub-rectangle of the given picture 
+     * instead of a picture owned by this scaler. The sub-rectangle has
+     * the destination image size and the picture must use the destination
+     * pixel format, which has to be a planar format with one byte per
+     * sample (see PlaneLayout.isOffsetKnown()). The position should be 
+     * aligned to the chroma subsampling of the format. Scaled images are not
+     * passed to the frame consumers while the target is set.
+     * 
+     * The sub-rectangle must fit the line size of the target picture. Its 
+     * height cannot be checked, the caller must guarantee that y plus 
+     * the destination image height does not exceed the target height 
+     * (otherwise the scaler writes outside the target picture).
+     * 
+     * @param target target picture or null to scale into a picture owned by
+     * this scaler again
+     * @param x horizontal position of the sub-rectangle
+     * @param y vertical position of the sub-rectangle
+     * @throws LibavException if an error occurs
+     * @throws IllegalArgumentException if the target pixel format is not 
+     * supported or the sub-rectangle does not fit the target picture
+     */
+    public synchronized void setTarget(IFrameWrapper target, int x, int y) throws LibavException {
+        if (target != null)
+            checkTarget(target, x, y, dstWidth, dstFormat);
+        
+        this.target = target;
+        this.targetX = x;
+        this.targetY = y;
+        
+        if (target == null) {
+            targetData = null;
+            targetLineSize = null;
+            if (picture == null && scaleContext != null)
+                picture = FrameWrapperFactory.getInstance().allocPicture(dstFormat, dstWidth, dstHeight);
+            return;
+        }
+        
+        if (picture != null)
+            picture.free();
+        picture = null;
+        
+        int planes = PlaneLayout.getPlaneCount(dstFormat);
+        Pointer<Pointer<Byte>> data = target.getData();
+        Pointer<Integer> lineSize = target.getLineSize();
+        targetData = Pointer.allocatePointers(Byte.class, target.getDataLength());
+        targetLineSize = Pointer.allocateInts(target.getLineSizeLength());
+        for (int i = 0; i < planes; i++) {
+            targetLineSize.set(i, lineSize.get(i));
+            targetData.set(i, data.get(i).offset(PlaneLayout.getPlaneOffset(dstFormat, i, x, y, lineSize.get(i))));
+        }
+    }
+    
+    private static void checkTarget(IFrameWrapper target, int x, int y, int width, PixelFormat format) {
+        if (!PlaneLayout.isOffsetKnown(format))
+            throw new IllegalArgumentException("unsupported target pixel format: " + format);
+        if (x < 0 || y < 0)
+            throw new IllegalArgumentException("negative target position");
+        // one byte per sample, so the line size is the maximum width
+        if (x + width > target.getLineSize().get(0))
+            throw new IllegalArgumentException("the sub-rectangle does not fit the target picture");
+    }
+    
+    /**
+     * Get the target picture.
+     * 
+     * @return target picture or null if images are scaled into a picture
+     * owned by this scaler
+     */
+    public IFrameWrapper getTarget() {
+        return target;
     }
     
     /**
@@ -130,19 +211,27 @@ public class FrameScaler implements IFrameConsumer, IFrameProducer {
     }
     
     /**
-     * Set format of produced images.
+     * Set format of produced images. If a target picture is set, the new
+     * size must fit the target at the current position (see setTarget()).
      * 
      * @param width a width
      * @param height a height
      * @param pixelFormat a pixel format
      * @throws LibavException if an error occurs
+     * @throws IllegalArgumentException if the new format does not fit 
+     * the target picture
      */
     public synchronized void setDestinationImageFormat(int width, int height, PixelFormat pixelFormat) throws LibavException {
         if (width != dstWidth || height != dstHeight || pixelFormat != dstFormat) {
+            if (target != null)
+                checkTarget(target, targetX, targetY, width, pixelFormat);
+            
             dstWidth = width;
             dstHeight = height;
             dstFormat = pixelFormat;
             init();
+            if (target != null)
+                setTarget(target, targetX, targetY);
         }
     }
     
@@ -200,12 +289,15 @@ public class FrameScaler implements IFrameConsumer, IFrameProducer {
      */
     public synchronized void dispose() {
         if (scaleContext != null)
-            scaleContext.free();
+            ScaleContextPool.getInstance().release(scaleContext);
         if (picture != null)
             picture.free();
         
         scaleContext = null;
         picture = null;
+        target = null;
+        targetData = null;
+        targetLineSize = null;
     }
 
     @Override
@@ -213,16 +305,19 @@ public class FrameScaler implements IFrameConsumer, IFrameProducer {
         if (scaleContext == null)
             return;
         
+        if (target != null) {
+            scaleContext.scale(frame.getData(), frame.getLineSize(), 0, srcHeight, targetData, targetLineSize);
+            return;
+        }
+        
         scaleContext.scale(frame, picture, 0, srcHeight);
         picture.setPts(frame.getPts());
         sendFrame(picture);
     }
     
     private void sendFrame(IFrameWrapper frame) throws LibavException {
-        synchronized (consumers) {
-            for (IFrameConsumer c : consumers)
-                c.processFrame(this, frame);
-        }
+        for (IFrameConsumer c : consumers)
+            c.processFrame(this, frame);
     }
 
     @Override
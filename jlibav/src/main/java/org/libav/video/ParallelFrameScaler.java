@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.bridj.Pointer;
+import org.libav.LibavException;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+import org.libav.avutil.PlaneLayout;
+import org.libav.data.IFrameConsumer;
+import org.libav.data.IFrameProducer;
+import org.libav.swscale.ScaleContextPool;
+import org.libav.swscale.ScaleContextWrapper;
+import org.libav.swscale.bridge.SWScaleLibrary;
+import org.libav.util.concurrent.Execution;
+
+/**
+ * Native video frame scaler splitting the destination image into horizontal
+ * bands which are scaled in parallel. Each band has its own scale context
+ * and it is scaled together with a few overlapping lines of its neighbours 
+ * into a temporary picture, so the scaling filter sees the same input near 
+ * band borders as it would see when scaling the whole image. Only the band 
+ * itself is copied into the output picture.
+ * 
+ * Band borders are placed on lines where the source and destination 
+ * positions match exactly and which are aligned to the chroma subsampling 
+ * of both pixel formats. If there are no such lines or the pixel format
+ * layout is not known, the whole image is scaled at once.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ParallelFrameScaler implements IFrameConsumer, IFrameProducer {
+    
+    private static ExecutorService sharedExecutor;
+    
+    static {
+        sharedExecutor = null;
+    }
+    
+    private final int srcWidth;
+    private final int srcHeight;
+    private final PixelFormat srcFormat;
+    
+    private final int dstWidth;
+    private final int dstHeight;
+    private final PixelFormat dstFormat;
+    
+    private final int requestedBands;
+    private final ExecutorService executor;
+    private int scalingAlg;
+    
+    private Band[] bands;
+    private List<Callable<Void>> tasks;
+    private ScaleContextWrapper scaleContext;
+    private IFrameWrapper picture;
+    
+    private final Set<IFrameConsumer> consumers;
+    
+    /**
+     * Create a new parallel frame scaler using one band per available 
+     * processor and the shared thread pool.
+     * 
+     * @param srcWidth a width of source images
+     * @param srcHeight a height of source images
+     * @param srcPixelFormat a pixel format of source images
+     * @param dstWidth a width of produced images
+     * @param dstHeight a height of produced images
+     * @param dstPixelFormat a pixel format of produced images
+     * @throws LibavException if an error occurs
+     */
+    public ParallelFrameScaler(int srcWidth, int srcHeight, PixelFormat srcPixelFormat, int dstWidth, int dstHeight, PixelFormat dstPixelFormat) throws LibavException {
+        this(srcWidth, srcHeight, srcPixelFormat, dstWidth, dstHeight, dstPixelFormat, Runtime.getRuntime().availableProcessors(), getSharedExecutor());
+    }
+    
+    /**
+     * Create a new parallel frame scaler.
+     * 
+     * @param srcWidth a width of source images
+     * @param srcHeight a height of source images
+     * @param srcPixelFormat a pixel format of source images
+     * @param dstWidth a width of produced images
+     * @param dstHeight a height of produced images
+     * @param dstPixelFormat a pixel format of produced images
+     * @param bandCount requested number of bands (the real number of bands 
+     * may be lower)
+     * @param executor executor running the bands
+     * @throws LibavException if an error occurs
+     */
+    public ParallelFrameScaler(int srcWidth, int srcHeight, PixelFormat srcPixelFormat, int dstWidth, int dstHeight, PixelFormat dstPixelFormat, int bandCount, ExecutorService executor) throws LibavException {
+        if (bandCount < 1)
+            throw new IllegalArgumentException("at least one band is required");
+        
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.srcFormat = srcPixelFormat;
+        this.dstWidth = dstWidth;
+        this.dstHeight = dstHeight;
+        this.dstFormat = dstPixelFormat;
+        this.requestedBands = bandCount;
+        this.executor = executor;
+        scalingAlg = SWScaleLibrary.SWS_BICUBIC;
+        
+        init();
+        
+        consumers = new CopyOnWriteArraySet<IFrameConsumer>();
+    }
+    
+    /**
+     * Get the thread pool shared by parallel frame scalers by default. It has
+     * one daemon thread per available processor.
+     * 
+     * @return shared executor
+     */
+    public static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null)
+            sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), Execution.getThreadFactory(Execution.FRAME_SCALER, "FrameScalerWorker-%d", true));
+        
+        return sharedExecutor;
+    }
+    
+    private void init() throws LibavException {
+        freeNative();
+        
+        picture = FrameWrapperFactory.getInstance().allocPicture(dstFormat, dstWidth, dstHeight);
+        
+        int[] srcShifts = PlaneLayout.getPlaneShifts(srcFormat);
+        int[] dstShifts = PlaneLayout.getPlaneShifts(dstFormat);
+        List<BandGeometry> geometry = null;
+        if (srcShifts != null && dstShifts != null && requestedBands > 1)
+            geometry = computeBands(srcHeight, dstHeight, 1 << max(srcShifts), 1 << max(dstShifts), requestedBands);
+        
+        if (geometry == null || geometry.size() < 2) {
+            scaleContext = ScaleContextPool.getInstance().borrow(srcWidth, srcHeight, srcFormat, dstWidth, dstHeight, dstFormat, scalingAlg);
+            bands = new Band[0];
+            tasks = null;
+            return;
+        }
+        
+        bands = new Band[geometry.size()];
+        tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = new Band(geometry.get(i), srcShifts, dstShifts);
+            tasks.add(bands[i]);
+        }
+    }
+    
+    private static int max(int[] values) {
+        int result = 0;
+        for (int v : values)
+            result = Math.max(result, v);
+        
+        return result;
+    }
+    
+    /**
+     * Get number of bands the image is split into.
+     * 
+     * @return number of bands (1 if the image is scaled at once)
+     */
+    public int getBandCount() {
+        return bands == null || bands.length == 0 ? 1 : bands.length;
+    }
+    
+    /**
+     * Get width of source images.
+     * 
+     * @return width of source images
+     */
+    public int getSourceImageWidth() {
+        return srcWidth;
+    }
+    
+    /**
+     * Get height of source images.
+     * 
+     * @return height of source images
+     */
+    public int getSourceImageHeight() {
+        return srcHeight;
+    }
+    
+    /**
+     * Get pixel format of source images.
+     * 
+     * @return pixel format of source images
+     */
+    public PixelFormat getSourceImagePixelFormat() {
+        return srcFormat;
+    }
+    
+    /**
+     * Get width of produced images.
+     * 
+     * @return width of produced images
+     */
+    public int getDestinationImageWidth() {
+        return dstWidth;
+    }
+    
+    /**
+     * Get height of produced images.
+     * 
+     * @return height of produced images
+     */
+    public int getDestinationImageHeight() {
+        return dstHeight;
+    }
+    
+    /**
+     * Get pixel format of produced images.
+     * 
+     * @return pixel format of produced images
+     */
+    public PixelFormat getDestinationPixelFormat() {
+        return dstFormat;
+    }
+    
+    /**
+     * Set scaling algorithm.
+     * 
+     * @param scalingAlgorithm a scaling algorithm
+     * @throws LibavException if an error occurs
+     */
+    public synchronized void setScalingAlgorithm(int scalingAlgorithm) throws LibavException {
+        if (scalingAlgorithm != scalingAlg) {
+            scalingAlg = scalingAlgorithm;
+            init();
+        }
+    }
+    
+    /**
+     * Get scaling algorithm.
+     * 
+     * @return scaling algorithm
+     */
+    public int getScalingAlgorithm() {
+        return scalingAlg;
+    }
+    
+    /**
+     * Release all native sources.
+     */
+    public synchronized void dispose() {
+        freeNative();
+    }
+    
+    private void freeNative() {
+        if (scaleContext != null)
+            ScaleContextPool.getInstance().release(scaleContext);
+        if (picture != null)
+            picture.free();
+        if (bands != null) {
+            for (Band b : bands)
+                b.free();
+        }
+        
+        scaleContext = null;
+        picture = null;
+        bands = null;
+    }
+
+    @Override
+    public synchronized void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+        if (picture == null)
+            return;
+        
+        if (scaleContext != null)
+            scaleContext.scale(frame, picture, 0, srcHeight);
+        else
+            scaleBands(frame);
+        
+        picture.setPts(frame.getPts());
+        sendFrame(picture);
+    }
+    
+    private void scaleBands(IFrameWrapper frame) throws LibavException {
+        for (Band b : bands)
+            b.source = frame;
+        
+        List<Future<Void>> results;
+        try {
+            results = executor.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LibavException("interrupted while scaling a frame");
+        }
+        
+        for (Future<Void> f : results) {
+            try {
+                f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new LibavException("interrupted while scaling a frame");
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof LibavException)
+                    throw (LibavException)ex.getCause();
+                throw new LibavException("unable to scale a frame band: " + ex.getCause());
+            }
+        }
+    }
+    
+    private void sendFrame(IFrameWrapper frame) throws LibavException {
+        for (IFrameConsumer c : consumers)
+            c.processFrame(this, frame);
+    }
+
+    @Override
+    public void addFrameConsumer(IFrameConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    @Override
+    public void removeFrameConsumer(IFrameConsumer consumer) {
+        consumers.remove(consumer);
+    }
+    
+    /**
+     * Split the destination image into bands.
+     * 
+     * @param srcHeight source image height
+     * @param dstHeight destination image height
+     * @param srcAlign required alignment of source band borders
+     * @param dstAlign required alignment of destination band borders
+     * @param bandCount requested number of bands
+     * @return list of bands (it contains a single band covering the whole 
+     * image if the image cannot be split)
+     */
+    static List<BandGeometry> computeBands(int srcHeight, int dstHeight, int srcAlign, int dstAlign, int bandCount) {
+        List<BandGeometry> result = new ArrayList<BandGeometry>();
+        
+        // band borders must map to whole source lines
+        int g = gcd(srcHeight, dstHeight);
+        long srcUnit = srcHeight / g;
+        long dstUnit = dstHeight / g;
+        int k = 1;
+        while ((k * dstUnit) % dstAlign != 0 || (k * srcUnit) % srcAlign != 0)
+            k++;
+        
+        int step = (int)(k * dstUnit);
+        int steps = dstHeight / step;
+        bandCount = Math.min(bandCount, steps);
+        if (bandCount < 2) {
+            result.add(new BandGeometry(0, dstHeight, 0, dstHeight, 0, srcHeight));
+            return result;
+        }
+        
+        // a few lines on each side are enough for all swscale filters
+        int minOverlap = 8 * Math.max(1, (dstHeight + srcHeight - 1) / srcHeight);
+        int overlap = (minOverlap + step - 1) / step * step;
+        
+        int y1, y2, cy1, cy2;
+        for (int i = 0; i < bandCount; i++) {
+            y1 = (int)((long)i * steps / bandCount) * step;
+            y2 = i + 1 == bandCount ? dstHeight : (int)((long)(i + 1) * steps / bandCount) * step;
+            cy1 = Math.max(0, y1 - overlap);
+            cy2 = Math.min(dstHeight, y2 + overlap);
+            result.add(new BandGeometry(y1, y2, cy1, cy2, (int)((long)cy1 * srcHeight / dstHeight), (int)((long)cy2 * srcHeight / dstHeight)));
+        }
+        
+        return result;
+    }
+    
+    private static int gcd(int a, int b) {
+        int t;
+        while (b != 0) {
+            t = a % b;
+            a = b;
+            b = t;
+        }
+        
+        return a;
+    }
+    
+    /**
+     * Lines of a single band.
+     */
+    static class BandGeometry {
+        final int dstY;
+        final int dstEnd;
+        final int scaledDstY;
+        final int scaledDstEnd;
+        final int srcY;
+        final int srcEnd;
+
+        public BandGeometry(int dstY, int dstEnd, int scaledDstY, int scaledDstEnd, int srcY, int srcEnd) {
+            this.dstY = dstY;
+            this.dstEnd = dstEnd;
+            this.scaledDstY = scaledDstY;
+            this.scaledDstEnd = scaledDstEnd;
+            this.srcY = srcY;
+            this.srcEnd = srcEnd;
+        }
+    }
+    
+    /**
+     * Scaler of a single band.
+     */
+    private class Band implements Callable<Void> {
+        private final BandGeometry geometry;
+        private final int[] srcShifts;
+        private final int[] dstShifts;
+        
+        private ScaleContextWrapper context;
+        private IFrameWrapper scaled;
+        private final Pointer<Pointer<Byte>> srcData;
+        
+        private IFrameWrapper source;
+
+        public Band(BandGeometry geometry, int[] srcShifts, int[] dstShifts) throws LibavException {
+            this.geometry = geometry;
+            this.srcShifts = srcShifts;
+            this.dstShifts = dstShifts;
+            
+            int h = geometry.scaledDstEnd - geometry.scaledDstY;
+            context = ScaleContextPool.getInstance().borrow(srcWidth, geometry.srcEnd - geometry.srcY, srcFormat, dstWidth, h, dstFormat, scalingAlg);
+            scaled = FrameWrapperFactory.getInstance().allocPicture(dstFormat, dstWidth, h);
+            srcData = Pointer.allocatePointers(Byte.class, 4);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Pointer<Pointer<Byte>> data = source.getData();
+            Pointer<Integer> lineSize = source.getLineSize();
+            for (int i = 0; i < 4; i++) {
+                if (i < srcShifts.length)
+                    srcData.set(i, data.get(i).offset((long)(geometry.srcY >> srcShifts[i]) * lineSize.get(i)));
+                else
+                    srcData.set(i, null);
+            }
+            
+            context.scale(srcData, lineSize, 0, geometry.srcEnd - geometry.srcY, scaled.getData(), scaled.getLineSize());
+            
+            // both pictures have the same width and format, so they have 
+            // the same line sizes as well
+            Pointer<Pointer<Byte>> sd = scaled.getData();
+            Pointer<Pointer<Byte>> dd = picture.getData();
+            Pointer<Integer> ls = picture.getLineSize();
+            int s, first, end, l;
+            for (int i = 0; i < dstShifts.length; i++) {
+                s = dstShifts[i];
+                l = ls.get(i);
+                first = geometry.dstY >> s;
+                end = (geometry.dstEnd + (1 << s) - 1) >> s;
+                sd.get(i).copyBytesAtOffsetTo((long)(first - (geometry.scaledDstY >> s)) * l, dd.get(i), (long)first * l, (long)(end - first) * l);
+            }
+            
+            return null;
+        }
+        
+        public void free() {
+            if (context != null)
+                ScaleContextPool.getInstance().release(context);
+            if (scaled != null)
+                scaled.free();
+            
+            context = null;
+            scaled = null;
+        }
+    }
+    
+}
@@ -0,0 +1,801 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import org.bridj.Pointer;
+import org.libav.DefaultMediaWriter;
+import org.libav.LibavException;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.CodecWrapperFactory;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.PixelFormat;
+import org.libav.swscale.ScaleContextPool;
+import org.libav.swscale.ScaleContextWrapper;
+import org.libav.swscale.bridge.SWScaleLibrary;
+import org.libav.util.Rational;
+import org.libav.util.concurrent.Execution;
+
+/**
+ * Thumbnail extractor. It seeks to keyframes only, decodes a single frame
+ * per thumbnail, scales it and encodes it as a JPEG or PNG image. Thumbnails
+ * of a single file are split into contiguous segments and the segments 
+ * (of one or more files) are processed in parallel. Every worker thread 
+ * owns its own scale context and image encoder.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ThumbnailExtractor {
+    
+    /**
+     * Thumbnail image format.
+     */
+    public static enum ImageFormat {
+        JPEG(CodecID.MJPEG, PixelFormat.YUVJ420P, "jpg"),
+        PNG(CodecID.PNG, PixelFormat.RGB24, "png");
+        
+        private final CodecID codecId;
+        private final PixelFormat pixelFormat;
+        private final String extension;
+
+        private ImageFormat(CodecID codecId, PixelFormat pixelFormat, String extension) {
+            this.codecId = codecId;
+            this.pixelFormat = pixelFormat;
+            this.extension = extension;
+        }
+
+        /**
+         * Get ID of the image encoder.
+         * 
+         * @return codec ID
+         */
+        public CodecID getCodecId() {
+            return codecId;
+        }
+
+        /**
+         * Get pixel format used by the image encoder.
+         * 
+         * @return pixel format
+         */
+        public PixelFormat getPixelFormat() {
+            return pixelFormat;
+        }
+
+        /**
+         * Get file extension.
+         * 
+         * @return file extension
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+    
+    private static final int MAX_PACKETS_PER_THUMBNAIL = 64;
+    
+    private int width;
+    private int height;
+    private ImageFormat imageFormat;
+    private int scalingAlg;
+    private int threadCount;
+    private int minSegmentLength;
+    
+    /**
+     * Create a new thumbnail extractor. It produces JPEG thumbnails 160 
+     * pixels wide (the height is computed from the source aspect ratio) and
+     * it uses as many threads as there are available processors.
+     */
+    public ThumbnailExtractor() {
+        width = 160;
+        height = 0;
+        imageFormat = ImageFormat.JPEG;
+        scalingAlg = SWScaleLibrary.SWS_BILINEAR;
+        threadCount = Runtime.getRuntime().availableProcessors();
+        minSegmentLength = 4;
+    }
+    
+    /**
+     * Set thumbnail size. If the height is less or equal to zero it will be
+     * computed from the source aspect ratio. If the width is less or equal
+     * to zero the source size will be used.
+     * 
+     * @param width a thumbnail width
+     * @param height a thumbnail height
+     */
+    public synchronized void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+    
+    /**
+     * Get thumbnail width.
+     * 
+     * @return thumbnail width
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Get thumbnail height.
+     * 
+     * @return thumbnail height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get output image format.
+     * 
+     * @return image format
+     */
+    public ImageFormat getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * Set output image format.
+     * 
+     * @param imageFormat an image format
+     */
+    public synchronized void setImageFormat(ImageFormat imageFormat) {
+        if (imageFormat == null)
+            throw new IllegalArgumentException("image format cannot be null");
+        
+        this.imageFormat = imageFormat;
+    }
+
+    /**
+     * Get scaling algorithm.
+     * 
+     * @return scaling algorithm
+     */
+    public int getScalingAlgorithm() {
+        return scalingAlg;
+    }
+
+    /**
+     * Set scaling algorithm (one of the SWScaleLibrary.SWS_* constants).
+     * 
+     * @param scalingAlgorithm a scaling algorithm
+     */
+    public synchronized void setScalingAlgorithm(int scalingAlgorithm) {
+        this.scalingAlg = scalingAlgorithm;
+    }
+
+    /**
+     * Get number of worker threads.
+     * 
+     * @return number of worker threads
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set number of worker threads.
+     * 
+     * @param threadCount number of worker threads
+     */
+    public synchronized void setThreadCount(int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("at least one thread is required");
+        
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Get minimal number of thumbnails processed by a single worker within
+     * one file. Every segment requires its own demuxer and decoder so it 
+     * does not make sense to split files into very short segments.
+     * 
+     * @return minimal segment length
+     */
+    public int getMinSegmentLength() {
+        return minSegmentLength;
+    }
+
+    /**
+     * Set minimal number of thumbnails processed by a single worker within
+     * one file.
+     * 
+     * @param minSegmentLength minimal segment length
+     */
+    public synchronized void setMinSegmentLength(int minSegmentLength) {
+        if (minSegmentLength < 1)
+            throw new IllegalArgumentException("segment length must be positive");
+        
+        this.minSegmentLength = minSegmentLength;
+    }
+    
+    /**
+     * Extract the given number of evenly spaced thumbnails from the given 
+     * media file.
+     * 
+     * @param url a media URL
+     * @param count number of thumbnails
+     * @param outputDir output directory
+     * @return extraction result
+     * @throws LibavException if an error occurs
+     */
+    public Result extractEvenly(String url, int count, File outputDir) throws LibavException {
+        return extractEvenly(Collections.singletonList(url), count, outputDir);
+    }
+    
+    /**
+     * Extract the given number of evenly spaced thumbnails from each of the
+     * given media files.
+     * 
+     * @param urls media URLs
+     * @param count number of thumbnails per file
+     * @param outputDir output directory
+     * @return extraction result
+     * @throws LibavException if an error occurs
+     */
+    public Result extractEvenly(List<String> urls, int count, File outputDir) throws LibavException {
+        if (count < 1)
+            throw new IllegalArgumentException("at least one thumbnail is required");
+        
+        return extract(urls, count, 0, outputDir);
+    }
+    
+    /**
+     * Extract a thumbnail every interval miliseconds from the given media 
+     * file.
+     * 
+     * @param url a media URL
+     * @param interval interval between two thumbnails (in miliseconds)
+     * @param outputDir output directory
+     * @return extraction result
+     * @throws LibavException if an error occurs
+     */
+    public Result extractEvery(String url, long interval, File outputDir) throws LibavException {
+        return extractEvery(Collections.singletonList(url), interval, outputDir);
+    }
+    
+    /**
+     * Extract a thumbnail every interval miliseconds from each of the given
+     * media files.
+     * 
+     * @param urls media URLs
+     * @param interval interval between two thumbnails (in miliseconds)
+     * @param outputDir output directory
+     * @return extraction result
+     * @throws LibavException if an error occurs
+     */
+    public Result extractEvery(List<String> urls, long interval, File outputDir) throws LibavException {
+        if (interval < 1)
+            throw new IllegalArgumentException("interval must be positive");
+        
+        return extract(urls, 0, interval, outputDir);
+    }
+    
+    private Result extract(List<String> urls, int count, long interval, File outputDir) throws LibavException {
+        Settings settings;
+        int workers;
+        int minSegment;
+        
+        synchronized (this) {
+            settings = new Settings(width, height, imageFormat, scalingAlg);
+            workers = threadCount;
+            minSegment = minSegmentLength;
+        }
+        
+        long startTime = System.currentTimeMillis();
+        
+        List<File> thumbnails = new ArrayList<File>();
+        Queue<Segment> segments = new LinkedList<Segment>();
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            long[] timestamps = getTimestamps(url, count, interval);
+            File[] files = new File[timestamps.length];
+            String prefix = getFilePrefix(url, urls.size() > 1 ? i : -1);
+            for (int j = 0; j < files.length; j++) {
+                files[j] = new File(outputDir, String.format("%s-%05d.%s", prefix, j, settings.imageFormat.getExtension()));
+                thumbnails.add(files[j]);
+            }
+            
+            splitIntoSegments(url, timestamps, files, workers, minSegment, segments);
+        }
+        
+        workers = Math.min(workers, segments.size());
+        Worker[] w = new Worker[workers];
+        Thread[] t = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            w[i] = new Worker(settings, segments);
+            t[i] = Execution.newThread(Execution.THUMBNAIL_EXTRACTOR, w[i], "ThumbnailWorker-" + i, true);
+            t[i].start();
+        }
+        
+        int frameCount = 0;
+        LibavException error = null;
+        for (int i = 0; i < workers; i++) {
+            while (t[i].isAlive()) {
+                try {
+                    t[i].join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new LibavException("interrupted while waiting for thumbnails");
+                }
+            }
+            frameCount += w[i].getFrameCount();
+            if (error == null)
+                error = w[i].getError();
+        }
+        
+        if (error != null)
+            throw error;
+        
+        return new Result(thumbnails, frameCount, System.currentTimeMillis() - startTime);
+    }
+    
+    private long[] getTimestamps(String url, int count, long interval) throws LibavException {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        long duration;
+        try {
+            fc.findStreamInfo();
+            duration = fc.getDuration();
+        } finally {
+            fc.close();
+        }
+        
+        if (duration <= 0)
+            throw new LibavException("unable to get duration of: " + url);
+        
+        return computeTimestamps(duration, count, interval);
+    }
+    
+    /**
+     * Compute thumbnail positions. If the count is greater than zero, the
+     * positions are spaced evenly (in the middle of count equal parts), 
+     * otherwise there is one position every interval miliseconds.
+     * 
+     * @param duration media duration in miliseconds
+     * @param count number of thumbnails
+     * @param interval thumbnail interval
+     * @return thumbnail positions in miliseconds
+     */
+    static long[] computeTimestamps(long duration, int count, long interval) {
+        long[] result;
+        if (count > 0) {
+            result = new long[count];
+            for (int i = 0; i < count; i++)
+                result[i] = duration * (2 * i + 1) / (2 * count);
+        } else {
+            result = new long[(int)((duration + interval - 1) / interval)];
+            for (int i = 0; i < result.length; i++)
+                result[i] = i * interval;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Split the given timestamps into contiguous segments. Each segment
+     * contains at least minSegmentLength items (unless there are not enough
+     * items) and there are at most maxSegments segments.
+     * 
+     * @param length number of timestamps
+     * @param maxSegments maximal number of segments
+     * @param minSegmentLength minimal segment length
+     * @return segment boundaries (the i-th segment starts at index result[i]
+     * and ends before index result[i + 1])
+     */
+    static int[] computeSegmentBoundaries(int length, int maxSegments, int minSegmentLength) {
+        int segments = Math.max(1, Math.min(maxSegments, length / minSegmentLength));
+        int[] result = new int[segments + 1];
+        for (int i = 0; i <= segments; i++)
+            result[i] = (int)((long)length * i / segments);
+        
+        return result;
+    }
+    
+    private static void splitIntoSegments(String url, long[] timestamps, File[] files, int maxSegments, int minSegmentLength, Queue<Segment> segments) {
+        int[] bounds = computeSegmentBoundaries(timestamps.length, maxSegments, minSegmentLength);
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] > bounds[i - 1])
+                segments.add(new Segment(url, timestamps, files, bounds[i - 1], bounds[i]));
+        }
+    }
+    
+    private static String getFilePrefix(String url, int index) {
+        String name = url;
+        int i = Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
+        if (i >= 0)
+            name = name.substring(i + 1);
+        i = name.lastIndexOf('.');
+        if (i > 0)
+            name = name.substring(0, i);
+        if (name.isEmpty())
+            name = "thumb";
+        
+        return index < 0 ? name : String.format("%03d-%s", index, name);
+    }
+    
+    /**
+     * Result of a thumbnail extraction.
+     */
+    public static class Result {
+        private final List<File> thumbnails;
+        private final int frameCount;
+        private final long time;
+
+        private Result(List<File> thumbnails, int frameCount, long time) {
+            this.thumbnails = Collections.unmodifiableList(thumbnails);
+            this.frameCount = frameCount;
+            this.time = time;
+        }
+
+        /**
+         * Get list of created thumbnail files.
+         * 
+         * @return list of thumbnails
+         */
+        public List<File> getThumbnails() {
+            return thumbnails;
+        }
+
+        /**
+         * Get number of decoded frames.
+         * 
+         * @return number of decoded frames
+         */
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Get total extraction time.
+         * 
+         * @return extraction time in miliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+        
+        /**
+         * Get extraction throughput.
+         * 
+         * @return number of decoded frames per second
+         */
+        public double getFramesPerSecond() {
+            return time == 0 ? frameCount * 1000.0 : frameCount * 1000.0 / time;
+        }
+    }
+    
+    private static class Settings {
+        private final int width;
+        private final int height;
+        private final ImageFormat imageFormat;
+        private final int scalingAlg;
+
+        public Settings(int width, int height, ImageFormat imageFormat, int scalingAlg) {
+            this.width = width;
+            this.height = height;
+            this.imageFormat = imageFormat;
+            this.scalingAlg = scalingAlg;
+        }
+    }
+    
+    private static class Segment {
+        private final String url;
+        private final long[] timestamps;
+        private final File[] files;
+        private final int from;
+        private final int to;
+
+        public Segment(String url, long[] timestamps, File[] files, int from, int to) {
+            this.url = url;
+            this.timestamps = timestamps;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+    }
+    
+    private static class Worker implements Runnable {
+        private final Settings settings;
+        private final Queue<Segment> segments;
+        
+        private ScaleContextWrapper scaleContext;
+        private IFrameWrapper picture;
+        private int srcWidth;
+        private int srcHeight;
+        private PixelFormat srcFormat;
+        private int dstWidth;
+        private int dstHeight;
+        
+        private DefaultMediaWriter imageWriter;
+        private ICodecContextWrapper imageEncoder;
+        private IPacketWrapper imagePacket;
+        private long imagePts;
+        
+        private IFrameWrapper frame;
+        private IPacketWrapper packet;
+        
+        private byte[] lastImage;
+        private long lastKeyFrameDts;
+        
+        private int frameCount;
+        private LibavException error;
+
+        public Worker(Settings settings, Queue<Segment> segments) {
+            this.settings = settings;
+            this.segments = segments;
+            
+            scaleContext = null;
+            picture = null;
+            imageWriter = null;
+            imageEncoder = null;
+            imagePacket = null;
+            imagePts = 0;
+            
+            frame = null;
+            packet = null;
+            
+            frameCount = 0;
+            error = null;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public LibavException getError() {
+            return error;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                frame = FrameWrapperFactory.getInstance().allocFrame();
+                packet = PacketWrapperFactory.getInstance().alloc();
+                imagePacket = PacketWrapperFactory.getInstance().alloc();
+                
+                Segment s;
+                while ((s = nextSegment()) != null)
+                    processSegment(s);
+            } catch (LibavException ex) {
+                error = ex;
+            } catch (IOException ex) {
+                error = new LibavException("unable to write thumbnail", ex);
+            } catch (RuntimeException ex) {
+                error = new LibavException("thumbnail extraction failed", ex);
+            } finally {
+                dispose();
+            }
+        }
+        
+        private Segment nextSegment() {
+            synchronized (segments) {
+                return segments.poll();
+            }
+        }
+        
+        private void processSegment(Segment segment) throws LibavException, IOException {
+            IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(segment.url);
+            ICodecContextWrapper cc = null;
+            
+            try {
+                fc.findStreamInfo();
+                IStreamWrapper stream = null;
+                for (IStreamWrapper sw : fc.getStreams()) {
+                    if (sw.getCodecContext().getCodecType() == MediaType.VIDEO) {
+                        stream = sw;
+                        break;
+                    }
+                }
+                if (stream == null)
+                    throw new LibavException("no video stream in: " + segment.url);
+                
+                cc = stream.getCodecContext();
+                cc.clearWrapperCache();
+                cc.open(CodecWrapperFactory.getInstance().findDecoder(cc.getCodecId()));
+                
+                lastImage = null;
+                lastKeyFrameDts = Long.MIN_VALUE;
+                for (int i = segment.from; i < segment.to; i++)
+                    extractThumbnail(fc, cc, stream.getIndex(), segment.timestamps[i], segment.files[i]);
+            } finally {
+                if (cc != null)
+                    cc.close();
+                fc.close();
+            }
+        }
+        
+        private void extractThumbnail(IFormatContextWrapper fc, ICodecContextWrapper cc, int streamIndex, long time, File file) throws LibavException, IOException {
+            // seek to the nearest preceding keyframe only
+            fc.seekFile(0, time, time);
+            cc.flushBuffers();
+            
+            boolean keyFrameFound = false;
+            boolean decoded = false;
+            
+            for (int i = 0; !decoded && i < MAX_PACKETS_PER_THUMBNAIL; i++) {
+                packet.init();
+                if (!fc.readNextPacket(packet))
+                    break;
+                
+                if (packet.getStreamIndex() != streamIndex) {
+                    packet.free();
+                    continue;
+                }
+                
+                if (!keyFrameFound) {
+                    if ((packet.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) == 0) {
+                        packet.free();
+                        continue;
+                    }
+                    keyFrameFound = true;
+                    if (lastImage != null && packet.getDts() == lastKeyFrameDts) {
+                        // the same keyframe as the previous thumbnail
+                        packet.free();
+                        writeFile(file, lastImage);
+                        return;
+                    }
+                    lastKeyFrameDts = packet.getDts();
+                }
+                
+                decoded = decode(cc, packet);
+                packet.free();
+            }
+            
+            if (!decoded)
+                throw new LibavException("unable to decode a keyframe at: " + time);
+            
+            frameCount++;
+            lastImage = encode(cc);
+            writeFile(file, lastImage);
+        }
+        
+        private boolean decode(ICodecContextWrapper cc, IPacketWrapper packet) throws LibavException {
+            Pointer<Byte> data = packet.getData();
+            int size = packet.getSize();
+            boolean result = false;
+            while (!result && packet.getSize() > 0)
+                result = cc.decodeVideoFrame(packet, frame);
+            packet.setData(data);
+            packet.setSize(size);
+            
+            return result;
+        }
+        
+        private byte[] encode(ICodecContextWrapper cc) throws LibavException {
+            cc.clearWrapperCache();
+            initScaleContext(cc.getWidth(), cc.getHeight(), cc.getPixelFormat());
+            initImageEncoder();
+            
+            scaleContext.scale(frame, picture, 0, srcHeight);
+            picture.setPts(imagePts++);
+            
+            imagePacket.init();
+            imagePacket.setData(null);
+            imagePacket.setSize(0);
+            if (!imageEncoder.encodeVideoFrame(picture, imagePacket))
+                throw new LibavException("unable to encode thumbnail");
+            
+            imagePacket.clearWrapperCache();
+            byte[] result = imagePacket.getData().getBytes(imagePacket.getSize());
+            imagePacket.free();
+            
+            return result;
+        }
+        
+        private void initScaleContext(int width, int height, PixelFormat pixelFormat) throws LibavException {
+            if (scaleContext != null && width == srcWidth && height == srcHeight && pixelFormat == srcFormat)
+                return;
+            
+            srcWidth = width;
+            srcHeight = height;
+            srcFormat = pixelFormat;
+            
+            int w = settings.width;
+            int h = settings.height;
+            if (w <= 0) {
+                w = width;
+                h = height;
+            } else if (h <= 0)
+                h = Math.max(2, (int)((long)w * height / width) & ~1);
+            
+            if (scaleContext != null)
+                ScaleContextPool.getInstance().release(scaleContext);
+            scaleContext = ScaleContextPool.getInstance().borrow(width, height, pixelFormat, w, h, settings.imageFormat.getPixelFormat(), settings.scalingAlg);
+            
+            if (picture == null || w != dstWidth || h != dstHeight) {
+                if (picture != null)
+                    picture.free();
+                picture = FrameWrapperFactory.getInstance().allocPicture(settings.imageFormat.getPixelFormat(), w, h);
+                dstWidth = w;
+                dstHeight = h;
+            }
+        }
+        
+        private void initImageEncoder() throws LibavException {
+            if (imageEncoder != null && imageEncoder.getWidth() == dstWidth && imageEncoder.getHeight() == dstHeight)
+                return;
+            
+            if (imageWriter != null)
+                imageWriter.close();
+            
+            // the image2 muxer does not open any file, it is used here only
+            // to get a properly initialized encoder context
+            imageWriter = new DefaultMediaWriter("thumbnail-%d." + settings.imageFormat.getExtension(), "image2");
+            imageWriter.addVideoStream(settings.imageFormat.getCodecId(), dstWidth, dstHeight);
+            IStreamWrapper stream = imageWriter.getVideoStream(0);
+            stream.setTimeBase(new Rational(1, 25));
+            imageEncoder = stream.getCodecContext();
+            imageEncoder.setPixelFormat(settings.imageFormat.getPixelFormat());
+            imageEncoder.setBitRate(dstWidth * dstHeight * 25);
+            imageEncoder.open(CodecWrapperFactory.getInstance().findEncoder(settings.imageFormat.getCodecId()));
+            imagePts = 0;
+        }
+        
+        private void writeFile(File file, byte[] data) throws IOException {
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write(data);
+            } finally {
+                fos.close();
+            }
+        }
+        
+        private void dispose() {
+            try {
+                if (imageWriter != null)
+                    imageWriter.close();
+            } catch (LibavException ex) {
+                if (error == null)
+                    error = ex;
+            } catch (RuntimeException ex) {
+                if (error == null)
+                    error = new LibavException("unable to close the image writer", ex);
+            }
+            if (scaleContext != null)
+                ScaleContextPool.getInstance().release(scaleContext);
+            if (picture != null)
+                picture.free();
+            if (frame != null)
+                frame.free();
+            
+            imageWriter = null;
+            imageEncoder = null;
+            scaleContext = null;
+            picture = null;
+            frame = null;
+        }
+    }
+    
+}
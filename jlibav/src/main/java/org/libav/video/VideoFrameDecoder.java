@@ -17,18 +17,22 @@
  */
 package org.libav.video;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import org.bridj.Pointer;
 import org.libav.IDecoder;
 import org.libav.LibavException;
 import org.libav.avcodec.*;
+import org.libav.avcodec.bridge.AVCodecLibrary;
 import org.libav.avformat.IStreamWrapper;
 import org.libav.avutil.MediaType;
 import org.libav.avutil.bridge.AVUtilLibrary;
 import org.libav.data.IFrameConsumer;
 import org.libav.util.Rational;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
 
 /**
  * Video frame decoder.
@@ -46,7 +50,20 @@ public class VideoFrameDecoder implements IDecoder {
     
     private IFrameWrapper frame;
     
+    private final int lowres;
+    private volatile DecodeMode mode;
+    private boolean waitForKeyFrame;
+    
     private final Set<IFrameConsumer> consumers;
+    
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter packetCounter;
+    private final ICounter byteCounter;
+    private final ICounter frameCounter;
+    private final ICounter droppedFrameCounter;
+    private final ICounter skippedPacketCounter;
+    private final IHistogram decodeTime;
 
     /**
      * Create a new video frame decoder for the given video stream.
@@ -56,6 +73,24 @@ public class VideoFrameDecoder implements IDecoder {
      * (caused by the Libav)
      */
     public VideoFrameDecoder(IStreamWrapper stream) throws LibavException {
+        this(stream, null, 0);
+    }
+    
+    /**
+     * Create a new reduced-cost video frame decoder for the given video 
+     * stream. If the lowres value is greater than zero, the decoded frames 
+     * are smaller than the stream picture (see the getOutputWidth() and 
+     * getOutputHeight() methods).
+     * 
+     * @param stream a video stream
+     * @param mode a decoding mode (if it is null, the current settings of 
+     * the codec context are used)
+     * @param lowres decoding resolution reduction (1 for a half, 2 for 
+     * a quarter, etc.), it is limited by the capabilities of the decoder
+     * @throws LibavException if the decoder cannot be created for some reason
+     * (caused by the Libav)
+     */
+    public VideoFrameDecoder(IStreamWrapper stream, DecodeMode mode, int lowres) throws LibavException {
         this.stream = stream;
         
         cc = stream.getCodecContext();
@@ -63,7 +98,17 @@ public class VideoFrameDecoder implements IDecoder {
         if (cc.getCodecType() != MediaType.VIDEO)
             throw new IllegalArgumentException("not a video stream");
         
-        cc.open(CodecWrapperFactory.getInstance().findDecoder(cc.getCodecId()));
+        ICodecWrapper codec = CodecWrapperFactory.getInstance().findDecoder(cc.getCodecId());
+        // lowres has to be set before the decoder is opened
+        if (lowres > 0)
+            cc.setLowres(Math.min(lowres, codec.getMaxLowres()));
+        if (mode != null)
+            mode.apply(cc);
+        
+        cc.open(codec);
+        this.lowres = cc.getLowres();
+        this.mode = mode;
+        waitForKeyFrame = false;
         
         sTimeBase = stream.getTimeBase().mul(1000);
         pts = 0;
@@ -71,7 +116,16 @@ public class VideoFrameDecoder implements IDecoder {
 
         frame = FrameWrapperFactory.getInstance().allocFrame();
 
-        consumers = Collections.synchronizedSet(new HashSet<IFrameConsumer>());
+        consumers = new CopyOnWriteArraySet<IFrameConsumer>();
+        
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("video-decoder");
+        packetCounter = metrics.counter(metricPrefix + "packets");
+        byteCounter = metrics.counter(metricPrefix + "bytes");
+        frameCounter = metrics.counter(metricPrefix + "frames");
+        droppedFrameCounter = metrics.counter(metricPrefix + "droppedFrames");
+        skippedPacketCounter = metrics.counter(metricPrefix + "skippedPackets");
+        decodeTime = metrics.histogram(metricPrefix + "decodeTime");
     }
     
     @Override
@@ -84,11 +138,70 @@ public class VideoFrameDecoder implements IDecoder {
         return stream;
     }
 
+    /**
+     * Get the current decoding mode.
+     * 
+     * @return decoding mode or null if the codec context settings are used
+     */
+    public DecodeMode getDecodeMode() {
+        return mode;
+    }
+    
+    /**
+     * Change the decoding mode. It can be changed at any time. When leaving 
+     * the key-frames-only mode, packets are skipped until the next key frame,
+     * so the decoder never receives frames referencing undecoded ones.
+     * 
+     * @param mode a decoding mode
+     */
+    public synchronized void setDecodeMode(DecodeMode mode) {
+        if (isClosed() || mode == null || mode == this.mode)
+            return;
+        
+        if (this.mode != null && this.mode.isKeyPacketsOnly() && !mode.isKeyPacketsOnly())
+            waitForKeyFrame = true;
+        mode.apply(cc);
+        this.mode = mode;
+    }
+    
+    /**
+     * Get the decoding resolution reduction used by the decoder.
+     * 
+     * @return lowres value (0 for the full resolution)
+     */
+    public int getLowres() {
+        return lowres;
+    }
+    
+    /**
+     * Get width of the decoded frames. The Libav stores the reduced size in
+     * the codec context when the decoder is opened (and whenever the decoder
+     * changes the picture size), so the value is not shifted again here.
+     * 
+     * @return width of the decoded frames
+     */
+    public synchronized int getOutputWidth() {
+        cc.clearWrapperCache();
+        return cc.getWidth();
+    }
+    
+    /**
+     * Get height of the decoded frames. See the getOutputWidth() method.
+     * 
+     * @return height of the decoded frames
+     */
+    public synchronized int getOutputHeight() {
+        cc.clearWrapperCache();
+        return cc.getHeight();
+    }
+    
     @Override
     public synchronized void close() {
         if (frame != null)
             frame.free();
         cc.close();
+        
+        metrics.removeAll(metricPrefix);
     }
     
     @Override
@@ -102,14 +215,30 @@ public class VideoFrameDecoder implements IDecoder {
             return;
         
         //System.out.printf("VP: dts = %d\n", sTimeBase.mul(packet.getDts()).longValue());
+        packetCounter.increment();
+        byteCounter.add(packet.getSize());
+        
+        if (skipPacket(packet)) {
+            skippedPacketCounter.increment();
+            return;
+        }
+        
         Pointer<Byte> tmp = packet.getData();
         while (packet.getSize() > 0) {
-            if (cc.decodeVideoFrame(packet, frame))
+            if (decode(packet))
                 sendFrame(transformPts(frame));
         }
         packet.setData(tmp);
     }
     
+    private boolean skipPacket(IPacketWrapper packet) {
+        boolean key = (packet.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0;
+        if (key)
+            waitForKeyFrame = false;
+        
+        return !key && (waitForKeyFrame || (mode != null && mode.isKeyPacketsOnly()));
+    }
+    
     @Override
     public synchronized void flush() throws LibavException {
         IFrameWrapper fr;
@@ -126,19 +255,40 @@ public class VideoFrameDecoder implements IDecoder {
         
         packet.setSize(0);
         packet.setData(null);
-        if (cc.decodeVideoFrame(packet, frame))
+        if (decode(packet))
             result = frame;
         packet.free();
         
         return result;
     }
     
+    private boolean decode(IPacketWrapper packet) throws LibavException {
+        if (!metrics.isEnabled())
+            return cc.decodeVideoFrame(packet, frame);
+        
+        long t = System.nanoTime();
+        boolean result = cc.decodeVideoFrame(packet, frame);
+        decodeTime.record((System.nanoTime() - t) / 1000);
+        if (result)
+            frameCounter.increment();
+        
+        return result;
+    }
+    
+    /**
+     * Subclasses should call this method for every decoded frame they 
+     * decide not to send (e.g. because it is too late). It is used for 
+     * statistics only.
+     * 
+     * @param frame a dropped frame
+     */
+    protected void frameDropped(IFrameWrapper frame) {
+        droppedFrameCounter.increment();
+    }
     
     protected void sendFrame(IFrameWrapper frame) throws LibavException {
-        synchronized (consumers) {
-            for (IFrameConsumer c : consumers)
-                c.processFrame(this, frame);
-        }
+        for (IFrameConsumer c : consumers)
+            c.processFrame(this, frame);
     }
     
     private IFrameWrapper transformPts(IFrameWrapper frame) {
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import org.libav.IDecoder;
+import org.libav.IDecoderFactory;
+import org.libav.LibavException;
+import org.libav.avformat.IStreamWrapper;
+
+/**
+ * Factory for reduced-cost video frame decoders. It can be passed to 
+ * the setVideoDecoderFactory() method of a media decoder.
+ * 
+ * @author Ondrej Perutka
+ */
+public class VideoFrameDecoderFactory implements IDecoderFactory {
+    
+    private final DecodeMode mode;
+    private final int lowres;
+    
+    /**
+     * Create a new decoder factory.
+     * 
+     * @param mode a decoding mode
+     * @param lowres decoding resolution reduction (0 for the full resolution,
+     * 1 for a half, 2 for a quarter, etc.)
+     */
+    public VideoFrameDecoderFactory(DecodeMode mode, int lowres) {
+        this.mode = mode;
+        this.lowres = lowres;
+    }
+    
+    @Override
+    public IDecoder createDecoder(IStreamWrapper stream) throws LibavException {
+        return new VideoFrameDecoder(stream, mode, lowres);
+    }
+    
+}
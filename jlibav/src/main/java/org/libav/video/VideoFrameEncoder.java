@@ -17,9 +17,9 @@
  */
 package org.libav.video;
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.libav.CopyTimestampGenerator;
 import org.libav.IEncoder;
 import org.libav.ITimestampGenerator;
@@ -33,6 +33,10 @@ import org.libav.avutil.MediaType;
 import org.libav.avutil.bridge.AVUtilLibrary;
 import org.libav.data.IPacketConsumer;
 import org.libav.util.Rational;
+import org.libav.util.metrics.ICounter;
+import org.libav.util.metrics.IHistogram;
+import org.libav.util.metrics.IMetricRegistry;
+import org.libav.util.metrics.Metrics;
 
 /**
  * Video frame encoder.
@@ -51,9 +55,18 @@ public class VideoFrameEncoder implements IEncoder {
     private Rational tsToCodecBase;
     private Rational tsToStreamBase;
     private ITimestampGenerator timestampGenerator;
+    private final AtomicInteger pendingBitRate;
     
     private final Set<IPacketConsumer> consumers;
     
+    private final IMetricRegistry metrics;
+    private final String metricPrefix;
+    private final ICounter frameCounter;
+    private final ICounter packetCounter;
+    private final ICounter byteCounter;
+    private final IHistogram encodeTime;
+    private final ICounter reopenCounter;
+    
     /**
      * Create a new video frame encoder for the given video stream.
      * 
@@ -78,8 +91,17 @@ public class VideoFrameEncoder implements IEncoder {
         tsToCodecBase = null;
         tsToStreamBase = null;
         timestampGenerator = new CopyTimestampGenerator();
+        pendingBitRate = new AtomicInteger();
+        
+        consumers = new CopyOnWriteArraySet<IPacketConsumer>();
         
-        consumers = Collections.synchronizedSet(new HashSet<IPacketConsumer>());
+        metrics = Metrics.getRegistry();
+        metricPrefix = Metrics.createPrefix("video-encoder");
+        frameCounter = metrics.counter(metricPrefix + "frames");
+        packetCounter = metrics.counter(metricPrefix + "packets");
+        byteCounter = metrics.counter(metricPrefix + "bytes");
+        encodeTime = metrics.histogram(metricPrefix + "encodeTime");
+        reopenCounter = metrics.counter(metricPrefix + "reopens");
     }
     
     @Override
@@ -92,6 +114,20 @@ public class VideoFrameEncoder implements IEncoder {
         return stream;
     }
 
+    @Override
+    public int getBitRate() {
+        int bitRate = pendingBitRate.get();
+        return bitRate > 0 ? bitRate : cc.getBitRate();
+    }
+    
+    @Override
+    public void setBitRate(int bitRate) {
+        if (bitRate <= 0)
+            throw new IllegalArgumentException("bit rate must be positive");
+        
+        pendingBitRate.set(bitRate);
+    }
+    
     @Override
     public ITimestampGenerator getTimestampGenerator() {
         return timestampGenerator;
@@ -109,6 +145,7 @@ public class VideoFrameEncoder implements IEncoder {
             packet.free();
         
         packet = null;
+        metrics.removeAll(metricPrefix);
     }
     
     @Override
@@ -122,6 +159,8 @@ public class VideoFrameEncoder implements IEncoder {
             return;
         
         initEncoder();
+        if (pendingBitRate.get() > 0)
+            reopen();
         
         IPacketWrapper p;
         long pts;
@@ -159,6 +198,28 @@ public class VideoFrameEncoder implements IEncoder {
         initialized = true;
     }
     
+    private void reopen() throws LibavException {
+        int bitRate = pendingBitRate.getAndSet(0);
+        
+        cc.clearWrapperCache();
+        if (bitRate == cc.getBitRate())
+            return;
+        if (cc.isClosed() || rawFormat) {
+            cc.setBitRate(bitRate);
+            return;
+        }
+        
+        // a drained encoder cannot continue, it has to be re-opened
+        IPacketWrapper p;
+        while ((p = encodeFrame(null, timestampGenerator.getLastTimestamp())) != null)
+            sendPacket(p);
+        
+        cc.close();
+        cc.setBitRate(bitRate);
+        cc.open(CodecWrapperFactory.getInstance().findEncoder(cc.getCodecId()));
+        reopenCounter.increment();
+    }
+    
     private IPacketWrapper encodeFrame(IFrameWrapper frame, long pts) throws LibavException {
         packet.init();
         
@@ -175,12 +236,13 @@ public class VideoFrameEncoder implements IEncoder {
 
             boolean gotPacket;
             if (frame == null)
-                gotPacket = cc.encodeVideoFrame(null, packet);
+                gotPacket = encode(null);
             else {
                 long oldPts = frame.getPts();
                 frame.setPts(tsToCodecBase.mul(pts).longValue());
-                gotPacket = cc.encodeVideoFrame(frame, packet);
+                gotPacket = encode(frame);
                 frame.setPts(oldPts);
+                frameCounter.increment();
             }
             
             if (!gotPacket)
@@ -204,11 +266,23 @@ public class VideoFrameEncoder implements IEncoder {
         return packet;
     }
     
+    private boolean encode(IFrameWrapper frame) throws LibavException {
+        if (!metrics.isEnabled())
+            return cc.encodeVideoFrame(frame, packet);
+        
+        long t = System.nanoTime();
+        boolean result = cc.encodeVideoFrame(frame, packet);
+        encodeTime.record((System.nanoTime() - t) / 1000);
+        
+        return result;
+    }
+    
     private void sendPacket(IPacketWrapper packet) throws LibavException {
-        synchronized (consumers) {
-            for (IPacketConsumer c : consumers)
-                c.processPacket(this, packet);
-        }
+        packetCounter.increment();
+        byteCounter.add(packet.getSize());
+        
+        for (IPacketConsumer c : consumers)
+            c.processPacket(this, packet);
     }
 
     @Override
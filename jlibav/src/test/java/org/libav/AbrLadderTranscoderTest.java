@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.bridge.AVUtilLibrary;
+
+/**
+ * Unit test for the AbrLadderTranscoder class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AbrLadderTranscoderTest {
+    
+    @Test
+    public void testPlanLadder() {
+        System.out.println("testing ABR ladder planning...");
+        
+        // 640x480, 640x360, 320x240, 200x100 and 160x120; 200x100 cannot be
+        // the parent of 160x120
+        int[][] plan = AbrLadderTranscoder.planLadder(new int[] { 320, 640, 160, 640, 200 }, new int[] { 240, 360, 120, 480, 100 });
+        assertArrayEquals(new int[][] { { 3, -1 }, { 1, 3 }, { 0, 1 }, { 4, 0 }, { 2, 0 } }, plan);
+        
+        // renditions of the same area but a different aspect ratio are 
+        // scaled from the source
+        plan = AbrLadderTranscoder.planLadder(new int[] { 640, 480 }, new int[] { 360, 480 });
+        assertArrayEquals(new int[][] { { 0, -1 }, { 1, -1 } }, plan);
+        
+        // a rendition of the same size is scaled from the first one
+        plan = AbrLadderTranscoder.planLadder(new int[] { 320, 320 }, new int[] { 240, 240 });
+        assertArrayEquals(new int[][] { { 0, -1 }, { 1, 0 } }, plan);
+        
+        assertEquals(0, AbrLadderTranscoder.planLadder(new int[0], new int[0]).length);
+    }
+    
+    @Test
+    public void testSettings() throws Exception {
+        System.out.println("testing ABR ladder settings...");
+        
+        AbrLadderTranscoder t = new AbrLadderTranscoder("unused");
+        try {
+            t.addRendition("unused", null, 0, 120, 0);
+            fail("illegal rendition size");
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            t.setKeyFrameInterval(0);
+            fail("illegal key frame interval");
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            t.transcode();
+            fail("there are no renditions");
+        } catch (LibavException ex) {
+        }
+        
+        assertEquals(0, t.addRendition("unused", null, 160, 120, 0));
+        assertEquals(1, t.addRendition("unused", null, 80, 60, 0));
+        assertEquals(2, t.getRenditionCount());
+    }
+    
+    @Test
+    public void testTranscode() throws Exception {
+        System.out.println("testing ABR ladder transcoding...");
+        File src = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        src.deleteOnExit();
+        
+        int[][] sizes = new int[][] { { 80, 60 }, { 160, 120 }, { 120, 90 } };
+        File[] outputs = new File[sizes.length];
+        AbrLadderTranscoder t = new AbrLadderTranscoder(src.getAbsolutePath());
+        t.setAudioCodecId(null);
+        t.setGopSize(1000);
+        t.setKeyFrameInterval(500);
+        for (int i = 0; i < sizes.length; i++) {
+            outputs[i] = File.createTempFile(UUID.randomUUID().toString(), ".avi");
+            outputs[i].deleteOnExit();
+            t.addRendition(outputs[i].getAbsolutePath(), "avi", sizes[i][0], sizes[i][1], 0);
+        }
+        t.transcode();
+        
+        // every decoded frame reaches all renditions
+        List<Double> times = null;
+        List<List<Boolean>> keys = new ArrayList<List<Boolean>>();
+        for (int i = 0; i < sizes.length; i++) {
+            List<Double> ts = new ArrayList<Double>();
+            List<Boolean> k = new ArrayList<Boolean>();
+            readVideo(outputs[i], sizes[i][0], sizes[i][1], ts, k);
+            assertFalse(ts.isEmpty());
+            if (times == null)
+                times = ts;
+            assertEquals(times, ts);
+            keys.add(k);
+        }
+        
+        // the first frame at or after each multiple of the key frame 
+        // interval is a key frame in all renditions
+        double next = 0;
+        int aligned = 0;
+        for (int i = 0; i < times.size(); i++) {
+            if (times.get(i) * 1000 + 1e-6 < next)
+                continue;
+            for (List<Boolean> k : keys)
+                assertTrue("frame " + i + " is not a key frame", k.get(i));
+            while (next <= times.get(i) * 1000 + 1e-6)
+                next += 500;
+            aligned++;
+        }
+        assertTrue(aligned > 1);
+    }
+    
+    private static void readVideo(File file, int width, int height, List<Double> times, List<Boolean> keys) throws LibavException {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(file.getAbsolutePath());
+        IPacketWrapper pw = PacketWrapperFactory.getInstance().alloc();
+        try {
+            fc.findStreamInfo();
+            IStreamWrapper[] streams = fc.getStreams();
+            assertEquals(1, streams.length);
+            ICodecContextWrapper cc = streams[0].getCodecContext();
+            assertEquals(MediaType.VIDEO, cc.getCodecType());
+            assertEquals(width, cc.getWidth());
+            assertEquals(height, cc.getHeight());
+            
+            while (fc.readNextPacket(pw)) {
+                long ts = pw.getPts() == AVUtilLibrary.AV_NOPTS_VALUE ? pw.getDts() : pw.getPts();
+                times.add(streams[0].getTimeBase().mul(ts).doubleValue());
+                keys.add((pw.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0);
+                pw.free();
+            }
+        } finally {
+            pw.free();
+            fc.close();
+        }
+    }
+    
+}
@@ -19,11 +19,19 @@ package org.libav;
 
 import java.io.File;
 import java.util.UUID;
+import static org.junit.Assert.*;
 import org.junit.Test;
 import org.libav.avcodec.CodecID;
 import org.libav.avcodec.FrameWrapperFactory;
 import org.libav.avcodec.ICodecContextWrapper;
 import org.libav.avcodec.IFrameWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IOutputFormatWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avformat.OutputFormatWrapperFactory;
 import org.libav.avutil.PixelFormat;
 import org.libav.avutil.SampleFormat;
 import org.libav.avutil.bridge.AVUtilLibrary;
@@ -103,4 +111,59 @@ public class DefaultMediaWriterTest {
         me.close();
     }
     
+    @Test
+    public void testStreamCopyCodecTag() throws Exception {
+        System.out.println("testing AVI to MP4 stream copy...");
+        File src = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        File dst = File.createTempFile(UUID.randomUUID().toString(), ".mp4");
+        src.deleteOnExit();
+        dst.deleteOnExit();
+        
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(src.getAbsolutePath());
+        IPacketWrapper pw = PacketWrapperFactory.getInstance().alloc();
+        fc.findStreamInfo();
+        IStreamWrapper[] inputs = fc.getStreams();
+        CodecID[] codecs = new CodecID[inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            codecs[i] = inputs[i].getCodecContext().getCodecId();
+        
+        // the AVI codec tags (e.g. XVID) are not valid in MP4, the header 
+        // cannot be written unless they are reset
+        Remuxer remuxer = new Remuxer(inputs, dst.getAbsolutePath(), "mp4");
+        while (fc.readNextPacket(pw)) {
+            remuxer.processPacket(fc, pw);
+            pw.free();
+        }
+        long packets = remuxer.getPacketCount();
+        remuxer.close();
+        pw.free();
+        fc.close();
+        assertTrue(packets > 0);
+        
+        IOutputFormatWrapper mp4 = OutputFormatWrapperFactory.getInstance().guessFormat("mp4", null, null);
+        fc = FormatContextWrapperFactory.getInstance().openMedia(dst.getAbsolutePath());
+        pw = PacketWrapperFactory.getInstance().alloc();
+        try {
+            fc.findStreamInfo();
+            IStreamWrapper[] outputs = fc.getStreams();
+            assertEquals(inputs.length, outputs.length);
+            for (int i = 0; i < outputs.length; i++) {
+                ICodecContextWrapper cc = outputs[i].getCodecContext();
+                assertEquals(codecs[i], cc.getCodecId());
+                if (mp4.getCodecTag(codecs[i]) != 0)
+                    assertEquals(codecs[i], mp4.getCodecId(cc.getCodecTag()));
+            }
+            
+            long count = 0;
+            while (fc.readNextPacket(pw)) {
+                count++;
+                pw.free();
+            }
+            assertEquals(packets, count);
+        } finally {
+            pw.free();
+            fc.close();
+        }
+    }
+    
 }
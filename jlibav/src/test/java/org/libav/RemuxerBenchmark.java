@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.File;
+import java.io.IOException;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+
+/**
+ * Stream-copy remuxing benchmark. Packets are read directly from the format
+ * context and passed to the remuxer, so the result is the throughput of
+ * demuxing, timestamp rescaling and muxing (no decoding is involved).
+ * 
+ * Usage: RemuxerBenchmark [media_url [output_format [iterations]]]
+ * 
+ * @author Ondrej Perutka
+ */
+public class RemuxerBenchmark {
+    
+    public static void main(String[] args) throws LibavException, IOException {
+        String url;
+        if (args.length > 0)
+            url = args[0];
+        else {
+            File tmp = DefaultMediaPlayerTest.makeTempFromResource(RemuxerBenchmark.class.getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+            tmp.deleteOnExit();
+            url = tmp.getAbsolutePath();
+        }
+        String format = args.length > 1 ? args[1] : "matroska";
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        
+        File out = File.createTempFile("remux", ".out");
+        out.deleteOnExit();
+        
+        // warm up
+        run(url, out.getAbsolutePath(), format, new long[2]);
+        
+        long[] counts = new long[2];
+        long t = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            run(url, out.getAbsolutePath(), format, counts);
+        t = System.nanoTime() - t;
+        
+        System.out.printf("stream copy to %s: %d packets, %.0f packets/s, %.3f GB/s\n", format, counts[0], counts[0] * 1e9 / t, counts[1] / (double)t);
+    }
+    
+    private static void run(String url, String output, String format, long[] counts) throws LibavException {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        IPacketWrapper pw = PacketWrapperFactory.getInstance().alloc();
+        Remuxer remuxer = null;
+        
+        try {
+            fc.findStreamInfo();
+            remuxer = new Remuxer(fc.getStreams(), output, format);
+            while (fc.readNextPacket(pw)) {
+                remuxer.processPacket(fc, pw);
+                pw.free();
+            }
+            
+            counts[0] += remuxer.getPacketCount();
+            counts[1] += remuxer.getByteCount();
+        } finally {
+            if (remuxer != null)
+                remuxer.close();
+            pw.free();
+            fc.close();
+        }
+    }
+    
+}
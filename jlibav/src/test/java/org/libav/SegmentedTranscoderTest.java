@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.avutil.bridge.AVUtilLibrary;
+
+/**
+ * Unit test for the SegmentedTranscoder class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class SegmentedTranscoderTest {
+    
+    @Test
+    public void testSegmentBoundaries() throws Exception {
+        System.out.println("testing segment boundaries...");
+        File src = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        src.deleteOnExit();
+        
+        assertArrayEquals(new long[] { 0, Long.MAX_VALUE }, SegmentedTranscoder.findSegmentBoundaries(src.getAbsolutePath(), 1));
+        
+        long[] bounds = SegmentedTranscoder.findSegmentBoundaries(src.getAbsolutePath(), 4);
+        assertTrue(bounds.length > 2);
+        assertTrue(bounds.length <= 5);
+        assertEquals(0, bounds[0]);
+        assertEquals(Long.MAX_VALUE, bounds[bounds.length - 1]);
+        for (int i = 1; i < bounds.length; i++)
+            assertTrue(bounds[i] > bounds[i - 1]);
+        
+        // every inner boundary is a key frame of the video stream
+        List<Long> times = new ArrayList<Long>();
+        List<Boolean> keys = new ArrayList<Boolean>();
+        readVideo(src, times, keys);
+        for (int i = 1; i < bounds.length - 1; i++) {
+            int j = times.indexOf(bounds[i]);
+            assertTrue("boundary " + bounds[i] + " is not a frame", j >= 0);
+            assertTrue("boundary " + bounds[i] + " is not a key frame", keys.get(j));
+        }
+    }
+    
+    @Test
+    public void testSettings() throws Exception {
+        System.out.println("testing segmented transcoder settings...");
+        
+        SegmentedTranscoder t = new SegmentedTranscoder("unused", "unused", null);
+        try {
+            t.setSegmentCount(0);
+            fail("illegal segment count");
+        } catch (IllegalArgumentException ex) {
+        }
+        t.setSegmentCount(3);
+        assertEquals(3, t.getSegmentCount());
+    }
+    
+    @Test
+    public void testConcatenationOrder() throws Exception {
+        System.out.println("testing segment concatenation order...");
+        File src = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        src.deleteOnExit();
+        File dst = File.createTempFile(UUID.randomUUID().toString(), ".avi");
+        dst.deleteOnExit();
+        File tmp = File.createTempFile(UUID.randomUUID().toString(), "");
+        assertTrue(tmp.delete() && tmp.mkdir());
+        tmp.deleteOnExit();
+        
+        long[] bounds = SegmentedTranscoder.findSegmentBoundaries(src.getAbsolutePath(), 3);
+        assertTrue(bounds.length > 2);
+        
+        SegmentedTranscoder t = new SegmentedTranscoder(src.getAbsolutePath(), dst.getAbsolutePath(), "avi");
+        t.setAudioCodecId(null);
+        t.setSegmentCount(3);
+        t.setTemporaryDirectory(tmp);
+        t.transcode();
+        
+        // segment files are removed
+        assertEquals(0, tmp.listFiles().length);
+        
+        List<Long> srcTimes = new ArrayList<Long>();
+        readVideo(src, srcTimes, new ArrayList<Boolean>());
+        List<Long> times = new ArrayList<Long>();
+        List<Boolean> keys = new ArrayList<Boolean>();
+        readVideo(dst, times, keys);
+        
+        // all frames are there exactly once and the segments follow each 
+        // other in the source order
+        assertEquals(srcTimes.size(), times.size());
+        for (int i = 1; i < times.size(); i++)
+            assertTrue("frame " + i + " is out of order", times.get(i) > times.get(i - 1));
+        
+        // each segment starts with a key frame
+        for (int i = 0; i < bounds.length - 1; i++) {
+            int j = srcTimes.indexOf(Math.max(bounds[i], srcTimes.get(0)));
+            assertTrue(j >= 0);
+            assertTrue("segment " + i + " does not start with a key frame", keys.get(j));
+        }
+    }
+    
+    private static void readVideo(File file, List<Long> times, List<Boolean> keys) throws LibavException {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(file.getAbsolutePath());
+        IPacketWrapper pw = PacketWrapperFactory.getInstance().alloc();
+        try {
+            fc.findStreamInfo();
+            IStreamWrapper[] streams = fc.getStreams();
+            IStreamWrapper vs = null;
+            for (IStreamWrapper sw : streams) {
+                if (sw.getCodecContext().getCodecType() == MediaType.VIDEO) {
+                    vs = sw;
+                    break;
+                }
+            }
+            assertNotNull(vs);
+            
+            while (fc.readNextPacket(pw)) {
+                if (pw.getStreamIndex() == vs.getIndex()) {
+                    long ts = pw.getPts() == AVUtilLibrary.AV_NOPTS_VALUE ? pw.getDts() : pw.getPts();
+                    times.add(vs.getTimeBase().mul(1000).mul(ts).longValue());
+                    keys.add((pw.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0);
+                }
+                pw.free();
+            }
+        } finally {
+            pw.free();
+            fc.close();
+        }
+    }
+    
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.SegmentingMediaWriter.SegmentFormat;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+
+/**
+ * Unit test for the SegmentingMediaWriter class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class SegmentingMediaWriterTest {
+    
+    @Test
+    public void testSegmentRollover() throws Exception {
+        System.out.println("testing segment rollover and playlist content...");
+        File dir = File.createTempFile(UUID.randomUUID().toString(), "");
+        assertTrue(dir.delete() && dir.mkdir());
+        File playlist = new File(dir, "live.m3u8");
+        
+        // 10 s at 25 fps with a key frame every second, 2 s segments and 
+        // a playlist of 2 segments
+        SegmentingMediaWriter mw = new SegmentingMediaWriter(playlist.getPath(), SegmentFormat.MPEGTS, 2000, 2);
+        DefaultMediaEncoder me = new DefaultMediaEncoder(mw);
+        int vsIndex = mw.addVideoStream(CodecID.MPEG4, 160, 120);
+        ICodecContextWrapper cc = mw.getVideoStream(vsIndex).getCodecContext();
+        cc.setPixelFormat(PixelFormat.YUV420P);
+        cc.setGopSize(25);
+        cc.setMaxBFrames(0);
+        IEncoder ve = me.getVideoStreamEncoder(vsIndex);
+        
+        IFrameWrapper picture = FrameWrapperFactory.getInstance().allocPicture(cc.getPixelFormat(), cc.getWidth(), cc.getHeight());
+        picture.setPts(0);
+        
+        try {
+            mw.writeHeader();
+            for (int i = 0; i < 250; i++) {
+                ve.processFrame(null, picture);
+                picture.setPts(picture.getPts() + 40);
+                
+                if (i == 130) {
+                    // two segments have been completed by now
+                    List<String> lines = readLines(playlist);
+                    assertEquals(2, mw.getSegmentCount());
+                    assertEquals("#EXT-X-MEDIA-SEQUENCE:0", getTag(lines, "#EXT-X-MEDIA-SEQUENCE"));
+                    assertEquals(2, getSegments(lines).size());
+                    assertFalse(lines.contains("#EXT-X-ENDLIST"));
+                    assertFalse(new File(dir, "live-2.ts").exists());
+                    assertTrue(new File(dir, "live-2.ts.tmp").exists());
+                }
+            }
+            me.flush();
+            mw.writeTrailer();
+        } finally {
+            me.close();
+            picture.free();
+        }
+        
+        List<String> lines = readLines(playlist);
+        assertEquals(5, mw.getSegmentCount());
+        assertEquals("#EXTM3U", lines.get(0));
+        assertEquals("#EXT-X-VERSION:3", getTag(lines, "#EXT-X-VERSION"));
+        assertNull(getTag(lines, "#EXT-X-MAP"));
+        assertEquals("#EXT-X-TARGETDURATION:2", getTag(lines, "#EXT-X-TARGETDURATION"));
+        assertEquals("#EXT-X-MEDIA-SEQUENCE:3", getTag(lines, "#EXT-X-MEDIA-SEQUENCE"));
+        assertEquals("#EXT-X-ENDLIST", lines.get(lines.size() - 1));
+        
+        List<String> segments = getSegments(lines);
+        assertEquals(2, segments.size());
+        assertEquals("live-3.ts", segments.get(0));
+        assertEquals("live-4.ts", segments.get(1));
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lines.get(i).startsWith("#EXTINF:"))
+                continue;
+            double duration = Double.parseDouble(lines.get(i).substring(8, lines.get(i).indexOf(',')));
+            assertTrue(duration > 1.5 && duration <= 2.0);
+            assertTrue(new File(dir, lines.get(i + 1)).length() > 0);
+        }
+        
+        // segments are deleted one playlist length after they expire
+        assertFalse(new File(dir, "live-0.ts").exists());
+        assertTrue(new File(dir, "live-1.ts").exists());
+        assertTrue(new File(dir, "live-2.ts").exists());
+        for (File f : dir.listFiles()) {
+            assertFalse(f.getName().endsWith(".tmp"));
+            f.delete();
+        }
+        dir.delete();
+    }
+    
+    private static List<String> readLines(File file) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        List<String> result = new ArrayList<String>();
+        try {
+            String line;
+            while ((line = br.readLine()) != null)
+                result.add(line);
+        } finally {
+            br.close();
+        }
+        
+        return result;
+    }
+    
+    private static String getTag(List<String> lines, String tag) {
+        for (String line : lines) {
+            if (line.equals(tag) || line.startsWith(tag + ":"))
+                return line;
+        }
+        
+        return null;
+    }
+    
+    private static List<String> getSegments(List<String> lines) {
+        List<String> result = new ArrayList<String>();
+        for (String line : lines) {
+            if (!line.startsWith("#"))
+                result.add(line);
+        }
+        
+        return result;
+    }
+    
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import org.libav.LibavException;
+import org.libav.avutil.SampleFormat;
+
+/**
+ * Conference mixer benchmark. Every participant pushes one 20 ms S16 frame 
+ * per mixing period and receives its mix-minus output. The running time is 
+ * compared with a naive mix-minus of the same samples which sums all other 
+ * participants for each participant (see ConferenceMixerTest for 
+ * the correctness of the output).
+ * 
+ * Usage: ConferenceMixerBenchmark [participants [periods [talking]]]
+ * 
+ * @author Ondrej Perutka
+ */
+public class ConferenceMixerBenchmark {
+    
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final int FRAME_SAMPLES = 960;
+    
+    public static void main(String[] args) throws LibavException {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int periods = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int talking = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        
+        AudioFrame[] frames = new AudioFrame[participants];
+        for (int i = 0; i < participants; i++)
+            frames[i] = makeFrame(i < talking ? 0.1 + 0.01 * i : 0.0005, 200 + 10 * i);
+        
+        // warm up
+        run(frames, periods / 4);
+        
+        long t = System.nanoTime();
+        long bytes = run(frames, periods);
+        t = System.nanoTime() - t;
+        print("mix-minus", participants, periods, t);
+        System.out.printf("    output: %.1f MB/s\n", bytes * 1e3 / t);
+        
+        float[][] inputs = new float[participants][FRAME_SAMPLES * CHANNELS];
+        for (int i = 0; i < participants; i++) {
+            ByteBuffer bb = ByteBuffer.wrap(frames[i].getSamples()).order(ByteOrder.nativeOrder());
+            for (int k = 0; k < inputs[i].length; k++)
+                inputs[i][k] = bb.getShort(2 * k) / 32768f;
+        }
+        float[] output = new float[FRAME_SAMPLES * CHANNELS];
+        naive(inputs, output, periods / 4);
+        t = System.nanoTime();
+        naive(inputs, output, periods);
+        t = System.nanoTime() - t;
+        print("naive mix-minus (mixing only)", participants, periods, t);
+    }
+    
+    private static void print(String name, int participants, int periods, long time) {
+        double realTime = periods * (double)FRAME_SAMPLES / SAMPLE_RATE;
+        System.out.printf("%s, %d participants: %.1f us per period, %.0f ns per participant, %.1fx real time\n", 
+                name, participants, time / 1e3 / periods, time / (double)periods / participants, realTime * 1e9 / time);
+    }
+    
+    private static AudioFrame makeFrame(double amplitude, double frequency) {
+        ByteBuffer bb = ByteBuffer.allocate(FRAME_SAMPLES * CHANNELS * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            short s = (short)(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+            for (int c = 0; c < CHANNELS; c++)
+                bb.putShort(s);
+        }
+        
+        return new AudioFrame(bb.array(), CHANNELS, SampleFormat.S16, SAMPLE_RATE);
+    }
+    
+    private static long run(AudioFrame[] frames, int periods) throws LibavException {
+        ConferenceMixer mixer = new ConferenceMixer(SAMPLE_RATE, CHANNELS, FRAME_SAMPLES, SampleFormat.S16);
+        ConferenceMixer.Participant[] participants = new ConferenceMixer.Participant[frames.length];
+        final long[] bytes = new long[1];
+        IAudioFrameConsumer counter = new IAudioFrameConsumer() {
+            @Override
+            public void processFrame(Object producer, AudioFrame frame) throws LibavException {
+                bytes[0] += frame.getFrameSize();
+            }
+        };
+        
+        for (int i = 0; i < frames.length; i++) {
+            participants[i] = mixer.addParticipant();
+            participants[i].addAudioFrameConsumer(counter);
+        }
+        
+        for (int p = 0; p < periods; p++) {
+            for (int i = 0; i < frames.length; i++)
+                participants[i].processFrame(null, frames[i]);
+            mixer.mix();
+        }
+        
+        return bytes[0];
+    }
+    
+    private static void naive(float[][] inputs, float[] output, int periods) {
+        for (int p = 0; p < periods; p++) {
+            for (int i = 0; i < inputs.length; i++) {
+                Arrays.fill(output, 0);
+                for (int j = 0; j < inputs.length; j++) {
+                    if (i == j)
+                        continue;
+                    float[] in = inputs[j];
+                    for (int k = 0; k < output.length; k++)
+                        output[k] += in[k];
+                }
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.LibavException;
+import org.libav.avutil.SampleFormat;
+
+/**
+ * Unit test for the mix-minus of the ConferenceMixer class. Participants 
+ * send distinct constant samples, so the expected output of each 
+ * participant is the clipped sum of the constants of all other speakers.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ConferenceMixerTest {
+    
+    private static final int SAMPLE_RATE = 8000;
+    private static final int CHANNELS = 2;
+    private static final int FRAME_SAMPLES = 80;
+    private static final double DELTA = 1e-6;
+    
+    @Test
+    public void testMixMinus() throws Exception {
+        System.out.println("mix-minus test...");
+        
+        ConferenceMixer mixer = createMixer(SampleFormat.FLT);
+        Client a = new Client(mixer, 0.1f);
+        Client b = new Client(mixer, 0.2f);
+        Client c = new Client(mixer, -0.4f);
+        // a participant which does not send anything receives the full mix
+        Client listener = new Client(mixer, 0);
+        
+        period(mixer, a, b, c, listener);
+        assertTrue(a.isSpeaking() && b.isSpeaking() && c.isSpeaking());
+        assertFalse(listener.isSpeaking());
+        assertOutput(-0.2f, a);
+        assertOutput(-0.3f, b);
+        assertOutput(0.3f, c);
+        assertOutput(-0.1f, listener);
+        
+        // the output does not drift over time
+        for (int i = 0; i < 10; i++)
+            period(mixer, a, b, c, listener);
+        assertOutput(-0.2f, a);
+        assertOutput(-0.3f, b);
+        assertOutput(0.3f, c);
+        assertOutput(-0.1f, listener);
+        assertEquals(11, a.count);
+        assertEquals(11, listener.count);
+    }
+    
+    @Test
+    public void testClipping() throws Exception {
+        System.out.println("mix-minus clipping test...");
+        
+        ConferenceMixer mixer = createMixer(SampleFormat.FLT);
+        Client a = new Client(mixer, 0.7f);
+        Client b = new Client(mixer, 0.6f);
+        Client c = new Client(mixer, -0.2f);
+        Client d = new Client(mixer, 0.3f);
+        
+        period(mixer, a, b, c, d);
+        // 0.6 - 0.2 + 0.3
+        assertOutput(0.7f, a);
+        // 0.7 - 0.2 + 0.3
+        assertOutput(0.8f, b);
+        // 0.7 + 0.6 + 0.3 is clipped
+        assertOutput(1f, c);
+        // 0.7 + 0.6 - 0.2 is clipped
+        assertOutput(1f, d);
+        
+        // integer output is clipped as well
+        mixer = createMixer(SampleFormat.S16);
+        a = new Client(mixer, -0.8f);
+        b = new Client(mixer, -0.7f);
+        c = new Client(mixer, 0.1f);
+        period(mixer, a, b, c);
+        assertArrayEquals(expected(-0.6f), a.output, 1.5f / 32768);
+        assertArrayEquals(expected(-0.7f), b.output, 1.5f / 32768);
+        assertArrayEquals(expected(-1f), c.output, 1.5f / 32768);
+    }
+    
+    @Test
+    public void testJoinLeave() throws Exception {
+        System.out.println("mix-minus join/leave test...");
+        
+        ConferenceMixer mixer = createMixer(SampleFormat.FLT);
+        Client a = new Client(mixer, 0.1f);
+        Client b = new Client(mixer, 0.2f);
+        Client c = new Client(mixer, 0.3f);
+        period(mixer, a, b, c);
+        assertOutput(0.5f, a);
+        
+        // a leaving participant is no longer mixed and receives nothing
+        mixer.removeParticipant(c.participant);
+        assertEquals(2, mixer.getParticipantCount());
+        period(mixer, a, b, c);
+        assertOutput(0.2f, a);
+        assertOutput(0.1f, b);
+        assertEquals(1, c.count);
+        
+        // a joining participant is mixed as soon as its jitter buffer is
+        // filled
+        Client d = new Client(mixer, 0.4f);
+        period(mixer, a, b, d);
+        assertOutput(0.6f, a);
+        assertOutput(0.5f, b);
+        assertOutput(0.3f, d);
+        assertEquals(1, d.count);
+        
+        // a participant which stops sending leaves the mix after an underrun
+        // and receives the mix of the others
+        period(mixer, a, d);
+        assertFalse(b.isSpeaking());
+        assertEquals(1, b.participant.getUnderrunCount());
+        assertOutput(0.4f, a);
+        assertOutput(0.5f, b);
+        assertOutput(0.1f, d);
+    }
+    
+    private static ConferenceMixer createMixer(SampleFormat outputFormat) {
+        ConferenceMixer mixer = new ConferenceMixer(SAMPLE_RATE, CHANNELS, FRAME_SAMPLES, outputFormat);
+        mixer.setJitterDelay(1);
+        mixer.setMaxActiveSpeakers(8);
+        return mixer;
+    }
+    
+    /**
+     * Send one frame of each given client and mix.
+     */
+    private static void period(ConferenceMixer mixer, Client... clients) throws LibavException {
+        for (Client c : clients)
+            c.send();
+        mixer.mix();
+    }
+    
+    private static float[] expected(float value) {
+        float[] result = new float[FRAME_SAMPLES * CHANNELS];
+        Arrays.fill(result, value);
+        return result;
+    }
+    
+    private static void assertOutput(float expected, Client client) {
+        assertArrayEquals(expected(expected), client.output, (float)DELTA);
+    }
+    
+    private static class Client implements IAudioFrameConsumer {
+        private final ConferenceMixer.Participant participant;
+        private final float[] input;
+        private final float[] output;
+        private int count;
+        
+        public Client(ConferenceMixer mixer, float value) {
+            participant = mixer.addParticipant();
+            participant.addAudioFrameConsumer(this);
+            input = expected(value);
+            output = new float[FRAME_SAMPLES * CHANNELS];
+            count = 0;
+        }
+        
+        public void send() {
+            participant.write(input, 0, input.length);
+        }
+        
+        public boolean isSpeaking() {
+            return participant.isSpeaking();
+        }
+        
+        @Override
+        public void processFrame(Object producer, AudioFrame frame) throws LibavException {
+            assertSame(participant, producer);
+            assertEquals(output.length * frame.getSampleFormat().getBytesPerSample(), frame.getFrameSize());
+            
+            ByteBuffer bb = ByteBuffer.wrap(frame.getSamples()).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < output.length; i++) {
+                if (frame.getSampleFormat() == SampleFormat.S16)
+                    output[i] = bb.getShort(2 * i) / 32768f;
+                else
+                    output[i] = bb.getFloat(4 * i);
+            }
+            count++;
+        }
+    }
+    
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.avutil;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for the PlaneLayout class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class PlaneLayoutTest {
+    
+    @Test
+    public void testPlaneHeight() {
+        System.out.println("plane height test...");
+        
+        assertEquals(3, PlaneLayout.getPlaneCount(PixelFormat.YUV420P));
+        assertEquals(1, PlaneLayout.getPlaneCount(PixelFormat.BGRA));
+        assertEquals(2, PlaneLayout.getPlaneCount(PixelFormat.NV12));
+        
+        assertEquals(1080, PlaneLayout.getPlaneHeight(PixelFormat.YUV420P, 0, 1080));
+        assertEquals(540, PlaneLayout.getPlaneHeight(PixelFormat.YUV420P, 1, 1080));
+        // odd heights are rounded up
+        assertEquals(241, PlaneLayout.getPlaneHeight(PixelFormat.YUV420P, 2, 481));
+        assertEquals(121, PlaneLayout.getPlaneHeight(PixelFormat.YUV410P, 1, 481));
+        assertEquals(481, PlaneLayout.getPlaneHeight(PixelFormat.YUV422P, 1, 481));
+    }
+    
+    @Test
+    public void testPlaneOffset() {
+        System.out.println("plane offset test...");
+        
+        assertTrue(PlaneLayout.isOffsetKnown(PixelFormat.YUV420P));
+        assertFalse(PlaneLayout.isOffsetKnown(PixelFormat.NV12));
+        assertFalse(PlaneLayout.isOffsetKnown(PixelFormat.BGRA));
+        
+        assertEquals(100 * 1920 + 40, PlaneLayout.getPlaneOffset(PixelFormat.YUV420P, 0, 40, 100, 1920));
+        assertEquals(50 * 960 + 20, PlaneLayout.getPlaneOffset(PixelFormat.YUV420P, 1, 40, 100, 960));
+        assertEquals(100 * 960 + 20, PlaneLayout.getPlaneOffset(PixelFormat.YUV422P, 2, 40, 100, 960));
+        assertEquals(100 * 480 + 10, PlaneLayout.getPlaneOffset(PixelFormat.YUV411P, 1, 40, 100, 480));
+        
+        assertEquals(1919, PlaneLayout.getPlaneWidth(PixelFormat.YUV420P, 0, 1919));
+        assertEquals(960, PlaneLayout.getPlaneWidth(PixelFormat.YUV420P, 1, 1919));
+        assertEquals(480, PlaneLayout.getPlaneWidth(PixelFormat.YUV410P, 2, 1919));
+        
+        try {
+            PlaneLayout.getPlaneOffset(PixelFormat.NV12, 0, 0, 0, 1920);
+            fail("unknown offsets");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+    
+    @Test
+    public void testUnknownLayout() {
+        System.out.println("unknown plane layout test...");
+        
+        assertEquals(-1, PlaneLayout.getPlaneCount(PixelFormat.PAL8));
+        assertNull(PlaneLayout.getPlaneShifts(PixelFormat.PAL8));
+        
+        try {
+            PlaneLayout.getPlaneHeight(PixelFormat.YUV420P, 3, 480);
+            fail("no such plane");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+    
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.LibavException;
+
+/**
+ * Unit test for the AbstractAsyncConsumer class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AsyncConsumerTest {
+    
+    /**
+     * Every fifth item is a key item. Delivery of the first item is blocked
+     * until the gate is opened.
+     */
+    private static class TestConsumer extends AbstractAsyncConsumer<Integer> {
+        private final List<Integer> delivered;
+        private final CountDownLatch first;
+        private final CountDownLatch gate;
+        
+        public TestConsumer(int capacity, OverflowPolicy policy) {
+            super("test-consumer", capacity, policy);
+            delivered = new ArrayList<Integer>();
+            first = new CountDownLatch(1);
+            gate = new CountDownLatch(1);
+        }
+        
+        public void put(Integer item) throws LibavException {
+            enqueue(this, item);
+        }
+        
+        @Override
+        protected Integer copy(Integer item) {
+            return item;
+        }
+        
+        @Override
+        protected void release(Integer item) {
+        }
+        
+        @Override
+        protected boolean isKey(Integer item) {
+            return item % 5 == 0;
+        }
+        
+        @Override
+        protected void deliver(Object producer, Integer item) throws LibavException {
+            first.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            synchronized (delivered) {
+                delivered.add(item);
+            }
+        }
+    }
+    
+    private static List<Integer> run(OverflowPolicy policy, int capacity, int count) throws Exception {
+        TestConsumer tc = new TestConsumer(capacity, policy);
+        tc.put(0);
+        tc.first.await();
+        for (int i = 1; i < count; i++)
+            tc.put(i);
+        tc.gate.countDown();
+        tc.flush();
+        tc.close();
+        
+        return tc.delivered;
+    }
+    
+    @Test
+    public void testBlock() throws Exception {
+        System.out.println("async consumer BLOCK policy test...");
+        
+        final TestConsumer tc = new TestConsumer(2, OverflowPolicy.BLOCK);
+        tc.put(0);
+        tc.first.await();
+        tc.put(1);
+        tc.put(2);
+        
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tc.put(3);
+                } catch (LibavException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        t.start();
+        t.join(100);
+        assertTrue(t.isAlive());
+        
+        tc.gate.countDown();
+        t.join();
+        tc.flush();
+        tc.close();
+        
+        assertEquals(Arrays.asList(0, 1, 2, 3), tc.delivered);
+        assertEquals(0, tc.getDroppedCount());
+    }
+    
+    @Test
+    public void testDropOldest() throws Exception {
+        System.out.println("async consumer DROP_OLDEST policy test...");
+        assertEquals(Arrays.asList(0, 6, 7, 8), run(OverflowPolicy.DROP_OLDEST, 3, 9));
+    }
+    
+    @Test
+    public void testDropNonKey() throws Exception {
+        System.out.println("async consumer DROP_NON_KEY policy test...");
+        // 1, 2, 3 are queued; 4 is dropped; 5 replaces the queue; 6, 7 are 
+        // queued; 8 is dropped and so is 9 (waiting for a key item); 10 
+        // replaces the queue; 11, 12 are queued
+        assertEquals(Arrays.asList(0, 10, 11, 12), run(OverflowPolicy.DROP_NON_KEY, 3, 13));
+    }
+    
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.io.IOException;
+import org.libav.DefaultMediaPlayerTest;
+import org.libav.LibavException;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+
+/**
+ * Packet reading benchmark. It compares the copying packet reader (one
+ * packet per buffer insertion) with the direct batched packet reader.
+ * 
+ * Usage: BufferedPacketReaderBenchmark [media_url [iterations]]
+ * 
+ * @author Ondrej Perutka
+ */
+public class BufferedPacketReaderBenchmark {
+    
+    public static void main(String[] args) throws LibavException, IOException {
+        String url;
+        if (args.length > 0)
+            url = args[0];
+        else {
+            File tmp = DefaultMediaPlayerTest.makeTempFromResource(BufferedPacketReaderBenchmark.class.getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+            tmp.deleteOnExit();
+            url = tmp.getAbsolutePath();
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        
+        // warm up
+        run(url, 1, true);
+        run(url, BufferedPacketReader.DEFAULT_BATCH_SIZE, false);
+        
+        long copyCount = 0, copyTime = 0;
+        long directCount = 0, directTime = 0;
+        long t;
+        
+        for (int i = 0; i < iterations; i++) {
+            t = System.nanoTime();
+            copyCount += run(url, 1, true);
+            copyTime += System.nanoTime() - t;
+            
+            t = System.nanoTime();
+            directCount += run(url, BufferedPacketReader.DEFAULT_BATCH_SIZE, false);
+            directTime += System.nanoTime() - t;
+        }
+        
+        System.out.printf("copying reader:        %d packets, %.0f packets/s\n", copyCount, copyCount * 1e9 / copyTime);
+        System.out.printf("direct batched reader: %d packets, %.0f packets/s\n", directCount, directCount * 1e9 / directTime);
+    }
+    
+    private static long run(String url, int batchSize, boolean copyPackets) throws LibavException {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        BufferedPacketReader reader = new BufferedPacketReader(fc, 50, batchSize, copyPackets);
+        IPacketWrapper pw;
+        long result = 0;
+        
+        try {
+            while ((pw = reader.nextPacket()) != null) {
+                pw.free();
+                result++;
+            }
+        } finally {
+            reader.close();
+            fc.close();
+        }
+        
+        return result;
+    }
+    
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.DefaultMediaPlayerTest;
+import org.libav.DefaultMediaReader;
+import org.libav.LibavException;
+import org.libav.ReplayMediaReader;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+
+/**
+ * 
+ * @author Ondrej Perutka
+ */
+public class PacketCaptureTest {
+    
+    private static class DtsCollector implements IPacketConsumer {
+        private final List<Long> dts = new ArrayList<Long>();
+        
+        @Override
+        public void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+            dts.add(packet.getDts());
+        }
+    }
+    
+    private File capture() throws Exception {
+        File tmp = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        tmp.deleteOnExit();
+        File capture = File.createTempFile("jlibav-", ".cap");
+        capture.deleteOnExit();
+        
+        DefaultMediaReader mr = new DefaultMediaReader(tmp.getAbsolutePath());
+        PacketCaptureWriter pcw = new PacketCaptureWriter(capture, mr.getFormatContext().getStreams());
+        for (int i = 0; i < mr.getStreamCount(); i++)
+            mr.addPacketConsumer(i, pcw);
+        while (mr.readNextPacket()) { }
+        pcw.close();
+        mr.close();
+        
+        assertTrue(pcw.getPacketCount() > 0);
+        assertEquals(pcw.getLength(), capture.length());
+        
+        return capture;
+    }
+    
+    @Test
+    public void testReplay() throws Exception {
+        System.out.println("packet capture replay test...");
+        File capture = capture();
+        
+        ReplayMediaReader mr = new ReplayMediaReader(capture);
+        DtsCollector first = new DtsCollector();
+        DtsCollector second = new DtsCollector();
+        try {
+            assertTrue(mr.getStreamCount() > 0);
+            for (int i = 0; i < mr.getStreamCount(); i++)
+                mr.addPacketConsumer(i, first);
+            while (mr.readNextPacket()) { }
+            assertEquals(mr.getCaptureReader().getPacketCount(), first.dts.size());
+            
+            // the replay is deterministic
+            for (int i = 0; i < mr.getStreamCount(); i++) {
+                mr.removePacketConsumer(i, first);
+                mr.addPacketConsumer(i, second);
+            }
+            mr.seek(0);
+            while (mr.readNextPacket()) { }
+            assertEquals(first.dts, second.dts);
+        } finally {
+            mr.close();
+        }
+    }
+    
+    @Test
+    public void testUnclosedCapture() throws Exception {
+        System.out.println("unclosed packet capture test...");
+        File closed = capture();
+        File tmp = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        tmp.deleteOnExit();
+        File capture = File.createTempFile("jlibav-", ".cap");
+        capture.deleteOnExit();
+        
+        DefaultMediaReader mr = new DefaultMediaReader(tmp.getAbsolutePath());
+        PacketCaptureWriter pcw = new PacketCaptureWriter(capture, mr.getFormatContext().getStreams());
+        PacketCaptureReader reference = new PacketCaptureReader(closed);
+        PacketCaptureReader pcr = null;
+        try {
+            for (int i = 0; i < mr.getStreamCount(); i++)
+                mr.addPacketConsumer(i, pcw);
+            while (mr.readNextPacket()) { }
+            
+            // the last window is mapped beyond the captured data
+            assertTrue(capture.length() > pcw.getLength());
+            
+            pcr = new PacketCaptureReader(capture);
+            assertEquals(pcw.getPacketCount(), pcr.getPacketCount());
+            assertEquals(reference.getPacketCount(), pcr.getPacketCount());
+            assertEquals(reference.getDuration(), pcr.getDuration());
+            for (int i = 0; i < pcr.getStreamCount(); i++)
+                assertEquals(reference.getDuration(i), pcr.getDuration(i));
+            
+            // no zero-filled records are replayed
+            long packets = 0;
+            IPacketWrapper pw, ref;
+            while ((pw = pcr.nextPacket()) != null) {
+                ref = reference.nextPacket();
+                assertNotNull(ref);
+                assertEquals(ref.getStreamIndex(), pw.getStreamIndex());
+                assertEquals(ref.getSize(), pw.getSize());
+                assertEquals(ref.getDts(), pw.getDts());
+                ref.free();
+                pw.free();
+                packets++;
+            }
+            assertNull(reference.nextPacket());
+            assertEquals(pcw.getPacketCount(), packets);
+        } finally {
+            if (pcr != null)
+                pcr.close();
+            reference.close();
+            pcw.close();
+            mr.close();
+        }
+    }
+    
+    @Test
+    public void testSeek() throws Exception {
+        System.out.println("packet capture seek test...");
+        File capture = capture();
+        
+        PacketCaptureReader pcr = new PacketCaptureReader(capture);
+        try {
+            long duration = pcr.getDuration();
+            assertTrue(duration > 0);
+            
+            pcr.seek(duration / 2);
+            IPacketWrapper pw = pcr.nextPacket();
+            assertNotNull(pw);
+            assertTrue((pw.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0);
+            assertTrue(pcr.getTime(pw) <= duration / 2 + pcr.getStartTime(pw.getStreamIndex()));
+            pw.free();
+        } finally {
+            pcr.close();
+        }
+    }
+    
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.DefaultMediaPlayerTest;
+import org.libav.DefaultMediaReader;
+import org.libav.Remuxer;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+
+/**
+ * 
+ * @author Ondrej Perutka
+ */
+public class ReaderSchedulerTest {
+    
+    private static final int INPUTS = 200;
+    private static final int WORKERS = 2;
+    
+    @Test
+    public void testReaders() throws Exception {
+        System.out.println("reader scheduler test...");
+        File tmp = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        tmp.deleteOnExit();
+        
+        long expected = 0;
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(tmp.getAbsolutePath());
+        BufferedPacketReader br = new BufferedPacketReader(fc, 50);
+        IPacketWrapper pw;
+        while ((pw = br.nextPacket()) != null) {
+            pw.free();
+            expected++;
+        }
+        br.close();
+        fc.close();
+        
+        ReaderScheduler scheduler = new ReaderScheduler(WORKERS);
+        DefaultMediaReader[] readers = new DefaultMediaReader[INPUTS];
+        long[] packets = new long[INPUTS];
+        boolean[] eof = new boolean[INPUTS];
+        int active = INPUTS;
+        
+        try {
+            for (int i = 0; i < INPUTS; i++)
+                readers[i] = new DefaultMediaReader(tmp.getAbsolutePath(), scheduler);
+            assertEquals(INPUTS, scheduler.getReaderCount());
+            
+            // consume the readers round-robin until all of them reach EOF
+            while (active > 0) {
+                for (int i = 0; i < INPUTS; i++) {
+                    if (eof[i])
+                        continue;
+                    if (readers[i].readNextPacket())
+                        packets[i]++;
+                    else {
+                        eof[i] = true;
+                        active--;
+                    }
+                }
+            }
+            
+            for (int i = 0; i < INPUTS; i++)
+                assertEquals(expected, packets[i]);
+            
+            // seeking restarts a reader
+            if (readers[0].isSeekable()) {
+                readers[0].seek(0);
+                assertTrue(readers[0].readNextPacket());
+            }
+        } finally {
+            for (DefaultMediaReader mr : readers) {
+                if (mr != null)
+                    mr.close();
+            }
+            scheduler.shutdown();
+        }
+        
+        assertEquals(0, scheduler.getReaderCount());
+    }
+    
+    @Test
+    public void testStalledInput() throws Exception {
+        System.out.println("stalled input test...");
+        File avi = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        avi.deleteOnExit();
+        File ts = File.createTempFile("stall", ".ts");
+        ts.deleteOnExit();
+        
+        // MPEG-TS is read through the AVIOContext, so an interrupted read
+        // sets its eof_reached flag
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(avi.getAbsolutePath());
+        IPacketWrapper pw = PacketWrapperFactory.getInstance().alloc();
+        fc.findStreamInfo();
+        Remuxer remuxer = new Remuxer(fc.getStreams(), ts.getAbsolutePath(), "mpegts");
+        while (fc.readNextPacket(pw)) {
+            remuxer.processPacket(fc, pw);
+            pw.free();
+        }
+        remuxer.close();
+        pw.free();
+        fc.close();
+        
+        final long expected = countPackets(ts.getAbsolutePath());
+        byte[] data = new byte[(int)ts.length()];
+        FileInputStream fis = new FileInputStream(ts);
+        for (int n = 0; n < data.length; )
+            n += fis.read(data, n, data.length - n);
+        fis.close();
+        
+        StallingServer server = new StallingServer(data, data.length * 3 / 4 / 188 * 188);
+        ReaderScheduler scheduler = new ReaderScheduler(1, ReaderScheduler.DEFAULT_QUANTUM, 200, 50, ReaderScheduler.DEFAULT_MAX_BUFFERED_BYTES);
+        IFormatContextWrapper stalledFc = null;
+        ScheduledPacketReader stalled = null;
+        
+        try {
+            stalledFc = FormatContextWrapperFactory.getInstance().openMedia("tcp://127.0.0.1:" + server.getPort(), "mpegts");
+            stalled = scheduler.createReader(stalledFc, 50);
+            final ScheduledPacketReader reader = stalled;
+            final AtomicLong received = new AtomicLong();
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    IPacketWrapper p;
+                    while ((p = reader.nextPacket()) != null) {
+                        p.free();
+                        received.incrementAndGet();
+                    }
+                }
+            });
+            consumer.start();
+            
+            assertTrue(server.awaitPause(10000));
+            // wait until the reader times out at least once
+            Thread.sleep(500);
+            long beforeResume = received.get();
+            
+            // the only worker must not be blocked by the stalled input
+            IFormatContextWrapper fileFc = FormatContextWrapperFactory.getInstance().openMedia(avi.getAbsolutePath());
+            final ScheduledPacketReader fileReader = scheduler.createReader(fileFc, 50);
+            final AtomicLong filePackets = new AtomicLong();
+            Thread fileConsumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    IPacketWrapper p;
+                    while ((p = fileReader.nextPacket()) != null) {
+                        p.free();
+                        filePackets.incrementAndGet();
+                    }
+                }
+            });
+            fileConsumer.start();
+            fileConsumer.join(5000);
+            assertFalse("the worker is blocked by the stalled input", fileConsumer.isAlive());
+            fileReader.close();
+            fileFc.close();
+            assertTrue(filePackets.get() > 0);
+            assertFalse(server.isResumed());
+            
+            // the input delivers the rest of the data after it is resumed
+            server.resume();
+            consumer.join(10000);
+            assertFalse(consumer.isAlive());
+            assertTrue(received.get() > beforeResume);
+            // only the packet interrupted by the stall may be incomplete
+            assertTrue("received " + received.get() + " of " + expected, received.get() >= expected - 1);
+        } finally {
+            server.resume();
+            if (stalled != null)
+                stalled.close();
+            if (stalledFc != null)
+                stalledFc.close();
+            scheduler.shutdown();
+            server.close();
+        }
+    }
+    
+    private static long countPackets(String url) throws Exception {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        BufferedPacketReader br = new BufferedPacketReader(fc, 50);
+        IPacketWrapper pw;
+        long result = 0;
+        while ((pw = br.nextPacket()) != null) {
+            pw.free();
+            result++;
+        }
+        br.close();
+        fc.close();
+        
+        return result;
+    }
+    
+    /**
+     * TCP server sending the given data to a single client. It pauses after
+     * the given number of bytes until it is resumed.
+     */
+    private static class StallingServer implements Runnable {
+        private final ServerSocket serverSocket;
+        private final byte[] data;
+        private final int pauseAt;
+        private final CountDownLatch paused;
+        private final CountDownLatch resumed;
+        private final Thread thread;
+        
+        public StallingServer(byte[] data, int pauseAt) throws Exception {
+            this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            this.data = data;
+            this.pauseAt = pauseAt;
+            this.paused = new CountDownLatch(1);
+            this.resumed = new CountDownLatch(1);
+            this.thread = new Thread(this, "StallingServer");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+        
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+        
+        public boolean awaitPause(long timeout) throws InterruptedException {
+            return paused.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        
+        public boolean isResumed() {
+            return resumed.getCount() == 0;
+        }
+        
+        public void resume() {
+            resumed.countDown();
+        }
+        
+        @Override
+        public void run() {
+            try {
+                Socket s = serverSocket.accept();
+                try {
+                    OutputStream os = s.getOutputStream();
+                    os.write(data, 0, pauseAt);
+                    os.flush();
+                    paused.countDown();
+                    resumed.await(30, TimeUnit.SECONDS);
+                    os.write(data, pauseAt, data.length - pauseAt);
+                    os.flush();
+                } finally {
+                    s.close();
+                }
+            } catch (Exception ex) {
+                // closed
+            }
+        }
+        
+        public void close() throws Exception {
+            serverSocket.close();
+            thread.join();
+        }
+    }
+    
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.DefaultMediaPlayerTest;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+
+/**
+ * 
+ * @author Ondrej Perutka
+ */
+public class TimeShiftBufferTest {
+    
+    private File makeInput() throws Exception {
+        File tmp = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        tmp.deleteOnExit();
+        return tmp;
+    }
+    
+    private List<Long> readDts(String url) throws Exception {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        BufferedPacketReader br = new BufferedPacketReader(fc, 50);
+        List<Long> result = new ArrayList<Long>();
+        IPacketWrapper pw;
+        while ((pw = br.nextPacket()) != null) {
+            result.add(pw.getDts());
+            pw.free();
+        }
+        br.close();
+        fc.close();
+        
+        return result;
+    }
+    
+    private TimeShiftBuffer createBuffer(IFormatContextWrapper fc, int capacity) throws Exception {
+        BufferedPacketReader br = new BufferedPacketReader(fc, 50);
+        fc.findStreamInfo();
+        return new TimeShiftBuffer(br, fc.getStreams(), null, capacity);
+    }
+    
+    private void waitForEof(TimeShiftBuffer tsb) throws InterruptedException {
+        while (!tsb.isEof())
+            Thread.sleep(10);
+    }
+    
+    @Test
+    public void testRecording() throws Exception {
+        System.out.println("time-shift recording test...");
+        String url = makeInput().getAbsolutePath();
+        List<Long> expected = readDts(url);
+        
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        TimeShiftBuffer tsb = createBuffer(fc, 16 * 1024 * 1024);
+        try {
+            TimeShiftBuffer.Reader reader = tsb.createReader();
+            tsb.start();
+            
+            List<Long> dts = new ArrayList<Long>();
+            IPacketWrapper pw;
+            while ((pw = reader.nextPacket()) != null) {
+                dts.add(pw.getDts());
+                pw.free();
+            }
+            assertEquals(expected, dts);
+            
+            // rewind to the beginning of the recorded window
+            reader.seek(tsb.getWindowStart());
+            pw = reader.nextPacket();
+            assertNotNull(pw);
+            assertTrue((pw.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0);
+            pw.free();
+            
+            // and catch up to live
+            assertTrue(reader.goLive() > 0);
+            assertTrue(reader.getBufferedPacketCount() < expected.size());
+            reader.close();
+            assertNull(reader.nextPacket());
+        } finally {
+            tsb.close();
+            fc.close();
+        }
+    }
+    
+    @Test
+    public void testOverwrite() throws Exception {
+        System.out.println("time-shift ring overwrite test...");
+        String url = makeInput().getAbsolutePath();
+        List<Long> expected = readDts(url);
+        
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        TimeShiftBuffer tsb = createBuffer(fc, 65536);
+        try {
+            // the reader is overtaken by the recorder
+            TimeShiftBuffer.Reader reader = tsb.createReader();
+            tsb.start();
+            waitForEof(tsb);
+            assertTrue(tsb.getUsedSize() <= tsb.getCapacity());
+            
+            IPacketWrapper pw = reader.nextPacket();
+            assertNotNull(pw);
+            assertTrue((pw.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0);
+            
+            int count = 1;
+            long last = pw.getDts();
+            pw.free();
+            while ((pw = reader.nextPacket()) != null) {
+                last = pw.getDts();
+                pw.free();
+                count++;
+            }
+            assertTrue(count < expected.size());
+            assertEquals(expected.get(expected.size() - 1), (Long)last);
+        } finally {
+            tsb.close();
+            fc.close();
+        }
+    }
+    
+    @Test
+    public void testConcurrentSeek() throws Exception {
+        System.out.println("time-shift concurrent seek test...");
+        String url = makeInput().getAbsolutePath();
+        List<Long> expected = readDts(url);
+        
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        final TimeShiftBuffer tsb = createBuffer(fc, 16 * 1024 * 1024);
+        try {
+            final TimeShiftBuffer.Reader reader = tsb.createReader();
+            tsb.start();
+            waitForEof(tsb);
+            reader.seek(tsb.getWindowStart());
+            
+            // the reader is moved back while packets are being read
+            Thread seeker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        if (i % 2 == 0)
+                            reader.seek(tsb.getWindowStart());
+                        else
+                            reader.goLive();
+                        Thread.yield();
+                    }
+                }
+            });
+            seeker.start();
+            
+            // only whole records are returned
+            Set<Long> valid = new HashSet<Long>(expected);
+            IPacketWrapper pw;
+            int count = 0;
+            while ((pw = reader.nextPacket()) != null || seeker.isAlive()) {
+                if (pw == null) {
+                    reader.seek(tsb.getWindowStart());
+                    continue;
+                }
+                assertTrue(valid.contains(pw.getDts()));
+                assertTrue(pw.getStreamIndex() >= 0 && pw.getStreamIndex() < fc.getStreamCount());
+                pw.free();
+                count++;
+            }
+            seeker.join();
+            assertTrue(count > 0);
+        } finally {
+            tsb.close();
+            fc.close();
+        }
+    }
+    
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.data;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Assume;
+import org.junit.Test;
+import org.libav.DefaultMediaPlayerTest;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.util.concurrent.Execution;
+
+/**
+ * Reads thousands of file inputs concurrently using virtual reader threads. 
+ * There are many more readers waiting for a free buffer space than carrier 
+ * threads, so the test hangs (and fails on the timeout) if a waiting reader
+ * pins its carrier thread. It is skipped on JVMs without virtual threads.
+ * 
+ * @author Ondrej Perutka
+ */
+public class VirtualThreadReaderTest {
+    
+    private static final int READERS = 2000;
+    
+    @After
+    public void tearDown() {
+        Execution.reset();
+    }
+    
+    @Test(timeout = 600000)
+    public void test() throws Exception {
+        System.out.println("virtual thread packet readers test...");
+        Assume.assumeTrue(Execution.enableVirtualThreads());
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean)
+            Assume.assumeTrue(((com.sun.management.UnixOperatingSystemMXBean)os).getMaxFileDescriptorCount() > READERS + 256);
+        
+        File tmp = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        tmp.deleteOnExit();
+        
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        IFormatContextWrapper[] fcs = new IFormatContextWrapper[READERS];
+        BufferedPacketReader[] readers = new BufferedPacketReader[READERS];
+        boolean[] eof = new boolean[READERS];
+        long packets = 0;
+        int active = READERS;
+        
+        try {
+            for (int i = 0; i < READERS; i++) {
+                fcs[i] = FormatContextWrapperFactory.getInstance().openMedia(tmp.getAbsolutePath());
+                readers[i] = new BufferedPacketReader(fcs[i], 4);
+            }
+            
+            threads.resetPeakThreadCount();
+            int baseline = threads.getThreadCount();
+            
+            // consume the readers round-robin until all of them reach EOF
+            while (active > 0) {
+                for (int i = 0; i < READERS; i++) {
+                    if (eof[i])
+                        continue;
+                    IPacketWrapper pw = readers[i].nextPacket();
+                    if (pw == null) {
+                        eof[i] = true;
+                        active--;
+                    } else {
+                        pw.free();
+                        packets++;
+                    }
+                }
+            }
+            
+            int peak = threads.getPeakThreadCount();
+            System.out.printf("%d readers, %d packets, %d platform threads (peak %d)\n", READERS, packets, baseline, peak);
+            assertTrue(packets >= READERS);
+            assertTrue("too many platform threads: " + peak, peak - baseline < READERS / 4);
+        } finally {
+            for (int i = 0; i < READERS; i++) {
+                if (readers[i] != null)
+                    readers[i].close();
+                if (fcs[i] != null)
+                    fcs[i].close();
+            }
+        }
+    }
+    
+}
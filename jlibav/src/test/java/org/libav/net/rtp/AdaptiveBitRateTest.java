@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.util.Rational;
+
+/**
+ * Unit test for the RTCP report parsing, reception statistics and the 
+ * AdaptiveBitRateController. The adaptation is tested using a loopback 
+ * harness with a relay dropping packets with a given probability.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AdaptiveBitRateTest {
+    
+    private static final int MIN_BIT_RATE = 200000;
+    private static final int MAX_BIT_RATE = 2000000;
+    private static final int ROUND_SIZE = 100;
+    
+    @Test
+    public void testReceiverReport() {
+        System.out.println("receiver report test...");
+        
+        RtpReceptionStatistics stats = new RtpReceptionStatistics(90000);
+        long t = System.nanoTime();
+        int seq = 65500;
+        for (int i = 0; i < 100; i++, seq = (seq + 1) & 0xffff) {
+            if (i % 10 != 5)
+                stats.update(0x1234, seq, 3000l * i, t + i * 33333333l);
+        }
+        assertEquals(90, stats.getReceivedCount());
+        assertEquals(10, stats.getLostCount());
+        assertEquals(65536 + 63, stats.getHighestSequenceNumber());
+        
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        assertEquals(32, stats.writeReceiverReport(buffer, 0x5678, 0, 0));
+        buffer.flip();
+        
+        List<RtcpReport> reports = RtcpReport.parse(buffer);
+        assertEquals(1, reports.size());
+        RtcpReport report = reports.get(0);
+        assertEquals(RtcpReport.PT_RR, report.getPacketType());
+        assertEquals(0x5678, report.getSsrc());
+        assertEquals(1, report.getReportBlocks().size());
+        
+        RtcpReport.ReportBlock block = report.getReportBlocks().get(0);
+        assertEquals(0x1234, block.getSsrc());
+        assertEquals(10 * 256 / 100, block.getFractionLost());
+        assertEquals(10, block.getCumulativeLost());
+        assertEquals(65536 + 63, block.getHighestSequenceNumber());
+        assertTrue(block.getJitter() < 10);
+        assertEquals(-1, block.getRoundTripTime(System.currentTimeMillis()));
+        
+        // the interval counters are reset by the report
+        buffer.clear();
+        stats.writeReceiverReport(buffer, 0x5678, 0, 0);
+        buffer.flip();
+        assertEquals(0, RtcpReport.parse(buffer).get(0).getReportBlocks().get(0).getFractionLost());
+    }
+    
+    @Test
+    public void testCompoundReport() {
+        System.out.println("compound report test...");
+        
+        long now = System.currentTimeMillis();
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        // SR with a single report block
+        buffer.put((byte)0x81).put((byte)RtcpReport.PT_SR).putShort((short)12);
+        buffer.putInt(0x1111).putLong(0x0102030405060708l).putInt(90000).putInt(10).putInt(1000);
+        buffer.putInt(0x2222).putInt(0xff800000 | 0xfffffe).putInt(70000).putInt(45);
+        buffer.putInt((int)RtcpReport.getNtpMiddle(now - 150)).putInt(100 * 65536 / 1000);
+        // SDES with an empty chunk is skipped
+        buffer.put((byte)0x81).put((byte)202).putShort((short)1).putInt(0x1111);
+        // empty RR
+        buffer.put((byte)0x80).put((byte)RtcpReport.PT_RR).putShort((short)1).putInt(0x3333);
+        buffer.flip();
+        
+        List<RtcpReport> reports = RtcpReport.parse(buffer);
+        assertEquals(2, reports.size());
+        
+        RtcpReport sr = reports.get(0);
+        assertEquals(RtcpReport.PT_SR, sr.getPacketType());
+        assertEquals(0x0102030405060708l, sr.getNtpTimestamp());
+        assertEquals(90000, sr.getRtpTimestamp());
+        assertEquals(10, sr.getPacketCount());
+        assertEquals(1000, sr.getOctetCount());
+        
+        RtcpReport.ReportBlock block = sr.getReportBlocks().get(0);
+        assertEquals(0x2222, block.getSsrc());
+        assertEquals(255, block.getFractionLost());
+        assertEquals(-2, block.getCumulativeLost());
+        assertEquals(70000, block.getHighestSequenceNumber());
+        assertEquals(45, block.getJitter());
+        long rtt = block.getRoundTripTime(now);
+        assertTrue("rtt: " + rtt, rtt >= 48 && rtt <= 52);
+        
+        assertEquals(0x3333, reports.get(1).getSsrc());
+        assertTrue(reports.get(1).getReportBlocks().isEmpty());
+        
+        // truncated packets are not parsed
+        buffer.position(0).limit(20);
+        assertTrue(RtcpReport.parse(buffer).isEmpty());
+    }
+    
+    @Test
+    public void testRungs() {
+        System.out.println("bit rate rungs test...");
+        
+        TestBitRateControl control = new TestBitRateControl(MAX_BIT_RATE);
+        AdaptiveBitRateController abr = new AdaptiveBitRateController(control, 90000, MIN_BIT_RATE, MAX_BIT_RATE);
+        abr.setRungs(300000, 800000, 1500000, 5000000);
+        assertEquals(1500000, control.getBitRate());
+        
+        abr.update(0.3, 0, -1, 0);
+        assertEquals(800000, control.getBitRate());
+        abr.update(0.05, 0, -1, 1000);
+        assertEquals(800000, control.getBitRate());
+        
+        // the increase is held after a decrease
+        abr.update(0, 0, -1, 1000);
+        assertEquals(800000, control.getBitRate());
+        
+        int i = 0;
+        while (control.getBitRate() == 800000 && i < 100)
+            abr.update(0, 0, -1, 10000 + 1000 * i++);
+        assertEquals(1500000, control.getBitRate());
+        assertTrue(i > 1);
+        
+        abr.close();
+    }
+    
+    @Test
+    public void testSsrcMatching() {
+        System.out.println("report block SSRC matching test...");
+        
+        TestBitRateControl control = new TestBitRateControl(MAX_BIT_RATE);
+        AdaptiveBitRateController abr = new AdaptiveBitRateController(control, 90000, MIN_BIT_RATE, MAX_BIT_RATE);
+        
+        // the first block reports heavy loss of another source
+        RtcpReport report = createReceiverReport(0x1111, 0x2222);
+        abr.processReport(null, report, 0);
+        // the session SSRC is not known and there are more blocks
+        assertEquals(0, abr.getReportCount());
+        
+        abr.setSsrc(0x2222);
+        abr.processReport(null, report, 0);
+        assertEquals(1, abr.getReportCount());
+        assertEquals(0, abr.getLoss(), 0.0);
+        assertEquals(MAX_BIT_RATE, control.getBitRate());
+        
+        abr.setSsrc(0x1111);
+        abr.processReport(null, report, 0);
+        assertEquals(2, abr.getReportCount());
+        assertTrue(abr.getLoss() > 0.9);
+        assertTrue(control.getBitRate() < MAX_BIT_RATE);
+        
+        // no block about the session
+        abr.setSsrc(0x3333);
+        abr.processReport(null, report, 0);
+        assertEquals(2, abr.getReportCount());
+        
+        abr.close();
+    }
+    
+    /**
+     * Create a receiver report with a block reporting 100 % loss of the 
+     * first source and a block reporting no loss of the second source.
+     */
+    private static RtcpReport createReceiverReport(int lossySsrc, int ssrc) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put((byte)0x82).put((byte)RtcpReport.PT_RR).putShort((short)13).putInt(0x5678);
+        buffer.putInt(lossySsrc).putInt(0xff000000 | 100).putInt(1000).putInt(0).putInt(0).putInt(0);
+        buffer.putInt(ssrc).putInt(0).putInt(1000).putInt(0).putInt(0).putInt(0);
+        buffer.flip();
+        
+        List<RtcpReport> reports = RtcpReport.parse(buffer);
+        assertEquals(1, reports.size());
+        assertEquals(2, reports.get(0).getReportBlocks().size());
+        
+        return reports.get(0);
+    }
+    
+    @Test
+    public void testSimulatedLoss() throws Exception {
+        System.out.println("simulated loss test...");
+        
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        DatagramChannel channel = DatagramChannel.open();
+        DatagramSocket client = new DatagramSocket(new InetSocketAddress(loopback, 0));
+        DatagramSocket clientRtcp = new DatagramSocket(new InetSocketAddress(loopback, 0));
+        RtcpReceiver receiver = new RtcpReceiver();
+        LossyRelay relay = new LossyRelay(new InetSocketAddress(loopback, client.getLocalPort()), 42);
+        
+        TestBitRateControl control = new TestBitRateControl(MAX_BIT_RATE);
+        AdaptiveBitRateController abr = new AdaptiveBitRateController(control, 90000, MIN_BIT_RATE, MAX_BIT_RATE);
+        
+        try {
+            channel.socket().bind(new InetSocketAddress(loopback, 0));
+            client.setSoTimeout(50);
+            DatagramChannel rtcp = receiver.open(0);
+            InetSocketAddress rtcpAddress = new InetSocketAddress(loopback, rtcp.socket().getLocalPort());
+            receiver.addListener((InetSocketAddress)clientRtcp.getLocalSocketAddress(), abr);
+            
+            RtpSender sender = new RtpSender(channel);
+            RtpSender.Session session = sender.addSession(relay.getAddress());
+            session.setActive(true);
+            abr.setSsrc(session.getSsrc());
+            H264RtpPacketizer packetizer = new H264RtpPacketizer(96, new Rational(1, 90000), 0, null, 1400);
+            RtpReceptionStatistics stats = new RtpReceptionStatistics(90000);
+            Client harness = new Client(sender, packetizer, client, stats, clientRtcp, rtcpAddress, abr);
+            
+            // no loss, the bit rate stays at the maximum
+            relay.setLoss(0);
+            harness.run(3);
+            assertEquals(MAX_BIT_RATE, control.getBitRate());
+            assertEquals(0, abr.getLoss(), 0.0);
+            
+            // 20 % loss, the bit rate goes down
+            relay.setLoss(0.2);
+            harness.run(6);
+            int reduced = control.getBitRate();
+            assertTrue("bit rate: " + reduced, reduced < MAX_BIT_RATE * 3 / 4);
+            assertTrue(reduced >= MIN_BIT_RATE);
+            assertTrue("loss: " + abr.getLoss(), abr.getLoss() > 0.1 && abr.getLoss() < 0.35);
+            assertTrue(stats.getLostCount() > 0);
+            
+            // no loss again, the bit rate recovers once the hold time is over
+            relay.setLoss(0);
+            abr.setHoldTime(0);
+            harness.run(5);
+            assertTrue(control.getBitRate() > reduced);
+            assertTrue(control.getBitRate() <= MAX_BIT_RATE);
+        } finally {
+            abr.close();
+            relay.close();
+            receiver.close();
+            client.close();
+            clientRtcp.close();
+            channel.close();
+        }
+    }
+    
+    private static class TestBitRateControl implements IBitRateControl {
+        private volatile int bitRate;
+        
+        public TestBitRateControl(int bitRate) {
+            this.bitRate = bitRate;
+        }
+        
+        @Override
+        public int getBitRate() {
+            return bitRate;
+        }
+        
+        @Override
+        public void setBitRate(int bitRate) {
+            this.bitRate = bitRate;
+        }
+    }
+    
+    /**
+     * Client side of the harness. It sends rounds of packets through the 
+     * relay, receives them and sends a receiver report after each round.
+     */
+    private static class Client {
+        private final RtpSender sender;
+        private final H264RtpPacketizer packetizer;
+        private final DatagramSocket socket;
+        private final RtpReceptionStatistics stats;
+        private final DatagramSocket rtcpSocket;
+        private final InetSocketAddress rtcpAddress;
+        private final AdaptiveBitRateController abr;
+        private long timestamp;
+        
+        public Client(RtpSender sender, H264RtpPacketizer packetizer, DatagramSocket socket, RtpReceptionStatistics stats, DatagramSocket rtcpSocket, InetSocketAddress rtcpAddress, AdaptiveBitRateController abr) {
+            this.sender = sender;
+            this.packetizer = packetizer;
+            this.socket = socket;
+            this.stats = stats;
+            this.rtcpSocket = rtcpSocket;
+            this.rtcpAddress = rtcpAddress;
+            this.abr = abr;
+            this.timestamp = 0;
+        }
+        
+        public void run(int rounds) throws Exception {
+            ByteBuffer frame = ByteBuffer.allocate(104);
+            frame.putInt(1).put((byte)0x41);
+            frame.position(frame.capacity());
+            frame.flip();
+            
+            byte[] data = new byte[2048];
+            DatagramPacket dp = new DatagramPacket(data, data.length);
+            ByteBuffer report = ByteBuffer.allocate(256);
+            
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < ROUND_SIZE; i++) {
+                    RtpPacketBatch batch = packetizer.packetize(frame.duplicate(), timestamp);
+                    sender.send(batch);
+                    batch.free();
+                    timestamp += 3000;
+                }
+                
+                while (true) {
+                    try {
+                        socket.receive(dp);
+                    } catch (SocketTimeoutException ex) {
+                        break;
+                    }
+                    stats.update(ByteBuffer.wrap(data, 0, dp.getLength()), System.nanoTime());
+                }
+                
+                long reportCount = abr.getReportCount();
+                report.clear();
+                stats.writeReceiverReport(report, 0x5678, 0, 0);
+                rtcpSocket.send(new DatagramPacket(report.array(), report.position(), rtcpAddress));
+                
+                for (int i = 0; i < 100 && abr.getReportCount() == reportCount; i++)
+                    Thread.sleep(10);
+                assertEquals(reportCount + 1, abr.getReportCount());
+            }
+        }
+    }
+    
+    /**
+     * UDP relay dropping packets with a given probability.
+     */
+    private static class LossyRelay implements Runnable {
+        private final DatagramSocket socket;
+        private final InetSocketAddress destination;
+        private final Random random;
+        private final Thread thread;
+        private volatile double loss;
+        
+        public LossyRelay(InetSocketAddress destination, long seed) throws Exception {
+            this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            this.destination = destination;
+            this.random = new Random(seed);
+            this.loss = 0;
+            this.thread = new Thread(this, "LossyRelay");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+        
+        public InetSocketAddress getAddress() {
+            return (InetSocketAddress)socket.getLocalSocketAddress();
+        }
+        
+        public void setLoss(double loss) {
+            this.loss = loss;
+        }
+        
+        @Override
+        public void run() {
+            byte[] data = new byte[2048];
+            DatagramPacket dp = new DatagramPacket(data, data.length);
+            
+            try {
+                while (true) {
+                    dp.setLength(data.length);
+                    socket.receive(dp);
+                    if (random.nextDouble() >= loss)
+                        socket.send(new DatagramPacket(data, dp.getLength(), destination));
+                }
+            } catch (Exception ex) {
+                // closed
+            }
+        }
+        
+        public void close() throws InterruptedException {
+            socket.close();
+            thread.join();
+        }
+    }
+    
+}
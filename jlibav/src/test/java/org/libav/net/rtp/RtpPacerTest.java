@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.util.Rational;
+
+/**
+ * Unit test for the RtpPacer, PacingTimer and TokenBucket classes.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtpPacerTest {
+    
+    private static ByteBuffer frame(int size) {
+        ByteBuffer result = ByteBuffer.allocate(4 + size);
+        result.putInt(1).put((byte)0x65);
+        for (int i = 1; i < size; i++)
+            result.put((byte)0x11);
+        result.flip();
+        
+        return result;
+    }
+    
+    /**
+     * Send a single frame through a pacer and return receive times of its
+     * packets.
+     */
+    private static long[] receive(RtpPacer pacer, RtpSender sender, DatagramChannel receiver, int frameSize) throws Exception {
+        H264RtpPacketizer p = new H264RtpPacketizer(96, new Rational(1, 90000), 0, null, 1000);
+        RtpPacketBatch batch = p.packetize(frame(frameSize), 0);
+        long[] result = new long[batch.getPacketCount()];
+        
+        ByteBuffer buffer = ByteBuffer.allocate(2048);
+        if (pacer == null) {
+            sender.send(batch);
+            batch.free();
+        } else
+            pacer.send(batch);
+        
+        for (int i = 0; i < result.length; i++) {
+            buffer.clear();
+            receiver.receive(buffer);
+            result[i] = System.nanoTime();
+        }
+        
+        return result;
+    }
+    
+    private static long getMaxGap(long[] times) {
+        long result = 0;
+        for (int i = 1; i < times.length; i++)
+            result = Math.max(result, times[i] - times[i - 1]);
+        
+        return result;
+    }
+    
+    @Test
+    public void testTokenBucket() {
+        System.out.println("token bucket test...");
+        
+        TokenBucket tb = new TokenBucket(1000, 1000);
+        long now = System.nanoTime();
+        assertEquals(now, tb.reserve(1000, now));
+        assertEquals(now + 500000000, tb.peek(500, now));
+        assertEquals(now + 500000000, tb.reserve(500, now));
+        assertEquals(now + 1000000000, tb.reserve(500, now));
+        assertEquals(now + 1000000000, tb.peek(0, now + 1000000000));
+    }
+    
+    @Test
+    public void testTimer() throws Exception {
+        System.out.println("pacing timer test...");
+        
+        PacingTimer timer = new PacingTimer(100000, 64);
+        final long[] times = new long[3];
+        final int[] order = new int[3];
+        final int[] n = new int[1];
+        long now = System.nanoTime();
+        long[] due = { now + 30000000, now + 10000000, now + 20000000 };
+        try {
+            for (int i = 0; i < 3; i++) {
+                final int k = i;
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (times) {
+                            times[k] = System.nanoTime();
+                            order[n[0]++] = k;
+                            times.notifyAll();
+                        }
+                    }
+                }, due[i]);
+            }
+            
+            synchronized (times) {
+                while (n[0] < 3)
+                    times.wait(1000);
+            }
+            
+            assertArrayEquals(new int[] { 1, 2, 0 }, order);
+            for (int i = 0; i < 3; i++)
+                assertTrue(times[i] >= due[i]);
+            assertEquals(0, timer.getTaskCount());
+        } finally {
+            timer.close();
+        }
+    }
+    
+    @Test
+    public void testSpread() throws Exception {
+        System.out.println("RTP pacer loopback test...");
+        
+        DatagramChannel receiver = DatagramChannel.open();
+        DatagramChannel channel = DatagramChannel.open();
+        PacingTimer timer = new PacingTimer();
+        try {
+            receiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            receiver.socket().setReceiveBufferSize(1 << 20);
+            channel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            InetSocketAddress destination = new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.socket().getLocalPort());
+            
+            RtpSender sender = new RtpSender(channel);
+            sender.addSession(destination).setActive(true);
+            
+            // a burst without pacing
+            long[] burst = receive(null, sender, receiver, 20000);
+            
+            // 21 packets spread over 80 % of the default 40 ms frame interval
+            RtpPacer pacer = new RtpPacer(sender, 90000, timer, null);
+            long[] paced = receive(pacer, sender, receiver, 20000);
+            assertEquals(burst.length, paced.length);
+            
+            long span = paced[paced.length - 1] - paced[0];
+            long expected = RtpPacer.DEFAULT_FRAME_INTERVAL * 4 / 5 * (paced.length - 1) / paced.length;
+            System.out.printf("    burst span: %d us, paced span: %d us, max gap: %d us\n", (burst[burst.length - 1] - burst[0]) / 1000, span / 1000, getMaxGap(paced) / 1000);
+            assertTrue(span >= expected - 2 * timer.getTick());
+            assertTrue(getMaxGap(paced) < expected / 2);
+            pacer.close();
+            
+            // session rate limit: 5 packets of ~1 kB at 50 kB/s
+            pacer = new RtpPacer(sender, 90000, timer, null);
+            pacer.setSpread(0);
+            pacer.setSessionRate(50000, 1000);
+            long[] limited = receive(pacer, sender, receiver, 4900);
+            assertEquals(5, limited.length);
+            assertTrue(limited[4] - limited[0] >= 70000000);
+            pacer.close();
+        } finally {
+            timer.close();
+            channel.close();
+            receiver.close();
+        }
+    }
+    
+}
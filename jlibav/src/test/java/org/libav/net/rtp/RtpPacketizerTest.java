@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.util.Rational;
+
+/**
+ * Unit test for the RTP packetizers and the RtpSender class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtpPacketizerTest {
+    
+    private static final byte[] SPS = { 0x67, 0x42, (byte)0xc0, 0x1e, 0x11 };
+    private static final byte[] PPS = { 0x68, (byte)0xce, 0x3c, (byte)0x80 };
+    
+    private static ByteBuffer annexB(byte[]... nals) {
+        int size = 0;
+        for (byte[] nal : nals)
+            size += 4 + nal.length;
+        
+        ByteBuffer result = ByteBuffer.allocate(size);
+        for (byte[] nal : nals)
+            result.putInt(1).put(nal);
+        result.flip();
+        
+        return result;
+    }
+    
+    private static byte[] nal(int header, int size) {
+        byte[] result = new byte[size];
+        result[0] = (byte)header;
+        for (int i = 1; i < size; i++)
+            result[i] = (byte)(i | 0x10);
+        
+        return result;
+    }
+    
+    @Test
+    public void testH264() {
+        System.out.println("H.264 RTP packetizer test...");
+        
+        H264RtpPacketizer p = new H264RtpPacketizer(96, new Rational(1, 25), 0, null, 200);
+        RtpPacketBatch batch = p.packetize(annexB(SPS, PPS, nal(0x65, 500)), 2);
+        
+        // STAP-A with SPS and PPS followed by three FU-A fragments
+        assertEquals(4, batch.getPacketCount());
+        assertEquals(7200, batch.getTimestamp());
+        ByteBuffer stap = batch.getPacket(0);
+        assertEquals(0x80, stap.get(0) & 0xff);
+        assertEquals(96, stap.get(1) & 0xff);
+        assertEquals(0x60 | 24, stap.get(12) & 0xff);
+        assertEquals(SPS.length, stap.getShort(13));
+        assertEquals(12 + 1 + 2 + SPS.length + 2 + PPS.length, stap.limit());
+        
+        int payload = 0;
+        for (int i = 1; i < 4; i++) {
+            ByteBuffer fu = batch.getPacket(i);
+            assertEquals(0x60 | 28, fu.get(12) & 0xff);
+            assertEquals((i == 1 ? 0x80 : 0) | (i == 3 ? 0x40 : 0) | 5, fu.get(13) & 0xff);
+            assertEquals(i == 3, (fu.get(1) & 0x80) != 0);
+            assertTrue(fu.limit() <= 200);
+            payload += fu.limit() - 14;
+        }
+        assertEquals(499, payload);
+        
+        batch.free();
+        assertEquals(4, p.getPooledBufferCount());
+        
+        // length-prefixed NAL units, a single NAL unit packet
+        p = new H264RtpPacketizer(96, new Rational(1, 90000), 4, null, 200);
+        ByteBuffer data = ByteBuffer.allocate(4 + 50);
+        data.putInt(50).put(nal(0x41, 50)).flip();
+        batch = p.packetize(data, 3000);
+        assertEquals(1, batch.getPacketCount());
+        assertEquals(12 + 50, batch.getPacket(0).limit());
+        assertEquals(0x41, batch.getPacket(0).get(12));
+        assertEquals(0x80 | 96, batch.getPacket(0).get(1) & 0xff);
+        batch.free();
+    }
+    
+    @Test
+    public void testH264Sdp() {
+        System.out.println("H.264 RTP packetizer SDP test...");
+        
+        byte[] avcc = { 1, 0x42, (byte)0xc0, 0x1e, (byte)0xff, (byte)0xe1, 0, 5, 0x67, 0x42, (byte)0xc0, 0x1e, 0x11, 1, 0, 4, 0x68, (byte)0xce, 0x3c, (byte)0x80 };
+        assertEquals(4, H264RtpPacketizer.getNalLengthSize(avcc));
+        assertEquals(2, H264RtpPacketizer.getParameterSets(avcc).size());
+        assertEquals(2, H264RtpPacketizer.getParameterSets(annexB(SPS, PPS).array()).size());
+        
+        H264RtpPacketizer p = new H264RtpPacketizer(96, new Rational(1, 90000), 4, avcc, 1400);
+        assertEquals("96 packetization-mode=1;profile-level-id=42C01E;sprop-parameter-sets=Z0LAHhE=,aM48gA==", p.createMediaDescription().getAttribute("fmtp").getValue());
+    }
+    
+    @Test
+    public void testAac() {
+        System.out.println("AAC RTP packetizer test...");
+        
+        byte[] config = AacRtpPacketizer.getAudioSpecificConfig(null, 48000, 2);
+        assertArrayEquals(new byte[] { 0x11, (byte)0x90 }, config);
+        
+        AacRtpPacketizer p = new AacRtpPacketizer(96, 48000, 2, new Rational(1, 48000), config, 100);
+        assertEquals("96 MPEG4-GENERIC/48000/2", p.createMediaDescription().getAttribute("rtpmap").getValue());
+        
+        ByteBuffer data = ByteBuffer.allocate(7 + 150);
+        data.put(new byte[] { (byte)0xff, (byte)0xf1, 0x4c, (byte)0x80, 0, 0, 0 }).put(new byte[150]).flip();
+        RtpPacketBatch batch = p.packetize(data, 1024);
+        assertEquals(2, batch.getPacketCount());
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer packet = batch.getPacket(i);
+            assertEquals(16, packet.getShort(12));
+            assertEquals(150 << 3, packet.getShort(14));
+            assertEquals(i == 1, (packet.get(1) & 0x80) != 0);
+            assertEquals(1024, batch.getTimestamp(i));
+        }
+        assertEquals(12 + 4 + 150 - 84, batch.getPacket(1).limit());
+        batch.free();
+    }
+    
+    @Test
+    public void testGeneric() {
+        System.out.println("generic RTP packetizer test...");
+        
+        GenericRtpPacketizer p = new GenericRtpPacketizer(96, "L16", 8000, 2, 4, new Rational(1, 8000), 12 + 100);
+        assertEquals("96 L16/8000/2", p.createMediaDescription().getAttribute("rtpmap").getValue());
+        
+        RtpPacketBatch batch = p.packetize(ByteBuffer.allocate(250), 0);
+        assertEquals(3, batch.getPacketCount());
+        assertEquals(0, batch.getTimestamp(0));
+        assertEquals(25, batch.getTimestamp(1));
+        assertEquals(50, batch.getTimestamp(2));
+        assertEquals(12 + 48, batch.getPacket(2).limit());
+        batch.free();
+    }
+    
+    @Test
+    public void testSender() throws Exception {
+        System.out.println("RTP sender loopback test...");
+        
+        DatagramChannel receiver = DatagramChannel.open();
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            receiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            channel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            InetSocketAddress destination = new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.socket().getLocalPort());
+            
+            RtpSender sender = new RtpSender(channel);
+            RtpSender.Session s1 = sender.addSession(destination);
+            RtpSender.Session s2 = sender.addSession(destination);
+            RtpSender.Session s3 = sender.addSession(destination);
+            s1.setActive(true);
+            s2.setActive(true);
+            int seq1 = s1.getSequenceNumber();
+            
+            GenericRtpPacketizer p = new GenericRtpPacketizer(0, "PCMU", 8000, 1, 1, new Rational(1, 8000), 12 + 160);
+            RtpPacketBatch batch = p.packetize(ByteBuffer.allocate(320), 160);
+            assertEquals(4, sender.send(batch));
+            batch.free();
+            
+            assertEquals(2, s1.getPacketCount());
+            assertEquals(320, s1.getOctetCount());
+            assertEquals(0, s3.getPacketCount());
+            assertEquals((seq1 + 2) & 0xffff, s1.getSequenceNumber());
+            
+            ByteBuffer buffer = ByteBuffer.allocate(2048);
+            int fromS1 = 0;
+            for (int i = 0; i < 4; i++) {
+                buffer.clear();
+                receiver.receive(buffer);
+                buffer.flip();
+                assertEquals(12 + 160, buffer.limit());
+                int ssrc = buffer.getInt(8);
+                long ts = buffer.getInt(4) & 0xffffffffl;
+                RtpSender.Session s = ssrc == s1.getSsrc() ? s1 : s2;
+                assertEquals(s2.getSsrc() == ssrc || s1.getSsrc() == ssrc, true);
+                if (s == s1)
+                    assertEquals((seq1 + fromS1++) & 0xffff, buffer.getShort(2) & 0xffff);
+                assertTrue(ts == ((s.getTimestampOffset() + 160) & 0xffffffffl) || ts == ((s.getTimestampOffset() + 320) & 0xffffffffl));
+            }
+            assertEquals(2, fromS1);
+        } finally {
+            channel.close();
+            receiver.close();
+        }
+    }
+    
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.net.rtp.IRtcpListener;
+import org.libav.net.rtp.RtcpReceiver;
+import org.libav.net.rtp.RtcpReport;
+import org.libav.net.rtsp.IMediaStream.UnicastConnectionInfo;
+import org.libav.util.Rational;
+
+/**
+ * Unit test for the RTP and RTCP channels of the PacketizedCopyStream class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class PacketizedCopyStreamTest {
+    
+    private static Object createProxy(Class<?> iface, final Map<String, Object> properties) {
+        return Proxy.newProxyInstance(iface.getClassLoader(), new Class[] { iface }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (properties.containsKey(method.getName()))
+                    return properties.get(method.getName());
+                if (method.getReturnType() == int.class)
+                    return 0;
+                if (method.getReturnType() == long.class)
+                    return 0L;
+                if (method.getReturnType() == boolean.class)
+                    return false;
+                return null;
+            }
+        });
+    }
+    
+    private static IStreamWrapper createPcmuStream() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("getCodecId", CodecID.PCM_MULAW);
+        properties.put("getSampleRate", 8000);
+        properties.put("getChannels", 1);
+        ICodecContextWrapper cc = (ICodecContextWrapper)createProxy(ICodecContextWrapper.class, properties);
+        
+        properties = new HashMap<String, Object>();
+        properties.put("getCodecContext", cc);
+        properties.put("getTimeBase", new Rational(1, 8000));
+        return (IStreamWrapper)createProxy(IStreamWrapper.class, properties);
+    }
+    
+    private static void sendReceiverReport(DatagramChannel client, int ssrc, InetSocketAddress target) throws Exception {
+        ByteBuffer rr = ByteBuffer.allocate(32);
+        rr.put((byte)0x81).put((byte)RtcpReport.PT_RR).putShort((short)7).putInt(ssrc);
+        rr.putInt(0x1234).putInt(0).putInt(1000).putInt(0).putInt(0).putInt(0);
+        rr.flip();
+        client.send(rr, target);
+    }
+    
+    private static CountDownLatch listen(RtcpReceiver receiver, InetSocketAddress client, final int ssrc) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        receiver.addListener(client, new IRtcpListener() {
+            @Override
+            public void processReport(RtcpReceiver source, RtcpReport report, long arrivalTime) {
+                if (report.getSsrc() == ssrc)
+                    latch.countDown();
+            }
+        });
+        
+        return latch;
+    }
+    
+    @Test
+    public void testRtcpPort() throws Exception {
+        System.out.println("packetized copy stream RTCP port test...");
+        
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        DatagramChannel client = DatagramChannel.open();
+        client.socket().bind(new InetSocketAddress(loopback, 0));
+        RtcpReceiver receiver = new RtcpReceiver();
+        PacketizedCopyStream stream = new PacketizedCopyStream(createPcmuStream());
+        
+        try {
+            int clientPort = client.socket().getLocalPort();
+            UnicastConnectionInfo ci = stream.setupUnicast("session", loopback, clientPort - 1, clientPort);
+            assertEquals(stream.getSender().getChannel().socket().getLocalPort(), ci.getServerRtpPort());
+            assertEquals(ci.getServerRtpPort() + 1, ci.getServerRtcpPort());
+            assertEquals(ci.getServerRtcpPort(), stream.getRtcpChannel().socket().getLocalPort());
+            
+            // reports sent to the advertised port reach the listener
+            CountDownLatch latch = listen(receiver, new InetSocketAddress(loopback, clientPort), 0x5678);
+            stream.setRtcpReceiver(receiver);
+            sendReceiverReport(client, 0x5678, new InetSocketAddress(loopback, ci.getServerRtcpPort()));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            
+            try {
+                stream.setRtcpReceiver(receiver);
+                fail("the RTCP receiver can be set only once");
+            } catch (IllegalStateException ex) {
+            }
+        } finally {
+            stream.free();
+            receiver.close();
+            client.close();
+        }
+        
+        assertFalse(stream.getRtcpChannel().isOpen());
+        assertFalse(stream.getSender().getChannel().isOpen());
+    }
+    
+    @Test
+    public void testSharedChannels() throws Exception {
+        System.out.println("packetized copy stream shared channels test...");
+        
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        DatagramChannel channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress(0));
+        DatagramChannel rtcpChannel = DatagramChannel.open();
+        rtcpChannel.socket().bind(new InetSocketAddress(0));
+        RtcpReceiver receiver = new RtcpReceiver();
+        receiver.add(rtcpChannel);
+        DatagramChannel[] clients = new DatagramChannel[2];
+        PacketizedCopyStream[] streams = new PacketizedCopyStream[2];
+        
+        try {
+            CountDownLatch[] latches = new CountDownLatch[2];
+            for (int i = 0; i < 2; i++) {
+                clients[i] = DatagramChannel.open();
+                clients[i].socket().bind(new InetSocketAddress(loopback, 0));
+                int clientPort = clients[i].socket().getLocalPort();
+                
+                // both streams use the same channels
+                streams[i] = new PacketizedCopyStream(createPcmuStream(), channel, rtcpChannel);
+                UnicastConnectionInfo ci = streams[i].setupUnicast("session" + i, loopback, clientPort - 1, clientPort);
+                assertEquals(channel.socket().getLocalPort(), ci.getServerRtpPort());
+                assertEquals(rtcpChannel.socket().getLocalPort(), ci.getServerRtcpPort());
+                latches[i] = listen(receiver, new InetSocketAddress(loopback, clientPort), 0x100 + i);
+            }
+            
+            try {
+                streams[0].setRtcpReceiver(receiver);
+                fail("a shared RTCP channel cannot be added by the stream");
+            } catch (IllegalStateException ex) {
+            }
+            
+            // reports are routed by the client address
+            for (int i = 0; i < 2; i++)
+                sendReceiverReport(clients[i], 0x100 + i, new InetSocketAddress(loopback, rtcpChannel.socket().getLocalPort()));
+            for (int i = 0; i < 2; i++)
+                assertTrue(latches[i].await(5, TimeUnit.SECONDS));
+        } finally {
+            for (int i = 0; i < 2; i++) {
+                if (streams[i] != null)
+                    streams[i].free();
+            }
+            
+            // the shared channels are left open
+            assertTrue(channel.isOpen());
+            assertTrue(rtcpChannel.isOpen());
+            
+            receiver.close();
+            channel.close();
+            for (DatagramChannel c : clients) {
+                if (c != null)
+                    c.close();
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.net.sdp.MediaDescription;
+import org.libav.net.sdp.SessionDescription;
+
+/**
+ * Unit test for the SdpGenerator class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class SdpGeneratorTest {
+    
+    private static ICodecContextWrapper createCodecContext(final Map<String, Object> properties) {
+        return (ICodecContextWrapper)Proxy.newProxyInstance(ICodecContextWrapper.class.getClassLoader(), new Class[] { ICodecContextWrapper.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (properties.containsKey(method.getName()))
+                    return properties.get(method.getName());
+                if (method.getReturnType() == int.class)
+                    return 0;
+                return null;
+            }
+        });
+    }
+    
+    private static ICodecContextWrapper createVideoContext(CodecID codecId, int width, int height, int bitRate) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("getCodecType", MediaType.VIDEO);
+        properties.put("getCodecId", codecId);
+        properties.put("getWidth", width);
+        properties.put("getHeight", height);
+        properties.put("getBitRate", bitRate);
+        return createCodecContext(properties);
+    }
+    
+    private static ICodecContextWrapper createAudioContext(CodecID codecId, int sampleRate, int channels) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("getCodecType", MediaType.AUDIO);
+        properties.put("getCodecId", codecId);
+        properties.put("getSampleRate", sampleRate);
+        properties.put("getChannels", channels);
+        return createCodecContext(properties);
+    }
+    
+    @Test
+    public void testVideo() {
+        System.out.println("SDP generator video test...");
+        
+        MediaDescription md = SdpGenerator.createMediaDescription(createVideoContext(CodecID.MPEG4, 640, 480, 1500000));
+        assertTrue(md.toString().startsWith("m=video 0 RTP/AVP 96\r\n"));
+        assertEquals(Long.valueOf(1500), md.getBandwidth(SessionDescription.BANDWIDTH_APPLICATION_SPECIFIC));
+        assertEquals("96 MP4V-ES/90000", md.getAttribute("rtpmap").getValue());
+        assertEquals("96 profile-level-id=1", md.getAttribute("fmtp").getValue());
+        
+        md = SdpGenerator.createMediaDescription(createVideoContext(CodecID.H264, 640, 480, 0));
+        assertEquals("96 H264/90000", md.getAttribute("rtpmap").getValue());
+        assertEquals("96 packetization-mode=1", md.getAttribute("fmtp").getValue());
+        assertNull(md.getBandwidth(SessionDescription.BANDWIDTH_APPLICATION_SPECIFIC));
+        
+        md = SdpGenerator.createMediaDescription(createVideoContext(CodecID.H263P, 352, 288, 0));
+        assertEquals("96 352-288", md.getAttribute("framesize").getValue());
+        
+        md = SdpGenerator.createMediaDescription(createVideoContext(CodecID.MPEG2VIDEO, 720, 576, 0));
+        assertEquals("32", md.getFormats().get(0));
+        assertNull(md.getAttribute("rtpmap"));
+        
+        assertNull(SdpGenerator.createMediaDescription(createVideoContext(CodecID.MSMPEG4V3, 640, 480, 0)));
+    }
+    
+    @Test
+    public void testAudio() {
+        System.out.println("SDP generator audio test...");
+        
+        MediaDescription md = SdpGenerator.createMediaDescription(createAudioContext(CodecID.MP2, 48000, 2));
+        assertEquals(MediaDescription.MEDIA_AUDIO, md.getMedia());
+        assertEquals("14", md.getFormats().get(0));
+        
+        md = SdpGenerator.createMediaDescription(createAudioContext(CodecID.PCM_MULAW, 8000, 1));
+        assertEquals("0", md.getFormats().get(0));
+        
+        md = SdpGenerator.createMediaDescription(createAudioContext(CodecID.PCM_S16BE, 44100, 1));
+        assertEquals("11", md.getFormats().get(0));
+        assertNull(md.getAttribute("rtpmap"));
+        
+        md = SdpGenerator.createMediaDescription(createAudioContext(CodecID.PCM_S16BE, 48000, 2));
+        assertEquals("96", md.getFormats().get(0));
+        assertEquals("96 L16/48000/2", md.getAttribute("rtpmap").getValue());
+        
+        assertNull(SdpGenerator.createMediaDescription(createAudioContext(CodecID.AAC, 48000, 2)));
+    }
+    
+}
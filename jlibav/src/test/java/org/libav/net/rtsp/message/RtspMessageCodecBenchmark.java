@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import org.libav.net.NetworkStreamReader;
+import org.libav.net.NetworkStreamWriter;
+import org.libav.net.rtsp.RtspException;
+
+/**
+ * RTSP message codec benchmark. It compares the line-based request parser 
+ * and the raw message serialization with the byte-oriented message reader 
+ * and writer. Requests are read from memory and responses are written into 
+ * a null stream, so only the codec itself is measured (on a single core).
+ * 
+ * Usage: RtspMessageCodecBenchmark [requests [iterations]]
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtspMessageCodecBenchmark {
+    
+    private static final Charset charset = Charset.forName("UTF-8");
+    
+    private static final String REQUEST = "GET_PARAMETER rtsp://localhost:8554/camera1 RTSP/1.0\r\n"
+            + "CSeq: 42\r\n"
+            + "Session: 1234567890ABCDEF\r\n"
+            + "User-Agent: LibVLC/2.0.8 (LIVE555 Streaming Media v2011.12.23)\r\n"
+            + "\r\n";
+    
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        
+        ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+        byte[] request = REQUEST.getBytes(charset);
+        for (int i = 0; i < requests; i++)
+            tmp.write(request);
+        byte[] input = tmp.toByteArray();
+        
+        // warm up
+        runLegacy(input);
+        runCurrent(input);
+        
+        long legacyCount = 0, legacyTime = 0;
+        long currentCount = 0, currentTime = 0;
+        long t;
+        
+        for (int i = 0; i < iterations; i++) {
+            t = System.nanoTime();
+            legacyCount += runLegacy(input);
+            legacyTime += System.nanoTime() - t;
+            
+            t = System.nanoTime();
+            currentCount += runCurrent(input);
+            currentTime += System.nanoTime() - t;
+        }
+        
+        System.out.printf("line-based parser:     %d requests, %.0f requests/s\n", legacyCount, legacyCount * 1e9 / legacyTime);
+        System.out.printf("byte-oriented codec:   %d requests, %.0f requests/s\n", currentCount, currentCount * 1e9 / currentTime);
+    }
+    
+    private static long runLegacy(byte[] input) throws IOException, ParseException, RtspException {
+        NetworkStreamReader nsr = new NetworkStreamReader(new ByteArrayInputStream(input), 2048, charset);
+        NetworkStreamWriter nsw = new NetworkStreamWriter(new NullOutputStream(), charset);
+        List<String> lines = new ArrayList<String>();
+        RtspRequestHeader header;
+        String line;
+        long result = 0;
+        
+        while ((line = nsr.readLine()) != null) {
+            lines.clear();
+            while (line != null && !"".equals(line)) {
+                lines.add(line);
+                line = nsr.readLine();
+            }
+            
+            header = RtspRequestHeader.parse(lines.toArray(new String[lines.size()]));
+            nsw.write(new RtspMessage(200, "OK", header.getCSeq()).getRawMessage());
+            nsw.flush();
+            result++;
+        }
+        
+        return result;
+    }
+    
+    private static long runCurrent(byte[] input) throws IOException, ParseException, RtspException {
+        RtspMessageReader reader = new RtspMessageReader(new ByteArrayInputStream(input), charset);
+        RtspMessageWriter writer = new RtspMessageWriter(new NullOutputStream(), charset);
+        RtspMessage request;
+        long result = 0;
+        
+        while ((request = reader.readRequest()) != null) {
+            writer.write(new RtspMessage(200, "OK", ((RtspRequestHeader)request.getHeader()).getCSeq()));
+            result++;
+        }
+        
+        return result;
+    }
+    
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) { }
+        
+        @Override
+        public void write(byte[] b, int off, int len) { }
+    }
+    
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.net.rtsp.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.net.rtsp.RtspException;
+
+/**
+ * 
+ * @author Ondrej Perutka
+ */
+public class RtspMessageReaderTest {
+    
+    private static final Charset charset = Charset.forName("UTF-8");
+    
+    @Test
+    public void testReadRequest() throws Exception {
+        System.out.println("RTSP message reader readRequest test...");
+        String text = "\r\nPLAY rtsp://localhost/test.sdp RTSP/1.0\r\n"
+                + "cseq: 1\r\n"
+                + "Transport:RTP/AVP;\r\n"
+                + " unicast;client_port=5000\r\n"
+                + "X-Custom:  some value \r\n"
+                + "invalid line\r\n"
+                + "\r\n"
+                + "SET_PARAMETER * RTSP/1.0\n"
+                + "CSeq: 2\n"
+                + "Content-Length: 5\n"
+                + "\n"
+                + "hello"
+                + "OPTIONS * RTSP/1.0\r\n"
+                + "CSeq: 3\r\n"
+                + "\r\n";
+        
+        for (int chunk : new int[] { 1, 3, 1024 }) {
+            RtspMessageReader reader = new RtspMessageReader(new ChunkedInputStream(text.getBytes(charset), chunk), charset);
+            
+            RtspMessage msg = reader.readRequest();
+            RtspRequestHeader rh = (RtspRequestHeader)msg.getHeader();
+            assertSame(RtspRequestHeader.METHOD_PLAY, rh.getMethod());
+            assertEquals("rtsp://localhost/test.sdp", rh.getUri());
+            assertEquals(1, rh.getCSeq());
+            TransportField tf = (TransportField)rh.getField("transport");
+            assertEquals(5000, (int)tf.getClientPortFrom());
+            assertEquals("some value", ((GenericField)rh.getField("x-custom")).getValue());
+            assertNull(msg.getBody());
+            
+            msg = reader.readRequest();
+            rh = (RtspRequestHeader)msg.getHeader();
+            assertEquals("SET_PARAMETER", rh.getMethod());
+            assertEquals(2, rh.getCSeq());
+            assertEquals("hello", msg.getBodyText(charset));
+            
+            msg = reader.readRequest();
+            rh = (RtspRequestHeader)msg.getHeader();
+            assertEquals(RtspRequestHeader.METHOD_OPTIONS, rh.getMethod());
+            assertEquals(3, rh.getCSeq());
+            
+            assertNull(reader.readRequest());
+        }
+    }
+    
+    @Test
+    public void testInvalidRequest() throws Exception {
+        System.out.println("RTSP message reader invalid request test...");
+        String[] requests = new String[] {
+            "test\r\n\r\n",
+            "OPTIONS * RTP/1.0\r\n\r\n",
+            "OPTIONS * RTSP/1.0 x\r\n\r\n",
+            "OPTIONS * RTSP/1.0\r\nCSeq: x\r\n\r\n",
+        };
+        
+        for (String request : requests) {
+            RtspMessageReader reader = new RtspMessageReader(new ByteArrayInputStream((request + "OPTIONS * RTSP/1.0\r\nCSeq: 1\r\n\r\n").getBytes(charset)), charset);
+            try {
+                reader.readRequest();
+                fail("request: \"" + request + "\" parsed without an exception");
+            } catch (ParseException ex) { }
+            // the reader continues with the next message
+            assertEquals(1, ((RtspRequestHeader)reader.readRequest().getHeader()).getCSeq());
+        }
+        
+        RtspMessageReader reader = new RtspMessageReader(new ByteArrayInputStream("OPTIONS * RTSP/2.0\r\n\r\n".getBytes(charset)), charset);
+        try {
+            reader.readRequest();
+            fail("unsupported RTSP version parsed without an exception");
+        } catch (RtspException ex) {
+            assertEquals(505, ((RtspResponseHeader)ex.getResponse().getHeader()).getCode());
+        }
+        
+        reader = new RtspMessageReader(new ByteArrayInputStream("OPTIONS * RTSP/1.0\r\nX: 0123456789\r\n\r\n".getBytes(charset)), 16, charset);
+        try {
+            reader.readRequest();
+            fail("too large header parsed without an exception");
+        } catch (ParseException ex) { }
+        
+        reader = new RtspMessageReader(new ByteArrayInputStream("OPTIONS * RTSP/1.0\r\nContent-Length: 10\r\n\r\nabc".getBytes(charset)), charset);
+        try {
+            reader.readRequest();
+            fail("truncated body parsed without an exception");
+        } catch (EOFException ex) { }
+    }
+    
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("RTSP message writer write test...");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RtspMessageWriter writer = new RtspMessageWriter(out, charset);
+        
+        RtspMessage msg = new RtspMessage(200, "OK", 1);
+        writer.write(msg);
+        msg.setBodyText("hello", charset);
+        writer.write(msg);
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(new RtspMessage(200, "OK", 1).getRawMessage());
+        expected.write(msg.getRawMessage());
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+    
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunk;
+        private int offset;
+        
+        public ChunkedInputStream(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+            this.offset = 0;
+        }
+        
+        @Override
+        public int read() {
+            return offset < data.length ? data[offset++] & 0xff : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (offset == data.length)
+                return -1;
+            
+            len = Math.min(Math.min(len, chunk), data.length - offset);
+            System.arraycopy(data, offset, b, off, len);
+            offset += len;
+            return len;
+        }
+    }
+    
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for the AdaptiveDelay class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class AdaptiveDelayTest {
+    
+    @Test
+    public void testUpdate() {
+        System.out.println("adaptive delay update test...");
+        
+        AdaptiveDelay delay = new AdaptiveDelay(100, 20, 250, 10);
+        assertFalse(delay.isFixed());
+        
+        assertEquals(130, delay.update(-30));
+        assertEquals(250, delay.update(-500));
+        
+        for (int i = 0; i < 9; i++)
+            assertEquals(250, delay.update(40 + i));
+        assertEquals(230, delay.update(60));
+        
+        for (int i = 0; i < 100; i++)
+            delay.update(200);
+        assertEquals(20, delay.getDelay());
+    }
+    
+    @Test
+    public void testFixed() {
+        System.out.println("fixed delay test...");
+        
+        AdaptiveDelay delay = new AdaptiveDelay(500);
+        assertTrue(delay.isFixed());
+        assertEquals(500, delay.update(-100));
+        assertEquals(500, delay.update(100));
+        
+        delay.reset(1000, 0, 300);
+        assertEquals(300, delay.getDelay());
+    }
+    
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for the Buffer class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class BufferTest {
+    
+    @Test
+    public void testWaitPutAll() throws InterruptedException {
+        System.out.println("buffer batch put test...");
+        
+        final Buffer<Integer> buffer = new Buffer<Integer>(4);
+        final Integer[] items = new Integer[10];
+        for (int i = 0; i < items.length; i++)
+            items[i] = i;
+        
+        assertEquals(2, buffer.waitPutAll(items, 0, 2));
+        assertEquals(2, buffer.getItemCount());
+        
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buffer.waitPutAll(items, 2, 8);
+            }
+        });
+        producer.start();
+        
+        for (int i = 0; i < items.length; i++)
+            assertEquals(Integer.valueOf(i), buffer.waitGet());
+        
+        producer.join();
+        assertEquals(0, buffer.getItemCount());
+    }
+    
+    @Test
+    public void testWaitPutAllInterrupted() {
+        System.out.println("buffer interrupted batch put test...");
+        
+        Buffer<Integer> buffer = new Buffer<Integer>(2);
+        Integer[] items = new Integer[] { 1, 2, 3 };
+        
+        Thread.currentThread().interrupt();
+        assertEquals(2, buffer.waitPutAll(items, 0, 3));
+        assertTrue(Thread.interrupted());
+        assertEquals(2, buffer.getItemCount());
+    }
+    
+}
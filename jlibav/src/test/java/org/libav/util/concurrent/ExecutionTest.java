@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Ondrej Perutka
+ */
+public class ExecutionTest {
+    
+    private static final Runnable noop = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    
+    @After
+    public void tearDown() {
+        Execution.reset();
+    }
+    
+    @Test
+    public void testThreadFactories() {
+        System.out.println("execution thread factories test...");
+        Thread t = Execution.newThread(Execution.PACKET_READER, noop, "PacketReader", true);
+        assertEquals("PacketReader", t.getName());
+        assertTrue(t.isDaemon());
+        
+        ThreadFactory tf = Execution.getThreadFactory(Execution.TRANSCODER, "Worker-%d", false);
+        assertEquals("Worker-0", tf.newThread(noop).getName());
+        assertEquals("Worker-1", tf.newThread(noop).getName());
+        assertFalse(tf.newThread(noop).isDaemon());
+        
+        ThreadFactory def = new NamedThreadFactory("default", false, Thread.MIN_PRIORITY);
+        ThreadFactory custom = new NamedThreadFactory("custom", false);
+        Execution.setDefaultThreadFactory(def);
+        Execution.setThreadFactory(Execution.PACKET_READER, custom);
+        assertSame(custom, Execution.getThreadFactory(Execution.PACKET_READER));
+        assertSame(def, Execution.getThreadFactory(Execution.STREAM_PLAYER));
+        
+        t = Execution.newThread(Execution.PACKET_READER, noop, "PacketReader", true);
+        assertEquals("custom", t.getName());
+        assertFalse(t.isDaemon());
+        t = Execution.newThread(Execution.STREAM_PLAYER, noop, "StreamPlayer", true);
+        assertEquals("default", t.getName());
+        assertEquals(Thread.MIN_PRIORITY, t.getPriority());
+        
+        Execution.setThreadFactory(Execution.PACKET_READER, null);
+        assertSame(def, Execution.getThreadFactory(Execution.PACKET_READER));
+        Execution.setDefaultThreadFactory(null);
+        assertNull(Execution.getThreadFactory(Execution.PACKET_READER));
+    }
+    
+    @Test
+    public void testVirtualThreads() throws Exception {
+        System.out.println("execution virtual threads test...");
+        if (!Execution.isVirtualThreadSupported()) {
+            assertNull(Execution.getVirtualThreadFactory("test-"));
+            assertFalse(Execution.enableVirtualThreads());
+            return;
+        }
+        
+        assertTrue(Execution.enableVirtualThreads());
+        Thread t = Execution.newThread(Execution.PACKET_READER, noop, "PacketReader", true);
+        assertTrue(t.getName().startsWith(Execution.PACKET_READER));
+        t.start();
+        t.join();
+        assertNull(Execution.getThreadFactory(Execution.STREAM_PLAYER));
+    }
+    
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for the Histogram class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class HistogramTest {
+    
+    @Test
+    public void testBuckets() {
+        System.out.println("histogram buckets test...");
+        
+        int last = -1;
+        for (long v = 0; v < 100000; v++) {
+            int i = Histogram.getBucketIndex(v);
+            assertTrue(i == last || i == last + 1);
+            assertTrue(v <= Histogram.getBucketUpperBound(i));
+            if (i > 0)
+                assertTrue(v > Histogram.getBucketUpperBound(i - 1));
+            last = i;
+        }
+        
+        long v = Long.MAX_VALUE;
+        assertEquals(v, Histogram.getBucketUpperBound(Histogram.getBucketIndex(v)));
+    }
+    
+    @Test
+    public void testPercentiles() {
+        System.out.println("histogram percentiles test...");
+        
+        Histogram h = new Histogram();
+        assertEquals(0, h.getPercentile(50));
+        
+        for (int i = 1; i <= 1000; i++)
+            h.record(i);
+        
+        assertEquals(1000, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(1000, h.getMax());
+        assertEquals(500.5, h.getMean(), 1e-9);
+        assertEquals(1000, h.getPercentile(100));
+        
+        long p50 = h.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 33 / 32);
+        long p99 = h.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+    
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.util.metrics;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for the metric registries.
+ * 
+ * @author Ondrej Perutka
+ */
+public class MetricRegistryTest {
+    
+    @Test
+    public void testRegistry() {
+        System.out.println("metric registry test...");
+        
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("a.packets").add(5);
+        registry.counter("a.packets").increment();
+        registry.histogram("a.time").record(10);
+        registry.gauge("b.depth", new IGauge() {
+            @Override
+            public long getValue() {
+                return 7;
+            }
+        });
+        
+        assertEquals(6, registry.counter("a.packets").getCount());
+        assertEquals(1, registry.histogram("a.time").getCount());
+        assertEquals(7, ((IGauge)registry.get("b.depth")).getValue());
+        assertEquals(3, registry.getNames().size());
+        
+        try {
+            registry.histogram("a.packets");
+            fail("counter returned as a histogram");
+        } catch (IllegalArgumentException ex) { }
+        
+        registry.removeAll("a.");
+        assertEquals(1, registry.getNames().size());
+        assertNull(registry.get("a.packets"));
+    }
+    
+    @Test
+    public void testNullRegistry() {
+        System.out.println("null metric registry test...");
+        
+        IMetricRegistry registry = NullMetricRegistry.getInstance();
+        assertFalse(registry.isEnabled());
+        registry.counter("x").add(10);
+        assertEquals(0, registry.counter("x").getCount());
+        assertTrue(registry.getNames().isEmpty());
+        
+        assertFalse(Metrics.isEnabled());
+        assertTrue(Metrics.enable().isEnabled());
+        Metrics.setRegistry(null);
+        assertFalse(Metrics.isEnabled());
+    }
+    
+}
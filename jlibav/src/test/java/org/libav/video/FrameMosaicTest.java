@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import static org.junit.Assert.*;
+import org.bridj.Pointer;
+import org.junit.Test;
+import org.libav.LibavException;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+import org.libav.avutil.PlaneLayout;
+import org.libav.data.IFrameConsumer;
+import org.libav.swscale.bridge.SWScaleLibrary;
+
+/**
+ * Unit test for the FrameMosaic class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class FrameMosaicTest {
+    
+    @Test
+    public void testTileBorders() {
+        System.out.println("tile borders test...");
+        
+        assertArrayEquals(new int[] { 0, 480, 960, 1440, 1920 }, FrameMosaic.computeTileBorders(1920, 4));
+        assertArrayEquals(new int[] { 0, 360, 720, 1080 }, FrameMosaic.computeTileBorders(1080, 3));
+        // borders are aligned, the last tile takes the rest
+        assertArrayEquals(new int[] { 0, 100, 200, 302 }, FrameMosaic.computeTileBorders(302, 3));
+        assertArrayEquals(new int[] { 0, 96, 192, 290 }, FrameMosaic.computeTileBorders(290, 3));
+        int[] borders = FrameMosaic.computeTileBorders(1918, 7);
+        assertEquals(8, borders.length);
+        for (int i = 1; i < borders.length; i++) {
+            assertTrue(borders[i] > borders[i - 1]);
+            if (i < borders.length - 1)
+                assertEquals(0, borders[i] % 4);
+        }
+        assertEquals(1918, borders[7]);
+    }
+    
+    @Test
+    public void testLowres() {
+        System.out.println("mosaic lowres test...");
+        
+        // 8x8 grid of 1080p sources on a 1080p canvas
+        assertEquals(3, FrameMosaic.getLowres(240, 135, 1920, 1080));
+        // 4x4 grid
+        assertEquals(2, FrameMosaic.getLowres(480, 270, 1920, 1080));
+        // 2x2 grid
+        assertEquals(1, FrameMosaic.getLowres(960, 540, 1920, 1080));
+        // the source is smaller than the tile
+        assertEquals(0, FrameMosaic.getLowres(960, 540, 640, 360));
+        assertEquals(0, FrameMosaic.getLowres(480, 270, 1920, 500));
+    }
+    
+    @Test
+    public void testCompose() throws Exception {
+        System.out.println("mosaic compose test...");
+        
+        // 2x2 grid of 32x24 tiles, tile 0 is upscaled from 16x12, tile 3 
+        // has the same size as its source, tiles 1 and 2 are empty
+        final FrameMosaic mosaic = new FrameMosaic(64, 48, PixelFormat.YUV420P, 2, 2);
+        mosaic.setScalingAlgorithm(SWScaleLibrary.SWS_POINT);
+        mosaic.setSource(0, 16, 12, PixelFormat.YUV420P);
+        mosaic.setSource(3, 32, 24, PixelFormat.YUV420P);
+        
+        final IFrameWrapper red = createFrame(16, 12, 81, 90, 240);
+        final IFrameWrapper blue = createFrame(16, 12, 41, 240, 110);
+        IFrameWrapper green = createFrame(32, 24, 145, 54, 34);
+        final int[][] snapshot = new int[4][];
+        final int[] count = new int[] { 0 };
+        
+        try {
+            mosaic.addFrameConsumer(new IFrameConsumer() {
+                @Override
+                public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+                    if (count[0]++ == 0) {
+                        // drawing into a tile must not change the snapshot 
+                        // being processed
+                        mosaic.getTile(0).processFrame(this, blue);
+                    }
+                    for (int i = 0; i < 4; i++)
+                        snapshot[i] = getTileColor(mosaic, frame, i);
+                    assertEquals(1000L * count[0], frame.getPts());
+                }
+            });
+            
+            // tiles without a source are black
+            mosaic.getTile(0).processFrame(this, red);
+            mosaic.getTile(3).processFrame(this, green);
+            mosaic.compose(1000);
+            assertEquals(1, count[0]);
+            assertArrayEquals(new int[] { 81, 90, 240 }, snapshot[0]);
+            assertArrayEquals(new int[] { 16, 128, 128 }, snapshot[1]);
+            assertArrayEquals(new int[] { 16, 128, 128 }, snapshot[2]);
+            assertArrayEquals(new int[] { 145, 54, 34 }, snapshot[3]);
+            
+            // the frame drawn during the previous snapshot is in the next one
+            mosaic.compose(2000);
+            assertEquals(2, count[0]);
+            assertArrayEquals(new int[] { 41, 240, 110 }, snapshot[0]);
+            assertArrayEquals(new int[] { 145, 54, 34 }, snapshot[3]);
+            
+            // a cleared tile is black again
+            mosaic.clearSource(3);
+            mosaic.getTile(3).processFrame(this, green);
+            mosaic.compose(3000);
+            assertArrayEquals(new int[] { 41, 240, 110 }, snapshot[0]);
+            assertArrayEquals(new int[] { 16, 128, 128 }, snapshot[3]);
+        } finally {
+            mosaic.close();
+            red.free();
+            blue.free();
+            green.free();
+        }
+    }
+    
+    private static IFrameWrapper createFrame(int width, int height, int y, int u, int v) throws LibavException {
+        IFrameWrapper result = FrameWrapperFactory.getInstance().allocPicture(PixelFormat.YUV420P, width, height);
+        int[] values = new int[] { y, u, v };
+        for (int i = 0; i < values.length; i++) {
+            int lines = PlaneLayout.getPlaneHeight(PixelFormat.YUV420P, i, height);
+            result.getData().get(i).clearBytesAtOffset(0, (long)lines * result.getLineSize().get(i), (byte)values[i]);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Check that the given tile of the canvas has a single color and return 
+     * it as { Y, U, V }. The area of the tile is located using the 
+     * PlaneLayout offsets, so bytes outside of the tile are not checked.
+     */
+    private static int[] getTileColor(FrameMosaic mosaic, IFrameWrapper frame, int tile) {
+        int x = (tile % 2) * mosaic.getTileWidth(0);
+        int y = (tile / 2) * mosaic.getTileHeight(0);
+        int w = mosaic.getTileWidth(tile);
+        int h = mosaic.getTileHeight(tile);
+        int[] result = new int[3];
+        
+        for (int i = 0; i < 3; i++) {
+            Pointer<Byte> plane = frame.getData().get(i);
+            int ls = frame.getLineSize().get(i);
+            int pw = PlaneLayout.getPlaneWidth(PixelFormat.YUV420P, i, w);
+            int ph = PlaneLayout.getPlaneHeight(PixelFormat.YUV420P, i, h);
+            long offset = PlaneLayout.getPlaneOffset(PixelFormat.YUV420P, i, x, y, ls);
+            result[i] = plane.getByteAtOffset(offset) & 0xff;
+            for (int j = 0; j < ph; j++) {
+                byte[] line = plane.getBytesAtOffset(offset + (long)j * ls, pw);
+                for (int k = 0; k < pw; k++)
+                    assertEquals("plane " + i + " of tile " + tile, result[i], line[k] & 0xff);
+            }
+        }
+        
+        return result;
+    }
+    
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+
+/**
+ * Unit test for the target picture of the FrameScaler class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class FrameScalerTest {
+    
+    @Test
+    public void testTargetBounds() throws Exception {
+        System.out.println("frame scaler target bounds test...");
+        
+        IFrameWrapper canvas = FrameWrapperFactory.getInstance().allocPicture(PixelFormat.YUV420P, 64, 48);
+        FrameScaler scaler = new FrameScaler(32, 24, PixelFormat.YUV420P, 16, 12, PixelFormat.YUV420P);
+        try {
+            int lineSize = canvas.getLineSize().get(0);
+            scaler.setTarget(canvas, lineSize - 16, 0);
+            assertSame(canvas, scaler.getTarget());
+            
+            try {
+                scaler.setTarget(canvas, lineSize - 14, 0);
+                fail("the sub-rectangle exceeds the line size");
+            } catch (IllegalArgumentException ex) {
+            }
+            try {
+                scaler.setTarget(canvas, -2, 0);
+                fail("negative horizontal position");
+            } catch (IllegalArgumentException ex) {
+            }
+            try {
+                scaler.setTarget(canvas, 0, -2);
+                fail("negative vertical position");
+            } catch (IllegalArgumentException ex) {
+            }
+            
+            // the failed calls do not change the valid target
+            assertSame(canvas, scaler.getTarget());
+            
+            // a larger destination image does not fit the current position
+            try {
+                scaler.setDestinationImageFormat(32, 24, PixelFormat.YUV420P);
+                fail("the new size exceeds the line size");
+            } catch (IllegalArgumentException ex) {
+            }
+            assertEquals(16, scaler.getDestinationImageWidth());
+            assertEquals(12, scaler.getDestinationImageHeight());
+            
+            scaler.setTarget(canvas, 0, 0);
+            scaler.setDestinationImageFormat(32, 24, PixelFormat.YUV420P);
+            assertEquals(32, scaler.getDestinationImageWidth());
+        } finally {
+            scaler.dispose();
+            canvas.free();
+        }
+    }
+    
+}
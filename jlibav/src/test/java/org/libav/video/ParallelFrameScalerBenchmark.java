@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.bridj.Pointer;
+import org.libav.LibavException;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avutil.PixelFormat;
+import org.libav.data.IFrameConsumer;
+
+/**
+ * Scaling benchmark. It compares the single-threaded frame scaler with 
+ * the parallel frame scaler using various numbers of bands and it reports 
+ * the maximum difference between their outputs.
+ * 
+ * Usage: ParallelFrameScalerBenchmark [src_width src_height dst_width 
+ * dst_height [frames]]
+ * 
+ * @author Ondrej Perutka
+ */
+public class ParallelFrameScalerBenchmark {
+    
+    private static final PixelFormat FORMAT = PixelFormat.YUV420P;
+    
+    public static void main(String[] args) throws LibavException {
+        int sw = 3840, sh = 2160, dw = 1920, dh = 1080;
+        if (args.length >= 4) {
+            sw = Integer.parseInt(args[0]);
+            sh = Integer.parseInt(args[1]);
+            dw = Integer.parseInt(args[2]);
+            dh = Integer.parseInt(args[3]);
+        }
+        int frames = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+        int cores = Runtime.getRuntime().availableProcessors();
+        
+        IFrameWrapper src = createSource(sw, sh);
+        
+        FrameScaler serial = new FrameScaler(sw, sh, FORMAT, dw, dh, FORMAT);
+        Collector reference = new Collector(dh);
+        serial.addFrameConsumer(reference);
+        double serialFps = run(serial, src, frames);
+        serial.dispose();
+        System.out.printf("FrameScaler:                    %.1f fps\n", serialFps);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(cores);
+        for (int bands = 1; bands <= cores; bands *= 2) {
+            ParallelFrameScaler scaler = new ParallelFrameScaler(sw, sh, FORMAT, dw, dh, FORMAT, bands, executor);
+            Collector c = new Collector(dh);
+            scaler.addFrameConsumer(c);
+            double fps = run(scaler, src, frames);
+            System.out.printf("ParallelFrameScaler (%2d bands): %.1f fps, speedup %.2f, max difference %d\n", scaler.getBandCount(), fps, fps / serialFps, c.maxDifference(reference));
+            scaler.dispose();
+        }
+        executor.shutdown();
+        
+        src.free();
+    }
+    
+    private static IFrameWrapper createSource(int width, int height) throws LibavException {
+        IFrameWrapper result = FrameWrapperFactory.getInstance().allocPicture(FORMAT, width, height);
+        Random rnd = new Random(42);
+        Pointer<Pointer<Byte>> data = result.getData();
+        Pointer<Integer> lineSize = result.getLineSize();
+        
+        for (int p = 0; p < 3; p++) {
+            int h = p == 0 ? height : (height + 1) / 2;
+            int ls = lineSize.get(p);
+            byte[] line = new byte[ls];
+            for (int y = 0; y < h; y++) {
+                // smooth gradient with some noise
+                for (int x = 0; x < ls; x++)
+                    line[x] = (byte)((x + y) / 4 + rnd.nextInt(16));
+                data.get(p).setBytesAtOffset((long)y * ls, line, 0, ls);
+            }
+        }
+        
+        return result;
+    }
+    
+    private static double run(IFrameConsumer scaler, IFrameWrapper src, int frames) throws LibavException {
+        for (int i = 0; i < 5; i++)
+            scaler.processFrame(null, src);
+        
+        long t = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            src.setPts(i);
+            scaler.processFrame(null, src);
+        }
+        
+        return frames * 1e9 / (System.nanoTime() - t);
+    }
+    
+    private static class Collector implements IFrameConsumer {
+        private final int height;
+        private byte[][] planes;
+
+        public Collector(int height) {
+            this.height = height;
+        }
+        
+        @Override
+        public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+            Pointer<Pointer<Byte>> data = frame.getData();
+            Pointer<Integer> lineSize = frame.getLineSize();
+            planes = new byte[3][];
+            for (int p = 0; p < 3; p++) {
+                int h = p == 0 ? height : (height + 1) / 2;
+                planes[p] = data.get(p).getBytes(lineSize.get(p) * h);
+            }
+        }
+        
+        public int maxDifference(Collector other) {
+            int result = 0;
+            for (int p = 0; p < 3; p++) {
+                for (int i = 0; i < planes[p].length; i++)
+                    result = Math.max(result, Math.abs((planes[p][i] & 0xff) - (other.planes[p][i] & 0xff)));
+            }
+            
+            return result;
+        }
+    }
+    
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit test for the band geometry of the ParallelFrameScaler class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ParallelFrameScalerTest {
+    
+    @Test
+    public void testComputeBands() {
+        System.out.println("compute bands test...");
+        
+        checkBands(2160, 1080, 2, 2, 4, 4);
+        checkBands(1080, 720, 2, 2, 8, 8);
+        checkBands(480, 1080, 2, 2, 3, 3);
+        checkBands(1080, 1080, 1, 1, 6, 6);
+        // no common aligned lines
+        checkBands(1080, 487, 2, 2, 4, 1);
+        // not enough lines
+        checkBands(16, 8, 2, 2, 16, 4);
+    }
+    
+    private static void checkBands(int srcHeight, int dstHeight, int srcAlign, int dstAlign, int bandCount, int expected) {
+        List<ParallelFrameScaler.BandGeometry> bands = ParallelFrameScaler.computeBands(srcHeight, dstHeight, srcAlign, dstAlign, bandCount);
+        assertEquals(expected, bands.size());
+        
+        int y = 0;
+        for (ParallelFrameScaler.BandGeometry b : bands) {
+            assertEquals(y, b.dstY);
+            assertTrue(b.dstEnd > b.dstY);
+            assertTrue(b.scaledDstY <= b.dstY && b.scaledDstEnd >= b.dstEnd);
+            assertEquals(0, b.scaledDstY % dstAlign);
+            assertEquals(0, b.srcY % srcAlign);
+            // scaled band borders must map exactly to source lines
+            assertEquals((long)b.scaledDstY * srcHeight, (long)b.srcY * dstHeight);
+            assertEquals((long)b.scaledDstEnd * srcHeight, (long)b.srcEnd * dstHeight);
+            y = b.dstEnd;
+        }
+        assertEquals(dstHeight, y);
+    }
+    
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.io.File;
+import java.io.IOException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.DefaultMediaPlayerTest;
+import org.libav.LibavException;
+
+/**
+ * Unit test for the ThumbnailExtractor class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class ThumbnailExtractorTest {
+    
+    @Test
+    public void testComputeTimestamps() {
+        System.out.println("thumbnail timestamps test...");
+        
+        assertArrayEquals(new long[] { 1250, 3750, 6250, 8750 }, ThumbnailExtractor.computeTimestamps(10000, 4, 0));
+        assertArrayEquals(new long[] { 5000 }, ThumbnailExtractor.computeTimestamps(10000, 1, 0));
+        assertArrayEquals(new long[] { 0, 3000, 6000, 9000 }, ThumbnailExtractor.computeTimestamps(10000, 0, 3000));
+        assertArrayEquals(new long[] { 0, 5000 }, ThumbnailExtractor.computeTimestamps(10000, 0, 5000));
+    }
+    
+    @Test
+    public void testComputeSegmentBoundaries() {
+        System.out.println("thumbnail segments test...");
+        
+        assertArrayEquals(new int[] { 0, 3 }, ThumbnailExtractor.computeSegmentBoundaries(3, 8, 4));
+        assertArrayEquals(new int[] { 0, 5, 10 }, ThumbnailExtractor.computeSegmentBoundaries(10, 8, 4));
+        assertArrayEquals(new int[] { 0, 25, 50, 75, 100 }, ThumbnailExtractor.computeSegmentBoundaries(100, 4, 4));
+        assertArrayEquals(new int[] { 0, 0 }, ThumbnailExtractor.computeSegmentBoundaries(0, 4, 4));
+    }
+    
+    @Test
+    public void testWriteError() throws Exception {
+        System.out.println("thumbnail write error test...");
+        File tmp = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        tmp.deleteOnExit();
+        
+        // the output directory is a regular file
+        File outputDir = File.createTempFile("jlibav-", ".tmp");
+        outputDir.deleteOnExit();
+        
+        ThumbnailExtractor te = new ThumbnailExtractor();
+        te.setSize(64, 48);
+        try {
+            te.extractEvenly(tmp.getAbsolutePath(), 4, outputDir);
+            fail("the thumbnails cannot be written");
+        } catch (LibavException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+    }
+    
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.io.File;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.DefaultMediaPlayerTest;
+import org.libav.LibavException;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.PacketWrapperFactory;
+import org.libav.avformat.FormatContextWrapperFactory;
+import org.libav.avformat.IFormatContextWrapper;
+import org.libav.avformat.IStreamWrapper;
+import org.libav.avutil.MediaType;
+import org.libav.data.IFrameConsumer;
+
+/**
+ * Unit test for the reduced-cost decoding of the VideoFrameDecoder class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class VideoFrameDecoderTest {
+    
+    @Test
+    public void testLowresOutputSize() throws Exception {
+        System.out.println("lowres output size test...");
+        File tmp = DefaultMediaPlayerTest.makeTempFromResource(getClass().getResourceAsStream("/org/libav/resources/test.avi"), "avi");
+        tmp.deleteOnExit();
+        
+        int[] full = decodeFirstFrame(tmp.getAbsolutePath(), 0);
+        int[] reduced = decodeFirstFrame(tmp.getAbsolutePath(), 1);
+        int lowres = reduced[3];
+        
+        assertEquals(0, full[3]);
+        // size of the full resolution picture
+        assertTrue(full[0] > 0 && full[1] > 0);
+        assertTrue(full[2] >= full[0]);
+        
+        // the reduced size is not shifted twice
+        assertEquals(-((-full[0]) >> lowres), reduced[0]);
+        assertEquals(-((-full[1]) >> lowres), reduced[1]);
+        // the decoded picture really has the reported width (its line size
+        // is at least the width and it is smaller than the doubled width
+        // even with the edge padding)
+        assertTrue(reduced[2] >= reduced[0]);
+        if (lowres > 0)
+            assertTrue(reduced[2] < full[2]);
+        // the size is the same before and after decoding
+        assertEquals(reduced[0], reduced[4]);
+        assertEquals(reduced[1], reduced[5]);
+    }
+    
+    /**
+     * Decode the first video frame and return { output width, output height,
+     * line size of the first plane, lowres, output width before decoding, 
+     * output height before decoding }.
+     */
+    private static int[] decodeFirstFrame(String url, int lowres) throws LibavException {
+        IFormatContextWrapper fc = FormatContextWrapperFactory.getInstance().openMedia(url);
+        IPacketWrapper pw = PacketWrapperFactory.getInstance().alloc();
+        VideoFrameDecoder decoder = null;
+        
+        try {
+            fc.findStreamInfo();
+            IStreamWrapper stream = null;
+            for (IStreamWrapper s : fc.getStreams()) {
+                if (s.getCodecContext().getCodecType() == MediaType.VIDEO)
+                    stream = s;
+            }
+            assertNotNull(stream);
+            
+            decoder = new VideoFrameDecoder(stream, DecodeMode.FULL, lowres);
+            final int[] lineSize = new int[] { -1 };
+            decoder.addFrameConsumer(new IFrameConsumer() {
+                @Override
+                public void processFrame(Object producer, IFrameWrapper frame) throws LibavException {
+                    if (lineSize[0] < 0)
+                        lineSize[0] = frame.getLineSize().get(0);
+                }
+            });
+            
+            int widthBefore = decoder.getOutputWidth();
+            int heightBefore = decoder.getOutputHeight();
+            while (lineSize[0] < 0 && fc.readNextPacket(pw)) {
+                decoder.processPacket(fc, pw);
+                pw.free();
+            }
+            assertTrue(lineSize[0] > 0);
+            
+            return new int[] { decoder.getOutputWidth(), decoder.getOutputHeight(), lineSize[0], decoder.getLowres(), widthBefore, heightBefore };
+        } finally {
+            if (decoder != null)
+                decoder.close();
+            pw.free();
+            fc.close();
+        }
+    }
+    
+}
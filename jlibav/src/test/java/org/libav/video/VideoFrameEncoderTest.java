@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Ondrej Perutka
+ * 
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public 
+ * License as published by the Free Software Foundation, either 
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library. If not, see 
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.libav.video;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.libav.DefaultMediaEncoder;
+import org.libav.IEncoder;
+import org.libav.IMediaWriter;
+import org.libav.LibavException;
+import org.libav.avcodec.CodecID;
+import org.libav.avcodec.FrameWrapperFactory;
+import org.libav.avcodec.ICodecContextWrapper;
+import org.libav.avcodec.IFrameWrapper;
+import org.libav.avcodec.IPacketWrapper;
+import org.libav.avcodec.bridge.AVCodecLibrary;
+import org.libav.avutil.PixelFormat;
+import org.libav.data.IPacketConsumer;
+
+/**
+ * Unit test for the bit rate change of the VideoFrameEncoder class.
+ * 
+ * @author Ondrej Perutka
+ */
+public class VideoFrameEncoderTest {
+    
+    private static final int FRAMES = 50;
+    
+    @Test
+    public void testSetBitRate() throws Exception {
+        System.out.println("encoder bit rate change test...");
+        File tmpFile = File.createTempFile(UUID.randomUUID().toString(), ".ts");
+        tmpFile.deleteOnExit();
+        
+        DefaultMediaEncoder me = new DefaultMediaEncoder(tmpFile.getAbsolutePath(), "mpegts");
+        IMediaWriter mw = me.getMediaWriter();
+        int vsIndex = mw.addVideoStream(CodecID.MPEG4, 160, 120);
+        IEncoder ve = me.getVideoStreamEncoder(vsIndex);
+        
+        ICodecContextWrapper cc = ve.getCodecContext();
+        cc.setPixelFormat(PixelFormat.YUV420P);
+        cc.setGopSize(250);
+        cc.setMaxBFrames(0);
+        cc.setBitRate(4000000);
+        
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final List<Boolean> keyFrames = new ArrayList<Boolean>();
+        ve.addPacketConsumer(new IPacketConsumer() {
+            @Override
+            public void processPacket(Object producer, IPacketWrapper packet) throws LibavException {
+                sizes.add(packet.getSize());
+                keyFrames.add((packet.getFlags() & AVCodecLibrary.AV_PKT_FLAG_KEY) != 0);
+            }
+        });
+        
+        IFrameWrapper picture = FrameWrapperFactory.getInstance().allocPicture(cc.getPixelFormat(), cc.getWidth(), cc.getHeight());
+        Random random = new Random(42);
+        byte[] noise = new byte[cc.getWidth()];
+        picture.setPts(0);
+        
+        try {
+            mw.writeHeader();
+            encode(ve, picture, random, noise);
+            int before = sizes.size();
+            long bytesBefore = sum(sizes, 1, before);
+            
+            // the change is applied before the next frame
+            ve.setBitRate(100000);
+            assertEquals(100000, ve.getBitRate());
+            encode(ve, picture, random, noise);
+            int after = sizes.size();
+            long bytesAfter = sum(sizes, before + 1, after);
+            
+            me.flush();
+            mw.writeTrailer();
+            
+            assertEquals(100000, cc.getBitRate());
+            assertTrue(before > FRAMES / 2 && after - before > FRAMES / 2);
+            // the first frame after the change is a key frame
+            assertTrue(keyFrames.get(before));
+            // the encoder really uses the new bit rate
+            assertTrue("bytes: " + bytesBefore + " -> " + bytesAfter, bytesAfter * (before - 1) * 2 < bytesBefore * (after - before - 1));
+        } finally {
+            me.close();
+            picture.free();
+        }
+    }
+    
+    private static void encode(IEncoder encoder, IFrameWrapper picture, Random random, byte[] noise) throws LibavException {
+        int lineSize = picture.getLineSize().get(0);
+        int height = encoder.getCodecContext().getHeight();
+        
+        for (int i = 0; i < FRAMES; i++) {
+            // noise cannot be compressed, so the packet size depends only on
+            // the bit rate
+            for (int j = 0; j < height; j++) {
+                random.nextBytes(noise);
+                picture.getData().get(0).setBytesAtOffset((long)j * lineSize, noise);
+            }
+            encoder.processFrame(null, picture);
+            picture.setPts(picture.getPts() + 40);
+        }
+    }
+    
+    private static long sum(List<Integer> values, int from, int to) {
+        long result = 0;
+        for (int i = from; i < to; i++)
+            result += values.get(i);
+        
+        return result;
+    }
+    
+}